@@ -16,10 +16,12 @@
 package com.atlassian.migration.datacenter.api
 
 import com.atlassian.migration.datacenter.api.db.DatabaseMigrationStatus
+import com.atlassian.migration.datacenter.api.db.DbMigrationStatus
 import com.atlassian.migration.datacenter.api.db.stageToStatus
 import com.atlassian.migration.datacenter.core.aws.db.DatabaseMigrationService
 import com.atlassian.migration.datacenter.core.aws.db.restore.SsmPsqlDatabaseRestoreService
 import com.atlassian.migration.datacenter.core.fs.captor.S3FinalSyncService
+import com.atlassian.migration.datacenter.core.fs.download.s3sync.FileSystemProcessorStatus
 import com.atlassian.migration.datacenter.spi.MigrationService
 import com.atlassian.migration.datacenter.spi.MigrationStage
 import com.atlassian.migration.datacenter.spi.exceptions.InvalidMigrationStageError
@@ -60,7 +62,14 @@ class FinalSyncEndpoint(
         )
     }
 
-    data class FSSyncStatus(val uploaded: Int, val downloaded: Int, val failed: Int, val hasProgressedToNextStage: Boolean)
+    data class FSSyncStatus(
+            val uploaded: Int,
+            val downloaded: Int,
+            val failed: Int,
+            val hasProgressedToNextStage: Boolean,
+            val drainRatePerSecond: Double? = null,
+            val estimatedSecondsToDrain: Long? = null,
+            val processor: FileSystemProcessorStatus? = null)
     data class FinalSyncStatus(val db: DatabaseMigrationStatus, val fs: FSSyncStatus, val errorMessage: String?) {
         constructor(db: DatabaseMigrationStatus, fs: FSSyncStatus) : this(db, fs, null)
     }
@@ -124,14 +133,34 @@ class FinalSyncEndpoint(
                 .orElse(Duration.ZERO)
         val currentStage = migrationService.currentStage
         val errorMessage = migrationService.currentContext.getErrorMessage()
+        val dbStatus = stageToStatus(currentStage)
+        val export = if (dbStatus == DbMigrationStatus.EXPORTING || dbStatus == DbMigrationStatus.UPLOADING) {
+            databaseMigrationService.dumpProgress.orElse(null)
+        } else {
+            null
+        }
+        val restore = if (dbStatus == DbMigrationStatus.IMPORTING) {
+            ssmPsqlDatabaseRestoreService.restoreProgress.orElse(null)
+        } else {
+            null
+        }
         val db = DatabaseMigrationStatus(
-                stageToStatus(currentStage),
-                elapsed
+                dbStatus,
+                elapsed,
+                export,
+                restore
         )
         val isCurrentStageAfterFinalSync = currentStage.isAfterWithoutRetries(MigrationStage.FINAL_SYNC_WAIT)
         val fsSyncStatus = finalSyncService.getFinalSyncStatus()
 
-        val fs = FSSyncStatus(fsSyncStatus.uploadedFileCount, fsSyncStatus.uploadedFileCount - fsSyncStatus.enqueuedFileCount - fsSyncStatus.failedFileCount, fsSyncStatus.failedFileCount, isCurrentStageAfterFinalSync)
+        val fs = FSSyncStatus(
+                fsSyncStatus.uploadedFileCount,
+                fsSyncStatus.uploadedFileCount - fsSyncStatus.enqueuedFileCount - fsSyncStatus.failedFileCount,
+                fsSyncStatus.failedFileCount,
+                isCurrentStageAfterFinalSync,
+                fsSyncStatus.drainRatePerSecond,
+                fsSyncStatus.estimatedSecondsToDrain,
+                fsSyncStatus.processorStatus)
         val status = if (!errorMessage.isNullOrEmpty()) FinalSyncStatus(db, fs, errorMessage) else FinalSyncStatus(db, fs)
         return try {
             Response
@@ -16,6 +16,8 @@
 
 package com.atlassian.migration.datacenter.api.db
 
+import com.atlassian.migration.datacenter.core.aws.db.restore.DatabaseRestoreProgress
+import com.atlassian.migration.datacenter.core.db.DatabaseDumpProgressSnapshot
 import com.atlassian.migration.datacenter.spi.MigrationStage
 import com.atlassian.migration.datacenter.spi.MigrationStage.*
 import java.time.Duration
@@ -70,4 +72,12 @@ fun stageToStatus(stage: MigrationStage): DbMigrationStatus {
     }
 }
 
-data class DatabaseMigrationStatus(val status: DbMigrationStatus, val elapsedTime: Duration)
+/**
+ * @property export the progress of the database dump, while it is being exported or uploaded on this node
+ * @property restore the progress of the database restore on the migration instance, while it is being imported
+ */
+data class DatabaseMigrationStatus(
+        val status: DbMigrationStatus,
+        val elapsedTime: Duration,
+        val export: DatabaseDumpProgressSnapshot? = null,
+        val restore: DatabaseRestoreProgress? = null)
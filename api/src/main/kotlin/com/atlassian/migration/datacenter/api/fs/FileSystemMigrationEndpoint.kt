@@ -16,6 +16,8 @@
 package com.atlassian.migration.datacenter.api.fs
 
 import com.atlassian.migration.datacenter.core.fs.FileSystemMigrationReportManager
+import com.atlassian.migration.datacenter.core.fs.FileSystemMigrationReportSnapshot
+import com.atlassian.migration.datacenter.core.fs.FileSystemMigrationReportSnapshotter
 import com.atlassian.migration.datacenter.core.fs.ReportType
 import com.atlassian.migration.datacenter.core.fs.captor.AttachmentSyncManager
 import com.atlassian.migration.datacenter.spi.MigrationService
@@ -24,19 +26,22 @@ import com.atlassian.migration.datacenter.spi.exceptions.InvalidMigrationStageEr
 import com.atlassian.migration.datacenter.spi.fs.FilesystemMigrationService
 import com.atlassian.sal.api.websudo.WebSudoNotRequired
 import com.atlassian.sal.api.websudo.WebSudoRequired
-import com.fasterxml.jackson.annotation.JsonAutoDetect
-import com.fasterxml.jackson.annotation.PropertyAccessor
 import com.fasterxml.jackson.core.JsonProcessingException
-import com.fasterxml.jackson.databind.ObjectMapper
 import org.slf4j.Logger
 import org.slf4j.LoggerFactory
-import java.util.stream.Collectors
+import java.time.Duration
 import javax.ws.rs.Consumes
 import javax.ws.rs.DELETE
+import javax.ws.rs.DefaultValue
 import javax.ws.rs.GET
+import javax.ws.rs.HeaderParam
 import javax.ws.rs.PUT
 import javax.ws.rs.Path
 import javax.ws.rs.Produces
+import javax.ws.rs.QueryParam
+import javax.ws.rs.core.CacheControl
+import javax.ws.rs.core.EntityTag
+import javax.ws.rs.core.HttpHeaders
 import javax.ws.rs.core.MediaType
 import javax.ws.rs.core.Response
 
@@ -45,16 +50,16 @@ import javax.ws.rs.core.Response
 class FileSystemMigrationEndpoint(private val fsMigrationService: FilesystemMigrationService,
                                   private val attachmentSyncManager: AttachmentSyncManager,
                                   private val reportManager: FileSystemMigrationReportManager,
-                                  private val migrationService: MigrationService
+                                  private val migrationService: MigrationService,
+                                  private val reportSnapshotter: FileSystemMigrationReportSnapshotter
 )
 {
 
     companion object {
         val log: Logger = LoggerFactory.getLogger(FileSystemMigrationEndpoint::class.java)
+        private const val MAX_POLL_TIMEOUT_SECONDS = 30L
     }
 
-    private val mapper: ObjectMapper = ObjectMapper()
-
     @PUT
     @Consumes(MediaType.APPLICATION_JSON)
     @Produces(MediaType.APPLICATION_JSON)
@@ -85,10 +90,9 @@ class FileSystemMigrationEndpoint(private val fsMigrationService: FilesystemMigr
     @Produces(MediaType.APPLICATION_JSON)
     @Path("final-sync")
     fun getFinalSyncFiles(): Response {
-        val files = attachmentSyncManager.capturedAttachments
-                .stream()
-                .map { record -> record.filePath }
-                .collect(Collectors.toSet())
+        val files = attachmentSyncManager.iterateCapturedFilePaths()
+                .asSequence()
+                .toSet()
 
         return Response
                 .status(Response.Status.OK)
@@ -100,22 +104,81 @@ class FileSystemMigrationEndpoint(private val fsMigrationService: FilesystemMigr
     @Path("/report")
     @Produces(MediaType.APPLICATION_JSON)
     @WebSudoNotRequired // Avoids tripping the websudo redirect until advancing to the next stage. The report should not contain any sensitive information.
-    fun getFilesystemMigrationStatus(): Response {
-        val report = reportManager.getCurrentReport(ReportType.Filesystem)
-            ?: return Response
-                .status(Response.Status.BAD_REQUEST)
-                .entity(mapOf("error" to "no file system migration exists"))
-                .build()
+    fun getFilesystemMigrationStatus(@HeaderParam(HttpHeaders.IF_NONE_MATCH) ifNoneMatch: String?): Response {
         return try {
-            Response
-                .ok(mapper.writeValueAsString(report))
-                .build()
+            snapshotResponse(reportSnapshotter.getSnapshot(ReportType.Filesystem), ifNoneMatch)
         } catch (e: JsonProcessingException) {
-            Response
-                .serverError()
-                .entity("Unable to get file system status. Please contact support and show them this error: ${e.message}")
+            reportSerialisationError(e)
+        }
+    }
+
+    /**
+     * Long-poll variant of [getFilesystemMigrationStatus]. Blocks until the report no longer matches the given ETag
+     * or the timeout elapses, so clients do not need to poll the report in a tight loop.
+     */
+    @GET
+    @Path("/report/poll")
+    @Produces(MediaType.APPLICATION_JSON)
+    @WebSudoNotRequired // See getFilesystemMigrationStatus
+    fun pollFilesystemMigrationStatus(@HeaderParam(HttpHeaders.IF_NONE_MATCH) ifNoneMatch: String?,
+                                      @QueryParam("timeoutSeconds") @DefaultValue("25") timeoutSeconds: Long): Response {
+        val timeout = Duration.ofSeconds(timeoutSeconds.coerceIn(0, MAX_POLL_TIMEOUT_SECONDS))
+        return try {
+            snapshotResponse(reportSnapshotter.awaitChange(ReportType.Filesystem, ifNoneMatch, timeout), ifNoneMatch)
+        } catch (e: JsonProcessingException) {
+            reportSerialisationError(e)
+        } catch (e: InterruptedException) {
+            Thread.currentThread().interrupt()
+            Response.status(Response.Status.SERVICE_UNAVAILABLE).build()
+        }
+    }
+
+    /**
+     * Summarises previous runs of the file system migration so that throughput can be compared between rehearsals.
+     */
+    @GET
+    @Path("/report/history")
+    @Produces(MediaType.APPLICATION_JSON)
+    fun getFilesystemMigrationHistory(): Response {
+        val history = reportManager.getReportHistory(ReportType.Filesystem).map { report ->
+            val elapsedSeconds = report.elapsedTime.seconds
+            val uploadedFiles = report.getCountOfUploadedFiles() ?: 0L
+            mapOf(
+                "status" to report.status.name,
+                "filesFound" to report.getNumberOfFilesFound(),
+                "uploadedFiles" to uploadedFiles,
+                "downloadedFiles" to report.getCountOfDownloadFiles(),
+                "failedFiles" to report.failedFiles.size,
+                "elapsedSeconds" to elapsedSeconds,
+                "uploadedFilesPerSecond" to if (elapsedSeconds > 0) uploadedFiles.toDouble() / elapsedSeconds else 0.0
+            )
+        }
+        return Response
+            .ok(mapOf("history" to history))
+            .build()
+    }
+
+    private fun snapshotResponse(snapshot: FileSystemMigrationReportSnapshot?, ifNoneMatch: String?): Response {
+        if (snapshot == null) {
+            return Response
+                .status(Response.Status.BAD_REQUEST)
+                .entity(mapOf("error" to "no file system migration exists"))
                 .build()
         }
+        val cacheControl = CacheControl()
+        cacheControl.isNoCache = true
+        val builder = if (snapshot.matches(ifNoneMatch)) Response.notModified() else Response.ok(snapshot.json)
+        return builder
+            .tag(EntityTag(snapshot.etag))
+            .cacheControl(cacheControl)
+            .build()
+    }
+
+    private fun reportSerialisationError(e: JsonProcessingException): Response {
+        return Response
+            .serverError()
+            .entity("Unable to get file system status. Please contact support and show them this error: ${e.message}")
+            .build()
     }
 
     @DELETE
@@ -160,8 +223,4 @@ class FileSystemMigrationEndpoint(private val fsMigrationService: FilesystemMigr
 
         return Response.status(if (isMigrationScheduled) Response.Status.ACCEPTED else Response.Status.CONFLICT).build()
     }
-
-    init {
-        mapper.setVisibility(PropertyAccessor.ALL, JsonAutoDetect.Visibility.ANY)
-    }
 }
\ No newline at end of file
@@ -19,6 +19,7 @@ package com.atlassian.migration.datacenter.api
 import com.atlassian.migration.datacenter.api.db.DbMigrationStatus
 import com.atlassian.migration.datacenter.core.aws.db.DatabaseMigrationService
 import com.atlassian.migration.datacenter.core.aws.db.restore.SsmPsqlDatabaseRestoreService
+import com.atlassian.migration.datacenter.core.db.DatabaseDumpProgressSnapshot
 import com.atlassian.migration.datacenter.core.fs.captor.FinalFileSyncStatus
 import com.atlassian.migration.datacenter.core.fs.captor.S3FinalSyncService
 import com.atlassian.migration.datacenter.dto.MigrationContext
@@ -82,6 +83,7 @@ internal class FinalSyncEndpointTest {
     fun shouldReportDbSyncStatus() {
         every { databaseMigrationService.elapsedTime } returns Optional.of(Duration.ofSeconds(20))
         every { migrationService.currentStage } returns MigrationStage.DATA_MIGRATION_IMPORT
+        every { ssmPsqlDatabaseRestoreService.restoreProgress } returns Optional.empty()
         every { migrationService.currentContext } returns migrationContext
         every { migrationContext.getErrorMessage() } returns ""
         every { s3FinalSyncService.getFinalSyncStatus() } returns FinalFileSyncStatus(0, 0, 0)
@@ -96,10 +98,32 @@ internal class FinalSyncEndpointTest {
         assertEquals(null, result.errorMessage)
     }
 
+    @Test
+    fun shouldReportDbExportProgressWhileExporting() {
+        every { databaseMigrationService.elapsedTime } returns Optional.of(Duration.ofSeconds(20))
+        every { databaseMigrationService.dumpProgress } returns Optional.of(
+                DatabaseDumpProgressSnapshot(2, 5, 300, 1000, 120, 1500, false, 47))
+        every { migrationService.currentStage } returns MigrationStage.DB_MIGRATION_EXPORT_WAIT
+        every { migrationService.currentContext } returns migrationContext
+        every { migrationContext.getErrorMessage() } returns ""
+        every { s3FinalSyncService.getFinalSyncStatus() } returns FinalFileSyncStatus(0, 0, 0)
+
+        val resp = sut.getMigrationStatus()
+        val json = resp.entity as String
+
+        val result = mapper.readValue<FinalSyncEndpoint.FinalSyncStatus>(json)
+
+        assertEquals(DbMigrationStatus.EXPORTING, result.db.status)
+        assertEquals(2, result.db.export?.tablesDumped)
+        assertEquals(5, result.db.export?.tablesTotal)
+        assertEquals(47L, result.db.export?.estimatedSecondsRemaining)
+    }
+
     @Test
     fun shouldReportFsSyncStatus() {
         every { databaseMigrationService.elapsedTime } returns Optional.of(Duration.ofSeconds(0))
         every { migrationService.currentStage } returns MigrationStage.DATA_MIGRATION_IMPORT
+        every { ssmPsqlDatabaseRestoreService.restoreProgress } returns Optional.empty()
         every { migrationService.currentContext } returns migrationContext
         every { migrationContext.getErrorMessage() } returns ""
         every { s3FinalSyncService.getFinalSyncStatus() } returns FinalFileSyncStatus(150, 50, 12)
@@ -118,6 +142,7 @@ internal class FinalSyncEndpointTest {
     fun shouldReportDbSyncStatusWithErrorWhenDbErrorEncountered() {
         every { databaseMigrationService.elapsedTime } returns Optional.of(Duration.ofSeconds(20))
         every { migrationService.currentStage } returns MigrationStage.DATA_MIGRATION_IMPORT
+        every { ssmPsqlDatabaseRestoreService.restoreProgress } returns Optional.empty()
         every { migrationService.currentContext } returns migrationContext
         every { migrationContext.getErrorMessage() } returns "could not connect to server"
         every { s3FinalSyncService.getFinalSyncStatus() } returns FinalFileSyncStatus(0, 0, 0)
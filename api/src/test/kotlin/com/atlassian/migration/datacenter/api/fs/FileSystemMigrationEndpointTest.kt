@@ -17,6 +17,7 @@
 package com.atlassian.migration.datacenter.api.fs
 
 import com.atlassian.migration.datacenter.core.fs.FileSystemMigrationReportManager
+import com.atlassian.migration.datacenter.core.fs.FileSystemMigrationReportSnapshotter
 import com.atlassian.migration.datacenter.core.fs.captor.AttachmentSyncManager
 import com.atlassian.migration.datacenter.spi.MigrationService
 import com.atlassian.migration.datacenter.spi.MigrationStage
@@ -46,6 +47,9 @@ internal class FileSystemMigrationEndpointTest {
     @MockK
     lateinit var reportManager: FileSystemMigrationReportManager
 
+    @MockK
+    lateinit var reportSnapshotter: FileSystemMigrationReportSnapshotter
+
     @InjectMockKs
     lateinit var endpoint: FileSystemMigrationEndpoint
 
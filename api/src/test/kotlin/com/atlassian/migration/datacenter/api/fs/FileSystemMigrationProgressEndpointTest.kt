@@ -16,6 +16,7 @@
 package com.atlassian.migration.datacenter.api.fs
 
 import com.atlassian.migration.datacenter.core.fs.FileSystemMigrationReportManager
+import com.atlassian.migration.datacenter.core.fs.FileSystemMigrationReportSnapshotter
 import com.atlassian.migration.datacenter.core.fs.ReportType
 import com.atlassian.migration.datacenter.core.fs.captor.AttachmentSyncManager
 import com.atlassian.migration.datacenter.spi.MigrationService
@@ -28,7 +29,6 @@ import com.fasterxml.jackson.annotation.PropertyAccessor
 import com.fasterxml.jackson.databind.ObjectMapper
 import io.mockk.MockKAnnotations
 import io.mockk.every
-import io.mockk.impl.annotations.InjectMockKs
 import io.mockk.impl.annotations.MockK
 import io.mockk.junit5.MockKExtension
 import io.mockk.mockk
@@ -41,6 +41,8 @@ import org.junit.jupiter.api.extension.ExtendWith
 import java.nio.file.Paths
 import java.time.Duration
 import java.util.HashSet
+import javax.ws.rs.core.EntityTag
+import javax.ws.rs.core.HttpHeaders
 import javax.ws.rs.core.Response
 import kotlin.test.assertTrue
 
@@ -61,11 +63,19 @@ class FileSystemMigrationProgressEndpointTest {
     @MockK
     lateinit var migrationService: MigrationService
 
-    @InjectMockKs
     lateinit var endpoint: FileSystemMigrationEndpoint
 
     @BeforeEach
-    fun init() = MockKAnnotations.init(this)
+    fun init() {
+        MockKAnnotations.init(this)
+        endpoint = FileSystemMigrationEndpoint(
+            fsMigrationService,
+            attachmentSyncManager,
+            reportManager,
+            migrationService,
+            FileSystemMigrationReportSnapshotter(reportManager)
+        )
+    }
 
     @Test
     fun shouldReturnReportWhenMigrationExists() {
@@ -85,7 +95,7 @@ class FileSystemMigrationProgressEndpointTest {
             every { isCrawlingFinished() } returns true
         }
 
-        val response = endpoint.getFilesystemMigrationStatus()
+        val response = endpoint.getFilesystemMigrationStatus(null)
 
         val mapper = ObjectMapper()
         mapper.setVisibility(PropertyAccessor.ALL, JsonAutoDetect.Visibility.ANY)
@@ -126,7 +136,7 @@ class FileSystemMigrationProgressEndpointTest {
         every { report.failedFiles } returns failedFiles as Set<FailedFileMigration>
         every { report.getCountOfUploadedFiles() } returns 1000000L
 
-        val response = endpoint.getFilesystemMigrationStatus()
+        val response = endpoint.getFilesystemMigrationStatus(null)
 
         val mapper = ObjectMapper()
         mapper.setVisibility(PropertyAccessor.ALL, JsonAutoDetect.Visibility.ANY)
@@ -152,7 +162,7 @@ class FileSystemMigrationProgressEndpointTest {
     fun shouldReturnBadRequestWhenNoReportExists() {
         every { reportManager.getCurrentReport(ReportType.Filesystem) } returns null
 
-        val response = endpoint.getFilesystemMigrationStatus()
+        val response = endpoint.getFilesystemMigrationStatus(null)
 
         assertEquals(Response.Status.BAD_REQUEST.statusCode, response.status)
         assertThat<String?>(
@@ -161,6 +171,66 @@ class FileSystemMigrationProgressEndpointTest {
         )
     }
 
+    @Test
+    fun shouldReturnNotModifiedWhenReportHasNotChanged() {
+        givenRunningReport()
+
+        val first = endpoint.getFilesystemMigrationStatus(null)
+        val etag = (first.metadata.getFirst(HttpHeaders.ETAG) as EntityTag).value
+        val second = endpoint.getFilesystemMigrationStatus(etag)
+
+        assertEquals(Response.Status.OK.statusCode, first.status)
+        assertEquals(Response.Status.NOT_MODIFIED.statusCode, second.status)
+    }
+
+    @Test
+    fun shouldReturnReportWhenEtagIsStale() {
+        givenRunningReport()
+
+        val response = endpoint.getFilesystemMigrationStatus("\"stale\"")
+
+        assertEquals(Response.Status.OK.statusCode, response.status)
+        assertTrue((response.entity as String).contains("uploadedFiles"))
+    }
+
+    @Test
+    fun shouldReturnNotModifiedWhenLongPollTimesOutWithoutChange() {
+        givenRunningReport()
+
+        val etag = (endpoint.getFilesystemMigrationStatus(null).metadata.getFirst(HttpHeaders.ETAG) as EntityTag).value
+        val response = endpoint.pollFilesystemMigrationStatus(etag, 0)
+
+        assertEquals(Response.Status.NOT_MODIFIED.statusCode, response.status)
+    }
+
+    @Test
+    fun shouldSummarisePreviousRuns() {
+        givenRunningReport()
+        every { report.status } returns FilesystemMigrationStatus.DONE
+        every { report.elapsedTime } returns Duration.ofSeconds(4)
+        every { reportManager.getReportHistory(ReportType.Filesystem) } returns listOf(report)
+
+        val response = endpoint.getFilesystemMigrationHistory()
+
+        val history = (response.entity as Map<*, *>)["history"] as List<*>
+        val run = history[0] as Map<*, *>
+        assertEquals("DONE", run["status"])
+        assertEquals(4L, run["elapsedSeconds"])
+        assertEquals(0.5, run["uploadedFilesPerSecond"])
+    }
+
+    private fun givenRunningReport() {
+        every { reportManager.getCurrentReport(ReportType.Filesystem) } returns report
+        every { report.status } returns FilesystemMigrationStatus.UPLOADING
+        every { report.elapsedTime } returns Duration.ofMinutes(1)
+        every { report.getNumberOfFilesFound() } returns 10L
+        every { report.getNumberOfCommencedFileUploads() } returns 5L
+        every { report.getCountOfDownloadFiles() } returns 1L
+        every { report.isCrawlingFinished() } returns false
+        every { report.failedFiles } returns emptySet()
+        every { report.getCountOfUploadedFiles() } returns 2L
+    }
+
     @Test
     fun shouldNotRunFileMigrationWhenExistingMigrationIsInProgress() {
         val reportMock = mockk<FileSystemMigrationReport>()
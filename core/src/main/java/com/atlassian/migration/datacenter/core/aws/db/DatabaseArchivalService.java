@@ -17,6 +17,9 @@
 package com.atlassian.migration.datacenter.core.aws.db;
 
 import com.atlassian.migration.datacenter.core.aws.MigrationStageCallback;
+import com.atlassian.migration.datacenter.core.db.DatabaseDumpProgress;
+import com.atlassian.migration.datacenter.core.db.DatabaseDumpProgressSnapshot;
+import com.atlassian.migration.datacenter.core.db.DatabaseDumpStream;
 import com.atlassian.migration.datacenter.core.db.DatabaseExtractor;
 import com.atlassian.migration.datacenter.core.db.DatabaseExtractorFactory;
 import com.atlassian.migration.datacenter.spi.exceptions.DatabaseMigrationFailure;
@@ -24,7 +27,11 @@ import com.atlassian.migration.datacenter.spi.exceptions.InvalidMigrationStageEr
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.InputStream;
 import java.nio.file.Path;
+import java.util.Optional;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
 
 public class DatabaseArchivalService {
 
@@ -38,8 +45,12 @@ public class DatabaseArchivalService {
         this.migrationStageCallback = migrationStageCallback;
     }
 
+    public static Path archivePath(Path tempDirectory) {
+        return tempDirectory.resolve("db.dump");
+    }
+
     public Path archiveDatabase(Path tempDirectory) throws InvalidMigrationStageError {
-        Path target = tempDirectory.resolve("db.dump");
+        Path target = archivePath(tempDirectory);
         logger.info("Dumping database to "+target);
 
         this.migrationStageCallback.assertInStartingStage();
@@ -59,5 +70,76 @@ public class DatabaseArchivalService {
         this.migrationStageCallback.transitionToServiceNextStage();
         return target;
     }
+
+    /**
+     * Starts a database dump into {@link #archivePath(Path)} without waiting for it to finish, so that the files which
+     * have already been written can be uploaded while the dump is running. This moves straight on to the upload stage.
+     * Cancelling the returned future kills the dump.
+     *
+     * @return a future which completes with the archive once the dump has finished successfully
+     */
+    public CompletableFuture<Path> archiveDatabaseAsync(Path tempDirectory) throws InvalidMigrationStageError {
+        Path target = archivePath(tempDirectory);
+        logger.info("Dumping database to "+target+" while uploading it");
+
+        this.migrationStageCallback.assertInStartingStage();
+
+        DatabaseExtractor databaseExtractor = databaseExtractorFactory.getExtractor();
+        Process extractorProcess = databaseExtractor.startDatabaseDump(target);
+        this.migrationStageCallback.transitionToServiceWaitStage();
+
+        CompletableFuture<Path> archive = new CompletableFuture<>();
+        archive.whenComplete((path, e) -> {
+            if (e instanceof CancellationException) {
+                logger.warn("Database dump was cancelled, stopping the DB extractor");
+                extractorProcess.destroy();
+            }
+        });
+        Thread waiter = new Thread(() -> {
+            try {
+                int exit = extractorProcess.waitFor();
+                if (exit == 0) {
+                    archive.complete(target);
+                } else {
+                    archive.completeExceptionally(new DatabaseMigrationFailure("DB extractor exited with non-zero status: " + exit));
+                }
+            } catch (InterruptedException e) {
+                archive.completeExceptionally(new DatabaseMigrationFailure("Error while waiting for DB extractor to finish", e));
+            }
+        }, "database-dump-waiter");
+        waiter.setDaemon(true);
+        waiter.start();
+
+        this.migrationStageCallback.transitionToServiceNextStage();
+        return archive;
+    }
+
+    /**
+     * Starts a database dump which is streamed rather than written to disk. As the dump can only be consumed while
+     * it is being uploaded, this moves straight on to the upload stage. Reading the returned stream to its end fails
+     * if the dump did not complete successfully.
+     *
+     * @return the archive written by the database dump
+     */
+    public InputStream streamDatabase() throws InvalidMigrationStageError {
+        logger.info("Streaming database dump");
+
+        this.migrationStageCallback.assertInStartingStage();
+
+        DatabaseExtractor databaseExtractor = databaseExtractorFactory.getExtractor();
+        Process extractorProcess = databaseExtractor.startDatabaseStream();
+        this.migrationStageCallback.transitionToServiceWaitStage();
+
+        this.migrationStageCallback.transitionToServiceNextStage();
+        return new DatabaseDumpStream(extractorProcess, databaseExtractor.getDumpProgress());
+    }
+
+    /**
+     * @return the progress of the most recent database dump, if one has been started on this node
+     */
+    public Optional<DatabaseDumpProgressSnapshot> getDumpProgress() {
+        DatabaseDumpProgress progress = databaseExtractorFactory.getExtractor().getDumpProgress();
+        return Optional.ofNullable(progress).map(DatabaseDumpProgress::snapshot);
+    }
 }
 
@@ -24,17 +24,29 @@ import com.atlassian.migration.datacenter.core.fs.FileSystemMigrationReportManag
 import com.atlassian.migration.datacenter.core.fs.FileUploadException;
 import com.atlassian.migration.datacenter.core.fs.FilesystemUploader;
 import com.atlassian.migration.datacenter.core.fs.ReportType;
+import com.atlassian.migration.datacenter.core.fs.S3StreamingMultiPartUploader;
 import com.atlassian.migration.datacenter.core.fs.S3UploadConfig;
 import com.atlassian.migration.datacenter.core.fs.S3Uploader;
+import com.atlassian.migration.datacenter.core.util.UploadQueue;
 import com.atlassian.migration.datacenter.spi.exceptions.InvalidMigrationStageError;
+import com.atlassian.migration.datacenter.spi.fs.reporting.FailedFileMigration;
 import com.atlassian.migration.datacenter.spi.fs.reporting.FileSystemMigrationReport;
 import software.amazon.awssdk.services.s3.S3AsyncClient;
 
 import javax.annotation.PostConstruct;
+import java.io.IOException;
+import java.io.InputStream;
 import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Set;
+import java.util.concurrent.Future;
 import java.util.function.Supplier;
 
 public class DatabaseArtifactS3UploadService {
+    // Bounds the memory used by a streamed upload to 64MB while allowing archives of up to 160GB
+    static final int STREAM_PART_SIZE = 16 * 1024 * 1024;
+    static final int STREAM_PARTS_IN_FLIGHT = 4;
+
     private final Supplier<S3AsyncClient> s3AsyncClientSupplier;
     private final MigrationStageCallback migrationStageCallback;
     private S3AsyncClient s3AsyncClient;
@@ -68,6 +80,97 @@ public class DatabaseArtifactS3UploadService {
         return report;
     }
 
+    /**
+     * Uploads a directory format database dump while it is still being written. The files of each table are uploaded
+     * as soon as they are complete, and the table of contents is uploaded last to mark the dump in the bucket as
+     * complete.
+     *
+     * @param target           the directory the dump is written to
+     * @param archive          completes once the dump has finished
+     * @param targetBucketName the bucket to upload the dump to
+     */
+    public FileSystemMigrationReport uploadWhileArchiving(Path target, Future<Path> archive, String targetBucketName) throws InvalidMigrationStageError, FileUploadException
+    {
+        s3AsyncClient = s3AsyncClientSupplier.get();
+        this.migrationStageCallback.assertInStartingStage();
+
+        FileSystemMigrationReport report = reportManager.resetReport(ReportType.Database);
+        S3UploadConfig config = new S3UploadConfig(targetBucketName, s3AsyncClient, target.getParent());
+        Crawler crawler = new DatabaseDumpDirectoryCrawler(report, archive);
+        S3Uploader uploader = new S3Uploader(config, report);
+        FilesystemUploader filesystemUploader = new DefaultFilesystemUploader(crawler, uploader);
+
+        this.migrationStageCallback.transitionToServiceWaitStage();
+        filesystemUploader.uploadDirectory(target);
+        uploadTableOfContents(target, config, report, uploader.getPathsNotUploaded());
+
+        this.migrationStageCallback.transitionToServiceNextStage();
+        return report;
+    }
+
+    /**
+     * @param notUploaded the files of the dump whose latest upload failed. Files which changed after they were
+     *                    uploaded are uploaded again, so a failed upload may since have been superseded by a successful
+     *                    one, which is why the failed files of the report can't be used.
+     */
+    private static void uploadTableOfContents(Path target, S3UploadConfig config, FileSystemMigrationReport report, Set<Path> notUploaded) throws FileUploadException {
+        if (!notUploaded.isEmpty()) {
+            throw new FileUploadException(String.format("%d files of the database dump were not uploaded, not marking it as complete",
+                    notUploaded.size()));
+        }
+
+        UploadQueue<Path> queue = new UploadQueue<>(2);
+        try {
+            queue.put(target.resolve(DatabaseDumpDirectoryCrawler.TABLE_OF_CONTENTS));
+            queue.finish();
+        } catch (InterruptedException e) {
+            throw new FileUploadException("Interrupted while uploading the database dump table of contents", e);
+        }
+        report.reportFileFound();
+        S3Uploader uploader = new S3Uploader(config, report);
+        uploader.upload(queue);
+
+        if (!uploader.getPathsNotUploaded().isEmpty()) {
+            throw new FileUploadException("Failed to upload the database dump table of contents");
+        }
+    }
+
+    /**
+     * Uploads a database archive while it is still being written, without staging it on the local filesystem.
+     *
+     * @param stream           the archive, which is read to its end and closed
+     * @param key              the key to upload the archive to
+     * @param targetBucketName the bucket to upload the archive to
+     */
+    public FileSystemMigrationReport uploadStream(InputStream stream, String key, String targetBucketName) throws InvalidMigrationStageError, FileUploadException
+    {
+        s3AsyncClient = s3AsyncClientSupplier.get();
+        this.migrationStageCallback.assertInStartingStage();
+
+        FileSystemMigrationReport report = reportManager.resetReport(ReportType.Database);
+        S3UploadConfig config = new S3UploadConfig(targetBucketName, s3AsyncClient, null);
+        S3StreamingMultiPartUploader uploader = new S3StreamingMultiPartUploader(config, key, STREAM_PART_SIZE, STREAM_PARTS_IN_FLIGHT);
+
+        this.migrationStageCallback.transitionToServiceWaitStage();
+        report.reportFileFound();
+        report.reportCrawlingFinished();
+        report.reportFileUploadCommenced();
+        try (InputStream archive = stream) {
+            uploader.upload(archive);
+        } catch (IOException e) {
+            report.reportFileNotMigrated(new FailedFileMigration(Paths.get(key), e.getMessage()));
+            throw new FileUploadException("Failed to stream database archive to S3: " + key, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            report.reportFileNotMigrated(new FailedFileMigration(Paths.get(key), "Interrupted while streaming to S3"));
+            throw new FileUploadException("Interrupted while streaming database archive to S3: " + key, e);
+        }
+        report.reportFileUploaded();
+
+        this.migrationStageCallback.transitionToServiceNextStage();
+        return report;
+    }
+
     //TODO: Use builder pattern instead of creating dependencies like this.
     private static FilesystemUploader buildFileSystemUploader(Path target, String targetBucketName, FileSystemMigrationReport migrationReport, S3AsyncClient s3Client) {
         S3UploadConfig config = new S3UploadConfig(targetBucketName, s3Client, target.getParent());
@@ -0,0 +1,191 @@
+/*
+ * Copyright 2020 Atlassian
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.atlassian.migration.datacenter.core.aws.db;
+
+import com.atlassian.migration.datacenter.core.fs.Crawler;
+import com.atlassian.migration.datacenter.core.util.UploadQueue;
+import com.atlassian.migration.datacenter.spi.fs.reporting.FileSystemMigrationReport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Crawls the directory a database dump is being written to while the dump is still running, so that the files of
+ * tables which have already been dumped can be uploaded while other tables are still being dumped.
+ * <p>
+ * A file is considered complete once its size and modification time have not changed for the quiet period. When the
+ * dump has finished, every remaining file is queued, along with any file which changed after it was queued. The table
+ * of contents is never queued, as it must only be uploaded once every other file of the dump is in place.
+ */
+public class DatabaseDumpDirectoryCrawler implements Crawler {
+    private static final Logger logger = LoggerFactory.getLogger(DatabaseDumpDirectoryCrawler.class);
+
+    public static final String TABLE_OF_CONTENTS = "toc.dat";
+
+    private final FileSystemMigrationReport report;
+    private final Future<?> dump;
+    private final Duration pollInterval;
+    private final Duration quietPeriod;
+    private final Clock clock;
+
+    private final Map<Path, DumpFile> observed = new HashMap<>();
+    private final Map<Path, DumpFile> queued = new HashMap<>();
+
+    public DatabaseDumpDirectoryCrawler(FileSystemMigrationReport report, Future<?> dump) {
+        this(report, dump, Duration.ofSeconds(2), Duration.ofSeconds(10), Clock.systemUTC());
+    }
+
+    public DatabaseDumpDirectoryCrawler(FileSystemMigrationReport report, Future<?> dump, Duration pollInterval, Duration quietPeriod, Clock clock) {
+        this.report = report;
+        this.dump = dump;
+        this.pollInterval = pollInterval;
+        this.quietPeriod = quietPeriod;
+        this.clock = clock;
+    }
+
+    /**
+     * Queues the files of the dump in the given directory until the dump has finished.
+     *
+     * @throws IOException if the dump did not finish successfully
+     */
+    @Override
+    public void crawlDirectory(Path start, UploadQueue<Path> queue) throws IOException {
+        try {
+            while (!dump.isDone()) {
+                queueCompletedFiles(start, queue);
+                Thread.sleep(pollInterval.toMillis());
+            }
+            awaitSuccessfulDump();
+            queueRemainingFiles(start, queue);
+            logger.info("Database dump finished, queued {} files for upload", report.getNumberOfFilesFound());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while crawling database dump " + start);
+        } finally {
+            try {
+                report.reportCrawlingFinished();
+                queue.finish();
+            } catch (InterruptedException e) {
+                logger.error("Failed to finalise upload queue.", e);
+            }
+        }
+    }
+
+    private void queueCompletedFiles(Path directory, UploadQueue<Path> queue) throws IOException, InterruptedException {
+        final Instant quietSince = Instant.now(clock).minus(quietPeriod);
+        for (Path file : listDumpFiles(directory)) {
+            if (queued.containsKey(file)) {
+                continue;
+            }
+            final DumpFile current = DumpFile.of(file);
+            final DumpFile previous = observed.put(file, current);
+            if (current.equals(previous) && current.modified.isBefore(quietSince)) {
+                logger.debug("{} is no longer being written to, queueing it for upload", file);
+                queue(file, current, queue);
+            }
+        }
+    }
+
+    private void queueRemainingFiles(Path directory, UploadQueue<Path> queue) throws IOException, InterruptedException {
+        for (Path file : listDumpFiles(directory)) {
+            final DumpFile current = DumpFile.of(file);
+            final DumpFile uploaded = queued.get(file);
+            if (uploaded == null) {
+                queue(file, current, queue);
+            } else if (!uploaded.equals(current)) {
+                logger.warn("{} changed after it was queued for upload, uploading it again", file);
+                queue(file, current, queue);
+            }
+        }
+    }
+
+    private void queue(Path file, DumpFile state, UploadQueue<Path> queue) throws InterruptedException {
+        queue.put(file);
+        queued.put(file, state);
+        report.reportFileFound();
+    }
+
+    private void awaitSuccessfulDump() throws IOException, InterruptedException {
+        try {
+            dump.get();
+        } catch (ExecutionException e) {
+            throw new IOException("Database dump failed, not uploading the remaining files", e.getCause());
+        } catch (CancellationException e) {
+            throw new IOException("Database dump was cancelled, not uploading the remaining files", e);
+        }
+    }
+
+    private static List<Path> listDumpFiles(Path directory) throws IOException {
+        final List<Path> files = new ArrayList<>();
+        if (!Files.isDirectory(directory)) {
+            // The dump has not created its directory yet
+            return files;
+        }
+        try (DirectoryStream<Path> paths = Files.newDirectoryStream(directory,
+                path -> Files.isRegularFile(path) && !path.getFileName().toString().equals(TABLE_OF_CONTENTS))) {
+            paths.forEach(files::add);
+        } catch (NoSuchFileException e) {
+            logger.debug("Database dump directory {} was removed while crawling it", directory);
+        }
+        return files;
+    }
+
+    private static class DumpFile {
+        final long size;
+        final Instant modified;
+
+        private DumpFile(long size, Instant modified) {
+            this.size = size;
+            this.modified = modified;
+        }
+
+        static DumpFile of(Path file) throws IOException {
+            final BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            return new DumpFile(attributes.size(), attributes.lastModifiedTime().toInstant());
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            DumpFile dumpFile = (DumpFile) o;
+            return size == dumpFile.size && modified.equals(dumpFile.modified);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(size, modified);
+        }
+    }
+}
@@ -18,8 +18,11 @@ package com.atlassian.migration.datacenter.core.aws.db;
 
 import com.atlassian.migration.datacenter.core.aws.db.restore.SsmPsqlDatabaseRestoreService;
 import com.atlassian.migration.datacenter.core.aws.infrastructure.AWSMigrationHelperDeploymentService;
+import com.atlassian.migration.datacenter.core.db.DatabaseDumpProgressSnapshot;
 import com.atlassian.migration.datacenter.core.db.DatabaseMigrationJobRunner;
+import com.atlassian.migration.datacenter.core.db.delta.DatabaseDeltaSyncService;
 import com.atlassian.migration.datacenter.core.fs.FileUploadException;
+import com.atlassian.migration.datacenter.core.fs.reporting.DefaultFileSystemMigrationReport;
 import com.atlassian.migration.datacenter.core.util.MigrationRunner;
 import com.atlassian.migration.datacenter.spi.CancellableMigrationService;
 import com.atlassian.migration.datacenter.spi.MigrationService;
@@ -33,15 +36,24 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.DisposableBean;
 
+import java.io.InputStream;
 import java.nio.file.Path;
 import java.time.Duration;
 import java.time.LocalDateTime;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.atomic.AtomicReference;
 
 public class DatabaseMigrationService implements CancellableMigrationService, DisposableBean {
     private static Logger logger = LoggerFactory.getLogger(DatabaseMigrationService.class);
 
+    /**
+     * When set, the database dump is streamed straight into the migration bucket instead of being staged in the
+     * temp directory and uploaded once it has finished.
+     */
+    static final String STREAMING_DUMP_PROPERTY = "com.atlassian.migration.db.streamingDump";
+    static final String STREAMED_ARCHIVE_KEY = "db.archive";
+
     private final Path tempDirectory;
     private final DatabaseArchivalService databaseArchivalService;
     private final DatabaseArtifactS3UploadService s3UploadService;
@@ -49,6 +61,7 @@ public class DatabaseMigrationService implements CancellableMigrationService, Di
     private final MigrationService migrationService;
     private final MigrationRunner migrationRunner;
     private final AWSMigrationHelperDeploymentService migrationHelperDeploymentService;
+    private final DatabaseDeltaSyncService deltaSyncService;
 
     private final AtomicReference<Optional<LocalDateTime>> startTime = new AtomicReference<>(Optional.empty());
 
@@ -57,6 +70,16 @@ public class DatabaseMigrationService implements CancellableMigrationService, Di
                                     DatabaseArtifactS3UploadService s3UploadService,
                                     SsmPsqlDatabaseRestoreService restoreService,
                                     AWSMigrationHelperDeploymentService migrationHelperDeploymentService) {
+        this(tempDirectory, migrationService, migrationRunner, databaseArchivalService, s3UploadService, restoreService,
+                migrationHelperDeploymentService, null);
+    }
+
+    public DatabaseMigrationService(Path tempDirectory, MigrationService migrationService,
+                                    MigrationRunner migrationRunner, DatabaseArchivalService databaseArchivalService,
+                                    DatabaseArtifactS3UploadService s3UploadService,
+                                    SsmPsqlDatabaseRestoreService restoreService,
+                                    AWSMigrationHelperDeploymentService migrationHelperDeploymentService,
+                                    DatabaseDeltaSyncService deltaSyncService) {
         this.tempDirectory = tempDirectory;
         this.databaseArchivalService = databaseArchivalService;
         this.s3UploadService = s3UploadService;
@@ -64,6 +87,7 @@ public class DatabaseMigrationService implements CancellableMigrationService, Di
         this.migrationService = migrationService;
         this.migrationRunner = migrationRunner;
         this.migrationHelperDeploymentService = migrationHelperDeploymentService;
+        this.deltaSyncService = deltaSyncService;
     }
 
     /**
@@ -76,41 +100,97 @@ public class DatabaseMigrationService implements CancellableMigrationService, Di
         migrationService.transition(MigrationStage.DB_MIGRATION_EXPORT);
         startTime.set(Optional.of(LocalDateTime.now()));
 
-        Path pathToDatabaseFile;
+        if (deltaSyncService != null && deltaSyncService.prepareForCutOver()) {
+            return syncFinalDeltas();
+        }
+
+        FileSystemMigrationErrorReport report = Boolean.getBoolean(STREAMING_DUMP_PROPERTY)
+                ? streamDatabase()
+                : dumpAndUploadDatabase();
+
         try {
-            pathToDatabaseFile = databaseArchivalService.archiveDatabase(tempDirectory);
+            restoreService.restoreDatabase();
+        } catch (Exception e) {
+            migrationService.error(e);
+            throw new DatabaseMigrationFailure("Error when restoring database", e);
+        }
+
+        return report;
+    }
+
+    /**
+     * Brings the snapshot restored by the delta sync up to date instead of migrating the whole database. The database
+     * stages are still walked through so that the cut-over is reported the same way.
+     */
+    private FileSystemMigrationErrorReport syncFinalDeltas() throws DatabaseMigrationFailure, InvalidMigrationStageError {
+        logger.info("Migrating the database by applying the final delta on top of the restored snapshot");
+        try {
+            migrationService.transition(MigrationStage.DB_MIGRATION_EXPORT_WAIT);
+            deltaSyncService.exportFinalDeltas();
+            migrationService.transition(MigrationStage.DB_MIGRATION_UPLOAD);
+            migrationService.transition(MigrationStage.DB_MIGRATION_UPLOAD_WAIT);
+            migrationService.transition(MigrationStage.DATA_MIGRATION_IMPORT);
+            migrationService.transition(MigrationStage.DATA_MIGRATION_IMPORT_WAIT);
+            deltaSyncService.applyFinalDeltas();
+            migrationService.transition(MigrationStage.FINAL_SYNC_WAIT);
         } catch (DatabaseMigrationFailure e) {
             migrationService.error(e);
             throw e;
         }
+        return new DefaultFileSystemMigrationReport();
+    }
 
-        FileSystemMigrationErrorReport report;
+    private FileSystemMigrationErrorReport dumpAndUploadDatabase() throws DatabaseMigrationFailure, InvalidMigrationStageError {
+        String bucketName = getMigrationBucketName();
 
-        String bucketName = null;
+        CompletableFuture<Path> archive;
         try {
-            bucketName = migrationHelperDeploymentService.getMigrationS3BucketName();
-        } catch (InfrastructureDeploymentError infrastructureDeploymentError) {
-            migrationService.error(infrastructureDeploymentError);
-            throw new DatabaseMigrationFailure("error getting migration bucket", infrastructureDeploymentError);
+            archive = databaseArchivalService.archiveDatabaseAsync(tempDirectory);
+        } catch (DatabaseMigrationFailure e) {
+            migrationService.error(e);
+            throw e;
         }
 
         try {
-            report = s3UploadService.upload(pathToDatabaseFile, bucketName);
+            return s3UploadService.uploadWhileArchiving(DatabaseArchivalService.archivePath(tempDirectory), archive, bucketName);
         } catch (FileUploadException e) {
+            archive.cancel(true);
             migrationService.error(e);
             throw new DatabaseMigrationFailure("Error when uploading database dump to S3", e);
+        } catch (InvalidMigrationStageError e) {
+            archive.cancel(true);
+            throw e;
         }
+    }
+
+    private FileSystemMigrationErrorReport streamDatabase() throws DatabaseMigrationFailure, InvalidMigrationStageError {
+        String bucketName = getMigrationBucketName();
 
+        InputStream archive;
         try {
-            restoreService.restoreDatabase();
-        } catch (Exception e) {
+            archive = databaseArchivalService.streamDatabase();
+        } catch (DatabaseMigrationFailure e) {
             migrationService.error(e);
-            throw new DatabaseMigrationFailure("Error when restoring database", e);
+            throw e;
         }
 
-        return report;
+        try {
+            return s3UploadService.uploadStream(archive, STREAMED_ARCHIVE_KEY, bucketName);
+        } catch (FileUploadException e) {
+            migrationService.error(e);
+            throw new DatabaseMigrationFailure("Error when streaming database dump to S3", e);
+        }
     }
-    
+
+    private String getMigrationBucketName() throws DatabaseMigrationFailure {
+        try {
+            return migrationHelperDeploymentService.getMigrationS3BucketName();
+        } catch (InfrastructureDeploymentError infrastructureDeploymentError) {
+            migrationService.error(infrastructureDeploymentError);
+            throw new DatabaseMigrationFailure("error getting migration bucket", infrastructureDeploymentError);
+        }
+    }
+
     public Optional<Duration> getElapsedTime() {
         Optional<LocalDateTime> start = startTime.get();
         if (!start.isPresent()) {
@@ -120,6 +200,10 @@ public class DatabaseMigrationService implements CancellableMigrationService, Di
         return Optional.of(Duration.between(start.get(), LocalDateTime.now()));
     }
 
+    public Optional<DatabaseDumpProgressSnapshot> getDumpProgress() {
+        return databaseArchivalService.getDumpProgress();
+    }
+
     public Boolean scheduleMigration() {
 
         JobId jobId = getScheduledJobId();
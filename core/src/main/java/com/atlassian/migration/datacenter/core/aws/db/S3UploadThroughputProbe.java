@@ -0,0 +1,109 @@
+/*
+ * Copyright 2020 Atlassian
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.atlassian.migration.datacenter.core.aws.db;
+
+import com.atlassian.migration.datacenter.core.aws.infrastructure.AWSMigrationHelperDeploymentService;
+import com.atlassian.migration.datacenter.core.db.UploadThroughputProbe;
+import com.atlassian.migration.datacenter.spi.infrastructure.InfrastructureDeploymentError;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.core.async.AsyncRequestBody;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.model.DeleteObjectRequest;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Supplier;
+
+/**
+ * Measures the upload throughput to the migration bucket by uploading a few incompressible objects concurrently,
+ * which are deleted again afterwards.
+ */
+public class S3UploadThroughputProbe implements UploadThroughputProbe {
+    private static final Logger logger = LoggerFactory.getLogger(S3UploadThroughputProbe.class);
+
+    static final String PROBE_PREFIX = "db.calibration/";
+    private static final int PROBE_OBJECT_SIZE = 8 * 1024 * 1024;
+    private static final int PROBE_OBJECTS = 8;
+
+    private final Supplier<S3AsyncClient> s3AsyncClientSupplier;
+    private final AWSMigrationHelperDeploymentService migrationHelperDeploymentService;
+
+    public S3UploadThroughputProbe(Supplier<S3AsyncClient> s3AsyncClientSupplier, AWSMigrationHelperDeploymentService migrationHelperDeploymentService) {
+        this.s3AsyncClientSupplier = s3AsyncClientSupplier;
+        this.migrationHelperDeploymentService = migrationHelperDeploymentService;
+    }
+
+    @Override
+    public Double bytesPerSecond() {
+        final String bucket;
+        try {
+            bucket = migrationHelperDeploymentService.getMigrationS3BucketName();
+        } catch (InfrastructureDeploymentError e) {
+            logger.warn("Unable to get migration bucket to measure upload throughput", e);
+            return null;
+        }
+
+        final S3AsyncClient client = s3AsyncClientSupplier.get();
+        final byte[] data = new byte[PROBE_OBJECT_SIZE];
+        new Random().nextBytes(data);
+
+        final List<CompletableFuture<?>> uploads = new ArrayList<>();
+        final long start = System.nanoTime();
+        for (int i = 0; i < PROBE_OBJECTS; i++) {
+            final PutObjectRequest request = PutObjectRequest.builder()
+                    .bucket(bucket)
+                    .key(PROBE_PREFIX + i)
+                    .build();
+            uploads.add(client.putObject(request, AsyncRequestBody.fromBytes(data)));
+        }
+
+        try {
+            CompletableFuture.allOf(uploads.toArray(new CompletableFuture[0])).get();
+            final double seconds = Math.max(System.nanoTime() - start, 1) / 1e9;
+            final double bytesPerSecond = (double) PROBE_OBJECT_SIZE * PROBE_OBJECTS / seconds;
+            logger.info("Measured upload throughput to {} of {} bytes/s", bucket, (long) bytesPerSecond);
+            return bytesPerSecond;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            logger.warn("Unable to measure upload throughput to {}", bucket, e.getCause());
+            return null;
+        } finally {
+            deleteProbeObjects(client, bucket);
+        }
+    }
+
+    private static void deleteProbeObjects(S3AsyncClient client, String bucket) {
+        final List<CompletableFuture<?>> deletes = new ArrayList<>();
+        for (int i = 0; i < PROBE_OBJECTS; i++) {
+            final DeleteObjectRequest request = DeleteObjectRequest.builder()
+                    .bucket(bucket)
+                    .key(PROBE_PREFIX + i)
+                    .build();
+            deletes.add(client.deleteObject(request).exceptionally(e -> {
+                logger.debug("Unable to delete upload throughput probe {}", request.key(), e);
+                return null;
+            }));
+        }
+        CompletableFuture.allOf(deletes.toArray(new CompletableFuture[0])).join();
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2020 Atlassian
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.atlassian.migration.datacenter.core.aws.db.restore;
+
+import com.fasterxml.jackson.annotation.JsonAutoDetect;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.PropertyAccessor;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Data class for reading the progress of the database restore, as published to the migration bucket by the restore
+ * script on the migration instance. A total of -1 tables means that the total is not known yet.
+ */
+@JsonAutoDetect
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class DatabaseRestoreProgress {
+    private static final ObjectMapper mapper = new ObjectMapper()
+            .setVisibility(PropertyAccessor.ALL, JsonAutoDetect.Visibility.ANY);
+
+    private String phase;
+    private int jobs;
+    private int tablesRestored;
+    private int tablesTotal = -1;
+    private boolean finished;
+
+    static DatabaseRestoreProgress fromJson(String json) throws JsonProcessingException {
+        return mapper.readValue(json, DatabaseRestoreProgress.class);
+    }
+
+    public String getPhase() {
+        return phase;
+    }
+
+    public int getJobs() {
+        return jobs;
+    }
+
+    public int getTablesRestored() {
+        return tablesRestored;
+    }
+
+    public int getTablesTotal() {
+        return tablesTotal;
+    }
+
+    public boolean isFinished() {
+        return finished;
+    }
+
+    @Override
+    public String toString() {
+        return "DatabaseRestoreProgress{" +
+                "phase='" + phase + '\'' +
+                ", jobs=" + jobs +
+                ", tablesRestored=" + tablesRestored +
+                ", tablesTotal=" + tablesTotal +
+                ", finished=" + finished +
+                '}';
+    }
+}
@@ -20,28 +20,51 @@ import com.atlassian.migration.datacenter.core.aws.MigrationStageCallback;
 import com.atlassian.migration.datacenter.core.aws.infrastructure.AWSMigrationHelperDeploymentService;
 import com.atlassian.migration.datacenter.core.aws.infrastructure.RemoteInstanceCommandRunnerService;
 import com.atlassian.migration.datacenter.core.aws.ssm.SSMApi;
+import com.atlassian.migration.datacenter.core.aws.ssm.SSMCommandPoller;
 import com.atlassian.migration.datacenter.core.aws.ssm.SuccessfulSSMCommandConsumer;
 import com.atlassian.migration.datacenter.core.fs.download.s3sync.EnsureSuccessfulSSMCommandConsumer;
 import com.atlassian.migration.datacenter.core.fs.download.s3sync.S3SyncFileSystemDownloader;
 import com.atlassian.migration.datacenter.spi.exceptions.DatabaseMigrationFailure;
 import com.atlassian.migration.datacenter.spi.exceptions.InvalidMigrationStageError;
 import com.atlassian.migration.datacenter.spi.infrastructure.InfrastructureDeploymentError;
+import com.fasterxml.jackson.core.JsonProcessingException;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.core.exception.SdkException;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.DeleteObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
 import software.amazon.awssdk.services.ssm.model.GetCommandInvocationResponse;
 
+import java.time.Duration;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Supplier;
 
 public class SsmPsqlDatabaseRestoreService {
 
     private static final Logger logger = LoggerFactory.getLogger(SsmPsqlDatabaseRestoreService.class);
 
+    // The restore document allows pg_restore to run for up to 12 hours
+    private static final Duration RESTORE_COMMAND_TIMEOUT = Duration.ofHours(12).plusMinutes(10);
+
+    /**
+     * The restore script on the migration instance writes its progress to this key every few seconds.
+     */
+    static final String PUBLISHED_PROGRESS_KEY = ".dc-migration-assistant/db-restore-status.json";
+
     private final SSMApi ssm;
+    private final SSMCommandPoller commandPoller;
     private final AWSMigrationHelperDeploymentService migrationHelperDeploymentService;
     private final MigrationStageCallback migrationStageCallback;
     private final RemoteInstanceCommandRunnerService remoteInstanceCommandRunnerService;
+    private final Supplier<S3Client> s3ClientSupplier;
     private final String CRITICAL_ERROR_001 = "could not connect to server";
     private final String CRITICAL_ERROR_002 = "could not translate host name";
     private final String CRITICAL_ERROR_003 = "Connection timed out";
@@ -61,14 +84,52 @@ public class SsmPsqlDatabaseRestoreService {
     
     private String commandId;
 
-    public SsmPsqlDatabaseRestoreService(SSMApi ssm, AWSMigrationHelperDeploymentService migrationHelperDeploymentService, DatabaseRestoreStageTransitionCallback migrationStageCallback, RemoteInstanceCommandRunnerService remoteInstanceCommandRunnerService) {
+    public SsmPsqlDatabaseRestoreService(SSMApi ssm, SSMCommandPoller commandPoller, AWSMigrationHelperDeploymentService migrationHelperDeploymentService, MigrationStageCallback migrationStageCallback, RemoteInstanceCommandRunnerService remoteInstanceCommandRunnerService, Supplier<S3Client> s3ClientSupplier) {
         this.ssm = ssm;
+        this.commandPoller = commandPoller;
         this.migrationHelperDeploymentService = migrationHelperDeploymentService;
         this.migrationStageCallback = migrationStageCallback;
         this.remoteInstanceCommandRunnerService = remoteInstanceCommandRunnerService;
+        this.s3ClientSupplier = s3ClientSupplier;
     }
 
     public void restoreDatabase() throws DatabaseMigrationFailure, InvalidMigrationStageError {
+        restoreDatabase(true);
+    }
+
+    /**
+     * Blocking bridge over {@link #restoreDatabaseAsync(boolean)}. It only exists because the scheduler job which
+     * runs the database migration has to return once the migration has finished; everything else should compose on
+     * the future instead of holding a thread for the whole restore.
+     */
+    public void restoreDatabase(boolean startApplication) throws DatabaseMigrationFailure, InvalidMigrationStageError {
+        final CompletableFuture<Void> restore = restoreDatabaseAsync(startApplication);
+        try {
+            restore.get();
+        } catch (InterruptedException e) {
+            restore.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new DatabaseMigrationFailure("Interrupted while waiting for the database restore", e);
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof InvalidMigrationStageError) {
+                throw (InvalidMigrationStageError) cause;
+            }
+            throw asRestoreFailure(cause);
+        }
+    }
+
+    /**
+     * Restores the uploaded database dump into the target database. The target application is stopped for the restore.
+     *
+     * @param startApplication whether to start the target application again once the restore has finished. It has to
+     *                         stay down when more changes will be applied on top of the restored database.
+     * @return a future which completes once the restore has finished, or completes exceptionally with a
+     * {@link DatabaseMigrationFailure} or {@link InvalidMigrationStageError} if it failed
+     * @throws DatabaseMigrationFailure   if the restore could not be started
+     * @throws InvalidMigrationStageError if the migration is not in a stage the restore can be started from
+     */
+    public CompletableFuture<Void> restoreDatabaseAsync(boolean startApplication) throws DatabaseMigrationFailure, InvalidMigrationStageError {
         logger.info("Starting the database restore operation");
 
         String dbRestorePlaybook;
@@ -86,31 +147,58 @@ public class SsmPsqlDatabaseRestoreService {
          * Stop Jira prior to restoring the DB 
          */
         remoteInstanceCommandRunnerService.setJiraRunStateTo(RemoteServiceState.STOP);
-        
+
+        deletePublishedProgress();
+
         try {
             this.commandId = ssm.runSSMDocument(dbRestorePlaybook, migrationInstanceId, Collections.emptyMap());
         } catch (S3SyncFileSystemDownloader.CannotLaunchCommandException e) {
             throw new DatabaseMigrationFailure("unable to run db restore SSM playbook");
         }
 
-        SuccessfulSSMCommandConsumer consumer = new EnsureSuccessfulSSMCommandConsumer(ssm, commandId,
+        SuccessfulSSMCommandConsumer<Void> consumer = new EnsureSuccessfulSSMCommandConsumer(commandPoller, commandId,
                 migrationInstanceId);
-        
+
         migrationStageCallback.transitionToServiceWaitStage();
-        try {
-            consumer.handleCommandOutput();
-            checkForCriticalError(migrationInstanceId);
-            migrationStageCallback.transitionToServiceNextStage();
-        } catch (SuccessfulSSMCommandConsumer.UnsuccessfulSSMCommandInvocationException
-                | SuccessfulSSMCommandConsumer.SSMCommandInvocationProcessingError e) {
-            final String errorMessage = "Error restoring database. Either download of database dump from S3 failed or pg_restore failed";
-            throw new DatabaseMigrationFailure(errorMessage, e);
-        } finally {
-            /*
-             * Start Jira
-             */
-            remoteInstanceCommandRunnerService.setJiraRunStateTo(RemoteServiceState.START);
+
+        final CompletableFuture<Void> output = consumer.awaitCommandOutput(RESTORE_COMMAND_TIMEOUT);
+        final CompletableFuture<Void> restore = output
+                .exceptionally(e -> {
+                    throw new CompletionException(asRestoreFailure(e));
+                })
+                .thenApply(ignored -> {
+                    try {
+                        checkForCriticalError(migrationInstanceId);
+                        migrationStageCallback.transitionToServiceNextStage();
+                    } catch (DatabaseMigrationFailure | InvalidMigrationStageError e) {
+                        throw new CompletionException(e);
+                    }
+                    return (Void) null;
+                })
+                .whenComplete((ignored, error) -> {
+                    /*
+                     * Start Jira
+                     */
+                    if (startApplication) {
+                        remoteInstanceCommandRunnerService.setJiraRunStateTo(RemoteServiceState.START);
+                    }
+                });
+        // Stop polling the restore command if whoever is waiting for the restore gives up
+        restore.whenComplete((ignored, error) -> {
+            if (restore.isCancelled()) {
+                output.cancel(true);
+            }
+        });
+        return restore;
+    }
+
+    private static DatabaseMigrationFailure asRestoreFailure(Throwable error) {
+        final Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        if (cause instanceof DatabaseMigrationFailure) {
+            return (DatabaseMigrationFailure) cause;
         }
+        final String errorMessage = "Error restoring database. Either download of database dump from S3 failed or pg_restore failed";
+        return new DatabaseMigrationFailure(errorMessage, cause);
     }
 
     public SsmCommandResult fetchCommandResult() throws SsmCommandNotInitialisedException {
@@ -152,6 +240,39 @@ public class SsmPsqlDatabaseRestoreService {
         return ssmCommandOutputs;
     }
 
+    /**
+     * @return the progress of the running restore as last published by the restore script, if it has published any
+     */
+    public Optional<DatabaseRestoreProgress> getRestoreProgress() {
+        try {
+            String bucket = migrationHelperDeploymentService.getMigrationS3BucketName();
+            String progress = s3ClientSupplier.get().getObjectAsBytes(GetObjectRequest.builder()
+                    .bucket(bucket)
+                    .key(PUBLISHED_PROGRESS_KEY)
+                    .build())
+                    .asUtf8String();
+            return Optional.of(DatabaseRestoreProgress.fromJson(progress));
+        } catch (NoSuchKeyException e) {
+            logger.debug("database restore progress has not been published yet");
+            return Optional.empty();
+        } catch (InfrastructureDeploymentError | SdkException | JsonProcessingException e) {
+            logger.warn("unable to read published database restore progress", e);
+            return Optional.empty();
+        }
+    }
+
+    private void deletePublishedProgress() {
+        try {
+            String bucket = migrationHelperDeploymentService.getMigrationS3BucketName();
+            s3ClientSupplier.get().deleteObject(DeleteObjectRequest.builder()
+                    .bucket(bucket)
+                    .key(PUBLISHED_PROGRESS_KEY)
+                    .build());
+        } catch (InfrastructureDeploymentError | SdkException e) {
+            logger.warn("unable to delete database restore progress published by a previous restore", e);
+        }
+    }
+
     public String getCommandId() {
         return commandId;
     }
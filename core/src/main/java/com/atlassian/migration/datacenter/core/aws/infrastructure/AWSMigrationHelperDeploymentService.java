@@ -33,10 +33,16 @@ import software.amazon.awssdk.services.autoscaling.model.AutoScalingGroup;
 import software.amazon.awssdk.services.autoscaling.model.DescribeAutoScalingGroupsRequest;
 import software.amazon.awssdk.services.autoscaling.model.DescribeAutoScalingGroupsResponse;
 import software.amazon.awssdk.services.autoscaling.model.Instance;
+import software.amazon.awssdk.services.autoscaling.model.LifecycleState;
+import software.amazon.awssdk.services.autoscaling.model.SetInstanceProtectionRequest;
+import software.amazon.awssdk.services.autoscaling.model.UpdateAutoScalingGroupRequest;
 import software.amazon.awssdk.services.cloudformation.model.Output;
 import software.amazon.awssdk.services.cloudformation.model.Stack;
 import software.amazon.awssdk.services.cloudformation.model.StackResource;
 
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.function.Supplier;
@@ -168,12 +174,93 @@ public class AWSMigrationHelperDeploymentService extends CloudformationDeploymen
         return getMigrationStackPropertyOrOverride(() -> migrationService.getCurrentContext().getMigrationDLQueueUrl(), "com.atlassian.migration.queue.deadLetterQueueName");
     }
 
+    /**
+     * The migration host is the instance of the migration stack group which commands such as the file system download
+     * and the database restore are run on. It is the instance which is protected from scale in. Until the group is
+     * first scaled it only has the one instance, which {@link #scaleMigrationHosts(int)} protects before scaling, so
+     * the host stays the same however the group is scaled afterwards. Looking the host up never changes the group.
+     */
     public String getMigrationHostInstanceId() throws InfrastructureDeploymentError {
         final String documentOverride = System.getProperty("com.atlassian.migration.hostInstanceId");
         if (documentOverride != null) {
             return documentOverride;
         }
+        return findMigrationHost(describeMigrationStackGroup().instances()).instanceId();
+    }
+
+    private static Instance findMigrationHost(List<Instance> instances) throws InfrastructureDeploymentError {
+        Optional<Instance> protectedHost = instances.stream().filter(AWSMigrationHelperDeploymentService::isProtectedFromScaleIn).findFirst();
+        if (protectedHost.isPresent()) {
+            return protectedHost.get();
+        }
+
+        Instance host = instances.stream()
+                .filter(instance -> instance.lifecycleState() == LifecycleState.IN_SERVICE)
+                .findFirst()
+                .orElseGet(() -> instances.stream().findFirst().orElse(null));
+        if (host == null) {
+            throw new InfrastructureDeploymentError("migration stack group has no instances");
+        }
+        return host;
+    }
+
+    /**
+     * @return the IDs of the instances of the migration stack group, all of which consume the migration queue. The
+     * migration host comes first, followed by the other instances which are in service.
+     */
+    public List<String> getMigrationHostInstanceIds() throws InfrastructureDeploymentError {
+        String migrationHost = getMigrationHostInstanceId();
+        List<String> others = describeMigrationStackGroup()
+                .instances()
+                .stream()
+                .filter(instance -> !instance.instanceId().equals(migrationHost))
+                .sorted(Comparator.comparing((Instance instance) -> instance.lifecycleState() != LifecycleState.IN_SERVICE))
+                .map(Instance::instanceId)
+                .collect(Collectors.toList());
+        List<String> instanceIds = new ArrayList<>();
+        instanceIds.add(migrationHost);
+        instanceIds.addAll(others);
+        return instanceIds;
+    }
+
+    /**
+     * Resizes the migration stack group so that the migration queue is consumed by the given number of instances. The
+     * migration host is protected from scale in, so that commands running on it are not interrupted and it stays the
+     * host when the group is scaled back in.
+     */
+    public void scaleMigrationHosts(int instanceCount) throws InfrastructureDeploymentError {
+        String migrationStackAsg = getMigrationStackPropertyOrOverride(() -> migrationService.getCurrentContext().getMigrationStackAsgIdentifier(), "com.atlassian.migration.asgIdentifier");
+        AutoScalingClient client = autoScalingClientFactory.get();
+
+        Instance migrationHost = findMigrationHost(describeMigrationStackGroup().instances());
+        if (!isProtectedFromScaleIn(migrationHost)) {
+            protectFromScaleIn(migrationHost.instanceId());
+        }
+
+        logger.info("Scaling migration stack group {} to {} instances, keeping migration host {}", migrationStackAsg, instanceCount, migrationHost.instanceId());
+        client.updateAutoScalingGroup(UpdateAutoScalingGroupRequest.builder()
+                .autoScalingGroupName(migrationStackAsg)
+                .minSize(instanceCount)
+                .maxSize(instanceCount)
+                .desiredCapacity(instanceCount)
+                .build());
+    }
 
+    private void protectFromScaleIn(String instanceId) throws InfrastructureDeploymentError {
+        String migrationStackAsg = getMigrationStackPropertyOrOverride(() -> migrationService.getCurrentContext().getMigrationStackAsgIdentifier(), "com.atlassian.migration.asgIdentifier");
+        logger.info("Protecting migration host {} of migration stack group {} from scale in", instanceId, migrationStackAsg);
+        autoScalingClientFactory.get().setInstanceProtection(SetInstanceProtectionRequest.builder()
+                .autoScalingGroupName(migrationStackAsg)
+                .instanceIds(instanceId)
+                .protectedFromScaleIn(true)
+                .build());
+    }
+
+    private static boolean isProtectedFromScaleIn(Instance instance) {
+        return Boolean.TRUE.equals(instance.protectedFromScaleIn());
+    }
+
+    private AutoScalingGroup describeMigrationStackGroup() throws InfrastructureDeploymentError {
         String migrationStackAsg = getMigrationStackPropertyOrOverride(() -> migrationService.getCurrentContext().getMigrationStackAsgIdentifier(), "com.atlassian.migration.asgIdentifier");
 
         AutoScalingClient client = autoScalingClientFactory.get();
@@ -184,10 +271,7 @@ public class AWSMigrationHelperDeploymentService extends CloudformationDeploymen
                         .build()
         );
 
-        AutoScalingGroup migrationStackGroup = response.autoScalingGroups().get(0);
-        Instance migrationInstance = migrationStackGroup.instances().get(0);
-
-        return migrationInstance.instanceId();
+        return response.autoScalingGroups().get(0);
     }
 
     private String getMigrationStackPropertyOrOverride(Supplier<String> supplier, String migrationStackPropertySystemOverrideKey) throws InfrastructureDeploymentError {
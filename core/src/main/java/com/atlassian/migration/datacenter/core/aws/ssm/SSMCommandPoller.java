@@ -0,0 +1,170 @@
+/*
+ * Copyright 2020 Atlassian
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.atlassian.migration.datacenter.core.aws.ssm;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import software.amazon.awssdk.core.exception.SdkException;
+import software.amazon.awssdk.services.ssm.model.CommandInvocationStatus;
+import software.amazon.awssdk.services.ssm.model.GetCommandInvocationResponse;
+import software.amazon.awssdk.services.ssm.model.InvocationDoesNotExistException;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Waits for SSM commands to finish without blocking the caller. All commands are polled on one shared scheduler,
+ * starting shortly after the command was sent and backing off exponentially up to a ceiling, so short commands are
+ * noticed as soon as they finish and long-running ones don't flood the SSM API.
+ */
+public class SSMCommandPoller implements DisposableBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(SSMCommandPoller.class);
+
+    private static final Duration DEFAULT_INITIAL_DELAY = Duration.ofMillis(250);
+    private static final Duration DEFAULT_MAX_DELAY = Duration.ofSeconds(5);
+    private static final double DEFAULT_BACKOFF_MULTIPLIER = 2.0;
+
+    private final SSMApi ssmApi;
+    private final Duration initialDelay;
+    private final Duration maxDelay;
+    private final double backoffMultiplier;
+    private final ScheduledExecutorService scheduler;
+
+    public SSMCommandPoller(SSMApi ssmApi) {
+        this(ssmApi, DEFAULT_INITIAL_DELAY, DEFAULT_MAX_DELAY, DEFAULT_BACKOFF_MULTIPLIER);
+    }
+
+    public SSMCommandPoller(SSMApi ssmApi, Duration initialDelay, Duration maxDelay, double backoffMultiplier) {
+        this.ssmApi = ssmApi;
+        this.initialDelay = initialDelay;
+        this.maxDelay = maxDelay;
+        this.backoffMultiplier = backoffMultiplier;
+
+        final AtomicInteger threadCount = new AtomicInteger();
+        this.scheduler = Executors.newScheduledThreadPool(2, runnable -> {
+            Thread thread = new Thread(runnable, "ssm-command-poller-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Polls the command until it finishes. Cancelling the returned future stops the polling.
+     *
+     * @param timeout how long to wait for the command to finish before giving up on it
+     * @return a future of the command invocation which completes when the command succeeds. It completes
+     * exceptionally with an {@link SuccessfulSSMCommandConsumer.UnsuccessfulSSMCommandInvocationException} if the
+     * command finishes unsuccessfully or does not finish within the timeout.
+     */
+    public CompletableFuture<GetCommandInvocationResponse> awaitSuccess(String commandId, String instanceId, Duration timeout) {
+        final CompletableFuture<GetCommandInvocationResponse> future = new CompletableFuture<>();
+        final Poll poll = new Poll(commandId, instanceId, Instant.now().plus(timeout), future);
+        schedule(poll, initialDelay);
+        return future;
+    }
+
+    private void schedule(Poll poll, Duration delay) {
+        try {
+            scheduler.schedule(poll, delay.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            poll.future.completeExceptionally(new SuccessfulSSMCommandConsumer.UnsuccessfulSSMCommandInvocationException(
+                    String.format("Stopped waiting for SSM command %s because the poller has been shut down", poll.commandId), e));
+        }
+    }
+
+    private Duration nextDelay(Duration delay) {
+        final Duration next = Duration.ofMillis((long) (delay.toMillis() * backoffMultiplier));
+        return next.compareTo(maxDelay) > 0 ? maxDelay : next;
+    }
+
+    private static boolean isFinished(CommandInvocationStatus status) {
+        return status.equals(CommandInvocationStatus.FAILED) ||
+                status.equals(CommandInvocationStatus.CANCELLED) ||
+                status.equals(CommandInvocationStatus.TIMED_OUT) ||
+                status.equals(CommandInvocationStatus.DELAYED) ||
+                status.equals(CommandInvocationStatus.SUCCESS);
+    }
+
+    @Override
+    public void destroy() {
+        scheduler.shutdownNow();
+    }
+
+    private class Poll implements Runnable {
+        private final String commandId;
+        private final String instanceId;
+        private final Instant deadline;
+        private final CompletableFuture<GetCommandInvocationResponse> future;
+        private Duration delay = initialDelay;
+        private int attempt = 0;
+        private GetCommandInvocationResponse lastResponse;
+
+        Poll(String commandId, String instanceId, Instant deadline, CompletableFuture<GetCommandInvocationResponse> future) {
+            this.commandId = commandId;
+            this.instanceId = instanceId;
+            this.deadline = deadline;
+            this.future = future;
+        }
+
+        @Override
+        public void run() {
+            if (future.isDone()) {
+                return;
+            }
+            attempt++;
+            logger.debug("Checking status of SSM command {}. Attempt {}", commandId, attempt);
+            try {
+                lastResponse = ssmApi.getSSMCommand(commandId, instanceId);
+                final CommandInvocationStatus status = lastResponse.status();
+                logger.debug("SSM command {} status is {}", commandId, status);
+
+                if (status.equals(CommandInvocationStatus.SUCCESS)) {
+                    future.complete(lastResponse);
+                    return;
+                } else if (isFinished(status)) {
+                    future.completeExceptionally(new SuccessfulSSMCommandConsumer.UnsuccessfulSSMCommandInvocationException(
+                            String.format("SSM command %s finished with status %s and message: %s", commandId, status, lastResponse.statusDetails())));
+                    return;
+                }
+            } catch (InvocationDoesNotExistException e) {
+                logger.debug("Command does not exist - maybe it hasn't reached the EC2 instance yet. Will continue retrying");
+            } catch (SdkException e) {
+                logger.warn("Unable to get status of SSM command {}. Will continue retrying", commandId, e);
+            }
+
+            final Duration remaining = Duration.between(Instant.now(), deadline);
+            if (remaining.isNegative() || remaining.isZero()) {
+                future.completeExceptionally(new SuccessfulSSMCommandConsumer.UnsuccessfulSSMCommandInvocationException(
+                        String.format(
+                                "SSM command %s did not complete before its deadline. Latest status is: %s",
+                                commandId,
+                                lastResponse == null ? "unknown" : lastResponse.status())));
+                return;
+            }
+            schedule(this, delay.compareTo(remaining) > 0 ? remaining : delay);
+            delay = nextDelay(delay);
+        }
+    }
+}
@@ -18,72 +18,86 @@ package com.atlassian.migration.datacenter.core.aws.ssm;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import software.amazon.awssdk.services.ssm.model.CommandInvocationStatus;
 import software.amazon.awssdk.services.ssm.model.GetCommandInvocationResponse;
-import software.amazon.awssdk.services.ssm.model.InvocationDoesNotExistException;
 
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Waits for an SSM command to succeed and then processes its output. The command is polled by the shared
+ * {@link SSMCommandPoller}, so waiting asynchronously through {@link #awaitCommandOutput(Duration)} does not tie up a
+ * thread.
+ */
 public abstract class SuccessfulSSMCommandConsumer<T> {
 
     private static final Logger logger = LoggerFactory.getLogger(SuccessfulSSMCommandConsumer.class);
 
+    public static final Duration DEFAULT_COMMAND_TIMEOUT = Duration.ofMinutes(10);
 
-    private final SSMApi ssmApi;
+    private final SSMCommandPoller commandPoller;
     private final String commandId;
     private final String instanceId;
 
-    protected SuccessfulSSMCommandConsumer(SSMApi ssmApi, String commandId, String instanceId) {
-        this.ssmApi = ssmApi;
+    protected SuccessfulSSMCommandConsumer(SSMCommandPoller commandPoller, String commandId, String instanceId) {
+        this.commandPoller = commandPoller;
         this.commandId = commandId;
         this.instanceId = instanceId;
     }
 
-    public T handleCommandOutput() throws UnsuccessfulSSMCommandInvocationException, SSMCommandInvocationProcessingError {
-        return handleCommandOutput(0);
-    }
-
-    public T handleCommandOutput(int maxCommandStatusRetries) throws UnsuccessfulSSMCommandInvocationException, SSMCommandInvocationProcessingError {
-        int attempt = 0;
-        GetCommandInvocationResponse command = null;
-        do {
-            attempt++;
-            logger.debug("Checking delivery of s3 sync ssm command. Attempt {}", attempt);
-
+    /**
+     * @param timeout how long to wait for the command to succeed
+     * @return a future of the processed output of the command. Cancelling it also cancels the future the
+     * {@link SSMCommandPoller} completes, so the command is no longer polled.
+     */
+    public CompletableFuture<T> awaitCommandOutput(Duration timeout) {
+        final CompletableFuture<GetCommandInvocationResponse> command = commandPoller.awaitSuccess(commandId, instanceId, timeout);
+        final CompletableFuture<T> output = command.thenApply(invocation -> {
             try {
-                command = ssmApi.getSSMCommand(commandId, instanceId);
-                final CommandInvocationStatus status = command.status();
-
-                logger.debug("S3 sync command status is {}", status);
-
-                if (status.equals(CommandInvocationStatus.SUCCESS)) {
-                    return handleSuccessfulCommand(command);
-                } else if (status.equals(CommandInvocationStatus.FAILED)) {
-                    throw new UnsuccessfulSSMCommandInvocationException(String.format("SSM command %s failed with message: %s", commandId, command.statusDetails()));
-                }
-            } catch (InvocationDoesNotExistException e) {
-                logger.debug("Command does not exist - maybe it hasn't reached the EC2 instance yet. Will continue retrying");
+                return handleSuccessfulCommand(invocation);
+            } catch (SSMCommandInvocationProcessingError e) {
+                throw new CompletionException(e);
             }
-
-            try {
-                Thread.sleep(10000);
-            } catch (InterruptedException e) {
-                logger.error("interrupted while waiting for s3 sync ssm command to be delivered", e);
-                throw new UnsuccessfulSSMCommandInvocationException("Interrupted while waiting to check command status", e);
+        });
+        // Cancelling a dependent future doesn't cancel the future it depends on
+        output.whenComplete((result, error) -> {
+            if (output.isCancelled()) {
+                command.cancel(true);
             }
-        } while (attempt == maxCommandStatusRetries || command == null || !isFinished(command.status()));
+        });
+        return output;
+    }
 
-        throw new UnsuccessfulSSMCommandInvocationException(
-                String.format(
-                        "Command never completed successfully. Latest status is: %s. Latest response from SSM API is: %s",
-                        command.status().toString(),
-                        command.sdkHttpResponse().statusText()));
+    public T handleCommandOutput() throws UnsuccessfulSSMCommandInvocationException, SSMCommandInvocationProcessingError {
+        return handleCommandOutput(DEFAULT_COMMAND_TIMEOUT);
     }
 
-    private boolean isFinished(CommandInvocationStatus status) {
-        return status.equals(CommandInvocationStatus.FAILED) ||
-                status.equals(CommandInvocationStatus.CANCELLED) ||
-                status.equals(CommandInvocationStatus.TIMED_OUT) ||
-                status.equals(CommandInvocationStatus.DELAYED) ||
-                status.equals(CommandInvocationStatus.SUCCESS);
+    /**
+     * Blocks until the command has succeeded and its output has been processed. This is only a bridge for callers
+     * which have to return synchronously, such as scheduler jobs which must not finish before the command has; anything
+     * else should compose on {@link #awaitCommandOutput(Duration)} instead of holding a thread while the command runs.
+     *
+     * @param timeout how long to wait for the command to succeed
+     */
+    public T handleCommandOutput(Duration timeout) throws UnsuccessfulSSMCommandInvocationException, SSMCommandInvocationProcessingError {
+        final CompletableFuture<T> output = awaitCommandOutput(timeout);
+        try {
+            return output.get();
+        } catch (InterruptedException e) {
+            output.cancel(true);
+            Thread.currentThread().interrupt();
+            logger.error("interrupted while waiting for ssm command {} to complete", commandId, e);
+            throw new UnsuccessfulSSMCommandInvocationException("Interrupted while waiting to check command status", e);
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof UnsuccessfulSSMCommandInvocationException) {
+                throw (UnsuccessfulSSMCommandInvocationException) cause;
+            } else if (cause instanceof SSMCommandInvocationProcessingError) {
+                throw (SSMCommandInvocationProcessingError) cause;
+            }
+            throw new UnsuccessfulSSMCommandInvocationException(String.format("Error while waiting for SSM command %s", commandId), cause);
+        }
     }
 
     protected abstract T handleSuccessfulCommand(GetCommandInvocationResponse commandInvocation) throws SSMCommandInvocationProcessingError;
@@ -0,0 +1,206 @@
+/*
+ * Copyright 2020 Atlassian
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.atlassian.migration.datacenter.core.fs;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.core.async.AsyncRequestBody;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompletedMultipartUpload;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.UploadPartRequest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Uploads a stream of unknown length to S3 in multiple parts while it is still being written.
+ * <p>
+ * Parts are read from the stream one after the other and uploaded concurrently. At most {@code maxPartsInFlight}
+ * parts are held in memory at any time, so reading from the stream blocks while S3 catches up and the memory used
+ * stays bounded no matter how large the stream is.
+ * <p>
+ * The upload is aborted if reading the stream or uploading any of the parts fails, so a truncated object is never
+ * made visible in the bucket.
+ */
+public class S3StreamingMultiPartUploader {
+    private static final Logger logger = LoggerFactory.getLogger(S3StreamingMultiPartUploader.class);
+
+    public static final int MIN_PART_SIZE = 5 * 1024 * 1024; // 5MB https://docs.aws.amazon.com/AmazonS3/latest/dev/qfacts.html
+    private static final int MAX_PARTS = 10_000;
+
+    private final S3UploadConfig config;
+    private final String key;
+    private final int partSize;
+    private final int maxPartsInFlight;
+
+    public S3StreamingMultiPartUploader(S3UploadConfig config, String key, int partSize, int maxPartsInFlight) {
+        if (partSize < MIN_PART_SIZE) {
+            throw new IllegalArgumentException(String.format("Part size must be at least %d bytes", MIN_PART_SIZE));
+        }
+        if (maxPartsInFlight < 1) {
+            throw new IllegalArgumentException("At least one part must be allowed in flight");
+        }
+        this.config = config;
+        this.key = key;
+        this.partSize = partSize;
+        this.maxPartsInFlight = maxPartsInFlight;
+    }
+
+    /**
+     * Reads the stream until it is exhausted and uploads its content to the configured key.
+     *
+     * @param stream the stream to upload. It is not closed by this method.
+     * @return the number of bytes uploaded
+     * @throws IOException when the stream cannot be read or a part cannot be uploaded
+     */
+    public long upload(InputStream stream) throws IOException, InterruptedException {
+        final String uploadId = initiateUpload();
+        final Semaphore buffers = new Semaphore(maxPartsInFlight);
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        final List<CompletableFuture<CompletedPart>> parts = new ArrayList<>();
+        long uploadedBytes = 0;
+
+        try {
+            for (int partNumber = 1; ; partNumber++) {
+                buffers.acquire();
+                throwIfFailed(failure);
+
+                final byte[] part = readPart(stream);
+                if (part.length == 0 && partNumber > 1) {
+                    buffers.release();
+                    break;
+                }
+                if (partNumber > MAX_PARTS) {
+                    throw new IOException(String.format("Stream for %s does not fit into %d parts of %d bytes", key, MAX_PARTS, partSize));
+                }
+
+                logger.trace("Read {} bytes for part {} of {}", part.length, partNumber, key);
+                parts.add(uploadPart(uploadId, partNumber, part)
+                        .whenComplete((completed, e) -> {
+                            if (e != null) {
+                                failure.compareAndSet(null, e);
+                            }
+                            buffers.release();
+                        }));
+                uploadedBytes += part.length;
+
+                if (part.length < partSize) {
+                    break;
+                }
+            }
+
+            final List<CompletedPart> completedParts = new ArrayList<>(parts.size());
+            for (CompletableFuture<CompletedPart> part : parts) {
+                completedParts.add(await(part));
+            }
+            await(completeUpload(uploadId, completedParts));
+            logger.info("Finished streaming {} bytes to {} in {} parts", uploadedBytes, key, completedParts.size());
+            return uploadedBytes;
+        } catch (IOException | InterruptedException | RuntimeException e) {
+            parts.forEach(part -> part.cancel(true));
+            abortUpload(uploadId);
+            throw e;
+        }
+    }
+
+    private byte[] readPart(InputStream stream) throws IOException {
+        final byte[] buffer = new byte[partSize];
+        int read = 0;
+        while (read < partSize) {
+            final int count = stream.read(buffer, read, partSize - read);
+            if (count < 0) {
+                return Arrays.copyOf(buffer, read);
+            }
+            read += count;
+        }
+        return buffer;
+    }
+
+    private String initiateUpload() throws IOException, InterruptedException {
+        final CreateMultipartUploadRequest request = CreateMultipartUploadRequest.builder()
+                .bucket(config.getBucketName())
+                .key(key)
+                .build();
+        return await(config.getS3AsyncClient().createMultipartUpload(request)).uploadId();
+    }
+
+    private CompletableFuture<CompletedPart> uploadPart(String uploadId, int partNumber, byte[] part) {
+        final UploadPartRequest request = UploadPartRequest.builder()
+                .bucket(config.getBucketName())
+                .key(key)
+                .uploadId(uploadId)
+                .partNumber(partNumber)
+                .build();
+        return config.getS3AsyncClient()
+                .uploadPart(request, AsyncRequestBody.fromBytes(part))
+                .thenApply(response -> CompletedPart.builder()
+                        .partNumber(partNumber)
+                        .eTag(response.eTag())
+                        .build());
+    }
+
+    private CompletableFuture<?> completeUpload(String uploadId, List<CompletedPart> parts) {
+        final CompleteMultipartUploadRequest request = CompleteMultipartUploadRequest.builder()
+                .bucket(config.getBucketName())
+                .key(key)
+                .uploadId(uploadId)
+                .multipartUpload(CompletedMultipartUpload.builder().parts(parts).build())
+                .build();
+        return config.getS3AsyncClient().completeMultipartUpload(request);
+    }
+
+    private void abortUpload(String uploadId) {
+        final AbortMultipartUploadRequest request = AbortMultipartUploadRequest.builder()
+                .bucket(config.getBucketName())
+                .key(key)
+                .uploadId(uploadId)
+                .build();
+        try {
+            config.getS3AsyncClient().abortMultipartUpload(request).get();
+            logger.warn("Aborted multipart upload of {}", key);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.error("Interrupted while aborting multipart upload {} of {}. Its parts may remain in the bucket until they expire.", uploadId, key);
+        } catch (ExecutionException e) {
+            logger.error("Unable to abort multipart upload {} of {}. Its parts will remain in the bucket until they expire.", uploadId, key, e);
+        }
+    }
+
+    private static void throwIfFailed(AtomicReference<Throwable> failure) throws IOException {
+        final Throwable e = failure.get();
+        if (e != null) {
+            throw new IOException("Error uploading part to S3", e);
+        }
+    }
+
+    private static <T> T await(CompletableFuture<T> future) throws IOException, InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            throw new IOException("Error during multipart upload to S3", e.getCause());
+        }
+    }
+}
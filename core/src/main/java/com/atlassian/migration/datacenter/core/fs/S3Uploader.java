@@ -27,11 +27,16 @@ import software.amazon.awssdk.services.s3.model.PutObjectResponse;
 
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Queue;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
+import java.util.stream.Collectors;
 
 public class S3Uploader implements Uploader {
     private static final Logger logger = LoggerFactory.getLogger(S3Uploader.class);
@@ -40,6 +45,8 @@ public class S3Uploader implements Uploader {
 
     private final FileSystemMigrationReport report;
     private final Queue<S3UploadOperation> responsesQueue = new LinkedList<>();
+    // Whether the latest upload of each path succeeded, so that a failure can be superseded by a later upload
+    private final Map<Path, Boolean> latestOutcomes = new ConcurrentHashMap<>();
     private final S3UploadConfig config;
 
     public S3Uploader(S3UploadConfig config, FileSystemMigrationReport report) {
@@ -47,6 +54,17 @@ public class S3Uploader implements Uploader {
         this.report = report;
     }
 
+    /**
+     * @return the paths whose latest upload failed. Unlike the failed files of the report, this excludes paths which
+     * failed to upload at first but were uploaded again successfully.
+     */
+    public Set<Path> getPathsNotUploaded() {
+        return latestOutcomes.entrySet().stream()
+                .filter(outcome -> !outcome.getValue())
+                .map(Map.Entry::getKey)
+                .collect(Collectors.toSet());
+    }
+
     @Override
     public Integer maxConcurrent() {
         return MAX_OPEN_CONNECTIONS;
@@ -74,6 +92,9 @@ public class S3Uploader implements Uploader {
             logger.trace("Response queue greater than connection threshold. Acknowledging response queue");
             acknowledgeAndFlushResponses();
         }
+        // Uploads of the same key may complete in any order, so a path queued again waits for its previous upload
+        // rather than racing it and possibly being overwritten by older content
+        acknowledgePendingUpload(path);
 
         if (Files.exists(path)) {
             logger.trace("Consuming {} from upload queue", path);
@@ -84,7 +105,9 @@ public class S3Uploader implements Uploader {
                 final S3MultiPartUploader multiPartUploader = new S3MultiPartUploader(config, path.toFile(), key);
                 try {
                     multiPartUploader.upload();
+                    latestOutcomes.put(path, true);
                 } catch (InterruptedException | ExecutionException e) {
+                    latestOutcomes.put(path, false);
                     logger.error("Error when running multi-part upload for file {} with exception {}", path, e.getMessage());
                 }
             } else {
@@ -114,6 +137,18 @@ public class S3Uploader implements Uploader {
         }
     }
 
+    private void acknowledgePendingUpload(Path path) {
+        for (Iterator<S3UploadOperation> pending = responsesQueue.iterator(); pending.hasNext(); ) {
+            S3UploadOperation operation = pending.next();
+            if (operation.path.equals(path)) {
+                logger.debug("{} is still being uploaded, waiting for that upload before uploading it again", path);
+                pending.remove();
+                handlePutObjectResponse(operation);
+                return;
+            }
+        }
+    }
+
     private void handlePutObjectResponse(S3UploadOperation operation) {
         try {
             logger.trace("acknowledging file upload for {}", operation.path);
@@ -127,6 +162,7 @@ public class S3Uploader implements Uploader {
                 addFailedFile(operation.path, errorMessage);
             } else {
                 logger.trace("{} migrated successfully", operation.path);
+                latestOutcomes.put(operation.path, true);
                 report.reportFileUploaded();
             }
         } catch (InterruptedException | ExecutionException e) {
@@ -135,6 +171,7 @@ public class S3Uploader implements Uploader {
     }
 
     private void addFailedFile(Path path, String reason) {
+        latestOutcomes.put(path, false);
         report.reportFileNotMigrated(new FailedFileMigration(path, reason));
         logger.error("File {} wasn't uploaded. Reason: {}", path, reason);
     }
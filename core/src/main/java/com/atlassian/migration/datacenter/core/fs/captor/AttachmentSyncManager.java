@@ -16,11 +16,30 @@
 
 package com.atlassian.migration.datacenter.core.fs.captor;
 
-import com.atlassian.migration.datacenter.dto.FileSyncRecord;
-
-import java.util.Set;
+import java.util.Iterator;
 
 public interface AttachmentSyncManager {
-    Set<FileSyncRecord> getCapturedAttachments();
+    /**
+     * Lazily iterates over the paths of the files captured in the current migration, in the order they were captured.
+     * Only a single page of records is held in memory at a time.
+     *
+     * @return the captured file paths, or an empty iterator if there is no migration in progress
+     */
+    Iterator<String> iterateCapturedFilePaths();
+
+    /**
+     * Lazily iterates over the files captured in the current migration, in the order they were captured.
+     *
+     * @param onlyUnsynced if true, skip the files which have already been uploaded ahead of the final sync
+     * @return the captured files, or an empty iterator if there is no migration in progress
+     */
+    Iterator<CapturedFile> iterateCapturedFiles(boolean onlyUnsynced);
+
+    /**
+     * Records that a captured file has been uploaded ahead of the final sync, so that the final sync only needs to
+     * upload it again if its size or last modified time have changed since.
+     */
+    void markSynced(int recordId, long fileSize, long modifiedTime);
+
     Integer getCapturedAttachmentCountForCurrentMigration();
 }
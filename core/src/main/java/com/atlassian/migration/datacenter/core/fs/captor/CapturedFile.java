@@ -0,0 +1,82 @@
+/*
+ * Copyright 2020 Atlassian
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.atlassian.migration.datacenter.core.fs.captor;
+
+import java.util.Objects;
+
+/**
+ * A file captured for the final sync, along with the size and last modified time it had when it was last uploaded,
+ * if it was uploaded ahead of the final sync.
+ */
+public class CapturedFile {
+    private final int recordId;
+    private final String filePath;
+    private final Long syncedFileSize;
+    private final Long syncedModifiedTime;
+
+    public CapturedFile(int recordId, String filePath, Long syncedFileSize, Long syncedModifiedTime) {
+        this.recordId = recordId;
+        this.filePath = filePath;
+        this.syncedFileSize = syncedFileSize;
+        this.syncedModifiedTime = syncedModifiedTime;
+    }
+
+    public int getRecordId() {
+        return recordId;
+    }
+
+    public String getFilePath() {
+        return filePath;
+    }
+
+    public boolean isSynced() {
+        return syncedFileSize != null && syncedModifiedTime != null;
+    }
+
+    /**
+     * @return true if the file was uploaded ahead of the final sync and has not changed since
+     */
+    public boolean isSyncedAs(long fileSize, long modifiedTime) {
+        return isSynced() && syncedFileSize == fileSize && syncedModifiedTime == modifiedTime;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        CapturedFile that = (CapturedFile) o;
+        return recordId == that.recordId &&
+                Objects.equals(filePath, that.filePath) &&
+                Objects.equals(syncedFileSize, that.syncedFileSize) &&
+                Objects.equals(syncedModifiedTime, that.syncedModifiedTime);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(recordId, filePath, syncedFileSize, syncedModifiedTime);
+    }
+
+    @Override
+    public String toString() {
+        return "CapturedFile{" +
+                "recordId=" + recordId +
+                ", filePath='" + filePath + '\'' +
+                ", syncedFileSize=" + syncedFileSize +
+                ", syncedModifiedTime=" + syncedModifiedTime +
+                '}';
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2020 Atlassian
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.atlassian.migration.datacenter.core.fs.captor;
+
+import com.atlassian.activeobjects.external.ActiveObjects;
+import com.atlassian.migration.datacenter.dto.FileSyncRecord;
+import net.java.ao.Query;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Iterates over the files captured for a migration, reading them from the database one page at a time. Pages are
+ * addressed by the last record ID seen rather than by offset, so every page is an index range scan no matter how far
+ * into the captured files the iteration is.
+ */
+class CapturedFileIterator implements Iterator<CapturedFile> {
+    private final ActiveObjects activeObjects;
+    private final int migrationId;
+    private final int pageSize;
+    private final boolean onlyUnsynced;
+
+    private final Deque<CapturedFile> page = new ArrayDeque<>();
+    private int lastSeenId = 0;
+    private boolean exhausted = false;
+
+    /**
+     * @param onlyUnsynced if true, skip the files which have already been uploaded ahead of the final sync
+     */
+    CapturedFileIterator(ActiveObjects activeObjects, int migrationId, int pageSize, boolean onlyUnsynced) {
+        if (pageSize < 1) {
+            throw new IllegalArgumentException("Page size must be positive but was " + pageSize);
+        }
+        this.activeObjects = activeObjects;
+        this.migrationId = migrationId;
+        this.pageSize = pageSize;
+        this.onlyUnsynced = onlyUnsynced;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (page.isEmpty() && !exhausted) {
+            fetchNextPage();
+        }
+        return !page.isEmpty();
+    }
+
+    @Override
+    public CapturedFile next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return page.poll();
+    }
+
+    private void fetchNextPage() {
+        final String where = onlyUnsynced
+                ? "MIGRATION_ID = ? AND ID > ? AND SYNCED_FILE_SIZE IS NULL"
+                : "MIGRATION_ID = ? AND ID > ?";
+        final FileSyncRecord[] records = activeObjects.find(
+                FileSyncRecord.class,
+                Query.select("ID, FILE_PATH, SYNCED_FILE_SIZE, SYNCED_MODIFIED_TIME")
+                        .where(where, migrationId, lastSeenId)
+                        .order("ID ASC")
+                        .limit(pageSize));
+
+        for (FileSyncRecord record : records) {
+            page.add(new CapturedFile(record.getID(), record.getFilePath(), record.getSyncedFileSize(), record.getSyncedModifiedTime()));
+            lastSeenId = Math.max(lastSeenId, record.getID());
+        }
+        exhausted = records.length < pageSize;
+    }
+}
@@ -20,40 +20,66 @@ import com.atlassian.activeobjects.external.ActiveObjects;
 import com.atlassian.migration.datacenter.dto.FileSyncRecord;
 import com.atlassian.migration.datacenter.dto.Migration;
 import com.atlassian.migration.datacenter.spi.MigrationService;
+import com.google.common.collect.Iterators;
 import net.java.ao.Query;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.Collections;
-import java.util.HashSet;
-import java.util.Set;
+import java.util.Iterator;
 
 public class DefaultAttachmentSyncManager implements AttachmentSyncManager {
     private static final Logger logger = LoggerFactory.getLogger(DefaultAttachmentSyncManager.class);
+    private static final int DEFAULT_PAGE_SIZE = 1000;
+
     private final ActiveObjects activeObjects;
     private final MigrationService migrationService;
+    private final int pageSize;
 
     public DefaultAttachmentSyncManager(ActiveObjects activeObjects, MigrationService migrationService) {
+        this(activeObjects, migrationService, DEFAULT_PAGE_SIZE);
+    }
+
+    public DefaultAttachmentSyncManager(ActiveObjects activeObjects, MigrationService migrationService, int pageSize) {
         this.activeObjects = activeObjects;
         this.migrationService = migrationService;
+        this.pageSize = pageSize;
     }
 
     @Override
-    public Set<FileSyncRecord> getCapturedAttachments() {
-        Set<FileSyncRecord> records = new HashSet<>();
+    public Iterator<String> iterateCapturedFilePaths() {
         Migration migration = migrationService.getCurrentMigration();
 
         if (migration == null) {
-            return Collections.emptySet();
+            return Collections.emptyIterator();
         }
 
-        final FileSyncRecord[] recordsForCurrentMigration = activeObjects.find(
-                FileSyncRecord.class,
-                Query.select().where("MIGRATION_ID = ?", migration.getID()));
+        return Iterators.transform(
+                new CapturedFileIterator(activeObjects, migration.getID(), pageSize, false),
+                CapturedFile::getFilePath);
+    }
 
-        Collections.addAll(records, recordsForCurrentMigration);
+    @Override
+    public Iterator<CapturedFile> iterateCapturedFiles(boolean onlyUnsynced) {
+        Migration migration = migrationService.getCurrentMigration();
 
-        return records;
+        if (migration == null) {
+            return Collections.emptyIterator();
+        }
+
+        return new CapturedFileIterator(activeObjects, migration.getID(), pageSize, onlyUnsynced);
+    }
+
+    @Override
+    public void markSynced(int recordId, long fileSize, long modifiedTime) {
+        final FileSyncRecord record = activeObjects.get(FileSyncRecord.class, recordId);
+        if (record == null) {
+            logger.debug("Captured file record {} no longer exists, not marking it as synced", recordId);
+            return;
+        }
+        record.setSyncedFileSize(fileSize);
+        record.setSyncedModifiedTime(modifiedTime);
+        record.save();
     }
 
     @Override
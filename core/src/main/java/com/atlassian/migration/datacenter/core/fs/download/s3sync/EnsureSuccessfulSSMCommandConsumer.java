@@ -16,13 +16,13 @@
 
 package com.atlassian.migration.datacenter.core.fs.download.s3sync;
 
-import com.atlassian.migration.datacenter.core.aws.ssm.SSMApi;
+import com.atlassian.migration.datacenter.core.aws.ssm.SSMCommandPoller;
 import com.atlassian.migration.datacenter.core.aws.ssm.SuccessfulSSMCommandConsumer;
 import software.amazon.awssdk.services.ssm.model.GetCommandInvocationResponse;
 
 public class EnsureSuccessfulSSMCommandConsumer extends SuccessfulSSMCommandConsumer<Void> {
-    public EnsureSuccessfulSSMCommandConsumer(SSMApi ssmApi, String commandId, String instanceId) {
-        super(ssmApi, commandId, instanceId);
+    public EnsureSuccessfulSSMCommandConsumer(SSMCommandPoller commandPoller, String commandId, String instanceId) {
+        super(commandPoller, commandId, instanceId);
     }
 
     @Override
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2020 Atlassian
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.atlassian.migration.datacenter.core.fs.download.s3sync;
+
+import com.fasterxml.jackson.annotation.JsonAutoDetect;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.PropertyAccessor;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.util.List;
+
+/**
+ * The status the filesystem processors on the migration stack publish to the migration bucket, added up over every
+ * processor instance which has published recently.
+ */
+@JsonAutoDetect
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class FileSystemProcessorStatus {
+    private static final ObjectMapper mapper = new ObjectMapper()
+            .setVisibility(PropertyAccessor.ALL, JsonAutoDetect.Visibility.ANY);
+
+    private int instances;
+    private long filesWritten;
+    private long filesSkipped;
+    private long bytesWritten;
+    private double bytesPerSecond;
+    private long failedMessages;
+    private int inFlightMessages;
+    private long latestMessageAgeMillis;
+
+    static FileSystemProcessorStatus fromJson(String json) throws JsonProcessingException {
+        FileSystemProcessorStatus status = mapper.readValue(json, FileSystemProcessorStatus.class);
+        status.instances = 1;
+        return status;
+    }
+
+    static FileSystemProcessorStatus aggregate(List<FileSystemProcessorStatus> statuses) {
+        FileSystemProcessorStatus total = new FileSystemProcessorStatus();
+        for (FileSystemProcessorStatus status : statuses) {
+            total.instances += status.instances;
+            total.filesWritten += status.filesWritten;
+            total.filesSkipped += status.filesSkipped;
+            total.bytesWritten += status.bytesWritten;
+            total.bytesPerSecond += status.bytesPerSecond;
+            total.failedMessages += status.failedMessages;
+            total.inFlightMessages += status.inFlightMessages;
+            total.latestMessageAgeMillis = Math.max(total.latestMessageAgeMillis, status.latestMessageAgeMillis);
+        }
+        return total;
+    }
+
+    public int getInstances() {
+        return instances;
+    }
+
+    public long getFilesWritten() {
+        return filesWritten;
+    }
+
+    public long getFilesSkipped() {
+        return filesSkipped;
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    public double getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+    public long getFailedMessages() {
+        return failedMessages;
+    }
+
+    public int getInFlightMessages() {
+        return inFlightMessages;
+    }
+
+    public long getLatestMessageAgeMillis() {
+        return latestMessageAgeMillis;
+    }
+}
@@ -17,16 +17,20 @@
 package com.atlassian.migration.datacenter.core.fs.download.s3sync;
 
 import com.fasterxml.jackson.annotation.JsonAutoDetect;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.PropertyAccessor;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.collect.ImmutableList;
 
-import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 
 /**
- * Data class for reading output from the s3 sync status SSM command.
+ * Data class for reading output from the s3 sync status script, either as the output of the status SSM command
+ * or as the status object published to the migration bucket by the sync script.
  * In the event that values can't be read for any reason i.e. if they are absent
  * number values will be set to -1, the status will be assumed to be unfinished and
  * the download will be assumed to have stopped calculating.
@@ -35,7 +39,11 @@ import java.util.Map;
  * progress, total or filesRemaining.
  */
 @JsonAutoDetect
+@JsonIgnoreProperties(ignoreUnknown = true)
 public class S3SyncCommandStatus {
+    private static final ObjectMapper mapper = new ObjectMapper()
+            .setVisibility(PropertyAccessor.ALL, JsonAutoDetect.Visibility.ANY);
+
     private boolean finished;
 
     private int code;
@@ -57,6 +65,10 @@ public class S3SyncCommandStatus {
         calculating = (boolean) status.getOrDefault("isCalculating", false);
     }
 
+    static S3SyncCommandStatus fromJson(String json) throws JsonProcessingException {
+        return mapper.readValue(json, S3SyncCommandStatus.class);
+    }
+
     public boolean isComplete() {
         return finished;
     }
@@ -102,7 +114,7 @@ public class S3SyncCommandStatus {
                 ", total=" + total +
                 ", filesRemaining=" + filesRemaining +
                 ", calculating=" + calculating +
-                ", errors=" + Arrays.toString(errors.toArray()) +
+                ", errors=" + errors +
                 '}';
     }
 }
@@ -23,57 +23,116 @@ import org.slf4j.LoggerFactory;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
 public class S3SyncFileSystemDownloadManager {
 
     private static final Logger logger = LoggerFactory.getLogger(S3SyncFileSystemDownloadManager.class);
 
+    // Matches the cadence at which the sync script publishes its status
+    private static final long STATUS_POLL_INTERVAL_SECONDS = 5;
+
     private final S3SyncFileSystemDownloader downloader;
 
     public S3SyncFileSystemDownloadManager(S3SyncFileSystemDownloader downloader) {
         this.downloader = downloader;
     }
 
+    /**
+     * Blocking bridge over {@link #downloadFileSystemAsync(FileSystemMigrationProgress)}. It only exists because the
+     * scheduler job which runs the file system migration has to return once the migration has finished.
+     */
     public void downloadFileSystem(FileSystemMigrationProgress progress) throws S3SyncFileSystemDownloader.CannotLaunchCommandException {
+        final CompletableFuture<Void> download = downloadFileSystemAsync(progress);
+        try {
+            download.get();
+        } catch (InterruptedException | ExecutionException e) {
+            download.cancel(true);
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            } else if (e.getCause() instanceof S3SyncFileSystemDownloader.CannotLaunchCommandException) {
+                throw (S3SyncFileSystemDownloader.CannotLaunchCommandException) e.getCause();
+            }
+            final String errorMessage = "error occured during filesystem download";
+            logger.error(errorMessage, e);
+            throw new S3SyncFileSystemDownloader.CannotLaunchCommandException(errorMessage, e);
+        }
+    }
+
+    /**
+     * Starts the download on the migration host and then polls its status until it has finished. Neither the download
+     * command nor the status commands hold a thread while they run on the migration host.
+     *
+     * @return a future which completes once the download has finished. Cancelling it stops the status polling.
+     */
+    public CompletableFuture<Void> downloadFileSystemAsync(FileSystemMigrationProgress progress) throws S3SyncFileSystemDownloader.CannotLaunchCommandException {
         logger.debug("beginning file system download");
-        downloader.initiateFileSystemDownload();
+        CompletableFuture<Void> downloadStarted = downloader.initiateFileSystemDownload();
+
+        CompletableFuture<Void> syncCompleteFuture = new CompletableFuture<>();
 
-        CompletableFuture<?> syncCompleteFuture = new CompletableFuture<>();
+        ScheduledExecutorService statusPoller = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "fs-download-status-poller");
+            thread.setDaemon(true);
+            return thread;
+        });
 
+        syncCompleteFuture.whenComplete((_i, _j) -> statusPoller.shutdownNow());
 
-        ScheduledFuture<?> scheduledFuture = Executors.newSingleThreadScheduledExecutor().scheduleAtFixedRate(() -> {
-            logger.debug("querying file system download status");
-            S3SyncCommandStatus status;
-            try {
-                status = downloader.getFileSystemDownloadStatus();
-            } catch (S3SyncFileSystemDownloader.CannotLaunchCommandException e) {
-                logger.warn("unable to get fs download status, will try again next tick");
-                return;
+        downloadStarted.whenComplete((ignored, error) -> {
+            if (error != null) {
+                syncCompleteFuture.completeExceptionally(error);
+            } else {
+                pollStatus(progress, statusPoller, syncCompleteFuture, 0);
             }
+        });
 
-            long remaining = status.getFilesRemainingToDownload();
-            long downloadedFiles = progress.getCountOfUploadedFiles() - remaining;
+        return syncCompleteFuture;
+    }
 
-            progress.setNumberOfFilesDownloaded(downloadedFiles);
+    private void pollStatus(FileSystemMigrationProgress progress, ScheduledExecutorService statusPoller, CompletableFuture<Void> syncCompleteFuture, long delaySeconds) {
+        try {
+            statusPoller.schedule(() -> {
+                logger.debug("querying file system download status");
+                CompletableFuture<S3SyncCommandStatus> status;
+                try {
+                    status = downloader.getFileSystemDownloadStatus();
+                } catch (S3SyncFileSystemDownloader.CannotLaunchCommandException e) {
+                    logger.warn("unable to get fs download status, will try again next tick");
+                    pollStatus(progress, statusPoller, syncCompleteFuture, STATUS_POLL_INTERVAL_SECONDS);
+                    return;
+                }
+                // The next status is only asked for once this one has arrived, like a fixed delay schedule would
+                status.whenComplete((currentStatus, error) -> {
+                    if (error != null) {
+                        logger.warn("unable to get fs download status, will try again next tick", error);
+                    }
+                    if (currentStatus != null && reportStatus(progress, currentStatus)) {
+                        syncCompleteFuture.complete(null);
+                    } else {
+                        pollStatus(progress, statusPoller, syncCompleteFuture, STATUS_POLL_INTERVAL_SECONDS);
+                    }
+                });
+            }, delaySeconds, TimeUnit.SECONDS);
+        } catch (RejectedExecutionException e) {
+            logger.debug("file system download status polling has stopped");
+        }
+    }
 
-            logger.debug("got status of file system download: " + status.toString());
+    private boolean reportStatus(FileSystemMigrationProgress progress, S3SyncCommandStatus status) {
+        long remaining = status.getFilesRemainingToDownload();
+        long downloadedFiles = progress.getCountOfUploadedFiles() - remaining;
 
-            if (status.isComplete()) {
-                logger.debug("file system download is complete");
-                syncCompleteFuture.complete(null);
-            }
-        }, 0, 10, TimeUnit.SECONDS);
+        progress.setNumberOfFilesDownloaded(downloadedFiles);
 
-        syncCompleteFuture.whenComplete((_i, _j) -> scheduledFuture.cancel(true));
+        logger.debug("got status of file system download: " + status.toString());
 
-        try {
-            syncCompleteFuture.get();
-        } catch (InterruptedException | ExecutionException e) {
-            final String errorMessage = "error occured during filesystem download";
-            logger.error(errorMessage, e);
-            throw new S3SyncFileSystemDownloader.CannotLaunchCommandException(errorMessage, e);
+        if (status.isComplete()) {
+            logger.debug("file system download is complete");
+            return true;
         }
+        return false;
     }
 }
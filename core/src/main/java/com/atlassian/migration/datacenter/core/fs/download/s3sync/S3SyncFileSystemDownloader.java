@@ -18,34 +18,83 @@ package com.atlassian.migration.datacenter.core.fs.download.s3sync;
 
 import com.atlassian.migration.datacenter.core.aws.infrastructure.AWSMigrationHelperDeploymentService;
 import com.atlassian.migration.datacenter.core.aws.ssm.SSMApi;
+import com.atlassian.migration.datacenter.core.aws.ssm.SSMCommandPoller;
 import com.atlassian.migration.datacenter.core.aws.ssm.SuccessfulSSMCommandConsumer;
 import com.atlassian.migration.datacenter.spi.exceptions.FileSystemMigrationFailure;
 import com.atlassian.migration.datacenter.spi.infrastructure.InfrastructureDeploymentError;
+import com.fasterxml.jackson.core.JsonProcessingException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.core.ResponseBytes;
+import software.amazon.awssdk.core.exception.SdkException;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.DeleteObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Request;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
+import software.amazon.awssdk.services.s3.model.S3Object;
 
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Supplier;
 
 public class S3SyncFileSystemDownloader {
 
     private static final Logger logger = LoggerFactory.getLogger(S3SyncFileSystemDownloader.class);
 
-    private int maxCommandStatusRetries;
+    // The download command only schedules the download in the background, and the status command has a 60 second
+    // timeout in its SSM document, so both should finish quickly once they have been delivered to the instance
+    private static final Duration DOWNLOAD_COMMAND_TIMEOUT = Duration.ofMinutes(10);
+    private static final Duration STATUS_COMMAND_TIMEOUT = Duration.ofMinutes(2);
+
+    /**
+     * The sync script on the migration instance writes its status to this key every few seconds. It is excluded from
+     * the sync itself and ignored by the filesystem processor, so it never ends up in the shared home.
+     */
+    static final String PUBLISHED_STATUS_KEY = ".dc-migration-assistant/fs-download-status.json";
+    // If the status hasn't been published for this long the sync script is no longer running, so ask the instance instead
+    private static final Duration PUBLISHED_STATUS_MAX_AGE = Duration.ofMinutes(1);
+
+    /**
+     * Every filesystem processor instance publishes its status to its own key under this prefix every 30 seconds.
+     */
+    static final String PROCESSOR_STATUS_PREFIX = ".dc-migration-assistant/fs-processor-status/";
+    // Instances which haven't published for this long have been scaled in or stopped
+    private static final Duration PROCESSOR_STATUS_MAX_AGE = Duration.ofMinutes(2);
 
     private final SSMApi ssmApi;
+    private final SSMCommandPoller commandPoller;
+    private final Supplier<S3Client> s3ClientSupplier;
     private final AWSMigrationHelperDeploymentService migrationHelperDeploymentService;
+    private final Clock clock;
 
-    public S3SyncFileSystemDownloader(SSMApi ssmApi, AWSMigrationHelperDeploymentService migrationHelperDeploymentService) {
-        this(ssmApi, migrationHelperDeploymentService, 10);
+    public S3SyncFileSystemDownloader(SSMApi ssmApi, SSMCommandPoller commandPoller, Supplier<S3Client> s3ClientSupplier, AWSMigrationHelperDeploymentService migrationHelperDeploymentService) {
+        this(ssmApi, commandPoller, s3ClientSupplier, migrationHelperDeploymentService, Clock.systemUTC());
     }
 
-    S3SyncFileSystemDownloader(SSMApi ssmApi, AWSMigrationHelperDeploymentService migrationHelperDeploymentService, int maxCommandStatusRetries) {
+    S3SyncFileSystemDownloader(SSMApi ssmApi, SSMCommandPoller commandPoller, Supplier<S3Client> s3ClientSupplier, AWSMigrationHelperDeploymentService migrationHelperDeploymentService, Clock clock) {
         this.ssmApi = ssmApi;
-        this.maxCommandStatusRetries = maxCommandStatusRetries;
+        this.commandPoller = commandPoller;
+        this.s3ClientSupplier = s3ClientSupplier;
         this.migrationHelperDeploymentService = migrationHelperDeploymentService;
+        this.clock = clock;
     }
 
-    public void initiateFileSystemDownload() throws CannotLaunchCommandException {
+    /**
+     * Runs the download command on the migration host.
+     *
+     * @return a future which completes once the download has been started, or completes exceptionally with a
+     * {@link CannotLaunchCommandException} if the command did not succeed
+     */
+    public CompletableFuture<Void> initiateFileSystemDownload() throws CannotLaunchCommandException {
         String fsRestoreDocument;
         String migrationHost;
         try {
@@ -55,25 +104,120 @@ public class S3SyncFileSystemDownloader {
             throw new CannotLaunchCommandException("cannot get FS restore SSM document", infrastructureDeploymentError);
         }
 
+        deletePublishedDownloadStatus();
+
         String commandID = ssmApi.runSSMDocument(fsRestoreDocument, migrationHost, Collections.emptyMap());
 
-        SuccessfulSSMCommandConsumer consumer = new EnsureSuccessfulSSMCommandConsumer(ssmApi, commandID, migrationHost);
+        SuccessfulSSMCommandConsumer<Void> consumer = new EnsureSuccessfulSSMCommandConsumer(commandPoller, commandID, migrationHost);
+
+        return consumer.awaitCommandOutput(DOWNLOAD_COMMAND_TIMEOUT)
+                .exceptionally(e -> {
+                    final Throwable cause = unwrap(e);
+                    if (cause instanceof SuccessfulSSMCommandConsumer.SSMCommandInvocationProcessingError) {
+                        return null;
+                    }
+                    logger.error("error launching s3 sync command", cause);
+                    throw new CompletionException(new CannotLaunchCommandException("unable to launch file system download command successfully.", cause));
+                });
+    }
+
+    /**
+     * Gets the current status of the running download in the new stack. The status published to the migration bucket
+     * by the sync script is preferred, as reading it is a single GET. The status SSM command is only run when there is
+     * no recently published status.
+     *
+     * @return a future of the status of the S3 sync, which completes with null if the status was not able to be
+     * retrieved.
+     */
+    public CompletableFuture<S3SyncCommandStatus> getFileSystemDownloadStatus() throws CannotLaunchCommandException {
+        Optional<S3SyncCommandStatus> publishedStatus = getPublishedDownloadStatus();
+        if (publishedStatus.isPresent()) {
+            return CompletableFuture.completedFuture(publishedStatus.get());
+        }
+        return getDownloadStatusFromInstance();
+    }
+
+    private Optional<S3SyncCommandStatus> getPublishedDownloadStatus() {
+        String bucket;
+        try {
+            bucket = migrationHelperDeploymentService.getMigrationS3BucketName();
+        } catch (InfrastructureDeploymentError e) {
+            logger.debug("cannot get migration bucket to read published download status", e);
+            return Optional.empty();
+        }
 
         try {
-            consumer.handleCommandOutput(maxCommandStatusRetries);
-        } catch (SuccessfulSSMCommandConsumer.UnsuccessfulSSMCommandInvocationException e) {
-            logger.error("error launching s3 sync command", e);
-            throw new CannotLaunchCommandException("unable to launch file system download command successfully.", e);
-        } catch (SuccessfulSSMCommandConsumer.SSMCommandInvocationProcessingError never) {
+            ResponseBytes<GetObjectResponse> statusObject = s3ClientSupplier.get().getObjectAsBytes(GetObjectRequest.builder()
+                    .bucket(bucket)
+                    .key(PUBLISHED_STATUS_KEY)
+                    .build());
+
+            Instant lastModified = statusObject.response().lastModified();
+            if (lastModified != null && lastModified.plus(PUBLISHED_STATUS_MAX_AGE).isBefore(clock.instant())) {
+                logger.debug("published download status was last modified at {}, ignoring it", lastModified);
+                return Optional.empty();
+            }
+            return Optional.of(S3SyncCommandStatus.fromJson(statusObject.asUtf8String()));
+        } catch (NoSuchKeyException e) {
+            logger.debug("download status has not been published yet");
+            return Optional.empty();
+        } catch (SdkException | JsonProcessingException e) {
+            logger.warn("unable to read published download status, falling back to status command", e);
+            return Optional.empty();
         }
     }
 
     /**
-     * Gets the current status of the running download in the new stack
+     * Reads the status published by every filesystem processor instance which is still running and adds them up.
      *
-     * @return the status of the S3 sync or null if the status was not able to be retrieved.
+     * @return the status of the processors, or empty if none of them has published a status recently
      */
-    public S3SyncCommandStatus getFileSystemDownloadStatus() throws CannotLaunchCommandException {
+    public Optional<FileSystemProcessorStatus> getProcessorStatus() {
+        try {
+            String bucket = migrationHelperDeploymentService.getMigrationS3BucketName();
+            S3Client s3Client = s3ClientSupplier.get();
+            Instant oldest = clock.instant().minus(PROCESSOR_STATUS_MAX_AGE);
+            List<FileSystemProcessorStatus> statuses = new ArrayList<>();
+            for (S3Object statusObject : s3Client.listObjectsV2(ListObjectsV2Request.builder()
+                    .bucket(bucket)
+                    .prefix(PROCESSOR_STATUS_PREFIX)
+                    .build()).contents()) {
+                if (statusObject.lastModified() != null && statusObject.lastModified().isBefore(oldest)) {
+                    continue;
+                }
+                try {
+                    statuses.add(FileSystemProcessorStatus.fromJson(s3Client.getObjectAsBytes(GetObjectRequest.builder()
+                            .bucket(bucket)
+                            .key(statusObject.key())
+                            .build())
+                            .asUtf8String()));
+                } catch (NoSuchKeyException | JsonProcessingException e) {
+                    logger.debug("unable to read filesystem processor status {}", statusObject.key(), e);
+                }
+            }
+            if (statuses.isEmpty()) {
+                return Optional.empty();
+            }
+            return Optional.of(FileSystemProcessorStatus.aggregate(statuses));
+        } catch (InfrastructureDeploymentError | SdkException e) {
+            logger.warn("unable to read published filesystem processor status", e);
+            return Optional.empty();
+        }
+    }
+
+    private void deletePublishedDownloadStatus() {
+        try {
+            String bucket = migrationHelperDeploymentService.getMigrationS3BucketName();
+            s3ClientSupplier.get().deleteObject(DeleteObjectRequest.builder()
+                    .bucket(bucket)
+                    .key(PUBLISHED_STATUS_KEY)
+                    .build());
+        } catch (InfrastructureDeploymentError | SdkException e) {
+            logger.warn("unable to delete download status published by a previous download", e);
+        }
+    }
+
+    private CompletableFuture<S3SyncCommandStatus> getDownloadStatusFromInstance() throws CannotLaunchCommandException {
         String fsRestoreStatusDocument;
         String migrationHostId;
         try {
@@ -85,23 +229,28 @@ public class S3SyncFileSystemDownloader {
 
         String statusCommandId = ssmApi.runSSMDocument(fsRestoreStatusDocument, migrationHostId, Collections.emptyMap());
 
-        SuccessfulSSMCommandConsumer<S3SyncCommandStatus> consumer = new UnmarshalS3SyncStatusSSMCommandConsumer(ssmApi, statusCommandId, migrationHostId);
+        SuccessfulSSMCommandConsumer<S3SyncCommandStatus> consumer = new UnmarshalS3SyncStatusSSMCommandConsumer(commandPoller, statusCommandId, migrationHostId);
 
-        try {
-            return consumer.handleCommandOutput(maxCommandStatusRetries);
-        } catch (SuccessfulSSMCommandConsumer.UnsuccessfulSSMCommandInvocationException e) {
-            logger.error("Status command did not complete successfully", e);
-            return null;
-        } catch (SuccessfulSSMCommandConsumer.SSMCommandInvocationProcessingError e) {
-            logger.error("Unable to read status of s3 sync command", e);
-            return null;
-        }
+        return consumer.awaitCommandOutput(STATUS_COMMAND_TIMEOUT)
+                .exceptionally(e -> {
+                    final Throwable cause = unwrap(e);
+                    if (cause instanceof SuccessfulSSMCommandConsumer.SSMCommandInvocationProcessingError) {
+                        logger.error("Unable to read status of s3 sync command", cause);
+                    } else {
+                        logger.error("Status command did not complete successfully", cause);
+                    }
+                    return null;
+                });
     }
 
     private String getMigrationHostId() throws InfrastructureDeploymentError {
         return migrationHelperDeploymentService.getMigrationHostInstanceId();
     }
 
+    private static Throwable unwrap(Throwable error) {
+        return error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+    }
+
     public static class IndeterminateS3SyncStatusException extends FileSystemMigrationFailure {
 
         IndeterminateS3SyncStatusException(String message) {
@@ -22,4 +22,16 @@ import com.atlassian.jira.issue.attachment.Attachment;
 @FunctionalInterface
 public interface AttachmentCaptor {
     void captureAttachment(Attachment attachment);
+
+    /**
+     * Blocks until every attachment captured so far has been recorded for the final sync.
+     */
+    default void flush() {
+    }
+
+    /**
+     * Forgets which attachments have already been captured, so that a new capture run starts from scratch.
+     */
+    default void reset() {
+    }
 }
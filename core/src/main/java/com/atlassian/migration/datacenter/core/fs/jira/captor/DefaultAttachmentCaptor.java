@@ -16,11 +16,8 @@
 
 package com.atlassian.migration.datacenter.core.fs.jira.captor;
 
-import com.atlassian.activeobjects.external.ActiveObjects;
 import com.atlassian.jira.issue.attachment.Attachment;
 import com.atlassian.jira.issue.attachment.AttachmentStore;
-import com.atlassian.migration.datacenter.dto.FileSyncRecord;
-import com.atlassian.migration.datacenter.spi.MigrationService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -30,15 +27,12 @@ import java.nio.file.Path;
 public class DefaultAttachmentCaptor implements AttachmentCaptor {
 
     private static final Logger logger = LoggerFactory.getLogger(DefaultAttachmentCaptor.class);
-    private final ActiveObjects ao;
-    private final MigrationService migrationService;
     private AttachmentStore attachmentStore;
+    private final FileSyncRecordWriter recordWriter;
 
-    public DefaultAttachmentCaptor(ActiveObjects ao, MigrationService migrationService, AttachmentStore
-            attachmentStore) {
-        this.ao = ao;
-        this.migrationService = migrationService;
+    public DefaultAttachmentCaptor(AttachmentStore attachmentStore, FileSyncRecordWriter recordWriter) {
         this.attachmentStore = attachmentStore;
+        this.recordWriter = recordWriter;
     }
 
     @Override
@@ -63,11 +57,16 @@ public class DefaultAttachmentCaptor implements AttachmentCaptor {
     private void captureAttachmentPath(Path attachmentPath) {
         logger.debug("captured attachment for final sync: {}", attachmentPath.toString());
 
-        FileSyncRecord record = ao.create(FileSyncRecord.class);
+        recordWriter.enqueue(attachmentPath);
+    }
 
-        record.setFilePath(attachmentPath.toString());
-        record.setMigration(migrationService.getCurrentMigration());
+    @Override
+    public void flush() {
+        recordWriter.flush();
+    }
 
-        record.save();
+    @Override
+    public void reset() {
+        recordWriter.reset();
     }
 }
@@ -0,0 +1,288 @@
+/*
+ * Copyright 2020 Atlassian
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.atlassian.migration.datacenter.core.fs.jira.captor;
+
+import com.atlassian.activeobjects.external.ActiveObjects;
+import com.atlassian.migration.datacenter.dto.FileSyncRecord;
+import com.atlassian.migration.datacenter.dto.Migration;
+import com.atlassian.migration.datacenter.spi.MigrationService;
+import com.google.common.collect.ImmutableMap;
+import net.java.ao.Query;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * Persists captured file paths as {@link FileSyncRecord}s from a background thread, so that capturing an attachment
+ * does not cost a database round trip on Jira's event dispatch thread.
+ * <p>
+ * Paths are buffered in a bounded queue and written in batches, one transaction per batch. When the queue is full,
+ * or the writer has been shut down, the caller writes its record synchronously instead so that no captured path
+ * is ever dropped. Shutting the writer down flushes everything still in the queue.
+ * <p>
+ * Each distinct path is only recorded once per migration. Paths already captured are remembered in memory, up to a
+ * limit, and every batch is checked against the paths already in the database before it is inserted, so the number
+ * of records grows with the number of distinct files rather than with the number of issue events.
+ */
+public class FileSyncRecordWriter implements DisposableBean {
+    private static final Logger logger = LoggerFactory.getLogger(FileSyncRecordWriter.class);
+
+    private static final int DEFAULT_QUEUE_CAPACITY = 10_000;
+    private static final int DEFAULT_BATCH_SIZE = 500;
+    private static final Duration DEFAULT_FLUSH_INTERVAL = Duration.ofSeconds(1);
+    private static final Duration SHUTDOWN_TIMEOUT = Duration.ofSeconds(10);
+    private static final int DEFAULT_MAX_REMEMBERED_PATHS = 500_000;
+
+    private final ActiveObjects ao;
+    private final MigrationService migrationService;
+    private final BlockingQueue<String> queue;
+    private final int batchSize;
+    private final Duration flushInterval;
+    private final int maxRememberedPaths;
+    private final Set<String> capturedPaths = ConcurrentHashMap.newKeySet();
+
+    private final Object writeLock = new Object();
+    private final AtomicLong pendingWrites = new AtomicLong();
+    private final AtomicLong overflowWrites = new AtomicLong();
+    private final AtomicLong duplicateCaptures = new AtomicLong();
+    private final AtomicLong recordsWritten = new AtomicLong();
+
+    private volatile boolean running = true;
+    private Thread writerThread;
+
+    public FileSyncRecordWriter(ActiveObjects ao, MigrationService migrationService) {
+        this(ao, migrationService, DEFAULT_QUEUE_CAPACITY, DEFAULT_BATCH_SIZE, DEFAULT_FLUSH_INTERVAL, DEFAULT_MAX_REMEMBERED_PATHS);
+    }
+
+    public FileSyncRecordWriter(ActiveObjects ao, MigrationService migrationService, int queueCapacity, int batchSize, Duration flushInterval) {
+        this(ao, migrationService, queueCapacity, batchSize, flushInterval, DEFAULT_MAX_REMEMBERED_PATHS);
+    }
+
+    public FileSyncRecordWriter(ActiveObjects ao, MigrationService migrationService, int queueCapacity, int batchSize, Duration flushInterval, int maxRememberedPaths) {
+        this.ao = ao;
+        this.migrationService = migrationService;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.batchSize = batchSize;
+        this.flushInterval = flushInterval;
+        this.maxRememberedPaths = maxRememberedPaths;
+    }
+
+    /**
+     * Queues the path to be written as a {@link FileSyncRecord} against the current migration. Returns immediately
+     * unless the queue is full, in which case the record is written on the calling thread.
+     */
+    public void enqueue(Path path) {
+        String filePath = path.toString();
+        if (isRememberedAsCaptured(filePath)) {
+            duplicateCaptures.incrementAndGet();
+            return;
+        }
+        pendingWrites.incrementAndGet();
+        if (running && queue.offer(filePath)) {
+            ensureWriterStarted();
+            return;
+        }
+        long overflows = overflowWrites.incrementAndGet();
+        if (overflows == 1 || overflows % 1000 == 0) {
+            logger.warn("File sync record queue is full or stopped. Writing captured paths synchronously ({} so far)", overflows);
+        }
+        write(Collections.singletonList(filePath));
+    }
+
+    /**
+     * Blocks until every path queued so far has been written to the database.
+     */
+    public void flush() {
+        drainQueue();
+        synchronized (writeLock) {
+            long deadline = System.currentTimeMillis() + SHUTDOWN_TIMEOUT.toMillis();
+            while (pendingWrites.get() > 0 && System.currentTimeMillis() < deadline) {
+                try {
+                    writeLock.wait(flushInterval.toMillis());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Forgets which paths have already been captured, e.g. because a new migration has started. Paths already in
+     * the database for the current migration will still not be recorded twice.
+     */
+    public void reset() {
+        capturedPaths.clear();
+    }
+
+    public int getQueuedCount() {
+        return queue.size();
+    }
+
+    /**
+     * @return the number of captures which were dropped because the path had already been recorded
+     */
+    public long getDuplicateCaptureCount() {
+        return duplicateCaptures.get();
+    }
+
+    /**
+     * @return the number of records inserted into the database
+     */
+    public long getRecordsWrittenCount() {
+        return recordsWritten.get();
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        running = false;
+        Thread thread;
+        synchronized (this) {
+            thread = writerThread;
+        }
+        if (thread != null) {
+            // Let the writer finish its current batch rather than interrupting it in the middle of a transaction
+            thread.join(flushInterval.plus(SHUTDOWN_TIMEOUT).toMillis());
+            if (thread.isAlive()) {
+                thread.interrupt();
+            }
+        }
+        flush();
+        logger.info("Stopped file sync record writer");
+    }
+
+    private synchronized void ensureWriterStarted() {
+        if (writerThread != null || !running) {
+            return;
+        }
+        writerThread = new Thread(this::writeLoop, "dc-migration-file-sync-record-writer");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    private void writeLoop() {
+        while (running) {
+            try {
+                String first = queue.poll(flushInterval.toMillis(), TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                List<String> batch = new ArrayList<>(batchSize);
+                batch.add(first);
+                queue.drainTo(batch, batchSize - 1);
+                write(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (RuntimeException e) {
+                logger.error("Unexpected error in file sync record writer", e);
+            }
+        }
+    }
+
+    private void drainQueue() {
+        List<String> batch = new ArrayList<>(batchSize);
+        while (queue.drainTo(batch, batchSize) > 0) {
+            write(batch);
+            batch = new ArrayList<>(batchSize);
+        }
+    }
+
+    private void write(List<String> filePaths) {
+        synchronized (writeLock) {
+            try {
+                insert(filePaths);
+            } catch (RuntimeException e) {
+                logger.warn("Unable to write batch of {} file sync records, retrying individually", filePaths.size(), e);
+                for (String filePath : filePaths) {
+                    try {
+                        insert(Collections.singletonList(filePath));
+                    } catch (RuntimeException retryError) {
+                        capturedPaths.remove(filePath);
+                        logger.error("Unable to record captured file {}. It will not be copied by the final sync", filePath, retryError);
+                    }
+                }
+            } finally {
+                pendingWrites.addAndGet(-filePaths.size());
+                writeLock.notifyAll();
+            }
+        }
+    }
+
+    private boolean isRememberedAsCaptured(String filePath) {
+        if (capturedPaths.contains(filePath)) {
+            return true;
+        }
+        if (capturedPaths.size() < maxRememberedPaths) {
+            return !capturedPaths.add(filePath);
+        }
+        return false;
+    }
+
+    private void insert(List<String> filePaths) {
+        Migration migration = migrationService.getCurrentMigration();
+        int inserted = ao.executeInTransaction(() -> {
+            Set<String> newPaths = new LinkedHashSet<>(filePaths);
+            newPaths.removeAll(findRecordedPaths(newPaths, migration));
+            for (String filePath : newPaths) {
+                ao.create(FileSyncRecord.class, toRow(filePath, migration));
+            }
+            return newPaths.size();
+        });
+        recordsWritten.addAndGet(inserted);
+        duplicateCaptures.addAndGet(filePaths.size() - inserted);
+        logger.debug("Wrote {} file sync records, skipped {} already recorded", inserted, filePaths.size() - inserted);
+    }
+
+    private Set<String> findRecordedPaths(Set<String> filePaths, Migration migration) {
+        if (migration == null || filePaths.isEmpty()) {
+            return Collections.emptySet();
+        }
+        String placeholders = String.join(", ", Collections.nCopies(filePaths.size(), "?"));
+        List<Object> params = new ArrayList<>(filePaths.size() + 1);
+        params.add(migration.getID());
+        params.addAll(filePaths);
+
+        FileSyncRecord[] recorded = ao.find(FileSyncRecord.class, Query.select("ID, FILE_PATH")
+                .where("MIGRATION_ID = ? AND FILE_PATH IN (" + placeholders + ")", params.toArray()));
+        return Arrays.stream(recorded).map(FileSyncRecord::getFilePath).collect(Collectors.toSet());
+    }
+
+    private static Map<String, Object> toRow(String filePath, Migration migration) {
+        ImmutableMap.Builder<String, Object> row = ImmutableMap.<String, Object>builder().put("FILE_PATH", filePath);
+        if (migration != null) {
+            row.put("MIGRATION_ID", migration.getID());
+        }
+        return row.build();
+    }
+}
@@ -64,6 +64,7 @@ public class JiraIssueAttachmentListener implements DisposableBean {
     public void start() {
         if (!started) {
             started = true;
+            attachmentCaptor.reset();
             eventPublisher.register(this);
         }
     }
@@ -73,6 +74,7 @@ public class JiraIssueAttachmentListener implements DisposableBean {
             eventPublisher.unregister(this);
             started = false;
         }
+        attachmentCaptor.flush();
     }
 
     public boolean isStarted() {
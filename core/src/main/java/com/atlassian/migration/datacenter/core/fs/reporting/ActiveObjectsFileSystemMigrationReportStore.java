@@ -0,0 +1,169 @@
+/*
+ * Copyright 2020 Atlassian
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.atlassian.migration.datacenter.core.fs.reporting;
+
+import com.atlassian.activeobjects.external.ActiveObjects;
+import com.atlassian.jira.cluster.ClusterManager;
+import com.atlassian.migration.datacenter.core.fs.ReportType;
+import com.atlassian.migration.datacenter.dto.FileSystemReportCheckpoint;
+import com.atlassian.migration.datacenter.dto.Migration;
+import com.atlassian.migration.datacenter.spi.MigrationService;
+import com.atlassian.migration.datacenter.spi.fs.reporting.FileSystemMigrationReport;
+import net.java.ao.Query;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Clock;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
+/**
+ * Stores report checkpoints in Active Objects so that every node in the cluster sees the same progress. Each node
+ * keeps a single live row per report type, which is updated in place on every checkpoint. Nodes are identified by
+ * their cluster node ID, so a node which restarts carries on with its own rows instead of leaving them behind.
+ */
+public class ActiveObjectsFileSystemMigrationReportStore implements FileSystemMigrationReportStore {
+    private static final Logger logger = LoggerFactory.getLogger(ActiveObjectsFileSystemMigrationReportStore.class);
+    private static final int DEFAULT_HISTORY_SIZE = 10;
+    // Jira reports no node ID when it isn't clustered
+    private static final String STANDALONE_NODE_ID = "standalone";
+
+    private final ActiveObjects ao;
+    private final MigrationService migrationService;
+    private final String nodeId;
+    private final int historySize;
+    private final Clock clock;
+
+    public ActiveObjectsFileSystemMigrationReportStore(ActiveObjects ao, MigrationService migrationService, ClusterManager clusterManager) {
+        this(ao, migrationService, nodeIdOf(clusterManager), DEFAULT_HISTORY_SIZE, Clock.systemUTC());
+    }
+
+    public ActiveObjectsFileSystemMigrationReportStore(ActiveObjects ao, MigrationService migrationService, String nodeId, int historySize, Clock clock) {
+        this.ao = ao;
+        this.migrationService = migrationService;
+        this.nodeId = nodeId;
+        this.historySize = historySize;
+        this.clock = clock;
+    }
+
+    @Override
+    public void checkpoint(Map<ReportType, FileSystemMigrationReport> reports) {
+        if (reports.isEmpty()) {
+            return;
+        }
+        Optional<Integer> currentMigrationId = currentMigrationId();
+        if (!currentMigrationId.isPresent()) {
+            logger.debug("Not checkpointing migration reports as there is no current migration");
+            return;
+        }
+        int migrationId = currentMigrationId.get();
+        long now = clock.millis();
+
+        ao.executeInTransaction(() -> {
+            reports.forEach((type, report) -> {
+                FileSystemReportCheckpoint checkpoint = findOwnLiveCheckpoint(migrationId, type)
+                        .orElseGet(() -> ao.create(FileSystemReportCheckpoint.class));
+
+                long elapsedMillis = report.getElapsedTime().toMillis();
+
+                checkpoint.setMigrationId(migrationId);
+                checkpoint.setReportType(type.name());
+                checkpoint.setNodeId(nodeId);
+                checkpoint.setStatus(report.getStatus().name());
+                checkpoint.setFilesFound(report.getNumberOfFilesFound());
+                checkpoint.setCrawlingFinished(report.isCrawlingFinished());
+                checkpoint.setFilesInFlight(report.getNumberOfCommencedFileUploads());
+                checkpoint.setUploadedFiles(report.getCountOfUploadedFiles());
+                checkpoint.setDownloadedFiles(report.getCountOfDownloadFiles());
+                checkpoint.setFailedFiles(CheckpointedFileSystemMigrationReport.encodeFailedFiles(report.getFailedFiles()));
+                checkpoint.setElapsedMillis(elapsedMillis);
+                checkpoint.setStartEpochMillis(now - elapsedMillis);
+                checkpoint.setCheckpointEpochMillis(now);
+                checkpoint.setArchived(false);
+                checkpoint.save();
+            });
+            return null;
+        });
+        logger.debug("Checkpointed {} migration report(s) for migration {}", reports.size(), migrationId);
+    }
+
+    @Override
+    public void archive(ReportType type) {
+        Optional<Integer> currentMigrationId = currentMigrationId();
+        if (!currentMigrationId.isPresent()) {
+            return;
+        }
+        int migrationId = currentMigrationId.get();
+
+        ao.executeInTransaction(() -> {
+            FileSystemReportCheckpoint[] live = ao.find(FileSystemReportCheckpoint.class, Query.select()
+                    .where("MIGRATION_ID = ? AND REPORT_TYPE = ? AND ARCHIVED = ?", migrationId, type.name(), false));
+            for (FileSystemReportCheckpoint checkpoint : live) {
+                checkpoint.setArchived(true);
+                checkpoint.save();
+            }
+
+            FileSystemReportCheckpoint[] expired = ao.find(FileSystemReportCheckpoint.class, Query.select()
+                    .where("REPORT_TYPE = ? AND ARCHIVED = ?", type.name(), true)
+                    .order("CHECKPOINT_EPOCH_MILLIS DESC")
+                    .offset(historySize));
+            if (expired.length > 0) {
+                ao.delete(expired);
+            }
+            return null;
+        });
+    }
+
+    @Override
+    public Optional<CheckpointedFileSystemMigrationReport> findLatest(ReportType type) {
+        Optional<Integer> migrationId = currentMigrationId();
+        if (!migrationId.isPresent()) {
+            return Optional.empty();
+        }
+        FileSystemReportCheckpoint[] latest = ao.find(FileSystemReportCheckpoint.class, Query.select()
+                .where("MIGRATION_ID = ? AND REPORT_TYPE = ? AND ARCHIVED = ?", migrationId.get(), type.name(), false)
+                .order("CHECKPOINT_EPOCH_MILLIS DESC")
+                .limit(1));
+        return Arrays.stream(latest).findFirst().map(CheckpointedFileSystemMigrationReport::new);
+    }
+
+    @Override
+    public List<CheckpointedFileSystemMigrationReport> findHistory(ReportType type) {
+        FileSystemReportCheckpoint[] history = ao.find(FileSystemReportCheckpoint.class, Query.select()
+                .where("REPORT_TYPE = ? AND ARCHIVED = ?", type.name(), true)
+                .order("CHECKPOINT_EPOCH_MILLIS DESC")
+                .limit(historySize));
+        return Arrays.stream(history).map(CheckpointedFileSystemMigrationReport::new).collect(Collectors.toList());
+    }
+
+    private Optional<FileSystemReportCheckpoint> findOwnLiveCheckpoint(int migrationId, ReportType type) {
+        FileSystemReportCheckpoint[] own = ao.find(FileSystemReportCheckpoint.class, Query.select()
+                .where("MIGRATION_ID = ? AND REPORT_TYPE = ? AND NODE_ID = ? AND ARCHIVED = ?", migrationId, type.name(), nodeId, false));
+        return Arrays.stream(own).findFirst();
+    }
+
+    private Optional<Integer> currentMigrationId() {
+        return Optional.ofNullable(migrationService.getCurrentMigration()).map(Migration::getID);
+    }
+
+    private static String nodeIdOf(ClusterManager clusterManager) {
+        return Optional.ofNullable(clusterManager.getNodeId()).orElse(STANDALONE_NODE_ID);
+    }
+}
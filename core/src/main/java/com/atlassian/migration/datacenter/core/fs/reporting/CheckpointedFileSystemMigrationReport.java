@@ -0,0 +1,203 @@
+/*
+ * Copyright 2020 Atlassian
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.atlassian.migration.datacenter.core.fs.reporting;
+
+import com.atlassian.migration.datacenter.dto.FileSystemReportCheckpoint;
+import com.atlassian.migration.datacenter.spi.fs.reporting.FailedFileMigration;
+import com.atlassian.migration.datacenter.spi.fs.reporting.FileSystemMigrationReport;
+import com.atlassian.migration.datacenter.spi.fs.reporting.FilesystemMigrationStatus;
+import com.google.common.collect.ImmutableSet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * A read-only view of a report as it was last checkpointed by {@link FileSystemMigrationReportStore}. The report
+ * may have been written by another node, or by this node before it was restarted, so any attempt to update it
+ * is ignored.
+ */
+public class CheckpointedFileSystemMigrationReport implements FileSystemMigrationReport {
+
+    private static final Logger logger = LoggerFactory.getLogger(CheckpointedFileSystemMigrationReport.class);
+    private static final String FIELD_SEPARATOR = "\t";
+    private static final String RECORD_SEPARATOR = "\n";
+
+    private final int checkpointId;
+    private final int migrationId;
+    private final String nodeId;
+    private final FilesystemMigrationStatus status;
+    private final long filesFound;
+    private final boolean crawlingFinished;
+    private final long filesInFlight;
+    private final long uploadedFiles;
+    private final long downloadedFiles;
+    private final Instant startTime;
+    private final Duration elapsedTime;
+    private final Instant checkpointTime;
+    private final Set<FailedFileMigration> failedFiles;
+
+    public CheckpointedFileSystemMigrationReport(FileSystemReportCheckpoint checkpoint) {
+        this.checkpointId = checkpoint.getID();
+        this.migrationId = checkpoint.getMigrationId();
+        this.nodeId = checkpoint.getNodeId();
+        this.status = FilesystemMigrationStatus.valueOf(checkpoint.getStatus());
+        this.filesFound = checkpoint.getFilesFound();
+        this.crawlingFinished = checkpoint.getCrawlingFinished();
+        this.filesInFlight = checkpoint.getFilesInFlight();
+        this.uploadedFiles = checkpoint.getUploadedFiles();
+        this.downloadedFiles = checkpoint.getDownloadedFiles();
+        this.startTime = Instant.ofEpochMilli(checkpoint.getStartEpochMillis());
+        this.elapsedTime = Duration.ofMillis(checkpoint.getElapsedMillis());
+        this.checkpointTime = Instant.ofEpochMilli(checkpoint.getCheckpointEpochMillis());
+        this.failedFiles = decodeFailedFiles(checkpoint.getFailedFiles());
+    }
+
+    static String encodeFailedFiles(Set<FailedFileMigration> failedFiles) {
+        return failedFiles.stream()
+                .map(failure -> sanitise(failure.getFilePath().toString()) + FIELD_SEPARATOR + sanitise(failure.getReason()))
+                .collect(Collectors.joining(RECORD_SEPARATOR));
+    }
+
+    private static Set<FailedFileMigration> decodeFailedFiles(String encoded) {
+        if (encoded == null || encoded.isEmpty()) {
+            return ImmutableSet.of();
+        }
+        return Arrays.stream(encoded.split(RECORD_SEPARATOR))
+                .map(line -> line.split(FIELD_SEPARATOR, 2))
+                .map(fields -> new FailedFileMigration(Paths.get(fields[0]), fields.length > 1 ? fields[1] : ""))
+                .collect(Collectors.collectingAndThen(Collectors.toSet(), ImmutableSet::copyOf));
+    }
+
+    private static String sanitise(String value) {
+        return value == null ? "" : value.replace(FIELD_SEPARATOR, " ").replace(RECORD_SEPARATOR, " ");
+    }
+
+    public int getCheckpointId() {
+        return checkpointId;
+    }
+
+    public int getMigrationId() {
+        return migrationId;
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    public Instant getStartTime() {
+        return startTime;
+    }
+
+    public Instant getCheckpointTime() {
+        return checkpointTime;
+    }
+
+    @Override
+    public FilesystemMigrationStatus getStatus() {
+        return status;
+    }
+
+    @Override
+    public void setStatus(FilesystemMigrationStatus status) {
+        ignoreUpdate("status");
+    }
+
+    @Override
+    public Duration getElapsedTime() {
+        return elapsedTime;
+    }
+
+    @Override
+    public Set<FailedFileMigration> getFailedFiles() {
+        return failedFiles;
+    }
+
+    @Override
+    public void reportFileNotMigrated(FailedFileMigration failedFileMigration) {
+        ignoreUpdate("failed files");
+    }
+
+    @Override
+    public Long getNumberOfFilesFound() {
+        return filesFound;
+    }
+
+    @Override
+    public void reportFileFound() {
+        ignoreUpdate("files found");
+    }
+
+    @Override
+    public boolean isCrawlingFinished() {
+        return crawlingFinished;
+    }
+
+    @Override
+    public void reportCrawlingFinished() {
+        ignoreUpdate("crawling finished");
+    }
+
+    @Override
+    public Long getNumberOfCommencedFileUploads() {
+        return filesInFlight;
+    }
+
+    @Override
+    public void reportFileUploadCommenced() {
+        ignoreUpdate("files in flight");
+    }
+
+    @Override
+    public Long getCountOfUploadedFiles() {
+        return uploadedFiles;
+    }
+
+    @Override
+    public void reportFileUploaded() {
+        ignoreUpdate("uploaded files");
+    }
+
+    @Override
+    public Long getCountOfDownloadFiles() {
+        return downloadedFiles;
+    }
+
+    @Override
+    public void setNumberOfFilesDownloaded(long downloadedFiles) {
+        ignoreUpdate("downloaded files");
+    }
+
+    private void ignoreUpdate(String field) {
+        logger.debug("Ignoring update to {} of report checkpointed by node {}", field, nodeId);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Checkpointed filesystem migration report = { node: %s, status: %s, migratedFiles: %d, erroredFiles: %d }",
+                nodeId,
+                status,
+                uploadedFiles,
+                failedFiles.size()
+        );
+    }
+}
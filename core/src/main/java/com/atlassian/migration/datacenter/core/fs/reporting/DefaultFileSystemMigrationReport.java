@@ -72,6 +72,9 @@ public class DefaultFileSystemMigrationReport implements FileSystemMigrationRepo
 
     @Override
     public Duration getElapsedTime() {
+        if (startTime == null) {
+            return Duration.ZERO;
+        }
         Instant end = completeTime;
         if (isRunning()) {
             end = Instant.now(clock);
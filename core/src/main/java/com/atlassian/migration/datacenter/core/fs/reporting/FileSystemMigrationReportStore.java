@@ -0,0 +1,53 @@
+/*
+ * Copyright 2020 Atlassian
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.atlassian.migration.datacenter.core.fs.reporting;
+
+import com.atlassian.migration.datacenter.core.fs.ReportType;
+import com.atlassian.migration.datacenter.spi.fs.reporting.FileSystemMigrationReport;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Durable storage for migration reports, shared between all nodes in the cluster.
+ */
+public interface FileSystemMigrationReportStore {
+
+    /**
+     * Writes the given reports for the current migration in a single batch, replacing any previous checkpoint
+     * of the same report type written by this node.
+     */
+    void checkpoint(Map<ReportType, FileSystemMigrationReport> reports);
+
+    /**
+     * Marks the live checkpoints of the given report type as history and drops the oldest history entries
+     * beyond the retention limit.
+     */
+    void archive(ReportType type);
+
+    /**
+     * @return the most recently written, non-archived checkpoint of the given report type in the current
+     * migration, from any node.
+     */
+    Optional<CheckpointedFileSystemMigrationReport> findLatest(ReportType type);
+
+    /**
+     * @return the archived checkpoints of the given report type across all migrations, newest first.
+     */
+    List<CheckpointedFileSystemMigrationReport> findHistory(ReportType type);
+}
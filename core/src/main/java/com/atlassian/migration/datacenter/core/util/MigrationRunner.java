@@ -22,12 +22,15 @@ import com.atlassian.scheduler.config.JobConfig;
 import com.atlassian.scheduler.config.JobId;
 import com.atlassian.scheduler.config.JobRunnerKey;
 import com.atlassian.scheduler.config.RunMode;
+import com.atlassian.scheduler.config.Schedule;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Component;
 
 import java.io.Serializable;
+import java.time.Duration;
 import java.util.Collections;
+import java.util.Date;
 import java.util.Map;
 
 public class MigrationRunner
@@ -73,6 +76,32 @@ public class MigrationRunner
         return runMigration(jobId, runner, Collections.emptyMap());
     }
 
+    /**
+     * Schedules a job to run on one node in the cluster every interval, replacing any existing schedule with the same
+     * ID. The runner is registered on this node only, so callers should do this on every node.
+     */
+    public boolean runRepeatingJob(JobId jobId, MigrationJobRunner runner, Duration interval) {
+        final JobRunnerKey runnerKey = JobRunnerKey.of(runner.getKey());
+        schedulerService.registerJobRunner(runnerKey, runner);
+
+        final Date firstRunTime = new Date(System.currentTimeMillis() + interval.toMillis());
+        JobConfig jobConfig = JobConfig.forJobRunnerKey(runnerKey)
+                .withSchedule(Schedule.forInterval(interval.toMillis(), firstRunTime))
+                .withRunMode(RunMode.RUN_ONCE_PER_CLUSTER);
+        try {
+            logger.info("Scheduling repeating job for runner {} every {}", runner.getKey(), interval);
+            schedulerService.scheduleJob(jobId, jobConfig);
+            return true;
+        } catch (SchedulerServiceException e) {
+            logger.error("Exception when scheduling repeating job for " + runner.getKey(), e);
+            return false;
+        }
+    }
+
+    public void unregisterJobRunner(MigrationJobRunner runner) {
+        schedulerService.unregisterJobRunner(JobRunnerKey.of(runner.getKey()));
+    }
+
     public boolean abortJobIfPresent(JobId jobId) {
         if (schedulerService.getJobDetails(jobId) == null) {
             return false;
@@ -19,6 +19,7 @@ package com.atlassian.migration.datacenter.core.util;
 import java.util.Optional;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 public class UploadQueue<T> {
     private BlockingQueue<Optional<T>> queue;
@@ -37,6 +38,16 @@ public class UploadQueue<T> {
         queue.put(Optional.of(v));
     }
 
+    /**
+     * Put a value on the queue to be consumed, waiting up to the given timeout if the consumer is saturated.
+     *
+     * @return true if the value was queued, false if the timeout elapsed first
+     * @throws InterruptedException
+     */
+    public boolean offer(T v, long timeout, TimeUnit unit) throws InterruptedException {
+        return queue.offer(Optional.of(v), timeout, unit);
+    }
+
     /**
      * Similar to BlockingQueue.take(), except returns Optional.empty() if the producer is finished.
      *
@@ -56,6 +67,16 @@ public class UploadQueue<T> {
         queue.put(Optional.empty());
     }
 
+    /**
+     * Signal to the consumer that the producer is finished, waiting up to the given timeout if the consumer is saturated.
+     *
+     * @return true if the consumer was signalled, false if the timeout elapsed first
+     * @throws InterruptedException
+     */
+    public boolean finish(long timeout, TimeUnit unit) throws InterruptedException {
+        return queue.offer(Optional.empty(), timeout, unit);
+    }
+
     public boolean contains(T o) {
         return queue.contains(Optional.of(o));
     }
@@ -36,7 +36,7 @@ open class QuickstartStandaloneMigrationStackInputGatheringStrategy(private val
         val applicationResources = cfnApi.getStackResources(stack.stackName())
         val efsId = applicationResources["ElasticFileSystem"]!!.physicalResourceId()
 
-        return mapOf(
+        val inputs = mapOf(
                 "NetworkPrivateSubnet" to cfnExports["${exportPrefix}PriNets"]!!.split(",")[0],
                 "EFSFileSystemId" to efsId,
                 "EFSSecurityGroup" to applicationStackOutputsMap[securityGroupStackOutputKey]!!,
@@ -44,5 +44,12 @@ open class QuickstartStandaloneMigrationStackInputGatheringStrategy(private val
                 "RDSEndpoint" to applicationStackOutputsMap[dbEndpointAddressStackOutputKey]!!,
                 "HelperInstanceType" to "c5.large",
                 "HelperVpcId" to cfnExports["${exportPrefix}VPCID"]!!
-        )    }
+        )
+
+        // The database restore uses the instance class to decide how many jobs to restore with
+        val dbInstanceClass = stack.parameters()
+                .firstOrNull { parameter -> parameter.parameterKey() == "DBInstanceClass" }
+                ?.parameterValue()
+        return if (dbInstanceClass.isNullOrEmpty()) inputs else inputs + ("RDSInstanceClass" to dbInstanceClass)
+    }
 }
\ No newline at end of file
@@ -16,6 +16,8 @@
 package com.atlassian.migration.datacenter.core.db
 
 import net.swiftzer.semver.SemVer
+import java.sql.Connection
+import java.sql.SQLException
 
 interface DatabaseClientTools {
     fun getDatabaseDumpClientVersion(): SemVer?
@@ -23,4 +25,26 @@ interface DatabaseClientTools {
     fun getDatabaseServerVersion(): SemVer?
 
     fun getDatabaseDumpClientPath(): String?
-}
\ No newline at end of file
+
+    /**
+     * Get the size of every user table in the database, largest first
+     *
+     * @return the table sizes, or an empty list if they could not be read
+     */
+    fun getTableSizes(): List<TableSize>
+
+    /**
+     * Get the size of the database on disk
+     *
+     * @return the size in bytes, or null if it could not be read
+     */
+    fun getDatabaseSize(): Long?
+
+    /**
+     * Open a connection to the application database
+     *
+     * @return the connection, or null if the driver does not accept the database URL
+     */
+    @Throws(SQLException::class)
+    fun connect(): Connection?
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright 2020 Atlassian
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.atlassian.migration.datacenter.core.db
+
+import java.io.IOException
+import java.nio.file.Files
+import java.nio.file.Path
+import java.time.Clock
+import java.time.Duration
+import java.time.Instant
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * A point in time view of the progress of a database dump.
+ *
+ * @property dumpedTableBytes the on-disk size of the tables which have been dumped, out of [totalTableBytes]
+ * @property bytesWritten the size of the compressed dump written so far
+ * @property databaseSizeBytes the size of the database as reported by `pg_database_size`
+ */
+data class DatabaseDumpProgressSnapshot(
+        val tablesDumped: Int,
+        val tablesTotal: Int,
+        val dumpedTableBytes: Long,
+        val totalTableBytes: Long,
+        val bytesWritten: Long,
+        val databaseSizeBytes: Long?,
+        val finished: Boolean,
+        val estimatedSecondsRemaining: Long?
+)
+
+/**
+ * Tracks the progress of a `pg_dump --verbose` run by following its log output.
+ *
+ * A serial dump logs when it starts dumping each table, so a table counts as dumped once the next one has started.
+ * A parallel dump additionally logs when each worker has finished a table, which is used instead whenever present.
+ */
+class DatabaseDumpProgress(
+        tables: List<TableSize>,
+        private val databaseSizeBytes: Long?,
+        private val outputDirectory: Path?,
+        private val clock: Clock
+) {
+    constructor(tables: List<TableSize>, databaseSizeBytes: Long?, outputDirectory: Path?) :
+            this(tables, databaseSizeBytes, outputDirectory, Clock.systemUTC())
+
+    companion object {
+        private val tableStarted = Regex("dumping contents of table \"?([^\"\\s]+)\"?")
+        private val tableFinished = Regex("finished item \\d+ TABLE DATA (\\S+)")
+    }
+
+    private val startedAt = Instant.now(clock)
+    private val tableSizes: Map<String, Long> = tables.flatMap { table ->
+        listOf(table.name to table.bytes, table.name.substringAfter('.') to table.bytes)
+    }.toMap()
+    private val tablesTotal = tables.size
+    private val totalTableBytes = tables.map { it.bytes }.sum()
+
+    private val started = mutableListOf<String>()
+    private val finished = mutableSetOf<String>()
+    private val streamedBytes = AtomicLong()
+    @Volatile
+    private var dumpFinished = false
+
+    /**
+     * Accounts for a line of the `pg_dump` log output.
+     */
+    @Synchronized
+    fun onLogLine(line: String) {
+        tableFinished.find(line)?.let {
+            finished.add(it.groupValues[1])
+            return
+        }
+        tableStarted.find(line)?.let {
+            started.add(it.groupValues[1])
+        }
+    }
+
+    /**
+     * Accounts for dump output which is streamed rather than written to [outputDirectory].
+     */
+    fun onBytesWritten(count: Long) {
+        streamedBytes.addAndGet(count)
+    }
+
+    fun onDumpFinished() {
+        dumpFinished = true
+    }
+
+    @Synchronized
+    fun snapshot(): DatabaseDumpProgressSnapshot {
+        val dumped = when {
+            dumpFinished -> started
+            finished.isNotEmpty() -> finished.toList()
+            else -> started.dropLast(1)
+        }
+        val dumpedTableBytes = dumped.map { tableSizes[it] ?: 0L }.sum()
+        return DatabaseDumpProgressSnapshot(
+                dumped.size,
+                maxOf(tablesTotal, started.size),
+                dumpedTableBytes,
+                totalTableBytes,
+                streamedBytes.get() + directorySize(),
+                databaseSizeBytes,
+                dumpFinished,
+                estimateSecondsRemaining(dumpedTableBytes))
+    }
+
+    private fun estimateSecondsRemaining(dumpedTableBytes: Long): Long? {
+        if (dumpFinished) {
+            return 0
+        }
+        if (dumpedTableBytes <= 0 || totalTableBytes <= 0) {
+            return null
+        }
+        val elapsed = Duration.between(startedAt, Instant.now(clock)).seconds
+        val remainingBytes = (totalTableBytes - dumpedTableBytes).coerceAtLeast(0)
+        return elapsed * remainingBytes / dumpedTableBytes
+    }
+
+    private fun directorySize(): Long {
+        if (outputDirectory == null || !Files.isDirectory(outputDirectory)) {
+            return 0
+        }
+        return try {
+            Files.newDirectoryStream(outputDirectory).use { files ->
+                files.map { file -> if (Files.isRegularFile(file)) Files.size(file) else 0L }.sum()
+            }
+        } catch (e: IOException) {
+            // Files may disappear while a previous dump is being cleaned up
+            0
+        }
+    }
+}
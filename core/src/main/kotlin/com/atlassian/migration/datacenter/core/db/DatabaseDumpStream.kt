@@ -0,0 +1,83 @@
+/*
+ * Copyright 2020 Atlassian
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.atlassian.migration.datacenter.core.db
+
+import java.io.FilterInputStream
+import java.io.IOException
+import java.io.InterruptedIOException
+
+/**
+ * The standard output of a running database dump. Reaching the end of the stream waits for the dump process to exit
+ * and fails the read if it did not succeed, so that a consumer can never mistake a truncated dump for a complete one.
+ * The bytes read are counted towards the [progress] of the dump, if it is tracked.
+ */
+class DatabaseDumpStream @JvmOverloads constructor(
+        private val process: Process,
+        private val progress: DatabaseDumpProgress? = null
+) : FilterInputStream(process.inputStream) {
+
+    @Volatile
+    private var completed = false
+
+    override fun read(): Int {
+        val read = super.read()
+        if (read < 0) {
+            awaitSuccessfulExit()
+        } else {
+            progress?.onBytesWritten(1)
+        }
+        return read
+    }
+
+    override fun read(b: ByteArray, off: Int, len: Int): Int {
+        val read = super.read(b, off, len)
+        if (read < 0) {
+            awaitSuccessfulExit()
+        } else {
+            progress?.onBytesWritten(read.toLong())
+        }
+        return read
+    }
+
+    /**
+     * Closes the stream, killing the dump process if it has not finished yet.
+     */
+    override fun close() {
+        try {
+            super.close()
+        } finally {
+            if (process.isAlive) {
+                process.destroy()
+            }
+        }
+    }
+
+    private fun awaitSuccessfulExit() {
+        if (completed) {
+            return
+        }
+        val exit = try {
+            process.waitFor()
+        } catch (e: InterruptedException) {
+            Thread.currentThread().interrupt()
+            throw InterruptedIOException("Interrupted while waiting for the database dump to finish")
+        }
+        if (exit != 0) {
+            throw IOException("Database dump process exited with non-zero status: $exit")
+        }
+        completed = true
+    }
+}
@@ -27,4 +27,16 @@ interface DatabaseExtractor {
 
     @Throws(DatabaseMigrationFailure::class)
     fun dumpDatabase(to: Path)
+
+    /**
+     * Start a dump of the database which writes a single archive to the standard output of the returned process,
+     * so that it can be consumed while it is being written.
+     */
+    @Throws(DatabaseMigrationFailure::class)
+    fun startDatabaseStream(): Process
+
+    /**
+     * The progress of the most recently started dump, or null if no dump has been started or progress is not tracked.
+     */
+    val dumpProgress: DatabaseDumpProgress?
 }
\ No newline at end of file
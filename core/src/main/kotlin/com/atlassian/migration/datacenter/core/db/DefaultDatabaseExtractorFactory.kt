@@ -21,14 +21,20 @@ import com.atlassian.migration.datacenter.spi.exceptions.ConfigurationReadExcept
 import com.atlassian.migration.datacenter.spi.exceptions.DatabaseMigrationFailure
 import org.slf4j.LoggerFactory
 
-class DefaultDatabaseExtractorFactory(val config: ApplicationConfiguration, private val databaseClientTools: DatabaseClientTools) : DatabaseExtractorFactory {
+class DefaultDatabaseExtractorFactory(val config: ApplicationConfiguration,
+                                      private val databaseClientTools: DatabaseClientTools,
+                                      private val compressionStrategy: DumpCompressionStrategy) : DatabaseExtractorFactory {
+
+    constructor(config: ApplicationConfiguration, databaseClientTools: DatabaseClientTools) :
+            this(config, databaseClientTools, FixedDumpCompression(CalibratedDumpCompression.FALLBACK_LEVEL))
+
     companion object {
         val log = LoggerFactory.getLogger(DefaultDatabaseExtractorFactory::class.java)
     }
     override val extractor: DatabaseExtractor by lazy {
         try {
             if (config.databaseConfiguration.type == DBType.POSTGRESQL) {
-                PostgresExtractor(config, databaseClientTools)
+                PostgresExtractor(config, databaseClientTools, compressionStrategy)
             } else {
                 UnSupportedDatabaseExtractor()
             }
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2020 Atlassian
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.atlassian.migration.datacenter.core.db
+
+import org.slf4j.LoggerFactory
+import java.util.zip.Deflater
+
+/**
+ * Chooses the compression level `pg_dump` uses for table data.
+ */
+interface DumpCompressionStrategy {
+    /**
+     * @param jobs   the number of jobs the dump will run with
+     * @param sample supplies a sample of uncompressed table data, or null if none can be taken
+     * @return a compression level between 0 and 9
+     */
+    fun compressionLevel(jobs: Int, sample: () -> ByteArray?): Int
+}
+
+class FixedDumpCompression(private val level: Int) : DumpCompressionStrategy {
+    override fun compressionLevel(jobs: Int, sample: () -> ByteArray?): Int = level
+}
+
+/**
+ * Measures how fast the database dump can be uploaded to the migration bucket.
+ */
+interface UploadThroughputProbe {
+    /**
+     * @return the measured upload throughput in bytes per second, or null if it could not be measured
+     */
+    fun bytesPerSecond(): Double?
+}
+
+/**
+ * How quickly and how well a compression level compressed the sample.
+ */
+data class CompressionMeasurement(val level: Int, val bytesPerSecond: Double, val ratio: Double)
+
+/**
+ * Picks the compression level by compressing a sample of the largest table at several levels and comparing the
+ * results against the measured upload throughput.
+ *
+ * As table files are uploaded while the dump is still running, the dump takes as long as the slower of compressing
+ * the data on all jobs and uploading the compressed result. High levels shrink the upload a little, but cost much more
+ * CPU, so they only win when the link is slow compared to the processors.
+ */
+class CalibratedDumpCompression(
+        private val uploadThroughputProbe: UploadThroughputProbe,
+        private val levels: List<Int>
+) : DumpCompressionStrategy {
+
+    constructor(uploadThroughputProbe: UploadThroughputProbe) : this(uploadThroughputProbe, listOf(1, 3, 6, 9))
+
+    companion object {
+        private val log = LoggerFactory.getLogger(CalibratedDumpCompression::class.java)
+
+        // The level pg_dump was always run with before calibration was introduced
+        const val FALLBACK_LEVEL = 9
+
+        internal fun levelFor(measurements: List<CompressionMeasurement>, uploadBytesPerSecond: Double, jobs: Int): Int {
+            return measurements
+                    .minBy { estimatedSecondsPerByte(it, uploadBytesPerSecond, jobs) }
+                    ?.level ?: FALLBACK_LEVEL
+        }
+
+        private fun estimatedSecondsPerByte(measurement: CompressionMeasurement, uploadBytesPerSecond: Double, jobs: Int): Double {
+            val compression = 1.0 / (measurement.bytesPerSecond * jobs)
+            val upload = measurement.ratio / uploadBytesPerSecond
+            return maxOf(compression, upload)
+        }
+
+        internal fun measure(sample: ByteArray, level: Int): CompressionMeasurement {
+            val deflater = Deflater(level)
+            val buffer = ByteArray(64 * 1024)
+            var compressed = 0L
+            val start = System.nanoTime()
+            try {
+                deflater.setInput(sample)
+                deflater.finish()
+                while (!deflater.finished()) {
+                    compressed += deflater.deflate(buffer)
+                }
+            } finally {
+                deflater.end()
+            }
+            val seconds = (System.nanoTime() - start).coerceAtLeast(1) / 1e9
+            return CompressionMeasurement(level, sample.size / seconds, compressed.toDouble() / sample.size)
+        }
+    }
+
+    override fun compressionLevel(jobs: Int, sample: () -> ByteArray?): Int {
+        val uploadBytesPerSecond = uploadThroughputProbe.bytesPerSecond()
+        if (uploadBytesPerSecond == null || uploadBytesPerSecond <= 0) {
+            log.warn("Unable to measure upload throughput, compressing database dump at level {}", FALLBACK_LEVEL)
+            return FALLBACK_LEVEL
+        }
+        val data = sample()
+        if (data == null || data.isEmpty()) {
+            log.warn("Unable to sample table data, compressing database dump at level {}", FALLBACK_LEVEL)
+            return FALLBACK_LEVEL
+        }
+
+        val measurements = levels.map { measure(data, it) }
+        val level = levelFor(measurements, uploadBytesPerSecond, jobs)
+        log.info("Compressing database dump at level {} for {} jobs and {} bytes/s upload throughput. Calibration: {}",
+                level, jobs, uploadBytesPerSecond.toLong(), measurements)
+        return level
+    }
+}
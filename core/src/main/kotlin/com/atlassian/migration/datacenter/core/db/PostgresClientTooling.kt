@@ -22,6 +22,7 @@ import org.slf4j.LoggerFactory
 import java.nio.file.Files
 import java.nio.file.Path
 import java.nio.file.Paths
+import java.sql.Connection
 import java.sql.SQLException
 import java.util.*
 import java.util.concurrent.TimeUnit
@@ -31,6 +32,11 @@ class PostgresClientTooling(private val applicationConfiguration: ApplicationCon
         private val log = LoggerFactory.getLogger(PostgresClientTooling::class.java)
         private val defaultPgDumpPaths = arrayOf(Paths.get("/usr/bin/pg_dump"), Paths.get("/usr/local/bin/pg_dump"))
         private val versionPattern = Regex("^pg_dump\\s+\\([^\\)]+\\)\\s+(\\d[\\d\\.]+)[\\s$]")
+        private const val TABLE_SIZES_QUERY = """
+            SELECT n.nspname || '.' || c.relname, pg_total_relation_size(c.oid), quote_ident(n.nspname) || '.' || quote_ident(c.relname)
+            FROM pg_class c JOIN pg_namespace n ON n.oid = c.relnamespace
+            WHERE c.relkind = 'r' AND n.nspname NOT IN ('pg_catalog', 'information_schema')
+            ORDER BY 2 DESC"""
         
         @JvmStatic
         fun parsePgDumpVersion(text: String): SemVer? {
@@ -86,17 +92,8 @@ class PostgresClientTooling(private val applicationConfiguration: ApplicationCon
      * @return the semantic version of postgres in use
      */
     override fun getDatabaseServerVersion(): SemVer? {
-        // NOTE: We use the NG Postgres driver here as the official
-        // one doesn't play well with OSGI.
-        val config = applicationConfiguration.databaseConfiguration
-        val url = "jdbc:pgsql://${config.host}:${config.port}/${config.name}"
-        val props = Properties().apply {
-            setProperty("user", config.username)
-            setProperty("password", config.password)
-        }
-
         val conn = try {
-            PGDriver().connect(url, props)
+            connect()
         } catch (e: SQLException) {
             log.error("Exception opening DB connection for version", e)
             null
@@ -108,6 +105,57 @@ class PostgresClientTooling(private val applicationConfiguration: ApplicationCon
         return SemVer.parse(meta.databaseProductVersion)
     }
 
+    /**
+     * Get the size of every user table including its indexes and TOAST data, largest first
+     *
+     * @return the table sizes, or an empty list if they could not be read
+     */
+    override fun getTableSizes(): List<TableSize> {
+        return try {
+            connect()?.use { conn ->
+                conn.createStatement().use { statement ->
+                    statement.executeQuery(TABLE_SIZES_QUERY).use { rs ->
+                        val sizes = mutableListOf<TableSize>()
+                        while (rs.next()) {
+                            sizes.add(TableSize(rs.getString(1), rs.getLong(2), rs.getString(3)))
+                        }
+                        sizes
+                    }
+                }
+            } ?: emptyList()
+        } catch (e: SQLException) {
+            log.error("Exception reading table sizes from the database", e)
+            emptyList()
+        }
+    }
+
+    override fun getDatabaseSize(): Long? {
+        return try {
+            connect()?.use { conn ->
+                conn.createStatement().use { statement ->
+                    statement.executeQuery("SELECT pg_database_size(current_database())").use { rs ->
+                        if (rs.next()) rs.getLong(1) else null
+                    }
+                }
+            }
+        } catch (e: SQLException) {
+            log.error("Exception reading the database size", e)
+            null
+        }
+    }
+
+    override fun connect(): Connection? {
+        // NOTE: We use the NG Postgres driver here as the official
+        // one doesn't play well with OSGI.
+        val config = applicationConfiguration.databaseConfiguration
+        val url = "jdbc:pgsql://${config.host}:${config.port}/${config.name}"
+        val props = Properties().apply {
+            setProperty("user", config.username)
+            setProperty("password", config.password)
+        }
+        return PGDriver().connect(url, props)
+    }
+
     private fun resolvePgDumpPath(): Array<Path> {
         return try {
             val proc = ProcessBuilder("which", 
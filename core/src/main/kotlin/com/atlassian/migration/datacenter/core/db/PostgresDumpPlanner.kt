@@ -0,0 +1,89 @@
+/*
+ * Copyright 2020 Atlassian
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.atlassian.migration.datacenter.core.db
+
+import org.slf4j.LoggerFactory
+import kotlin.math.ceil
+
+/**
+ * The size of a table on disk, including its indexes and TOAST data.
+ *
+ * @param name the schema qualified name of the table, as `pg_dump` reports it in its log
+ * @param identifier the schema qualified name quoted as an SQL identifier where needed, so that `pg_dump --table`
+ * matches tables with upper case names such as those of Active Objects
+ */
+data class TableSize(val name: String, val bytes: Long, val identifier: String = name)
+
+/**
+ * Chooses how many parallel jobs a directory format `pg_dump` should use, based on the size of the tables in the
+ * database and the number of processors available to compress them.
+ *
+ * `pg_dump` already hands out the largest tables first, but it dumps each table with a single worker, so the dump can
+ * never finish before its largest table has been dumped. Workers beyond what it takes to dump everything else in that
+ * time would only sit idle while holding a database connection, so they are not started.
+ */
+class PostgresDumpPlanner(
+        private val databaseClientTools: DatabaseClientTools,
+        private val availableProcessors: Int,
+        private val maxJobs: Int
+) {
+    constructor(databaseClientTools: DatabaseClientTools) : this(
+            databaseClientTools,
+            Runtime.getRuntime().availableProcessors(),
+            Integer.getInteger(MAX_JOBS_PROPERTY, DEFAULT_MAX_JOBS))
+
+    companion object {
+        private val log = LoggerFactory.getLogger(PostgresDumpPlanner::class.java)
+
+        const val MAX_JOBS_PROPERTY = "com.atlassian.migration.db.maxDumpJobs"
+        private const val DEFAULT_MAX_JOBS = 8
+        // Below this, starting another worker costs more than the data it would dump
+        private const val MIN_BYTES_PER_JOB = 256L * 1024 * 1024
+
+        internal fun jobsFor(tables: List<TableSize>, availableProcessors: Int, maxJobs: Int): Int {
+            val limit = minOf(availableProcessors, maxJobs, tables.size).coerceAtLeast(1)
+            val largest = tables.map { it.bytes }.max() ?: return 1
+            if (largest <= 0) {
+                return 1
+            }
+            val total = tables.map { it.bytes }.sum()
+            val busyWorkers = ceil(total.toDouble() / largest).toInt()
+            val worthwhileWorkers = ceil(total.toDouble() / MIN_BYTES_PER_JOB).toInt()
+            return minOf(limit, busyWorkers, worthwhileWorkers).coerceAtLeast(1)
+        }
+    }
+
+    /**
+     * @return the number of jobs to dump the database with, or 1 if the table sizes could not be read
+     */
+    fun planJobs(): Int {
+        return planJobs(databaseClientTools.getTableSizes())
+    }
+
+    /**
+     * @param tables the sizes of the tables in the database, as returned by [DatabaseClientTools.getTableSizes]
+     * @return the number of jobs to dump the given tables with
+     */
+    fun planJobs(tables: List<TableSize>): Int {
+        val jobs = jobsFor(tables, availableProcessors, maxJobs)
+
+        val total = tables.map { it.bytes }.sum()
+        val largest = tables.take(3).joinToString { "${it.name} (${it.bytes} bytes)" }
+        log.info("Planned database dump of {} tables totalling {} bytes with {} jobs on {} processors. Largest tables: {}",
+                tables.size, total, jobs, availableProcessors, largest)
+        return jobs
+    }
+}
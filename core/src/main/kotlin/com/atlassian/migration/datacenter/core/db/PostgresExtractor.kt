@@ -24,12 +24,29 @@ import java.nio.file.Files
 import java.nio.file.Path
 
 class PostgresExtractor(private val applicationConfiguration: ApplicationConfiguration, 
-                        private val databaseClientTools: DatabaseClientTools) : DatabaseExtractor {
+                        private val databaseClientTools: DatabaseClientTools,
+                        private val dumpPlanner: PostgresDumpPlanner,
+                        private val compressionStrategy: DumpCompressionStrategy) : DatabaseExtractor {
     private val log = LoggerFactory.getLogger(javaClass)
 
+    companion object {
+        // Enough table data to calibrate compression on without holding up the dump
+        private const val COMPRESSION_SAMPLE_BYTES = 16 * 1024 * 1024
+    }
+
+    @Volatile
+    override var dumpProgress: DatabaseDumpProgress? = null
+        private set
+
+    constructor(applicationConfiguration: ApplicationConfiguration, databaseClientTools: DatabaseClientTools) :
+            this(applicationConfiguration, databaseClientTools, FixedDumpCompression(CalibratedDumpCompression.FALLBACK_LEVEL))
+
+    constructor(applicationConfiguration: ApplicationConfiguration, databaseClientTools: DatabaseClientTools, compressionStrategy: DumpCompressionStrategy) :
+            this(applicationConfiguration, databaseClientTools, PostgresDumpPlanner(databaseClientTools), compressionStrategy)
+
     @Throws(DatabaseMigrationFailure::class)
     override fun startDatabaseDump(target: Path): Process {
-        return startDatabaseDump(target, false)
+        return startDatabaseDump(target, true)
     }
 
     /**
@@ -37,37 +54,32 @@ class PostgresExtractor(private val applicationConfiguration: ApplicationConfigu
      *
      *
      *  * It is the responsibility of the caller to ensure that the filesystems the target resides on has sufficient space.
-     *  * stdio & stderr are redirected to the stderr of the calling process.
+     *  * stdout is redirected to the stdout of the calling process. stderr is followed to track the [dumpProgress].
      *
      *
      * @param target   - The directory to dump the compressed database export to.
-     * @param parallel - Whether to use parallel dump strategy.
+     * @param parallel - Whether to use parallel dump strategy. The number of jobs is chosen by the [PostgresDumpPlanner].
      * @return The underlying process object.
      * @throws DatabaseMigrationFailure on failure.
      */
     @Throws(DatabaseMigrationFailure::class)
     override fun startDatabaseDump(target: Path, parallel: Boolean): Process {
-        val numJobs = if (parallel) 4 else 1 // Common-case for now, could be tunable or num-CPUs.
+        val tables = databaseClientTools.getTableSizes()
+        val numJobs = if (parallel) dumpPlanner.planJobs(tables) else 1
+        val compression = compressionStrategy.compressionLevel(numJobs) { sampleTable(tables.firstOrNull()) }
 
         log.info("Dump database to $target using $numJobs threads")
 
-        val pgdump = databaseClientTools.getDatabaseDumpClientPath() ?: throw DatabaseMigrationFailure("Failed to find appropriate pg_dump executable.")
-        val config = applicationConfiguration.databaseConfiguration
-
-        val args = listOf(pgdump,
-                "--no-owner",
-                "--no-acl",
-                "--compress=9",
+        val args = pgDumpCommand(
+                "--verbose",
+                "--compress=$compression",
                 "--format=directory",
                 "--jobs", numJobs.toString(),
-                "--file", target.toString(),
-                "--dbname", config.name,
-                "--host", config.host,
-                "--port", config.port.toString(),
-                "--username", config.username)
+                "--file", target.toString())
         val builder = ProcessBuilder(args)
-                .inheritIO()
-        builder.environment()["PGPASSWORD"] = config.password
+                .redirectOutput(ProcessBuilder.Redirect.INHERIT)
+                .redirectError(ProcessBuilder.Redirect.PIPE)
+        builder.environment()["PGPASSWORD"] = applicationConfiguration.databaseConfiguration.password
 
         return try {
             if(Files.exists(target))  {
@@ -75,13 +87,127 @@ class PostgresExtractor(private val applicationConfiguration: ApplicationConfigu
                 deleteDatabaseDump(target)
             }
             log.info("Calling pg_dump with: "+args.joinToString(" "))
-            builder.start()
+            trackProgress(builder.start(), DatabaseDumpProgress(tables, databaseClientTools.getDatabaseSize(), target))
+        } catch (e: IOException) {
+            val command = java.lang.String.join(" ", builder.command())
+            throw DatabaseMigrationFailure("Failed to start pg_dump process with commandline: $command", e)
+        }
+    }
+
+    /**
+     * Invoke `pg_dump` so that it writes a single archive in the custom format to its stdout, which must be consumed
+     * by the caller. stderr is followed to track the [dumpProgress]. The archive does not contain the
+     * table offsets that would be written to a seekable file, so it has to be restored sequentially.
+     *
+     * @return The underlying process object.
+     * @throws DatabaseMigrationFailure on failure.
+     */
+    @Throws(DatabaseMigrationFailure::class)
+    override fun startDatabaseStream(): Process {
+        log.info("Stream database dump to stdout")
+
+        val tables = databaseClientTools.getTableSizes()
+        val compression = compressionStrategy.compressionLevel(1) { sampleTable(tables.firstOrNull()) }
+        val args = pgDumpCommand("--verbose", "--compress=$compression", "--format=custom")
+        val builder = ProcessBuilder(args)
+                .redirectError(ProcessBuilder.Redirect.PIPE)
+        builder.environment()["PGPASSWORD"] = applicationConfiguration.databaseConfiguration.password
+
+        return try {
+            log.info("Calling pg_dump with: " + args.joinToString(" "))
+            trackProgress(builder.start(), DatabaseDumpProgress(tables, databaseClientTools.getDatabaseSize(), null))
         } catch (e: IOException) {
             val command = java.lang.String.join(" ", builder.command())
             throw DatabaseMigrationFailure("Failed to start pg_dump process with commandline: $command", e)
         }
     }
 
+    private fun pgDumpCommand(vararg formatArgs: String): List<String> {
+        val pgdump = databaseClientTools.getDatabaseDumpClientPath() ?: throw DatabaseMigrationFailure("Failed to find appropriate pg_dump executable.")
+        val config = applicationConfiguration.databaseConfiguration
+
+        return listOf(pgdump,
+                "--no-owner",
+                "--no-acl") +
+                formatArgs +
+                listOf(
+                        "--dbname", config.name,
+                        "--host", config.host,
+                        "--port", config.port.toString(),
+                        "--username", config.username)
+    }
+
+    /**
+     * Follows the verbose log output of `pg_dump` on a background thread to track its progress. Errors and warnings
+     * are logged, everything else is only logged at debug level.
+     */
+    private fun trackProgress(process: Process, progress: DatabaseDumpProgress): Process {
+        dumpProgress = progress
+        val reader = Thread({
+            try {
+                process.errorStream.bufferedReader().useLines { lines ->
+                    lines.forEach { line ->
+                        if (line.contains("error", ignoreCase = true) || line.contains("warning", ignoreCase = true)) {
+                            log.warn(line)
+                        } else {
+                            log.debug(line)
+                        }
+                        progress.onLogLine(line)
+                    }
+                }
+            } catch (e: IOException) {
+                log.warn("Stopped following pg_dump output", e)
+            } finally {
+                progress.onDumpFinished()
+            }
+        }, "pg_dump-progress")
+        reader.isDaemon = true
+        reader.start()
+        return process
+    }
+
+    /**
+     * Read the start of the uncompressed data of the given table, to calibrate the dump compression on.
+     *
+     * @return the sample, or null if it could not be taken
+     */
+    private fun sampleTable(table: TableSize?): ByteArray? {
+        if (table == null) {
+            return null
+        }
+        val args = pgDumpCommand("--data-only", "--format=plain", "--table", table.identifier)
+        val builder = ProcessBuilder(args)
+                .redirectError(ProcessBuilder.Redirect.INHERIT)
+        builder.environment()["PGPASSWORD"] = applicationConfiguration.databaseConfiguration.password
+
+        log.debug("Sampling {} bytes of {} to calibrate dump compression", COMPRESSION_SAMPLE_BYTES, table.name)
+        val process = try {
+            builder.start()
+        } catch (e: IOException) {
+            log.warn("Failed to start pg_dump to sample {}", table.name, e)
+            return null
+        }
+        return try {
+            val sample = ByteArray(COMPRESSION_SAMPLE_BYTES)
+            var read = 0
+            process.inputStream.use { stream ->
+                while (read < sample.size) {
+                    val count = stream.read(sample, read, sample.size - read)
+                    if (count < 0) {
+                        break
+                    }
+                    read += count
+                }
+            }
+            sample.copyOf(read)
+        } catch (e: IOException) {
+            log.warn("Failed to sample {}", table.name, e)
+            null
+        } finally {
+            process.destroy()
+        }
+    }
+
     /**
      * This is a blocking version of startDatabaseDump(); this may take some time, so should be called from a thread.
      *
@@ -20,6 +20,8 @@ import net.swiftzer.semver.SemVer
 import java.nio.file.Path
 
 class UnSupportedDatabaseExtractor : DatabaseExtractor {
+    override val dumpProgress: DatabaseDumpProgress? = null
+
     @Throws(DatabaseMigrationFailure::class)
     override fun startDatabaseDump(target: Path): Process {
         throw UnsupportedOperationException("Not implemented")
@@ -34,4 +36,9 @@ class UnSupportedDatabaseExtractor : DatabaseExtractor {
     override fun dumpDatabase(to: Path) {
         throw UnsupportedOperationException("Not implemented")
     }
+
+    @Throws(DatabaseMigrationFailure::class)
+    override fun startDatabaseStream(): Process {
+        throw UnsupportedOperationException("Not implemented")
+    }
 }
\ No newline at end of file
@@ -0,0 +1,446 @@
+/*
+ * Copyright 2020 Atlassian
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.atlassian.migration.datacenter.core.db.delta
+
+import com.atlassian.event.api.EventListener
+import com.atlassian.event.api.EventPublisher
+import com.atlassian.migration.datacenter.analytics.events.MigrationTransitionEvent
+import com.atlassian.migration.datacenter.core.aws.db.DatabaseArchivalService
+import com.atlassian.migration.datacenter.core.aws.db.DatabaseArtifactS3UploadService
+import com.atlassian.migration.datacenter.core.aws.db.restore.RemoteServiceState
+import com.atlassian.migration.datacenter.core.aws.db.restore.SsmPsqlDatabaseRestoreService
+import com.atlassian.migration.datacenter.core.aws.infrastructure.AWSMigrationHelperDeploymentService
+import com.atlassian.migration.datacenter.core.aws.infrastructure.RemoteInstanceCommandRunnerService
+import com.atlassian.migration.datacenter.core.aws.ssm.SSMApi
+import com.atlassian.migration.datacenter.core.aws.ssm.SSMCommandPoller
+import com.atlassian.migration.datacenter.core.db.DatabaseClientTools
+import com.atlassian.migration.datacenter.core.fs.download.s3sync.EnsureSuccessfulSSMCommandConsumer
+import com.atlassian.migration.datacenter.events.MigrationResetEvent
+import com.atlassian.migration.datacenter.spi.MigrationStage
+import com.atlassian.migration.datacenter.spi.exceptions.DatabaseMigrationFailure
+import org.slf4j.LoggerFactory
+import org.springframework.beans.factory.DisposableBean
+import org.springframework.beans.factory.InitializingBean
+import software.amazon.awssdk.core.sync.RequestBody
+import software.amazon.awssdk.services.s3.S3Client
+import software.amazon.awssdk.services.s3.model.DeleteObjectRequest
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Request
+import software.amazon.awssdk.services.s3.model.PutObjectRequest
+import java.nio.file.Files
+import java.nio.file.Path
+import java.time.Duration
+import java.util.concurrent.CancellationException
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.CompletionException
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.Executors
+import java.util.concurrent.RejectedExecutionException
+import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.ScheduledFuture
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicReference
+import java.util.function.Supplier
+
+/**
+ * Shrinks the offline window of the database migration by restoring a snapshot of the database while the file system
+ * is being migrated, and then keeping the target database up to date with the changes captured on the source. At
+ * cut-over only the changes made since the last sync have to be exported and applied, instead of the whole database.
+ *
+ * The delta sync is opt-in through the [DELTA_SYNC_PROPERTY] system property. If anything goes wrong before cut-over
+ * the capture is removed and the database is migrated in full as usual.
+ */
+open class DatabaseDeltaSyncService internal constructor(
+        private val eventPublisher: EventPublisher,
+        private val capture: TriggerChangeCapture,
+        private val snapshotArchivalService: DatabaseArchivalService,
+        private val snapshotUploadService: DatabaseArtifactS3UploadService,
+        private val snapshotRestoreService: SsmPsqlDatabaseRestoreService,
+        private val migrationHelperDeploymentService: AWSMigrationHelperDeploymentService,
+        private val remoteInstanceCommandRunnerService: RemoteInstanceCommandRunnerService,
+        private val ssm: SSMApi,
+        private val commandPoller: SSMCommandPoller,
+        private val s3ClientSupplier: Supplier<S3Client>,
+        private val tempDirectory: Path,
+        private val syncInterval: Duration,
+        private val extractor: DeltaExtractor = DeltaExtractor(capture)
+) : InitializingBean, DisposableBean {
+
+    constructor(
+            eventPublisher: EventPublisher,
+            databaseClientTools: DatabaseClientTools,
+            snapshotArchivalService: DatabaseArchivalService,
+            snapshotUploadService: DatabaseArtifactS3UploadService,
+            snapshotRestoreService: SsmPsqlDatabaseRestoreService,
+            migrationHelperDeploymentService: AWSMigrationHelperDeploymentService,
+            remoteInstanceCommandRunnerService: RemoteInstanceCommandRunnerService,
+            ssm: SSMApi,
+            commandPoller: SSMCommandPoller,
+            s3ClientSupplier: Supplier<S3Client>,
+            tempDirectory: Path,
+            syncInterval: Duration
+    ) : this(
+            eventPublisher,
+            TriggerChangeCapture(databaseClientTools::connect),
+            snapshotArchivalService,
+            snapshotUploadService,
+            snapshotRestoreService,
+            migrationHelperDeploymentService,
+            remoteInstanceCommandRunnerService,
+            ssm,
+            commandPoller,
+            s3ClientSupplier,
+            tempDirectory,
+            syncInterval
+    )
+
+    companion object {
+        private val logger = LoggerFactory.getLogger(DatabaseDeltaSyncService::class.java)
+
+        const val DELTA_SYNC_PROPERTY = "com.atlassian.migration.db.deltaSync"
+        const val DELTA_PREFIX = "db.delta/"
+        private const val AWS_RUN_SHELL_SCRIPT = "AWS-RunShellScript"
+        private const val APPLY_DELTAS_SCRIPT = "/opt/atlassian/dc-migration-assistant/apply-db-deltas.sh"
+        private val APPLY_TIMEOUT: Duration = Duration.ofHours(1)
+    }
+
+    enum class State {
+        IDLE, SNAPSHOTTING, SYNCING, FAILED
+    }
+
+    private val state = AtomicReference(State.IDLE)
+    private val executor: ScheduledExecutorService = Executors.newSingleThreadScheduledExecutor { runnable ->
+        val thread = Thread(runnable, "database-delta-sync")
+        thread.isDaemon = true
+        thread
+    }
+    @Volatile
+    private var syncing = false
+    private var syncJob: ScheduledFuture<*>? = null
+    // The restore or delta apply running on the migration host, which is waited for without holding the sync thread
+    @Volatile
+    private var pendingCommand: CompletableFuture<*> = CompletableFuture.completedFuture(null)
+
+    fun isEnabled(): Boolean = java.lang.Boolean.getBoolean(DELTA_SYNC_PROPERTY)
+
+    fun getState(): State = state.get()
+
+    /**
+     * Waits for a snapshot which is still being taken, as it is further ahead than a full dump started now would be,
+     * and stops the periodic sync. If the delta sync can't be used for the cut-over, the capture is removed from the
+     * source database so that it can be migrated in full.
+     *
+     * @return true if the snapshot has been restored on the target and the changes since have been synced, so that
+     * the cut-over only has to apply the final deltas
+     */
+    open fun prepareForCutOver(): Boolean {
+        awaitSyncThread()
+        if (isEnabled() && state.get() == State.SYNCING) {
+            stopSyncing()
+            awaitSyncThread()
+            return true
+        }
+        abandon()
+        return false
+    }
+
+    @Throws(Exception::class)
+    override fun afterPropertiesSet() {
+        eventPublisher.register(this)
+    }
+
+    @EventListener
+    fun onMigrationTransition(event: MigrationTransitionEvent) {
+        if (event.toStage != MigrationStage.FS_MIGRATION_COPY || !isEnabled()) {
+            return
+        }
+        if (state.compareAndSet(State.IDLE, State.SNAPSHOTTING) || state.compareAndSet(State.FAILED, State.SNAPSHOTTING)) {
+            executor.execute(::takeSnapshot)
+        }
+    }
+
+    @EventListener
+    fun onMigrationReset(event: MigrationResetEvent) {
+        if (state.get() != State.IDLE) {
+            logger.info("Abandoning the database delta sync of migration {}", event.migrationId)
+            abandon()
+            state.set(State.IDLE)
+        }
+    }
+
+    /**
+     * Stops syncing and removes the capture from the source database, so that the database can be migrated in full.
+     */
+    fun abandon() {
+        stopSyncing()
+        try {
+            if (capture.isInstalled()) {
+                capture.uninstall()
+            }
+        } catch (e: Exception) {
+            logger.error("Unable to remove the change capture from the source database", e)
+        }
+        if (state.get() != State.IDLE) {
+            state.set(State.FAILED)
+        }
+    }
+
+    /**
+     * Stops the periodic sync and exports the changes made since the last one. Nothing should be writing to the
+     * source database anymore when this is called.
+     */
+    @Throws(DatabaseMigrationFailure::class)
+    open fun exportFinalDeltas() {
+        abandonOnFailure {
+            val uncaptured = capture.uncapturedTables()
+            if (uncaptured.isNotEmpty()) {
+                throw DatabaseMigrationFailure("Tables were created after the database snapshot was taken: $uncaptured")
+            }
+            val batch = extractor.extract(workDirectory(), true)
+                    ?: throw DatabaseMigrationFailure("Unable to extract the final database delta")
+            uploadBatch(batch)
+        }
+    }
+
+    /**
+     * Blocking bridge over [applyFinalDeltasAsync]. It only exists because the scheduler job which runs the database
+     * migration has to return once the migration has finished.
+     */
+    @Throws(DatabaseMigrationFailure::class)
+    open fun applyFinalDeltas() {
+        val applied = applyFinalDeltasAsync()
+        try {
+            applied.get()
+        } catch (e: InterruptedException) {
+            applied.cancel(true)
+            Thread.currentThread().interrupt()
+            throw DatabaseMigrationFailure("Interrupted while applying the final database delta", e)
+        } catch (e: ExecutionException) {
+            throw e.cause as? DatabaseMigrationFailure ?: DatabaseMigrationFailure("Unable to sync the final database delta", e.cause)
+        }
+    }
+
+    /**
+     * Applies every delta which has not been applied yet along with the post restore script, removes the capture
+     * from the source database and starts the target application.
+     *
+     * @return a future which completes once the target application has been started, or completes exceptionally
+     * with a [DatabaseMigrationFailure] after the delta sync has been abandoned
+     */
+    open fun applyFinalDeltasAsync(): CompletableFuture<Void> {
+        val applied = try {
+            applyDeltas(true)
+        } catch (e: Exception) {
+            failedFuture<Void>(e)
+        }
+        return applied
+                .whenComplete { _, error ->
+                    if (error != null) {
+                        // Retrying the cut-over migrates the database in full
+                        abandon()
+                    }
+                }
+                .thenRun {
+                    try {
+                        capture.uninstall()
+                    } catch (e: Exception) {
+                        logger.warn("Unable to remove the change capture from the source database after the final delta was applied", e)
+                    }
+                    state.set(State.IDLE)
+                    remoteInstanceCommandRunnerService.setJiraRunStateTo(RemoteServiceState.START)
+                }
+    }
+
+    private fun abandonOnFailure(block: () -> Unit) {
+        try {
+            block()
+        } catch (e: Exception) {
+            // Retrying the cut-over migrates the database in full
+            abandon()
+            throw e as? DatabaseMigrationFailure ?: DatabaseMigrationFailure("Unable to sync the final database delta", e)
+        }
+    }
+
+    private fun takeSnapshot() {
+        try {
+            logger.info("Taking a snapshot of the database for the delta sync")
+            // Only returns once every table is captured, so no change made after the dump starts can be missed
+            capture.install()
+            deleteUploadedDeltas()
+
+            val snapshotDirectory = tempDirectory.resolve("db-snapshot")
+            deleteRecursively(snapshotDirectory)
+            Files.createDirectories(snapshotDirectory)
+            try {
+                val archive = snapshotArchivalService.archiveDatabaseAsync(snapshotDirectory)
+                snapshotUploadService.uploadWhileArchiving(DatabaseArchivalService.archivePath(snapshotDirectory), archive, bucket())
+                archive.get()
+            } finally {
+                deleteRecursively(snapshotDirectory)
+            }
+
+            if (state.get() != State.SNAPSHOTTING) {
+                logger.info("Database delta sync was abandoned while the snapshot was being taken, not restoring it")
+                return
+            }
+            // The target application must stay down until the final delta is applied, or it would write to the
+            // snapshot and the target would drift from the source
+            pendingCommand = snapshotRestoreService.restoreDatabaseAsync(false)
+                    .thenRunAsync({ startSyncing() }, executor)
+                    .exceptionally { e ->
+                        logger.error("Unable to restore the database snapshot for the delta sync, the database will be migrated in full", e)
+                        abandon()
+                        null
+                    }
+        } catch (e: Exception) {
+            logger.error("Unable to take the database snapshot for the delta sync, the database will be migrated in full", e)
+            abandon()
+        }
+    }
+
+    private fun startSyncing() {
+        if (state.compareAndSet(State.SNAPSHOTTING, State.SYNCING)) {
+            logger.info("Database snapshot restored, syncing changes every {}", syncInterval)
+            syncing = true
+            syncDeltas()
+        }
+    }
+
+    /**
+     * Exports and applies the changes made since the previous sync. Changes which fail to sync are kept in the change
+     * log, so they are picked up again by the next sync, which is scheduled once this one has finished.
+     */
+    fun syncDeltas() {
+        try {
+            val uncaptured = capture.uncapturedTables()
+            if (uncaptured.isNotEmpty()) {
+                logger.error("Tables {} were created after the database snapshot was taken, the database will be migrated in full", uncaptured)
+                abandon()
+                return
+            }
+            val batch = extractor.extract(workDirectory(), false)
+            if (batch == null) {
+                scheduleNextSync()
+                return
+            }
+            uploadBatch(batch)
+            pendingCommand = applyDeltas(false)
+                    .thenRunAsync({ capture.prune(batch.batchId) }, executor)
+                    .whenComplete { _, error ->
+                        if (error != null) {
+                            logger.warn("Unable to sync the database delta, will retry in {}", syncInterval, error)
+                        }
+                        scheduleNextSync()
+                    }
+        } catch (e: Exception) {
+            logger.warn("Unable to sync the database delta, will retry in {}", syncInterval, e)
+            scheduleNextSync()
+        }
+    }
+
+    private fun scheduleNextSync() {
+        if (!syncing) {
+            return
+        }
+        try {
+            syncJob = executor.schedule({
+                if (syncing) {
+                    syncDeltas()
+                }
+            }, syncInterval.toMillis(), TimeUnit.MILLISECONDS)
+        } catch (e: RejectedExecutionException) {
+            logger.debug("Not scheduling another database delta sync as the service is being destroyed")
+        }
+    }
+
+    private fun uploadBatch(batch: DeltaBatch) {
+        val key = DELTA_PREFIX + batch.script.fileName
+        try {
+            s3ClientSupplier.get().putObject(PutObjectRequest.builder().bucket(bucket()).key(key).build(), RequestBody.fromFile(batch.script))
+        } finally {
+            Files.deleteIfExists(batch.script)
+        }
+        logger.debug("Uploaded database delta {}", key)
+    }
+
+    private fun applyDeltas(isFinal: Boolean): CompletableFuture<Void> {
+        val instanceId = migrationHelperDeploymentService.migrationHostInstanceId
+        val command = "runuser -l jira -c '$APPLY_DELTAS_SCRIPT${if (isFinal) " --final" else ""}'"
+        val applied = try {
+            val commandId = ssm.runSSMDocument(AWS_RUN_SHELL_SCRIPT, instanceId, mapOf(
+                    "commands" to listOf(command),
+                    "executionTimeout" to listOf(APPLY_TIMEOUT.seconds.toString())
+            ))
+            EnsureSuccessfulSSMCommandConsumer(commandPoller, commandId, instanceId).awaitCommandOutput(APPLY_TIMEOUT.plusMinutes(5))
+        } catch (e: Exception) {
+            failedFuture<Void>(e)
+        }
+        return applied.exceptionally { e ->
+            // A delta which failed to apply blocks every later one, and its changes are extracted again anyway
+            deleteUploadedDeltas()
+            throw DatabaseMigrationFailure("Unable to apply the database deltas on the migration host", (e as? CompletionException)?.cause ?: e)
+        }
+    }
+
+    private fun <T> failedFuture(error: Throwable): CompletableFuture<T> {
+        val future = CompletableFuture<T>()
+        future.completeExceptionally(error)
+        return future
+    }
+
+    private fun deleteUploadedDeltas() {
+        val s3 = s3ClientSupplier.get()
+        val bucket = bucket()
+        s3.listObjectsV2Paginator(ListObjectsV2Request.builder().bucket(bucket).prefix(DELTA_PREFIX).build())
+                .contents()
+                .forEach { s3.deleteObject(DeleteObjectRequest.builder().bucket(bucket).key(it.key()).build()) }
+    }
+
+    private fun stopSyncing() {
+        syncing = false
+        syncJob?.cancel(false)
+        syncJob = null
+    }
+
+    private fun awaitSyncThread() {
+        // The snapshot and the syncs all run on the same thread, so this waits for whichever is running and then for
+        // the command it left running on the migration host, until neither has started anything new
+        do {
+            executor.submit {}.get()
+            val pending = pendingCommand
+            try {
+                pending.get()
+            } catch (e: ExecutionException) {
+                // Already reported by whichever sync was waiting for it
+            } catch (e: CancellationException) {
+            }
+        } while (pending !== pendingCommand)
+    }
+
+    private fun bucket(): String = migrationHelperDeploymentService.migrationS3BucketName
+
+    private fun workDirectory(): Path = Files.createDirectories(tempDirectory.resolve("db-delta"))
+
+    private fun deleteRecursively(path: Path) {
+        path.toFile().deleteRecursively()
+    }
+
+    @Throws(Exception::class)
+    override fun destroy() {
+        eventPublisher.unregister(this)
+        executor.shutdownNow()
+    }
+}
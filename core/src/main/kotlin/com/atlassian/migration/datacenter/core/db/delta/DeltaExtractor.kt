@@ -0,0 +1,226 @@
+/*
+ * Copyright 2020 Atlassian
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.atlassian.migration.datacenter.core.db.delta
+
+import org.slf4j.LoggerFactory
+import java.io.Writer
+import java.nio.charset.StandardCharsets
+import java.nio.file.Files
+import java.nio.file.Path
+import java.sql.Connection
+import java.sql.SQLException
+
+/**
+ * A batch of captured changes, written out as a SQL script which brings the changed rows of the target database up
+ * to date with the source.
+ */
+data class DeltaBatch(val batchId: Long, val script: Path, val changedRows: Long, val copiedTables: List<String>)
+
+/**
+ * Extracts the changes captured by [TriggerChangeCapture] into SQL scripts.
+ *
+ * The scripts don't replay the captured operations. For every changed key they delete the row from the target and
+ * insert the row as it is on the source now, if it still exists. Replaying a script is therefore idempotent, and a
+ * change which is extracted again because a script was lost or failed to apply is harmless.
+ */
+class DeltaExtractor(
+        private val connect: () -> Connection?,
+        private val capture: TriggerChangeCapture,
+        private val chunkSize: Int
+) {
+    constructor(connect: () -> Connection?, capture: TriggerChangeCapture) : this(connect, capture, 500)
+
+    constructor(capture: TriggerChangeCapture) : this(capture.connect, capture)
+
+    companion object {
+        private val log = LoggerFactory.getLogger(DeltaExtractor::class.java)
+        private const val FULL_COPY = "T"
+        private const val SEQUENCES_QUERY = """
+            SELECT n.nspname, c.relname FROM pg_class c JOIN pg_namespace n ON n.oid = c.relnamespace
+            WHERE c.relkind = 'S' AND n.nspname NOT IN ('pg_catalog', 'information_schema', '${TriggerChangeCapture.CAPTURE_SCHEMA}')
+            ORDER BY 1, 2"""
+
+        /**
+         * @return a dollar quoted string constant whose tag does not occur in [text], so it needs no escaping
+         */
+        internal fun dollarQuote(text: String): String {
+            var tag = "\$dcma\$"
+            var suffix = 0
+            while (text.contains(tag)) {
+                tag = "\$dcma${++suffix}\$"
+            }
+            return "$tag$text$tag"
+        }
+    }
+
+    /**
+     * Claims every change captured since the previous batch and writes the script which replays them.
+     *
+     * Changes of an earlier batch which has not been pruned yet are included again, so a batch which failed to apply
+     * is superseded by the next one.
+     *
+     * @param directory the directory the script is written to
+     * @param includeUnchanged write a script even if nothing has changed, so that the sequences are still brought up to date
+     * @return the batch, or null if nothing has changed and [includeUnchanged] is false
+     */
+    @Throws(SQLException::class)
+    fun extract(directory: Path, includeUnchanged: Boolean): DeltaBatch? {
+        val conn = connect() ?: throw SQLException("Unable to connect to the database")
+        return conn.use {
+            it.autoCommit = false
+            try {
+                val batch = claimChanges(it)
+                val changes = readChanges(it)
+                if (changes.isEmpty() && !includeUnchanged) {
+                    it.commit()
+                    return null
+                }
+                val tables = capture.readCapturedTables(it)
+                val script = directory.resolve(String.format("%019d.sql", batch))
+                var changedRows = 0L
+                val copiedTables = mutableListOf<String>()
+                Files.newBufferedWriter(script, StandardCharsets.UTF_8).use { out ->
+                    // The snapshot restored on the target still carries the capture triggers of the source
+                    out.write("DROP SCHEMA IF EXISTS ${TriggerChangeCapture.CAPTURE_SCHEMA} CASCADE;\n")
+                    tables.forEach { table ->
+                        val tableChanges = changes[table.schema to table.name] ?: return@forEach
+                        if (table.keyColumns.isEmpty() || tableChanges.truncated) {
+                            copyTable(it, table, out)
+                            copiedTables.add(table.qualifiedName)
+                        } else {
+                            changedRows += replayKeys(it, table, tableChanges.keys.toList(), out)
+                        }
+                    }
+                    // Tables without a key are always copied, as their changes can't be captured
+                    tables.filter { table -> table.keyColumns.isEmpty() && !changes.containsKey(table.schema to table.name) }.forEach { table ->
+                        copyTable(it, table, out)
+                        copiedTables.add(table.qualifiedName)
+                    }
+                    writeSequences(it, out)
+                }
+                it.commit()
+                log.info("Extracted database delta batch {} with {} changed rows and {} copied tables", batch, changedRows, copiedTables.size)
+                DeltaBatch(batch, script, changedRows, copiedTables)
+            } catch (e: Exception) {
+                it.rollback()
+                throw e
+            }
+        }
+    }
+
+    private fun claimChanges(conn: Connection): Long {
+        val batch = conn.createStatement().use { statement ->
+            statement.executeQuery("SELECT nextval('${TriggerChangeCapture.CAPTURE_SCHEMA}.batch_seq')").use { rs ->
+                rs.next()
+                rs.getLong(1)
+            }
+        }
+        conn.prepareStatement("UPDATE ${TriggerChangeCapture.CHANGE_LOG_TABLE} SET batch = ? WHERE batch IS NULL").use { statement ->
+            statement.setLong(1, batch)
+            statement.executeUpdate()
+        }
+        return batch
+    }
+
+    private fun readChanges(conn: Connection): Map<Pair<String, String>, TableChanges> {
+        val changes = mutableMapOf<Pair<String, String>, TableChanges>()
+        conn.createStatement().use { statement ->
+            statement.executeQuery("SELECT DISTINCT table_schema, table_name, operation = '$FULL_COPY', row_key::text " +
+                    "FROM ${TriggerChangeCapture.CHANGE_LOG_TABLE} WHERE batch IS NOT NULL").use { rs ->
+                while (rs.next()) {
+                    val tableChanges = changes.getOrPut(rs.getString(1) to rs.getString(2)) { TableChanges() }
+                    if (rs.getBoolean(3)) {
+                        tableChanges.truncated = true
+                    } else {
+                        rs.getString(4)?.let { key -> tableChanges.keys.add(key) }
+                    }
+                }
+            }
+        }
+        return changes
+    }
+
+    private fun replayKeys(conn: Connection, table: CapturedTable, keys: List<String>, out: Writer): Long {
+        val keyMatch = table.keyColumns.joinToString(" AND ") { "source.${quoteIdentifier(it)} = k.${quoteIdentifier(it)}" }
+        val rowsQuery = "SELECT coalesce(json_agg(source), '[]')::text FROM ${table.qualifiedName} source " +
+                "JOIN jsonb_populate_recordset(NULL::${table.qualifiedName}, ?::jsonb) k ON $keyMatch"
+        val chunks = keys.chunked(chunkSize).map { chunk -> chunk.joinToString(",", "[", "]") }
+        // Every changed row is deleted before any is inserted, so that rows which swapped a unique value don't collide
+        chunks.forEach { keyArray ->
+            out.write("DELETE FROM ${table.qualifiedName} target USING jsonb_populate_recordset(NULL::${table.qualifiedName}, ${dollarQuote(keyArray)}) k WHERE " +
+                    table.keyColumns.joinToString(" AND ") { "target.${quoteIdentifier(it)} = k.${quoteIdentifier(it)}" } + ";\n")
+        }
+        conn.prepareStatement(rowsQuery).use { statement ->
+            chunks.forEach { keyArray ->
+                statement.setString(1, keyArray)
+                val current = statement.executeQuery().use { rs ->
+                    rs.next()
+                    rs.getString(1)
+                }
+                if (current != "[]") {
+                    out.write("INSERT INTO ${table.qualifiedName} SELECT * FROM json_populate_recordset(NULL::${table.qualifiedName}, ${dollarQuote(current)});\n")
+                }
+            }
+        }
+        return keys.size.toLong()
+    }
+
+    private fun copyTable(conn: Connection, table: CapturedTable, out: Writer) {
+        out.write("DELETE FROM ${table.qualifiedName};\n")
+        conn.createStatement().use { statement ->
+            statement.fetchSize = chunkSize
+            statement.executeQuery("SELECT row_to_json(source)::text FROM ${table.qualifiedName} source").use { rs ->
+                val chunk = mutableListOf<String>()
+                fun flush() {
+                    if (chunk.isNotEmpty()) {
+                        out.write("INSERT INTO ${table.qualifiedName} SELECT * FROM json_populate_recordset(NULL::${table.qualifiedName}, " +
+                                "${dollarQuote(chunk.joinToString(",", "[", "]"))});\n")
+                        chunk.clear()
+                    }
+                }
+                while (rs.next()) {
+                    chunk.add(rs.getString(1))
+                    if (chunk.size >= chunkSize) {
+                        flush()
+                    }
+                }
+                flush()
+            }
+        }
+    }
+
+    private fun writeSequences(conn: Connection, out: Writer) {
+        val sequences = conn.createStatement().use { statement ->
+            statement.executeQuery(SEQUENCES_QUERY).use { rs ->
+                generateSequence { if (rs.next()) "${quoteIdentifier(rs.getString(1))}.${quoteIdentifier(rs.getString(2))}" else null }.toList()
+            }
+        }
+        conn.createStatement().use { statement ->
+            sequences.forEach { sequence ->
+                statement.executeQuery("SELECT last_value, is_called FROM $sequence").use { rs ->
+                    rs.next()
+                    out.write("SELECT setval(${quoteLiteral(sequence)}, ${rs.getLong(1)}, ${rs.getBoolean(2)});\n")
+                }
+            }
+        }
+    }
+
+    private class TableChanges {
+        var truncated = false
+        val keys = linkedSetOf<String>()
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright 2020 Atlassian
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.atlassian.migration.datacenter.core.db.delta
+
+import com.atlassian.migration.datacenter.core.aws.MigrationStageCallback
+import com.atlassian.migration.datacenter.spi.MigrationService
+import com.atlassian.migration.datacenter.spi.MigrationStage
+import com.atlassian.migration.datacenter.spi.exceptions.InvalidMigrationStageError
+import org.slf4j.LoggerFactory
+
+/**
+ * Lets the database services take the snapshot for the delta sync while the file system is being migrated. The
+ * snapshot runs alongside the file system migration, so it must not move the migration through the database stages.
+ */
+class OnlineSnapshotStageCallback(private val migrationService: MigrationService) : MigrationStageCallback {
+    companion object {
+        private val logger = LoggerFactory.getLogger(OnlineSnapshotStageCallback::class.java)
+        private val ONLINE_STAGES = setOf(MigrationStage.FS_MIGRATION_COPY, MigrationStage.FS_MIGRATION_COPY_WAIT, MigrationStage.OFFLINE_WARNING)
+    }
+
+    @Throws(InvalidMigrationStageError::class)
+    override fun assertInStartingStage() {
+        val stage = migrationService.currentStage
+        if (!ONLINE_STAGES.contains(stage)) {
+            throw InvalidMigrationStageError("Database snapshot can only be taken while the file system is being migrated, but the migration is in stage $stage")
+        }
+    }
+
+    override fun transitionToServiceWaitStage() {
+    }
+
+    override fun transitionToServiceNextStage() {
+    }
+
+    override fun transitionToServiceErrorStage(message: String?) {
+        logger.error("Database snapshot failed: {}", message)
+    }
+}
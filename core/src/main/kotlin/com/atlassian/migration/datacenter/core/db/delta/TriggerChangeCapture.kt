@@ -0,0 +1,305 @@
+/*
+ * Copyright 2020 Atlassian
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.atlassian.migration.datacenter.core.db.delta
+
+import com.fasterxml.jackson.core.type.TypeReference
+import com.fasterxml.jackson.databind.ObjectMapper
+import org.slf4j.LoggerFactory
+import java.sql.Connection
+import java.sql.SQLException
+import java.time.Duration
+
+/**
+ * A table whose changes are captured. Tables without a primary key can't have their changed rows identified, so they
+ * have no [keyColumns] and are copied in full when the deltas are flushed.
+ */
+data class CapturedTable(val schema: String, val name: String, val keyColumns: List<String>) {
+    val qualifiedName: String
+        get() = "${quoteIdentifier(schema)}.${quoteIdentifier(name)}"
+}
+
+/**
+ * Captures the changes made to the source database in a change log table, using triggers. This only needs the
+ * privileges of the owner of the tables, unlike logical decoding, which needs `wal_level=logical` and a replication
+ * role on the source database.
+ *
+ * Only the key of a changed row is logged. The row itself is read when the changes are extracted, so that the
+ * extracted deltas are always at least as recent as the logged changes and can be replayed any number of times.
+ */
+class TriggerChangeCapture(
+        internal val connect: () -> Connection?,
+        private val lockTimeout: Duration = Duration.ofSeconds(2),
+        private val installAttempts: Int = 30,
+        private val installRetryDelay: Duration = Duration.ofSeconds(10)
+) {
+    companion object {
+        private val log = LoggerFactory.getLogger(TriggerChangeCapture::class.java)
+
+        private const val LOCK_NOT_AVAILABLE = "55P03"
+
+        const val CAPTURE_SCHEMA = "dcma_delta"
+        const val CHANGE_LOG_TABLE = "$CAPTURE_SCHEMA.change_log"
+        const val CAPTURED_TABLES_TABLE = "$CAPTURE_SCHEMA.captured_table"
+        private const val ROW_TRIGGER = "dcma_capture"
+        private const val TRUNCATE_TRIGGER = "dcma_capture_truncate"
+
+        private val SCHEMA_DDL = listOf(
+                "CREATE SCHEMA IF NOT EXISTS $CAPTURE_SCHEMA",
+                """CREATE TABLE IF NOT EXISTS $CHANGE_LOG_TABLE (
+                    id bigserial PRIMARY KEY,
+                    table_schema name NOT NULL,
+                    table_name name NOT NULL,
+                    operation char(1) NOT NULL,
+                    row_key jsonb,
+                    batch bigint
+                )""",
+                "CREATE SEQUENCE IF NOT EXISTS $CAPTURE_SCHEMA.batch_seq",
+                """CREATE TABLE IF NOT EXISTS $CAPTURED_TABLES_TABLE (
+                    table_schema name NOT NULL,
+                    table_name name NOT NULL,
+                    key_columns jsonb NOT NULL,
+                    PRIMARY KEY (table_schema, table_name)
+                )""",
+                """CREATE OR REPLACE FUNCTION $CAPTURE_SCHEMA.row_key(row_data jsonb, key_columns text[]) RETURNS jsonb
+                LANGUAGE sql IMMUTABLE AS
+                ${'$'}${'$'} SELECT coalesce(jsonb_object_agg(c, row_data -> c), '{}'::jsonb) FROM unnest(key_columns) c ${'$'}${'$'}""",
+                """CREATE OR REPLACE FUNCTION $CAPTURE_SCHEMA.capture_change() RETURNS trigger
+                LANGUAGE plpgsql AS
+                ${'$'}${'$'}
+                DECLARE
+                    old_key jsonb;
+                    new_key jsonb;
+                BEGIN
+                    IF TG_OP = 'TRUNCATE' THEN
+                        INSERT INTO $CHANGE_LOG_TABLE (table_schema, table_name, operation)
+                        VALUES (TG_TABLE_SCHEMA, TG_TABLE_NAME, 'T');
+                        RETURN NULL;
+                    END IF;
+                    IF TG_OP <> 'INSERT' THEN
+                        old_key := $CAPTURE_SCHEMA.row_key(to_jsonb(OLD), TG_ARGV);
+                        INSERT INTO $CHANGE_LOG_TABLE (table_schema, table_name, operation, row_key)
+                        VALUES (TG_TABLE_SCHEMA, TG_TABLE_NAME, left(TG_OP, 1), old_key);
+                    END IF;
+                    IF TG_OP <> 'DELETE' THEN
+                        new_key := $CAPTURE_SCHEMA.row_key(to_jsonb(NEW), TG_ARGV);
+                        -- An update which changes the key moves the row, so both keys have to be replayed
+                        IF old_key IS DISTINCT FROM new_key THEN
+                            INSERT INTO $CHANGE_LOG_TABLE (table_schema, table_name, operation, row_key)
+                            VALUES (TG_TABLE_SCHEMA, TG_TABLE_NAME, left(TG_OP, 1), new_key);
+                        END IF;
+                    END IF;
+                    RETURN NULL;
+                END
+                ${'$'}${'$'}"""
+        )
+
+        private val TABLES_QUERY = """
+            SELECT n.nspname, c.relname,
+                   coalesce(array_to_json(array_agg(a.attname::text ORDER BY a.attnum) FILTER (WHERE a.attname IS NOT NULL)), '[]')::text,
+                   bool_or(t.tgname IS NOT NULL)
+            FROM pg_class c
+            JOIN pg_namespace n ON n.oid = c.relnamespace
+            LEFT JOIN pg_index i ON i.indrelid = c.oid AND i.indisprimary
+            LEFT JOIN pg_attribute a ON a.attrelid = c.oid AND a.attnum = ANY(i.indkey)
+            LEFT JOIN pg_trigger t ON t.tgrelid = c.oid AND t.tgname = '$TRUNCATE_TRIGGER'
+            WHERE c.relkind = 'r' AND n.nspname NOT IN ('pg_catalog', 'information_schema', '$CAPTURE_SCHEMA')
+              AND n.nspname NOT LIKE 'pg_toast%' AND n.nspname NOT LIKE 'pg_temp%'
+            GROUP BY n.nspname, c.relname
+            ORDER BY n.nspname, c.relname"""
+
+        private val mapper = ObjectMapper()
+        private val columnListType = object : TypeReference<List<String>>() {}
+    }
+
+    /**
+     * Starts capturing the changes made to every table of the database. Installing the capture again is harmless,
+     * and picks up any tables which were created since.
+     *
+     * Creating a trigger locks out writes to its table, so every table gets its own short transaction which gives up
+     * after [lockTimeout] instead of queueing writes behind a long running transaction. Tables which timed out are
+     * retried until they are all captured, so the capture is complete once this returns.
+     *
+     * @return the captured tables
+     */
+    @Throws(SQLException::class)
+    fun install(): List<CapturedTable> {
+        val tables = transaction { conn ->
+            conn.createStatement().use { statement ->
+                SCHEMA_DDL.forEach { statement.execute(it) }
+            }
+            readTables(conn).map { it.first }
+        }
+
+        var pending = tables
+        for (attempt in 1..installAttempts) {
+            pending = pending.filterNot { tryInstall(it) }
+            if (pending.isEmpty()) {
+                break
+            }
+            if (attempt < installAttempts) {
+                log.info("Tables {} are busy, retrying the change capture in {}", pending.map { it.qualifiedName }, installRetryDelay)
+                Thread.sleep(installRetryDelay.toMillis())
+            }
+        }
+        if (pending.isNotEmpty()) {
+            throw SQLException("Unable to lock ${pending.map { it.qualifiedName }} to capture their changes after $installAttempts attempts")
+        }
+
+        val withoutKey = tables.filter { it.keyColumns.isEmpty() }
+        if (withoutKey.isNotEmpty()) {
+            log.warn("Tables without a primary key will be copied in full when the deltas are flushed: {}", withoutKey.map { it.qualifiedName })
+        }
+        log.info("Capturing changes to {} tables", tables.size)
+        return tables
+    }
+
+    /**
+     * @return false if the table could not be locked within the [lockTimeout]
+     */
+    private fun tryInstall(table: CapturedTable): Boolean {
+        try {
+            transaction { conn ->
+                conn.createStatement().use { statement ->
+                    statement.execute("SET LOCAL lock_timeout = '${lockTimeout.toMillis()}ms'")
+                    val keyArguments = table.keyColumns.joinToString(", ") { quoteLiteral(it) }
+                    statement.execute("DROP TRIGGER IF EXISTS $ROW_TRIGGER ON ${table.qualifiedName}")
+                    statement.execute("DROP TRIGGER IF EXISTS $TRUNCATE_TRIGGER ON ${table.qualifiedName}")
+                    if (table.keyColumns.isNotEmpty()) {
+                        statement.execute("CREATE TRIGGER $ROW_TRIGGER AFTER INSERT OR UPDATE OR DELETE ON ${table.qualifiedName} " +
+                                "FOR EACH ROW EXECUTE PROCEDURE $CAPTURE_SCHEMA.capture_change($keyArguments)")
+                    }
+                    statement.execute("CREATE TRIGGER $TRUNCATE_TRIGGER AFTER TRUNCATE ON ${table.qualifiedName} " +
+                            "FOR EACH STATEMENT EXECUTE PROCEDURE $CAPTURE_SCHEMA.capture_change()")
+                }
+                conn.prepareStatement("INSERT INTO $CAPTURED_TABLES_TABLE (table_schema, table_name, key_columns) VALUES (?, ?, ?::jsonb) " +
+                        "ON CONFLICT (table_schema, table_name) DO UPDATE SET key_columns = excluded.key_columns").use { insert ->
+                    insert.setString(1, table.schema)
+                    insert.setString(2, table.name)
+                    insert.setString(3, mapper.writeValueAsString(table.keyColumns))
+                    insert.executeUpdate()
+                }
+            }
+            return true
+        } catch (e: SQLException) {
+            if (e.sqlState == LOCK_NOT_AVAILABLE) {
+                log.debug("Timed out waiting for the lock on {}", table.qualifiedName)
+                return false
+            }
+            throw e
+        }
+    }
+
+    /**
+     * Stops capturing changes and drops the change log.
+     */
+    @Throws(SQLException::class)
+    fun uninstall() {
+        transaction { conn ->
+            // The triggers depend on the capture function, so they are dropped along with the schema
+            conn.createStatement().use { it.execute("DROP SCHEMA IF EXISTS $CAPTURE_SCHEMA CASCADE") }
+        }
+        log.info("Stopped capturing changes")
+    }
+
+    @Throws(SQLException::class)
+    fun isInstalled(): Boolean {
+        return transaction { conn ->
+            conn.prepareStatement("SELECT 1 FROM pg_namespace WHERE nspname = ?").use { statement ->
+                statement.setString(1, CAPTURE_SCHEMA)
+                statement.executeQuery().use { it.next() }
+            }
+        }
+    }
+
+    /**
+     * @return the tables whose changes are not captured, because they were created after the capture was installed
+     */
+    @Throws(SQLException::class)
+    fun uncapturedTables(): List<String> {
+        return transaction { conn ->
+            readTables(conn).filter { (_, captured) -> !captured }.map { (table, _) -> table.qualifiedName }
+        }
+    }
+
+    /**
+     * @return the tables whose changes are captured, with the key columns they were captured with
+     */
+    @Throws(SQLException::class)
+    fun capturedTables(): List<CapturedTable> {
+        return transaction { conn -> readCapturedTables(conn) }
+    }
+
+    /**
+     * Removes the changes which have been replayed from the change log.
+     *
+     * @param batch the last batch which was replayed successfully
+     */
+    @Throws(SQLException::class)
+    fun prune(batch: Long) {
+        transaction { conn ->
+            conn.prepareStatement("DELETE FROM $CHANGE_LOG_TABLE WHERE batch <= ?").use { statement ->
+                statement.setLong(1, batch)
+                statement.executeUpdate()
+            }
+        }
+    }
+
+    internal fun readCapturedTables(conn: Connection): List<CapturedTable> {
+        return conn.createStatement().use { statement ->
+            statement.executeQuery("SELECT table_schema, table_name, key_columns::text FROM $CAPTURED_TABLES_TABLE ORDER BY 1, 2").use { rs ->
+                generateSequence { if (rs.next()) CapturedTable(rs.getString(1), rs.getString(2), mapper.readValue(rs.getString(3), columnListType)) else null }.toList()
+            }
+        }
+    }
+
+    private fun readTables(conn: Connection): List<Pair<CapturedTable, Boolean>> {
+        return conn.createStatement().use { statement ->
+            statement.executeQuery(TABLES_QUERY).use { rs ->
+                generateSequence {
+                    if (rs.next()) {
+                        CapturedTable(rs.getString(1), rs.getString(2), mapper.readValue(rs.getString(3), columnListType)) to rs.getBoolean(4)
+                    } else {
+                        null
+                    }
+                }.toList()
+            }
+        }
+    }
+
+    private fun <T> transaction(block: (Connection) -> T): T {
+        val conn = connect() ?: throw SQLException("Unable to connect to the database")
+        return conn.use {
+            it.autoCommit = false
+            try {
+                val result = block(it)
+                it.commit()
+                result
+            } catch (e: Exception) {
+                it.rollback()
+                throw e
+            }
+        }
+    }
+}
+
+internal fun quoteIdentifier(identifier: String): String {
+    return "\"" + identifier.replace("\"", "\"\"") + "\""
+}
+
+internal fun quoteLiteral(literal: String): String {
+    return "'" + literal.replace("'", "''") + "'"
+}
@@ -1,26 +1,156 @@
 package com.atlassian.migration.datacenter.core.fs
 
+import com.atlassian.migration.datacenter.core.fs.reporting.CheckpointedFileSystemMigrationReport
 import com.atlassian.migration.datacenter.core.fs.reporting.DefaultFileSystemMigrationReport
+import com.atlassian.migration.datacenter.core.fs.reporting.FileSystemMigrationReportStore
 import com.atlassian.migration.datacenter.spi.fs.reporting.FileSystemMigrationReport
 import org.slf4j.LoggerFactory
+import org.springframework.beans.factory.DisposableBean
 import org.springframework.stereotype.Component
+import java.time.Clock
+import java.time.Duration
+import java.time.Instant
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.Executors
+import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.TimeUnit
 
+/**
+ * Keeps the reports of the migrations running on this node in memory. When a [FileSystemMigrationReportStore] is
+ * provided, the reports are also checkpointed to it in the background, and reports which were not started on this
+ * node are served from the latest checkpoint written by any node.
+ */
 @Component
-class DefaultFileSystemMigrationReportManager : FileSystemMigrationReportManager {
+class DefaultFileSystemMigrationReportManager(
+        private val store: FileSystemMigrationReportStore?,
+        private val checkpointInterval: Duration,
+        private val clock: Clock
+) : FileSystemMigrationReportManager, DisposableBean {
 
-    val reports: HashMap<ReportType, FileSystemMigrationReport> = hashMapOf(
+    constructor() : this(null, Duration.ZERO, Clock.systemUTC())
+
+    constructor(store: FileSystemMigrationReportStore) : this(store, Duration.ofSeconds(30), Clock.systemUTC())
+
+    companion object {
+        private val logger = LoggerFactory.getLogger(DefaultFileSystemMigrationReportManager::class.java)
+        private val REMOTE_REPORT_MAX_AGE: Duration = Duration.ofSeconds(5)
+    }
+
+    val reports: MutableMap<ReportType, FileSystemMigrationReport> = ConcurrentHashMap(mapOf(
             ReportType.Filesystem to DefaultFileSystemMigrationReport(),
             ReportType.Database to DefaultFileSystemMigrationReport(),
             ReportType.Final to DefaultFileSystemMigrationReport()
-    )
+    ))
+
+    private val ownedReports: MutableSet<ReportType> = ConcurrentHashMap.newKeySet()
+    private val lastCheckpointed = ConcurrentHashMap<ReportType, String>()
+    private val remoteReports = ConcurrentHashMap<ReportType, RemoteReport>()
+
+    private val checkpointExecutor: ScheduledExecutorService? = store?.let {
+        val executor = Executors.newSingleThreadScheduledExecutor { runnable ->
+            val thread = Thread(runnable, "fs-migration-report-checkpoint")
+            thread.isDaemon = true
+            thread
+        }
+        executor.scheduleWithFixedDelay(::checkpoint, checkpointInterval.toMillis(), checkpointInterval.toMillis(), TimeUnit.MILLISECONDS)
+        executor
+    }
 
     override fun resetReport(type: ReportType): FileSystemMigrationReport {
+        if (store != null) {
+            try {
+                if (ownedReports.contains(type)) {
+                    store.checkpoint(mapOf(type to reports.getValue(type)))
+                }
+                store.archive(type)
+            } catch (e: Exception) {
+                logger.warn("Unable to archive {} migration report. The previous run will be missing from the report history.", type, e)
+            }
+        }
         val report = DefaultFileSystemMigrationReport()
         reports[type] = report
+        ownedReports.add(type)
+        lastCheckpointed.remove(type)
+        remoteReports.remove(type)
         return report
     }
 
     override fun getCurrentReport(type: ReportType): FileSystemMigrationReport? {
-        return reports[type]
+        if (store == null || ownedReports.contains(type)) {
+            return reports[type]
+        }
+        return getRemoteReport(type) ?: reports[type]
+    }
+
+    override fun getReportHistory(type: ReportType): List<FileSystemMigrationReport> {
+        return try {
+            store?.findHistory(type) ?: emptyList()
+        } catch (e: Exception) {
+            logger.warn("Unable to read {} migration report history", type, e)
+            emptyList()
+        }
+    }
+
+    /**
+     * Writes every report started on this node which has changed since it was last checkpointed, in a single batch.
+     */
+    fun checkpoint() {
+        if (store == null) {
+            return
+        }
+        try {
+            val changed = ownedReports
+                    .mapNotNull { type -> reports[type]?.let { type to it } }
+                    .filter { (type, report) -> lastCheckpointed[type] != signatureOf(report) }
+                    .toMap()
+            if (changed.isEmpty()) {
+                return
+            }
+            val signatures = changed.mapValues { (_, report) -> signatureOf(report) }
+            store.checkpoint(changed)
+            lastCheckpointed.putAll(signatures)
+        } catch (e: Exception) {
+            logger.warn("Unable to checkpoint migration reports, will retry in {}", checkpointInterval, e)
+        }
     }
+
+    private fun getRemoteReport(type: ReportType): FileSystemMigrationReport? {
+        val cached = remoteReports[type]
+        if (cached != null && cached.fetchedAt.plus(REMOTE_REPORT_MAX_AGE).isAfter(Instant.now(clock))) {
+            return cached.report
+        }
+        val latest = try {
+            store!!.findLatest(type).orElse(null)
+        } catch (e: Exception) {
+            logger.warn("Unable to read checkpointed {} migration report", type, e)
+            null
+        }
+        // Keep handing out the same instance while the checkpoint is unchanged so that report snapshots stay stable
+        val report = if (latest != null && cached?.report != null && isSameCheckpoint(latest, cached.report)) cached.report else latest
+        remoteReports[type] = RemoteReport(report, Instant.now(clock))
+        return report
+    }
+
+    private fun isSameCheckpoint(a: CheckpointedFileSystemMigrationReport, b: CheckpointedFileSystemMigrationReport): Boolean {
+        return a.checkpointId == b.checkpointId && a.checkpointTime == b.checkpointTime
+    }
+
+    private fun signatureOf(report: FileSystemMigrationReport): String {
+        return listOf(
+                report.status,
+                report.getNumberOfFilesFound(),
+                report.isCrawlingFinished(),
+                report.getNumberOfCommencedFileUploads(),
+                report.getCountOfUploadedFiles(),
+                report.getCountOfDownloadFiles(),
+                report.failedFiles.size
+        ).joinToString(":")
+    }
+
+    override fun destroy() {
+        checkpointExecutor?.shutdownNow()
+        checkpoint()
+    }
+
+    private class RemoteReport(val report: CheckpointedFileSystemMigrationReport?, val fetchedAt: Instant)
 }
@@ -17,4 +17,11 @@ interface FileSystemMigrationReportManager {
      * @return the new report
      */
     fun resetReport(type: ReportType): FileSystemMigrationReport
+
+    /**
+     * Return the reports of previous runs of the specified transfer type, newest first.
+     *
+     * @return previous migration reports
+     */
+    fun getReportHistory(type: ReportType): List<FileSystemMigrationReport>
 }
\ No newline at end of file
@@ -0,0 +1,151 @@
+/*
+ * Copyright 2020 Atlassian
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.atlassian.migration.datacenter.core.fs
+
+import com.atlassian.migration.datacenter.spi.fs.reporting.FileSystemMigrationReport
+import com.fasterxml.jackson.annotation.JsonAutoDetect
+import com.fasterxml.jackson.annotation.PropertyAccessor
+import com.fasterxml.jackson.core.JsonProcessingException
+import com.fasterxml.jackson.databind.JsonMappingException
+import com.fasterxml.jackson.databind.ObjectMapper
+import com.fasterxml.jackson.databind.node.ObjectNode
+import com.google.common.hash.Hashing
+import java.nio.charset.StandardCharsets
+import java.time.Clock
+import java.time.Duration
+import java.time.Instant
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.Semaphore
+
+/**
+ * An immutable, serialised view of a [FileSystemMigrationReport] at a point in time.
+ *
+ * The [etag] covers everything in the report but the elapsed time only to the minute, so it changes when the
+ * migration has actually made progress, and otherwise once a minute so that clients still see the time go by.
+ */
+class FileSystemMigrationReportSnapshot internal constructor(
+        val json: String,
+        val etag: String,
+        val takenAt: Instant,
+        internal val report: FileSystemMigrationReport
+) {
+    fun matches(ifNoneMatch: String?): Boolean {
+        if (ifNoneMatch == null) {
+            return false
+        }
+        return ifNoneMatch.split(",")
+                .map { it.trim().removePrefix("W/").trim('"') }
+                .any { it == etag || it == "*" }
+    }
+}
+
+/**
+ * Serialises migration reports at most once per [refreshInterval], no matter how many clients are polling them.
+ * Report consumers should read the snapshot instead of serialising the live report themselves.
+ *
+ * Long polls hold a request thread while they wait, so at most [maxConcurrentPolls] wait at the same time. Any more
+ * are answered straight away, as if they had timed out, and the client polls again.
+ */
+class FileSystemMigrationReportSnapshotter(
+        private val reportManager: FileSystemMigrationReportManager,
+        private val refreshInterval: Duration,
+        private val clock: Clock,
+        maxConcurrentPolls: Int
+) {
+    constructor(reportManager: FileSystemMigrationReportManager) : this(reportManager, Duration.ofSeconds(1), Clock.systemUTC(), DEFAULT_MAX_CONCURRENT_POLLS)
+
+    constructor(reportManager: FileSystemMigrationReportManager, refreshInterval: Duration, clock: Clock) :
+            this(reportManager, refreshInterval, clock, DEFAULT_MAX_CONCURRENT_POLLS)
+
+    companion object {
+        private const val DEFAULT_MAX_CONCURRENT_POLLS = 4
+        private val ELAPSED_TIME_RESOLUTION = Duration.ofMinutes(1)
+    }
+
+    private val polls = Semaphore(maxConcurrentPolls)
+
+    private val mapper = ObjectMapper()
+    private val snapshots = ConcurrentHashMap<ReportType, FileSystemMigrationReportSnapshot>()
+
+    init {
+        mapper.setVisibility(PropertyAccessor.ALL, JsonAutoDetect.Visibility.ANY)
+    }
+
+    /**
+     * @return the latest snapshot of the given report, or null if there is no such report. A new snapshot is only
+     * taken if the cached one is older than the refresh interval or the report has been reset since.
+     */
+    @Throws(JsonProcessingException::class)
+    fun getSnapshot(type: ReportType): FileSystemMigrationReportSnapshot? {
+        val report = reportManager.getCurrentReport(type) ?: return null
+        val cached = snapshots[type]
+        if (cached != null && isFresh(cached, report)) {
+            return cached
+        }
+        return try {
+            snapshots.compute(type) { _, current ->
+                if (current != null && isFresh(current, report)) current else takeSnapshot(report)
+            }
+        } catch (e: UncheckedJsonProcessingException) {
+            throw e.cause
+        }
+    }
+
+    /**
+     * Blocks until the snapshot of the given report no longer matches [ifNoneMatch] or the timeout elapses,
+     * checking once per refresh interval. Returns straight away if too many polls are already waiting.
+     *
+     * @return the latest snapshot, which will still match [ifNoneMatch] if the timeout elapsed without any change
+     */
+    @Throws(JsonProcessingException::class, InterruptedException::class)
+    fun awaitChange(type: ReportType, ifNoneMatch: String?, timeout: Duration): FileSystemMigrationReportSnapshot? {
+        var snapshot = getSnapshot(type)
+        if (snapshot == null || !snapshot.matches(ifNoneMatch) || !polls.tryAcquire()) {
+            return snapshot
+        }
+        try {
+            val deadline = Instant.now(clock).plus(timeout)
+            while (snapshot != null && snapshot.matches(ifNoneMatch) && Instant.now(clock).isBefore(deadline)) {
+                Thread.sleep(refreshInterval.toMillis())
+                snapshot = getSnapshot(type)
+            }
+            return snapshot
+        } finally {
+            polls.release()
+        }
+    }
+
+    private fun isFresh(snapshot: FileSystemMigrationReportSnapshot, report: FileSystemMigrationReport): Boolean {
+        return snapshot.report === report && snapshot.takenAt.plus(refreshInterval).isAfter(Instant.now(clock))
+    }
+
+    private fun takeSnapshot(report: FileSystemMigrationReport): FileSystemMigrationReportSnapshot {
+        val tree = try {
+            mapper.valueToTree<ObjectNode>(report)
+        } catch (e: IllegalArgumentException) {
+            throw UncheckedJsonProcessingException(JsonMappingException.wrapWithPath(e, report, "report"))
+        }
+        val json = tree.toString()
+        val counters = tree.deepCopy()
+        counters.put("elapsedTime", report.elapsedTime.toMillis() / ELAPSED_TIME_RESOLUTION.toMillis())
+        counters.put("report", System.identityHashCode(report))
+        val etag = Hashing.murmur3_128().hashString(counters.toString(), StandardCharsets.UTF_8).toString()
+        return FileSystemMigrationReportSnapshot(json, etag, Instant.now(clock), report)
+    }
+
+    private class UncheckedJsonProcessingException(override val cause: JsonProcessingException) : RuntimeException(cause)
+}
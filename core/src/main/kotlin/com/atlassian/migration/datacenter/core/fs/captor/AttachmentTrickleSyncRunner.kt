@@ -0,0 +1,186 @@
+/*
+ * Copyright 2020 Atlassian
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.atlassian.migration.datacenter.core.fs.captor
+
+import com.atlassian.migration.datacenter.core.aws.infrastructure.AWSMigrationHelperDeploymentService
+import com.atlassian.migration.datacenter.core.util.MigrationJobRunner
+import com.atlassian.migration.datacenter.spi.MigrationService
+import com.atlassian.migration.datacenter.spi.MigrationStage
+import com.atlassian.scheduler.JobRunnerRequest
+import com.atlassian.scheduler.JobRunnerResponse
+import com.google.common.io.ByteStreams
+import com.google.common.util.concurrent.RateLimiter
+import org.slf4j.LoggerFactory
+import org.springframework.beans.factory.DisposableBean
+import software.amazon.awssdk.services.s3.S3AsyncClient
+import software.amazon.awssdk.services.s3.model.PutObjectRequest
+import java.io.IOException
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.Paths
+import java.nio.file.attribute.BasicFileAttributes
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.function.Supplier
+
+/**
+ * Uploads the files captured by the attachment listener while the migration waits for the downtime window, so that
+ * the final sync only has to upload the files which were captured or changed since. Uploads are throttled to
+ * [bytesPerSecond] as the files are read, so that they don't compete with the instance for bandwidth even while a
+ * large file is being sent, and each run uploads at most [maxFilesPerRun] files.
+ *
+ * Every uploaded file is marked as synced with the size and last modified time it was uploaded with. Files which
+ * change while they are being uploaded are left for the next run.
+ */
+class AttachmentTrickleSyncRunner(
+        private val attachmentSyncManager: AttachmentSyncManager,
+        private val migrationService: MigrationService,
+        private val client: Supplier<S3AsyncClient>,
+        private val home: Path,
+        private val migrationHelperDeploymentService: AWSMigrationHelperDeploymentService,
+        bytesPerSecond: Long,
+        private val maxFilesPerRun: Int
+) : MigrationJobRunner, DisposableBean {
+
+    constructor(
+            attachmentSyncManager: AttachmentSyncManager,
+            migrationService: MigrationService,
+            client: Supplier<S3AsyncClient>,
+            home: Path,
+            migrationHelperDeploymentService: AWSMigrationHelperDeploymentService
+    ) : this(attachmentSyncManager, migrationService, client, home, migrationHelperDeploymentService, DEFAULT_BYTES_PER_SECOND, DEFAULT_MAX_FILES_PER_RUN)
+
+    companion object {
+        private val log = LoggerFactory.getLogger(AttachmentTrickleSyncRunner::class.java)
+        private const val DEFAULT_BYTES_PER_SECOND = 1024 * 1024L
+        private const val DEFAULT_MAX_FILES_PER_RUN = 1000
+        // Larger files need a multipart upload, which we leave to the final sync
+        private const val MAXIMUM_FILE_SIZE_TO_UPLOAD = 5 * 1024 * 1024 * 1024L
+    }
+
+    private val rateLimiter = RateLimiter.create(bytesPerSecond.toDouble())
+    private val isRunning = AtomicBoolean(false)
+    // Reads the throttled files for the HTTP client, whose own threads must not block
+    private val readExecutor: ExecutorService = Executors.newSingleThreadExecutor { runnable ->
+        val thread = Thread(runnable, "attachment-trickle-sync-reader")
+        thread.isDaemon = true
+        thread
+    }
+
+    override fun getKey(): String {
+        return AttachmentTrickleSyncRunner::class.java.name
+    }
+
+    override fun runJob(request: JobRunnerRequest): JobRunnerResponse? {
+        if (!isRunning.compareAndSet(false, true)) {
+            return JobRunnerResponse.aborted("Attachment trickle sync is already running")
+        }
+        try {
+            if (!isWaitingForDowntime()) {
+                return JobRunnerResponse.success("Migration is not waiting for the downtime window, nothing to sync")
+            }
+            val synced = syncCapturedFiles()
+            return JobRunnerResponse.success("Synced $synced captured files ahead of the final sync")
+        } catch (e: Exception) {
+            log.warn("Error while syncing captured files ahead of the final sync. They will be retried in the next run.", e)
+            return JobRunnerResponse.failed(e)
+        } finally {
+            isRunning.set(false)
+        }
+    }
+
+    /**
+     * @return the number of captured files uploaded and marked as synced
+     */
+    fun syncCapturedFiles(): Int {
+        val files = attachmentSyncManager.iterateCapturedFiles(true)
+        if (!files.hasNext()) {
+            return 0
+        }
+
+        val bucket = migrationHelperDeploymentService.migrationS3BucketName
+        val s3Client = client.get()
+        var uploaded = 0
+        var synced = 0
+        while (files.hasNext() && uploaded < maxFilesPerRun && isWaitingForDowntime()) {
+            val file = files.next()
+            val path = Paths.get(file.filePath)
+            val before = readAttributes(path) ?: continue
+            if (before.size() > MAXIMUM_FILE_SIZE_TO_UPLOAD) {
+                log.debug("Leaving {} for the final sync as it is too large for a single upload", path)
+                continue
+            }
+
+            uploaded++
+            if (upload(s3Client, bucket, path, before.size()) && markSyncedIfUnchanged(file, path, before)) {
+                synced++
+            }
+        }
+        log.info("Synced {} captured files ahead of the final sync", synced)
+        return synced
+    }
+
+    private fun upload(s3Client: S3AsyncClient, bucket: String, path: Path, size: Long): Boolean {
+        val putRequest = PutObjectRequest.builder()
+                .bucket(bucket)
+                .key(home.relativize(path).toString())
+                .contentLength(size)
+                .build()
+        val body = InputStreamRequestBody(
+                // Stop at the size the upload was started with, should the file grow in the meantime
+                { RateLimitedInputStream(ByteStreams.limit(Files.newInputStream(path), size), rateLimiter) },
+                size,
+                readExecutor)
+        return try {
+            s3Client.putObject(putRequest, body).get()
+            true
+        } catch (e: ExecutionException) {
+            log.warn("Unable to upload {} ahead of the final sync, it will be retried", path, e.cause)
+            false
+        }
+    }
+
+    private fun markSyncedIfUnchanged(file: CapturedFile, path: Path, before: BasicFileAttributes): Boolean {
+        val after = readAttributes(path) ?: return false
+        if (after.size() != before.size() || after.lastModifiedTime() != before.lastModifiedTime()) {
+            log.debug("{} changed while it was being uploaded, it will be uploaded again", path)
+            return false
+        }
+        attachmentSyncManager.markSynced(file.recordId, after.size(), after.lastModifiedTime().toMillis())
+        return true
+    }
+
+    private fun readAttributes(path: Path): BasicFileAttributes? {
+        return try {
+            Files.readAttributes(path, BasicFileAttributes::class.java)
+        } catch (e: IOException) {
+            // Missing files are reported by the final sync
+            log.debug("Unable to read attributes of captured file {}, leaving it for the final sync", path, e)
+            null
+        }
+    }
+
+    private fun isWaitingForDowntime(): Boolean {
+        return migrationService.currentStage == MigrationStage.OFFLINE_WARNING
+    }
+
+    override fun destroy() {
+        readExecutor.shutdownNow()
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright 2020 Atlassian
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.atlassian.migration.datacenter.core.fs.captor
+
+import com.atlassian.migration.datacenter.core.util.MigrationRunner
+import com.atlassian.scheduler.config.JobId
+import org.slf4j.LoggerFactory
+import org.springframework.beans.factory.DisposableBean
+import org.springframework.beans.factory.InitializingBean
+import java.time.Duration
+
+/**
+ * Schedules the [AttachmentTrickleSyncRunner] to run on one node in the cluster every [interval]. The runner does
+ * nothing unless the migration is waiting for the downtime window, so the job can stay scheduled for the lifetime of
+ * the plugin.
+ */
+class AttachmentTrickleSyncService(
+        private val migrationRunner: MigrationRunner,
+        private val trickleSyncRunner: AttachmentTrickleSyncRunner,
+        private val interval: Duration
+) : InitializingBean, DisposableBean {
+
+    constructor(migrationRunner: MigrationRunner, trickleSyncRunner: AttachmentTrickleSyncRunner) : this(migrationRunner, trickleSyncRunner, Duration.ofMinutes(1))
+
+    companion object {
+        private val logger = LoggerFactory.getLogger(AttachmentTrickleSyncService::class.java)
+    }
+
+    @Throws(Exception::class)
+    override fun afterPropertiesSet() {
+        if (!migrationRunner.runRepeatingJob(JobId.of(trickleSyncRunner.key), trickleSyncRunner, interval)) {
+            logger.warn("Unable to schedule attachment trickle sync. Captured attachments will only be uploaded by the final sync.")
+        }
+    }
+
+    @Throws(Exception::class)
+    override fun destroy() {
+        migrationRunner.unregisterJobRunner(trickleSyncRunner)
+    }
+}
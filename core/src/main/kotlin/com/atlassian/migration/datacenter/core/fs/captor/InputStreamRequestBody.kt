@@ -0,0 +1,123 @@
+/*
+ * Copyright 2020 Atlassian
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.atlassian.migration.datacenter.core.fs.captor
+
+import org.reactivestreams.Subscriber
+import org.reactivestreams.Subscription
+import software.amazon.awssdk.core.async.AsyncRequestBody
+import java.io.IOException
+import java.io.InputStream
+import java.nio.ByteBuffer
+import java.util.Optional
+import java.util.concurrent.Executor
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * A request body of [contentLength] bytes read from the streams opened by [openStream]. The SDK subscribes once per
+ * attempt, so every subscription opens a stream of its own.
+ *
+ * Streams are read on [executor] rather than on the thread which requests the data, which is usually an I/O thread of
+ * the HTTP client that must not block, so streams which block while they are read, such as a
+ * [RateLimitedInputStream], are fine.
+ */
+internal class InputStreamRequestBody(
+        private val openStream: () -> InputStream,
+        private val contentLength: Long,
+        private val executor: Executor
+) : AsyncRequestBody {
+
+    companion object {
+        private const val CHUNK_SIZE = 64 * 1024
+    }
+
+    override fun contentLength(): Optional<Long> = Optional.of(contentLength)
+
+    override fun subscribe(subscriber: Subscriber<in ByteBuffer>) {
+        subscriber.onSubscribe(StreamSubscription(subscriber))
+    }
+
+    private inner class StreamSubscription(private val subscriber: Subscriber<in ByteBuffer>) : Subscription {
+        private val demand = AtomicLong()
+        private val emitting = AtomicBoolean()
+        @Volatile
+        private var done = false
+        // Only opened and read while emitting
+        @Volatile
+        private var stream: InputStream? = null
+
+        override fun request(n: Long) {
+            if (done) {
+                return
+            }
+            if (n <= 0) {
+                cancel()
+                subscriber.onError(IllegalArgumentException("Demand must be positive, but was $n"))
+                return
+            }
+            demand.getAndUpdate { if (Long.MAX_VALUE - it < n) Long.MAX_VALUE else it + n }
+            scheduleEmit()
+        }
+
+        override fun cancel() {
+            done = true
+            scheduleEmit()
+        }
+
+        private fun scheduleEmit() {
+            if (emitting.compareAndSet(false, true)) {
+                executor.execute { emit() }
+            }
+        }
+
+        private fun emit() {
+            try {
+                while (!done && demand.get() > 0) {
+                    val input = stream ?: openStream().also { stream = it }
+                    val chunk = ByteArray(CHUNK_SIZE)
+                    val read = input.read(chunk)
+                    if (read < 0) {
+                        done = true
+                        subscriber.onComplete()
+                    } else {
+                        demand.decrementAndGet()
+                        subscriber.onNext(ByteBuffer.wrap(chunk, 0, read))
+                    }
+                }
+            } catch (e: Exception) {
+                done = true
+                subscriber.onError(e)
+            } finally {
+                if (done) {
+                    closeStream()
+                }
+                emitting.set(false)
+            }
+            // Demand may have been added or the subscription cancelled after the loop checked
+            if ((done && stream != null) || (!done && demand.get() > 0)) {
+                scheduleEmit()
+            }
+        }
+
+        private fun closeStream() {
+            try {
+                stream?.close()
+            } catch (ignored: IOException) {
+            }
+            stream = null
+        }
+    }
+}
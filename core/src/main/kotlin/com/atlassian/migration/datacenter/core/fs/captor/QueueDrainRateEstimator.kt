@@ -0,0 +1,94 @@
+/*
+ * Copyright 2020 Atlassian
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.atlassian.migration.datacenter.core.fs.captor
+
+import java.time.Clock
+import java.time.Duration
+import java.time.Instant
+
+/**
+ * How quickly a queue is being drained, estimated from successive samples of its length.
+ *
+ * @param queueLength the length of the queue when it was last sampled, or null if it has not been sampled yet
+ * @param drainRatePerSecond the smoothed number of items leaving the queue per second, net of items being added, or
+ * null if there are not enough samples yet
+ * @param estimatedTimeToDrain how long the queue will take to drain at the current rate, or null if it is not
+ * draining
+ */
+data class QueueDrainEstimate(val queueLength: Int?, val drainRatePerSecond: Double?, val estimatedTimeToDrain: Duration?) {
+    companion object {
+        @JvmField
+        val UNKNOWN = QueueDrainEstimate(null, null, null)
+    }
+}
+
+/**
+ * Estimates the drain rate of a queue as an exponentially weighted moving average of the rates between successive
+ * queue length samples, so a single slow or fast poll does not swing the estimate.
+ */
+class QueueDrainRateEstimator(
+        private val clock: Clock,
+        private val smoothing: Double,
+        private val minSampleInterval: Duration
+) {
+    constructor() : this(Clock.systemUTC(), 0.3, Duration.ofSeconds(1))
+
+    private var lastLength: Int? = null
+    private var lastSampleTime: Instant? = null
+    private var drainRatePerSecond: Double? = null
+
+    /**
+     * Records the current length of the queue. Samples taken less than the minimum sample interval after the
+     * previous one are ignored because the rate between them is mostly noise.
+     */
+    @Synchronized
+    fun record(queueLength: Int) {
+        val now = Instant.now(clock)
+        val previousLength = lastLength
+        val previousTime = lastSampleTime
+        if (previousLength != null && previousTime != null) {
+            val elapsed = Duration.between(previousTime, now)
+            if (elapsed < minSampleInterval) {
+                return
+            }
+            val rate = (previousLength - queueLength) * 1000.0 / elapsed.toMillis()
+            val current = drainRatePerSecond
+            drainRatePerSecond = if (current == null) rate else smoothing * rate + (1 - smoothing) * current
+        }
+        lastLength = queueLength
+        lastSampleTime = now
+    }
+
+    @Synchronized
+    fun estimate(): QueueDrainEstimate {
+        val length = lastLength ?: return QueueDrainEstimate.UNKNOWN
+        val rate = drainRatePerSecond
+        val eta = when {
+            length == 0 -> Duration.ZERO
+            rate == null || rate <= 0 -> null
+            else -> Duration.ofMillis((length / rate * 1000).toLong())
+        }
+        return QueueDrainEstimate(length, rate, eta)
+    }
+
+    @Synchronized
+    fun reset() {
+        lastLength = null
+        lastSampleTime = null
+        drainRatePerSecond = null
+    }
+}
@@ -18,4 +18,14 @@ package com.atlassian.migration.datacenter.core.fs.captor
 
 interface QueueWatcher {
     fun awaitQueueDrain() : Boolean
+
+    /**
+     * @return the drain rate and time to drain of the queue, estimated from its length over the last few samples
+     */
+    fun getDrainEstimate(): QueueDrainEstimate
+
+    /**
+     * Adds a queue length observed outside of the watcher to the drain estimate.
+     */
+    fun recordQueueLength(queueLength: Int)
 }
\ No newline at end of file
@@ -0,0 +1,51 @@
+/*
+ * Copyright 2020 Atlassian
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.atlassian.migration.datacenter.core.fs.captor
+
+import com.google.common.util.concurrent.RateLimiter
+import java.io.FilterInputStream
+import java.io.InputStream
+
+/**
+ * Takes a permit from [rateLimiter] for every byte read, so that a stream is throttled as it is read instead of all
+ * at once before it is read. Reads are capped at [maxChunkSize] bytes, so that no single read waits for long.
+ */
+internal class RateLimitedInputStream(
+        input: InputStream,
+        private val rateLimiter: RateLimiter,
+        private val maxChunkSize: Int = DEFAULT_CHUNK_SIZE
+) : FilterInputStream(input) {
+
+    companion object {
+        private const val DEFAULT_CHUNK_SIZE = 64 * 1024
+    }
+
+    override fun read(): Int {
+        val read = super.read()
+        if (read >= 0) {
+            rateLimiter.acquire()
+        }
+        return read
+    }
+
+    override fun read(b: ByteArray, off: Int, len: Int): Int {
+        val read = super.read(b, off, minOf(len, maxChunkSize))
+        if (read > 0) {
+            rateLimiter.acquire(read)
+        }
+        return read
+    }
+}
@@ -16,20 +16,124 @@
 
 package com.atlassian.migration.datacenter.core.fs.captor
 
+import com.atlassian.migration.datacenter.core.fs.FileUploadException
 import com.atlassian.migration.datacenter.core.fs.Uploader
 import com.atlassian.migration.datacenter.core.util.UploadQueue
+import org.slf4j.LoggerFactory
+import java.io.IOException
+import java.nio.file.Files
 import java.nio.file.Path
 import java.nio.file.Paths
+import java.nio.file.attribute.BasicFileAttributes
+import java.util.concurrent.Callable
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.Executors
+import java.util.concurrent.Future
+import java.util.concurrent.TimeUnit
 
-class S3FinalFileSync(private val attachmentSyncManager: AttachmentSyncManager, private val uploader: Uploader) {
+/**
+ * Uploads the files captured during the migration. The captured paths are read from the database page by page while
+ * the uploader is already consuming them, so uploading starts as soon as the first page has been read and memory use
+ * does not grow with the number of captured files.
+ *
+ * Files which were already uploaded by the [AttachmentTrickleSyncRunner] are skipped unless their size or last
+ * modified time have changed since.
+ */
+class S3FinalFileSync(
+        private val attachmentSyncManager: AttachmentSyncManager,
+        private val uploader: Uploader,
+        private val queueCapacity: Int
+) {
+    constructor(attachmentSyncManager: AttachmentSyncManager, uploader: Uploader) : this(attachmentSyncManager, uploader, DEFAULT_QUEUE_CAPACITY)
+
+    companion object {
+        private val logger = LoggerFactory.getLogger(S3FinalFileSync::class.java)
+        private const val DEFAULT_QUEUE_CAPACITY = 1000
+        private const val OFFER_TIMEOUT_MILLIS = 500L
+    }
 
+    @Throws(FileUploadException::class)
     fun uploadCapturedFiles() {
-        val capturedAttachments = attachmentSyncManager.capturedAttachments
-        val uploadQueue = UploadQueue<Path>(capturedAttachments.size + 1)
+        val uploadQueue = UploadQueue<Path>(queueCapacity)
+        val executor = Executors.newSingleThreadExecutor { runnable -> Thread(runnable, "final-sync-uploader") }
+
+        try {
+            val uploadFuture = executor.submit(Callable { uploader.upload(uploadQueue) })
+            val enqueued = try {
+                val result = enqueueCapturedFiles(uploadQueue, uploadFuture)
+                finishQueue(uploadQueue, uploadFuture)
+                result
+            } catch (e: Exception) {
+                uploadFuture.cancel(true)
+                throw e
+            }
+            awaitUpload(uploadFuture)
+            logger.info("Queued {} captured files for final sync, skipped {} files which were already synced", enqueued.queued, enqueued.skipped)
+        } finally {
+            executor.shutdownNow()
+        }
+    }
+
+    private fun enqueueCapturedFiles(uploadQueue: UploadQueue<Path>, uploadFuture: Future<*>): EnqueueResult {
+        var queued = 0L
+        var skipped = 0L
+        val files = attachmentSyncManager.iterateCapturedFiles(false)
+        while (files.hasNext()) {
+            val file = files.next()
+            val path = Paths.get(file.filePath)
+            if (isUnchangedSinceSynced(file, path)) {
+                skipped++
+                continue
+            }
+            // The uploader can fail while the queue is full, so don't block on it indefinitely
+            while (!uploadQueue.offer(path, OFFER_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                failIfUploadStopped(uploadFuture)
+            }
+            queued++
+        }
+        return EnqueueResult(queued, skipped)
+    }
+
+    private fun isUnchangedSinceSynced(file: CapturedFile, path: Path): Boolean {
+        if (!file.isSynced) {
+            return false
+        }
+        return try {
+            val attributes = Files.readAttributes(path, BasicFileAttributes::class.java)
+            file.isSyncedAs(attributes.size(), attributes.lastModifiedTime().toMillis())
+        } catch (e: IOException) {
+            // Let the uploader report the file as failed
+            false
+        }
+    }
 
-        capturedAttachments.forEach { uploadQueue.put(Paths.get(it.filePath)) }
-        uploadQueue.finish()
+    private fun finishQueue(uploadQueue: UploadQueue<Path>, uploadFuture: Future<*>) {
+        while (!uploadQueue.finish(OFFER_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+            failIfUploadStopped(uploadFuture)
+        }
+    }
 
-        uploader.upload(uploadQueue)
+    private fun failIfUploadStopped(uploadFuture: Future<*>) {
+        if (uploadFuture.isDone) {
+            awaitUpload(uploadFuture)
+            throw FileUploadException("Final sync uploader stopped before all captured files were queued")
+        }
     }
-}
\ No newline at end of file
+
+    private fun awaitUpload(uploadFuture: Future<*>) {
+        try {
+            uploadFuture.get()
+        } catch (e: InterruptedException) {
+            Thread.currentThread().interrupt()
+            throw FileUploadException("Interrupted while uploading captured files", e)
+        } catch (e: ExecutionException) {
+            val cause = e.cause
+            if (cause is FileUploadException) {
+                throw cause
+            }
+            throw FileUploadException("Failed to upload captured files", cause)
+        }
+    }
+
+    private data class EnqueueResult(val queued: Long, val skipped: Long)
+}
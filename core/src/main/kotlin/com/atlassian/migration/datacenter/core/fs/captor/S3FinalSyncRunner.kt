@@ -47,6 +47,18 @@ class S3FinalSyncRunner(
 
     companion object {
         private val log = LoggerFactory.getLogger(com.atlassian.migration.datacenter.core.db.DatabaseMigrationJobRunner::class.java)
+        // Roughly how many captured files one migration host writes within the time it takes to start another
+        private const val FILES_PER_MIGRATION_HOST = 20_000
+        private const val MAX_MIGRATION_HOSTS_PROPERTY = "com.atlassian.migration.finalSync.maxMigrationHosts"
+
+        /**
+         * @return how many migration hosts should consume the migration queue while the given number of captured
+         * files is synced
+         */
+        internal fun migrationHostsFor(capturedFileCount: Int, maxHosts: Int): Int {
+            val hosts = (capturedFileCount + FILES_PER_MIGRATION_HOST - 1) / FILES_PER_MIGRATION_HOST
+            return hosts.coerceIn(1, maxOf(1, maxHosts))
+        }
     }
 
     private val isRunning = AtomicBoolean(false)
@@ -69,31 +81,54 @@ class S3FinalSyncRunner(
         log.info("Stopping attachment event listener. Attachments created from this point onwards will not be migrated.")
         attachmentListener.stop()
 
-        val config = S3UploadConfig(migrationHelperDeploymentService.migrationS3BucketName, client.get(), home)
-        val report = reportManager.resetReport(ReportType.Final)
-        val uploader = S3Uploader(config, report)
-
-        log.info("Starting final file sync migration job")
-        val finalSyncUploader = S3FinalFileSync(attachmentSyncManager, uploader)
-        finalSyncUploader.uploadCapturedFiles()
+        // Start any extra migration hosts first, so that they are ready by the time the captured files are uploaded
+        val migrationHosts = migrationHostsFor(
+                attachmentSyncManager.capturedAttachmentCountForCurrentMigration ?: 0,
+                Integer.getInteger(MAX_MIGRATION_HOSTS_PROPERTY, 4))
+        if (migrationHosts > 1) {
+            scaleMigrationHosts(migrationHosts)
+        }
 
-        if (report.failedFiles.isNotEmpty()) {
-            log.error("Some files failed to upload during final sync")
-            report.failedFiles.forEach {
-                log.error("${it.filePath} - ${it.reason}")
+        try {
+            val config = S3UploadConfig(migrationHelperDeploymentService.migrationS3BucketName, client.get(), home)
+            val report = reportManager.resetReport(ReportType.Final)
+            val uploader = S3Uploader(config, report)
+
+            log.info("Starting final file sync migration job")
+            val finalSyncUploader = S3FinalFileSync(attachmentSyncManager, uploader)
+            finalSyncUploader.uploadCapturedFiles()
+
+            if (report.failedFiles.isNotEmpty()) {
+                log.error("Some files failed to upload during final sync")
+                report.failedFiles.forEach {
+                    log.error("${it.filePath} - ${it.reason}")
+                }
             }
-        }
 
-        val queueDrainResult = queueWatcher.awaitQueueDrain()
+            val queueDrainResult = queueWatcher.awaitQueueDrain()
 
-        if (queueDrainResult) {
-            log.debug("Processed all items from remote queue.")
-        } else {
-            log.error("Encountered error(s) while processing items from remote queue.")
+            if (queueDrainResult) {
+                log.debug("Processed all items from remote queue.")
+            } else {
+                log.error("Encountered error(s) while processing items from remote queue.")
+            }
+        } finally {
+            // Scale back in even when the sync fails, so that no extra hosts are left running
+            if (migrationHosts > 1) {
+                scaleMigrationHosts(1)
+            }
         }
 
         log.info("Finished final file sync migration job")
 
         return JobRunnerResponse.success("Final file sync migration complete")
     }
+
+    private fun scaleMigrationHosts(count: Int) {
+        try {
+            migrationHelperDeploymentService.scaleMigrationHosts(count)
+        } catch (e: Exception) {
+            log.warn("Unable to scale the migration hosts to {}, the queue will be drained by the current hosts", count, e)
+        }
+    }
 }
\ No newline at end of file
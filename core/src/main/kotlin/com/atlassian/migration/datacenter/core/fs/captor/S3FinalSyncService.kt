@@ -17,6 +17,8 @@
 package com.atlassian.migration.datacenter.core.fs.captor
 
 import com.atlassian.migration.datacenter.core.aws.SqsApi
+import com.atlassian.migration.datacenter.core.fs.download.s3sync.FileSystemProcessorStatus
+import com.atlassian.migration.datacenter.core.fs.download.s3sync.S3SyncFileSystemDownloader
 import com.atlassian.migration.datacenter.core.util.MigrationRunner
 import com.atlassian.migration.datacenter.spi.CancellableMigrationService
 import com.atlassian.migration.datacenter.spi.MigrationService
@@ -29,7 +31,9 @@ class S3FinalSyncService(private val migrationRunner: MigrationRunner,
                          private val s3FinalSyncRunner: S3FinalSyncRunner,
                          private val migrationService: MigrationService,
                          private val sqsApi: SqsApi,
-                         private val attachmentSyncManager: AttachmentSyncManager
+                         private val attachmentSyncManager: AttachmentSyncManager,
+                         private val queueWatcher: QueueWatcher,
+                         private val fileSystemDownloader: S3SyncFileSystemDownloader
 ) : CancellableMigrationService, DisposableBean {
     companion object {
         private val logger = LoggerFactory.getLogger(S3FinalSyncService::class.java)
@@ -64,7 +68,17 @@ class S3FinalSyncService(private val migrationRunner: MigrationRunner,
         val itemsInQueue = sqsApi.getQueueLength(migrationQueueUrl)
         val itemsFailedToDownload = sqsApi.getQueueLength(currentContext.migrationDLQueueUrl)
 
-        return FinalFileSyncStatus(uploadedFileCount, itemsInQueue, itemsFailedToDownload)
+        // The watcher may be running on another node, so feed our own sample into the estimate as well
+        queueWatcher.recordQueueLength(itemsInQueue)
+        val drainEstimate = queueWatcher.getDrainEstimate()
+
+        return FinalFileSyncStatus(
+                uploadedFileCount,
+                itemsInQueue,
+                itemsFailedToDownload,
+                drainEstimate.drainRatePerSecond,
+                drainEstimate.estimatedTimeToDrain?.seconds,
+                fileSystemDownloader.processorStatus.orElse(null))
     }
 
     override fun unscheduleMigration(migrationId: Int): Boolean {
@@ -87,4 +101,10 @@ class S3FinalSyncService(private val migrationRunner: MigrationRunner,
     }
 }
 
-class FinalFileSyncStatus(val uploadedFileCount: Int, val enqueuedFileCount: Int, val failedFileCount: Int)
\ No newline at end of file
+class FinalFileSyncStatus(
+        val uploadedFileCount: Int,
+        val enqueuedFileCount: Int,
+        val failedFileCount: Int,
+        val drainRatePerSecond: Double? = null,
+        val estimatedSecondsToDrain: Long? = null,
+        val processorStatus: FileSystemProcessorStatus? = null)
\ No newline at end of file
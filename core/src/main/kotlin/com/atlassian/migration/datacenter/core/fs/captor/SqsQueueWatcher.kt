@@ -22,28 +22,61 @@ import com.atlassian.migration.datacenter.spi.MigrationStage
 import com.atlassian.migration.datacenter.spi.MigrationStage.FINAL_SYNC_WAIT
 import com.atlassian.migration.datacenter.spi.MigrationStage.VALIDATE
 import org.slf4j.LoggerFactory
+import org.springframework.beans.factory.DisposableBean
+import java.time.Duration
+import java.util.concurrent.CancellationException
 import java.util.concurrent.CompletableFuture
+import java.util.concurrent.ConcurrentHashMap
 import java.util.concurrent.Executors
+import java.util.concurrent.RejectedExecutionException
+import java.util.concurrent.ScheduledExecutorService
 import java.util.concurrent.TimeUnit
 
-//TODO: Convert to using co-routines and suspend functions?
+/**
+ * Waits for the migration queue to be drained by polling its length on a single shared scheduler. The queue is
+ * polled at [minPollInterval] while it is small, so the end of the final sync is noticed promptly, and backs off
+ * towards [maxPollInterval] while it is large.
+ *
+ * Destroying the watcher fails any wait in progress rather than leaving it blocked forever.
+ */
 class SqsQueueWatcher(private val sqsAPi: SqsApi,
                       private val migrationService: MigrationService,
-                      private val schedulerPollFrequency: Long) : QueueWatcher {
+                      private val minPollInterval: Duration,
+                      private val maxPollInterval: Duration,
+                      private val drainRateEstimator: QueueDrainRateEstimator) : QueueWatcher, DisposableBean {
 
-    constructor(sqsAPi: SqsApi, migrationService: MigrationService) : this(sqsAPi, migrationService, 30)
+    constructor(sqsAPi: SqsApi, migrationService: MigrationService, schedulerPollFrequency: Long) :
+            this(sqsAPi, migrationService, Duration.ofSeconds(schedulerPollFrequency), Duration.ofSeconds(schedulerPollFrequency), QueueDrainRateEstimator())
+
+    constructor(sqsAPi: SqsApi, migrationService: MigrationService) :
+            this(sqsAPi, migrationService, Duration.ofSeconds(2), Duration.ofSeconds(30), QueueDrainRateEstimator())
 
     companion object {
         private val logger = LoggerFactory.getLogger(SqsQueueWatcher::class.java)
+        // Queues up to this length are polled at the minimum interval
+        private const val SMALL_QUEUE_LENGTH = 100
+        // Queues of this length or longer are polled at the maximum interval
+        private const val LARGE_QUEUE_LENGTH = 10_000
     }
 
+    private val scheduler: ScheduledExecutorService = Executors.newSingleThreadScheduledExecutor { runnable ->
+        val thread = Thread(runnable, "sqs-queue-watcher")
+        thread.isDaemon = true
+        thread
+    }
+    // The polls which haven't completed yet, so that they can be failed when the watcher is destroyed
+    private val pendingPolls: MutableSet<CompletableFuture<Unit>> = ConcurrentHashMap.newKeySet()
+
     override fun awaitQueueDrain(): Boolean {
         logger.info("Waiting for migration state to be in {}. Once the stage is reached, SQS queue will be polling will begin.", FINAL_SYNC_WAIT)
 
         try {
-            val completableFuture = this.awaitRunnableToComplete(::checkForStateToBeInFsSyncAwait)
-                    .thenCompose { awaitRunnableToComplete(::checkForQueueToBeEmpty) }
-                    .thenCompose { awaitRunnableToComplete(::checkForStateToBeInFsSyncAwait) }
+            val completableFuture = pollUntil(::isStateInFsSyncAwait) { minPollInterval }
+                    .thenCompose {
+                        drainRateEstimator.reset()
+                        pollUntil(::isQueueEmpty, ::nextQueuePollDelay)
+                    }
+                    .thenCompose { pollUntil(::isStateInFsSyncAwait) { minPollInterval } }
                     .thenApply {
                         migrationService.transition(VALIDATE)
                     }
@@ -58,36 +91,85 @@ class SqsQueueWatcher(private val sqsAPi: SqsApi,
         return false
     }
 
-    private fun checkForQueueToBeEmpty(future: @ParameterName(name = "future") CompletableFuture<Unit>): Runnable {
-        return Runnable {
-            val migrationQueueUrl = migrationService.currentContext.migrationQueueUrl
-            val queueLength = sqsAPi.getQueueLength(migrationQueueUrl)
-            if (queueLength == 0) {
-                future.complete(Unit)
-            }
-        }
+    override fun getDrainEstimate(): QueueDrainEstimate {
+        return drainRateEstimator.estimate()
     }
 
-    private fun checkForStateToBeInFsSyncAwait(future: CompletableFuture<Unit>): Runnable {
-        return Runnable {
-            val currentStage = migrationService.currentStage
-            if (currentStage == FINAL_SYNC_WAIT) {
-                future.complete(Unit)
-            }
+    override fun recordQueueLength(queueLength: Int) {
+        drainRateEstimator.record(queueLength)
+    }
+
+    private fun isQueueEmpty(): Boolean {
+        val migrationQueueUrl = migrationService.currentContext.migrationQueueUrl
+        val queueLength = sqsAPi.getQueueLength(migrationQueueUrl)
+        drainRateEstimator.record(queueLength)
+        return queueLength == 0
+    }
+
+    private fun isStateInFsSyncAwait(): Boolean {
+        return migrationService.currentStage == FINAL_SYNC_WAIT
+    }
+
+    /**
+     * Scales the poll interval with the length of the queue, but never waits much longer than the queue is expected
+     * to take to drain.
+     */
+    internal fun nextQueuePollDelay(): Duration {
+        val estimate = drainRateEstimator.estimate()
+        val queueLength = estimate.queueLength ?: return minPollInterval
+
+        val fractionOfLargeQueue = ((queueLength - SMALL_QUEUE_LENGTH).toDouble() / (LARGE_QUEUE_LENGTH - SMALL_QUEUE_LENGTH)).coerceIn(0.0, 1.0)
+        val range = maxPollInterval.minus(minPollInterval).toMillis()
+        var delay = minPollInterval.plusMillis((range * fractionOfLargeQueue).toLong())
+
+        val eta = estimate.estimatedTimeToDrain
+        if (eta != null && eta.dividedBy(2) < delay) {
+            delay = eta.dividedBy(2)
         }
+        return if (delay < minPollInterval) minPollInterval else delay
     }
 
-    private fun awaitRunnableToComplete(runnable: (future: CompletableFuture<Unit>) -> Runnable): CompletableFuture<Unit> {
+    private fun pollUntil(condition: () -> Boolean, nextDelay: () -> Duration): CompletableFuture<Unit> {
         val completableFuture = CompletableFuture<Unit>()
-        val executor = Executors.newSingleThreadScheduledExecutor()
+        pendingPolls.add(completableFuture)
+        completableFuture.whenComplete { _, _ -> pendingPolls.remove(completableFuture) }
+        try {
+            scheduler.execute(Poller(completableFuture, condition, nextDelay))
+        } catch (e: RejectedExecutionException) {
+            completableFuture.completeExceptionally(e)
+        }
+        return completableFuture
+    }
 
-        val scheduledFuture = executor.scheduleAtFixedRate(runnable(completableFuture), 0, schedulerPollFrequency, TimeUnit.SECONDS)
+    override fun destroy() {
+        scheduler.shutdownNow()
+        pendingPolls.toList().forEach {
+            it.completeExceptionally(CancellationException("The queue watcher was destroyed while polling"))
+        }
+    }
 
-        completableFuture.whenComplete { _, _ ->
-            run {
-                scheduledFuture.cancel(true)
+    private inner class Poller(
+            private val future: CompletableFuture<Unit>,
+            private val condition: () -> Boolean,
+            private val nextDelay: () -> Duration
+    ) : Runnable {
+        override fun run() {
+            if (future.isDone) {
+                return
+            }
+            try {
+                if (condition()) {
+                    future.complete(Unit)
+                    return
+                }
+            } catch (e: Exception) {
+                logger.warn("Error while polling migration queue state, will retry", e)
+            }
+            try {
+                scheduler.schedule(this, nextDelay().toMillis(), TimeUnit.MILLISECONDS)
+            } catch (e: RejectedExecutionException) {
+                future.completeExceptionally(e)
             }
         }
-        return completableFuture
     }
-}
\ No newline at end of file
+}
@@ -28,11 +28,16 @@ import org.junit.jupiter.api.io.TempDir;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 
+import java.io.ByteArrayInputStream;
 import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 
+import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -117,4 +122,29 @@ class DatabaseArchivalServiceTest {
         verify(migrationStageCallback).transitionToServiceWaitStage();
         verify(migrationStageCallback).transitionToServiceErrorStage(errorMessage);
     }
+
+    @Test
+    void shouldMoveOnToUploadAsSoonAsDatabaseStreamHasStarted() throws Exception {
+        when(this.databaseExtractor.startDatabaseStream()).thenReturn(process);
+        when(process.getInputStream()).thenReturn(new ByteArrayInputStream(new byte[0]));
+
+        assertNotNull(service.streamDatabase());
+
+        verify(migrationStageCallback).assertInStartingStage();
+        verify(migrationStageCallback).transitionToServiceWaitStage();
+        verify(migrationStageCallback).transitionToServiceNextStage();
+        verify(process, never()).waitFor();
+    }
+
+    @Test
+    void shouldFailAsyncArchiveWhenExtractorFails() throws Exception {
+        when(this.databaseExtractor.startDatabaseDump(tempDir.resolve("db.dump"))).thenReturn(process);
+        when(process.waitFor()).thenReturn(1);
+
+        CompletableFuture<Path> archive = service.archiveDatabaseAsync(tempDir);
+
+        ExecutionException e = assertThrows(ExecutionException.class, archive::get);
+        assertTrue(e.getCause() instanceof DatabaseMigrationFailure);
+        verify(migrationStageCallback).transitionToServiceNextStage();
+    }
 }
@@ -17,6 +17,7 @@
 package com.atlassian.migration.datacenter.core.aws.db;
 
 import com.atlassian.migration.datacenter.core.fs.FileSystemMigrationReportManager;
+import com.atlassian.migration.datacenter.core.fs.FileUploadException;
 import com.atlassian.migration.datacenter.core.fs.ReportType;
 import com.atlassian.migration.datacenter.core.fs.reporting.DefaultFileSystemMigrationReport;
 import org.junit.jupiter.api.BeforeEach;
@@ -27,10 +28,24 @@ import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadResponse;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
 import java.util.function.Supplier;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -52,9 +67,11 @@ public class DatabaseArtifactS3UploadServiceTest {
     @InjectMocks
     DatabaseArtifactS3UploadService sut;
 
+    DefaultFileSystemMigrationReport report = new DefaultFileSystemMigrationReport();
+
     @BeforeEach
     void setup() {
-        when(reportManager.resetReport(ReportType.Database)).thenReturn(new DefaultFileSystemMigrationReport());
+        when(reportManager.resetReport(ReportType.Database)).thenReturn(report);
     }
 
     @Test
@@ -70,4 +87,46 @@ public class DatabaseArtifactS3UploadServiceTest {
         verify(databaseUploadStageTransitionCallback).transitionToServiceWaitStage();
         verify(databaseUploadStageTransitionCallback).transitionToServiceNextStage();
     }
+
+    @Test
+    void streamUploadShouldReportFailedArchiveWhenDumpFails() {
+        S3AsyncClient client = mock(S3AsyncClient.class);
+        when(s3AsyncClientSupplier.get()).thenReturn(client);
+        when(client.createMultipartUpload(any(CreateMultipartUploadRequest.class)))
+                .thenReturn(CompletableFuture.completedFuture(CreateMultipartUploadResponse.builder().uploadId("upload").build()));
+        when(client.abortMultipartUpload(any(AbortMultipartUploadRequest.class)))
+                .thenReturn(CompletableFuture.completedFuture(AbortMultipartUploadResponse.builder().build()));
+        InputStream failingDump = new InputStream() {
+            @Override
+            public int read() throws IOException {
+                throw new IOException("Database dump process exited with non-zero status: 1");
+            }
+        };
+
+        assertThrows(FileUploadException.class, () -> sut.uploadStream(failingDump, "db.archive", "bucketName"));
+
+        assertEquals(1, report.getFailedFiles().size());
+        verify(databaseUploadStageTransitionCallback, never()).transitionToServiceNextStage();
+    }
+
+    @Test
+    void streamUploadShouldRestoreInterruptFlagWhenInterrupted() {
+        S3AsyncClient client = mock(S3AsyncClient.class);
+        when(s3AsyncClientSupplier.get()).thenReturn(client);
+        when(client.createMultipartUpload(any(CreateMultipartUploadRequest.class)))
+                .thenReturn(CompletableFuture.completedFuture(CreateMultipartUploadResponse.builder().uploadId("upload").build()));
+        when(client.abortMultipartUpload(any(AbortMultipartUploadRequest.class)))
+                .thenReturn(CompletableFuture.completedFuture(AbortMultipartUploadResponse.builder().build()));
+        InputStream dump = new ByteArrayInputStream(new byte[]{1, 2, 3});
+
+        Thread.currentThread().interrupt();
+        try {
+            assertThrows(FileUploadException.class, () -> sut.uploadStream(dump, "db.archive", "bucketName"));
+        } finally {
+            assertTrue(Thread.interrupted());
+        }
+
+        assertEquals(1, report.getFailedFiles().size());
+        verify(databaseUploadStageTransitionCallback, never()).transitionToServiceNextStage();
+    }
 }
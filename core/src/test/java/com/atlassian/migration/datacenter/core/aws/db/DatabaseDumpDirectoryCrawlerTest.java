@@ -0,0 +1,125 @@
+/*
+ * Copyright 2020 Atlassian
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.atlassian.migration.datacenter.core.aws.db;
+
+import com.atlassian.migration.datacenter.core.fs.reporting.DefaultFileSystemMigrationReport;
+import com.atlassian.migration.datacenter.core.util.UploadQueue;
+import com.atlassian.migration.datacenter.spi.exceptions.DatabaseMigrationFailure;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DatabaseDumpDirectoryCrawlerTest {
+    @TempDir
+    Path dumpDirectory;
+
+    private final DefaultFileSystemMigrationReport report = new DefaultFileSystemMigrationReport();
+    private final CompletableFuture<Path> dump = new CompletableFuture<>();
+    private final UploadQueue<Path> queue = new UploadQueue<>(10);
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    private final DatabaseDumpDirectoryCrawler sut = new DatabaseDumpDirectoryCrawler(
+            report, dump, Duration.ofMillis(10), Duration.ofSeconds(10), Clock.systemUTC());
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void shouldQueueCompletedTablesWhileDumpIsRunning() throws Exception {
+        Path table = givenDumpFile("3042.dat.gz", Instant.now().minusSeconds(60));
+        givenDumpFile("3043.dat.gz", Instant.now());
+
+        Future<?> crawl = crawl();
+
+        assertEquals(Optional.of(table), queue.take());
+        assertFalse(dump.isDone());
+
+        dump.complete(dumpDirectory);
+        crawl.get();
+        assertEquals(dumpDirectory.resolve("3043.dat.gz"), queue.take().get());
+        assertEquals(Optional.empty(), queue.take());
+        assertTrue(report.isCrawlingFinished());
+    }
+
+    @Test
+    void shouldNeverQueueTableOfContents() throws Exception {
+        givenDumpFile(DatabaseDumpDirectoryCrawler.TABLE_OF_CONTENTS, Instant.now().minusSeconds(60));
+        dump.complete(dumpDirectory);
+
+        crawl().get();
+
+        assertEquals(Optional.empty(), queue.take());
+    }
+
+    @Test
+    void shouldQueueTableAgainWhenItChangedAfterItWasQueued() throws Exception {
+        Path table = givenDumpFile("3042.dat.gz", Instant.now().minusSeconds(60));
+
+        Future<?> crawl = crawl();
+        assertEquals(Optional.of(table), queue.take());
+        Files.write(table, "more rows".getBytes());
+        dump.complete(dumpDirectory);
+        crawl.get();
+
+        assertEquals(Optional.of(table), queue.take());
+        assertEquals(Optional.empty(), queue.take());
+    }
+
+    @Test
+    void shouldFailWhenDumpFails() throws Exception {
+        givenDumpFile("3042.dat.gz", Instant.now());
+        dump.completeExceptionally(new DatabaseMigrationFailure("DB extractor exited with non-zero status: 1"));
+
+        ExecutionException e = assertThrows(ExecutionException.class, () -> crawl().get());
+
+        assertTrue(e.getCause() instanceof IOException);
+        assertEquals(Optional.empty(), queue.take());
+    }
+
+    private Future<?> crawl() {
+        return executor.submit(() -> {
+            sut.crawlDirectory(dumpDirectory, queue);
+            return null;
+        });
+    }
+
+    private Path givenDumpFile(String name, Instant modified) throws IOException {
+        Path file = Files.write(dumpDirectory.resolve(name), "rows".getBytes());
+        Files.setLastModifiedTime(file, FileTime.from(modified));
+        return file;
+    }
+}
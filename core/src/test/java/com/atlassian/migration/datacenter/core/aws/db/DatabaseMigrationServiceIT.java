@@ -24,6 +24,7 @@ import com.atlassian.migration.datacenter.core.aws.db.restore.SsmPsqlDatabaseRes
 import com.atlassian.migration.datacenter.core.aws.infrastructure.AWSMigrationHelperDeploymentService;
 import com.atlassian.migration.datacenter.core.aws.infrastructure.RemoteInstanceCommandRunnerService;
 import com.atlassian.migration.datacenter.core.aws.ssm.SSMApi;
+import com.atlassian.migration.datacenter.core.aws.ssm.SSMCommandPoller;
 import com.atlassian.migration.datacenter.core.db.DatabaseClientTools;
 import com.atlassian.migration.datacenter.core.db.DefaultDatabaseExtractorFactory;
 import com.atlassian.migration.datacenter.core.db.PostgresClientTooling;
@@ -49,6 +50,7 @@ import org.testcontainers.junit.jupiter.Testcontainers;
 import org.testcontainers.utility.MountableFile;
 import software.amazon.awssdk.regions.Region;
 import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.S3Client;
 import software.amazon.awssdk.services.s3.model.CreateBucketRequest;
 import software.amazon.awssdk.services.s3.model.CreateBucketResponse;
 import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
@@ -105,6 +107,8 @@ class DatabaseMigrationServiceIT {
     AWSMigrationHelperDeploymentService migrationHelperDeploymentService;
     @Mock
     RemoteInstanceCommandRunnerService remoteInstanceCommandRunnerService;
+    @Mock
+    S3Client restoreProgressS3Client;
 
     @BeforeEach
     void setUp() throws Exception {
@@ -149,7 +153,7 @@ class DatabaseMigrationServiceIT {
 
         DatabaseRestoreStageTransitionCallback restoreStageTransitionCallback  = new DatabaseRestoreStageTransitionCallback(this.migrationService);
 
-        SsmPsqlDatabaseRestoreService restoreService = new SsmPsqlDatabaseRestoreService(ssmApi, migrationHelperDeploymentService, restoreStageTransitionCallback, remoteInstanceCommandRunnerService);
+        SsmPsqlDatabaseRestoreService restoreService = new SsmPsqlDatabaseRestoreService(ssmApi, new SSMCommandPoller(ssmApi), migrationHelperDeploymentService, restoreStageTransitionCallback, remoteInstanceCommandRunnerService, () -> restoreProgressS3Client);
 
         DatabaseMigrationService service = new DatabaseMigrationService(tempDir,
                 migrationService,
@@ -19,6 +19,7 @@ package com.atlassian.migration.datacenter.core.aws.db;
 import com.atlassian.migration.datacenter.core.aws.db.restore.SsmPsqlDatabaseRestoreService;
 import com.atlassian.migration.datacenter.core.aws.infrastructure.AWSMigrationHelperDeploymentService;
 import com.atlassian.migration.datacenter.core.db.DatabaseMigrationJobRunner;
+import com.atlassian.migration.datacenter.core.db.delta.DatabaseDeltaSyncService;
 import com.atlassian.migration.datacenter.core.fs.reporting.DefaultFileSystemMigrationReport;
 import com.atlassian.migration.datacenter.core.util.MigrationRunner;
 import com.atlassian.migration.datacenter.spi.MigrationService;
@@ -35,11 +36,13 @@ import org.mockito.junit.jupiter.MockitoExtension;
 
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.concurrent.CompletableFuture;
 
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.argThat;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.when;
@@ -68,6 +71,9 @@ public class DatabaseMigrationServiceTest {
     @Mock
     DatabaseArtifactS3UploadService s3UploadService;
 
+    @Mock
+    DatabaseDeltaSyncService deltaSyncService;
+
     DatabaseMigrationService sut;
 
     @BeforeEach
@@ -91,8 +97,9 @@ public class DatabaseMigrationServiceTest {
 
         InOrder inOrder = inOrder(migrationService);
         when(awsMigrationHelperDeploymentService.getMigrationS3BucketName()).thenReturn(s3bucket);
-        when(databaseArchivalService.archiveDatabase(eq(tempDir))).thenReturn(filePath);
-        when(s3UploadService.upload(eq(filePath), eq(s3bucket))).thenReturn(report);
+        final CompletableFuture<Path> archive = CompletableFuture.completedFuture(filePath);
+        when(databaseArchivalService.archiveDatabaseAsync(eq(tempDir))).thenReturn(archive);
+        when(s3UploadService.uploadWhileArchiving(eq(tempDir.resolve("db.dump")), eq(archive), eq(s3bucket))).thenReturn(report);
         sut.performMigration();
 
         inOrder.verify(migrationService).transition(MigrationStage.DB_MIGRATION_EXPORT);
@@ -104,6 +111,54 @@ public class DatabaseMigrationServiceTest {
         verifyNoMoreInteractions(migrationService);
     }
 
+    @Test
+    void shouldOnlyApplyFinalDeltasWhenDeltaSyncIsReadyForCutOver() throws Exception {
+        sut = givenDeltaSync();
+        when(deltaSyncService.prepareForCutOver()).thenReturn(true);
+
+        sut.performMigration();
+
+        InOrder inOrder = inOrder(migrationService, deltaSyncService);
+        inOrder.verify(migrationService).transition(MigrationStage.DB_MIGRATION_EXPORT);
+        inOrder.verify(migrationService).transition(MigrationStage.DB_MIGRATION_EXPORT_WAIT);
+        inOrder.verify(deltaSyncService).exportFinalDeltas();
+        inOrder.verify(migrationService).transition(MigrationStage.DB_MIGRATION_UPLOAD);
+        inOrder.verify(migrationService).transition(MigrationStage.DB_MIGRATION_UPLOAD_WAIT);
+        inOrder.verify(migrationService).transition(MigrationStage.DATA_MIGRATION_IMPORT);
+        inOrder.verify(migrationService).transition(MigrationStage.DATA_MIGRATION_IMPORT_WAIT);
+        inOrder.verify(deltaSyncService).applyFinalDeltas();
+        inOrder.verify(migrationService).transition(MigrationStage.FINAL_SYNC_WAIT);
+        verify(databaseArchivalService, never()).archiveDatabaseAsync(any());
+        verify(restoreService, never()).restoreDatabase();
+    }
+
+    @Test
+    void shouldMigrateDatabaseInFullWhenDeltaSyncIsNotReadyForCutOver() throws Exception {
+        sut = givenDeltaSync();
+        when(deltaSyncService.prepareForCutOver()).thenReturn(false);
+        when(awsMigrationHelperDeploymentService.getMigrationS3BucketName()).thenReturn("s3bucket");
+        final CompletableFuture<Path> archive = CompletableFuture.completedFuture(tempDir.resolve("db.dump"));
+        when(databaseArchivalService.archiveDatabaseAsync(eq(tempDir))).thenReturn(archive);
+        when(s3UploadService.uploadWhileArchiving(eq(tempDir.resolve("db.dump")), eq(archive), eq("s3bucket"))).thenReturn(new DefaultFileSystemMigrationReport());
+
+        sut.performMigration();
+
+        verify(restoreService).restoreDatabase();
+        verify(deltaSyncService, never()).exportFinalDeltas();
+    }
+
+    private DatabaseMigrationService givenDeltaSync() {
+        return new DatabaseMigrationService(
+                tempDir,
+                migrationService,
+                migrationRunner,
+                databaseArchivalService,
+                s3UploadService,
+                restoreService,
+                awsMigrationHelperDeploymentService,
+                deltaSyncService);
+    }
+
     @Test
     public void shouldUnscheduleMigrationGivenMigrationId(){
         int migrationId = 42;
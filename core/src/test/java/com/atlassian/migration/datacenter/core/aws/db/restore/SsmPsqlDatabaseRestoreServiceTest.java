@@ -19,23 +19,39 @@ package com.atlassian.migration.datacenter.core.aws.db.restore;
 import com.atlassian.migration.datacenter.core.aws.infrastructure.AWSMigrationHelperDeploymentService;
 import com.atlassian.migration.datacenter.core.aws.infrastructure.RemoteInstanceCommandRunnerService;
 import com.atlassian.migration.datacenter.core.aws.ssm.SSMApi;
+import com.atlassian.migration.datacenter.core.aws.ssm.SSMCommandPoller;
 import com.atlassian.migration.datacenter.core.fs.download.s3sync.S3SyncFileSystemDownloader;
 import com.atlassian.migration.datacenter.spi.exceptions.DatabaseMigrationFailure;
 import com.atlassian.migration.datacenter.spi.exceptions.InvalidMigrationStageError;
 import com.atlassian.migration.datacenter.spi.infrastructure.InfrastructureDeploymentError;
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import software.amazon.awssdk.core.ResponseBytes;
 import software.amazon.awssdk.http.SdkHttpResponse;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.DeleteObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
 import software.amazon.awssdk.services.ssm.model.CommandInvocationStatus;
 import software.amazon.awssdk.services.ssm.model.GetCommandInvocationResponse;
 
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.util.Collections;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 
 import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 @ExtendWith(MockitoExtension.class)
@@ -58,11 +74,22 @@ class SsmPsqlDatabaseRestoreServiceTest {
     @Mock
     RemoteInstanceCommandRunnerService remoteInstanceCommandRunnerService;        
 
+    @Mock
+    S3Client s3Client;
+
+    SSMCommandPoller commandPoller;
+
     SsmPsqlDatabaseRestoreService sut;
 
     @BeforeEach
     void setUp() {
-        sut = new SsmPsqlDatabaseRestoreService(ssmApi, migrationHelperDeploymentService, callback, remoteInstanceCommandRunnerService);
+        commandPoller = new SSMCommandPoller(ssmApi, Duration.ofMillis(1), Duration.ofMillis(10), 2.0);
+        sut = new SsmPsqlDatabaseRestoreService(ssmApi, commandPoller, migrationHelperDeploymentService, callback, remoteInstanceCommandRunnerService, () -> s3Client);
+    }
+
+    @AfterEach
+    void tearDown() {
+        commandPoller.destroy();
     }
 
     @Test
@@ -121,6 +148,77 @@ class SsmPsqlDatabaseRestoreServiceTest {
         assertDoesNotThrow(() -> sut.restoreDatabase());
     }
 
+    @Test
+    void shouldStartApplicationAfterRestore() throws Exception {
+        givenCommandCompletesWithStatus(CommandInvocationStatus.SUCCESS, null);
+
+        sut.restoreDatabase();
+
+        verify(remoteInstanceCommandRunnerService).setJiraRunStateTo(RemoteServiceState.STOP);
+        verify(remoteInstanceCommandRunnerService).setJiraRunStateTo(RemoteServiceState.START);
+    }
+
+    @Test
+    void shouldLeaveApplicationStoppedWhenAskedTo() throws Exception {
+        givenCommandCompletesWithStatus(CommandInvocationStatus.SUCCESS, null);
+
+        sut.restoreDatabase(false);
+
+        verify(remoteInstanceCommandRunnerService).setJiraRunStateTo(RemoteServiceState.STOP);
+        verify(remoteInstanceCommandRunnerService, never()).setJiraRunStateTo(RemoteServiceState.START);
+    }
+
+    @Test
+    void shouldFailAsyncRestoreAndStartApplicationWhenCommandFails() throws Exception {
+        givenCommandCompletesWithStatus(CommandInvocationStatus.FAILED, null);
+
+        final CompletableFuture<Void> restore = sut.restoreDatabaseAsync(true);
+
+        final ExecutionException e = assertThrows(ExecutionException.class, restore::get);
+        assertTrue(e.getCause() instanceof DatabaseMigrationFailure);
+        verify(remoteInstanceCommandRunnerService).setJiraRunStateTo(RemoteServiceState.START);
+    }
+
+    @Test
+    void shouldDeleteProgressOfPreviousRestoreBeforeRestoring() throws Exception {
+        givenCommandCompletesWithStatus(CommandInvocationStatus.SUCCESS, null);
+        when(migrationHelperDeploymentService.getMigrationS3BucketName()).thenReturn(s3bucket);
+
+        sut.restoreDatabase();
+
+        verify(s3Client).deleteObject(DeleteObjectRequest.builder()
+                .bucket(s3bucket)
+                .key(SsmPsqlDatabaseRestoreService.PUBLISHED_PROGRESS_KEY)
+                .build());
+    }
+
+    @Test
+    void shouldReadPublishedRestoreProgress() throws InfrastructureDeploymentError {
+        final String json = "{\"phase\":\"restoring data\",\"jobs\":8,\"tablesRestored\":120,\"tablesTotal\":300,\"finished\":false}";
+        when(migrationHelperDeploymentService.getMigrationS3BucketName()).thenReturn(s3bucket);
+        when(s3Client.getObjectAsBytes(GetObjectRequest.builder()
+                .bucket(s3bucket)
+                .key(SsmPsqlDatabaseRestoreService.PUBLISHED_PROGRESS_KEY)
+                .build()))
+                .thenReturn(ResponseBytes.fromByteArray(GetObjectResponse.builder().build(), json.getBytes(StandardCharsets.UTF_8)));
+
+        final DatabaseRestoreProgress progress = sut.getRestoreProgress().get();
+
+        assertEquals("restoring data", progress.getPhase());
+        assertEquals(8, progress.getJobs());
+        assertEquals(120, progress.getTablesRestored());
+        assertEquals(300, progress.getTablesTotal());
+        assertFalse(progress.isFinished());
+    }
+
+    @Test
+    void shouldHaveNoRestoreProgressUntilItIsPublished() throws InfrastructureDeploymentError {
+        when(migrationHelperDeploymentService.getMigrationS3BucketName()).thenReturn(s3bucket);
+        when(s3Client.getObjectAsBytes(any(GetObjectRequest.class))).thenThrow(NoSuchKeyException.builder().build());
+
+        assertEquals(Optional.empty(), sut.getRestoreProgress());
+    }
+
     @Test
     void shouldReturnOutputAndErrorUrls() throws SsmPsqlDatabaseRestoreService.SsmCommandNotInitialisedException, InfrastructureDeploymentError {
         final String errorMessage = "error-message";
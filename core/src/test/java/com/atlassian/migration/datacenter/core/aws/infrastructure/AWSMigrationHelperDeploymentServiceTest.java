@@ -34,11 +34,15 @@ import software.amazon.awssdk.services.autoscaling.model.AutoScalingGroup;
 import software.amazon.awssdk.services.autoscaling.model.DescribeAutoScalingGroupsRequest;
 import software.amazon.awssdk.services.autoscaling.model.DescribeAutoScalingGroupsResponse;
 import software.amazon.awssdk.services.autoscaling.model.Instance;
+import software.amazon.awssdk.services.autoscaling.model.LifecycleState;
+import software.amazon.awssdk.services.autoscaling.model.SetInstanceProtectionRequest;
+import software.amazon.awssdk.services.autoscaling.model.UpdateAutoScalingGroupRequest;
 import software.amazon.awssdk.services.cloudformation.model.Output;
 import software.amazon.awssdk.services.cloudformation.model.Stack;
 import software.amazon.awssdk.services.cloudformation.model.StackResource;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Optional;
@@ -49,10 +53,12 @@ import static com.atlassian.migration.datacenter.core.aws.infrastructure.AWSMigr
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.fail;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doNothing;
 import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -184,6 +190,73 @@ class AWSMigrationHelperDeploymentServiceTest {
         assertEquals(InfrastructureDeploymentState.CREATE_FAILED, sut.getDeploymentStatus());
     }
 
+    @Test
+    void shouldUseInstanceProtectedFromScaleInAsMigrationHost() throws InfrastructureDeploymentError {
+        givenMigrationStackGroupHasInstances(
+                Instance.builder().instanceId("i-00000").lifecycleState(LifecycleState.IN_SERVICE).protectedFromScaleIn(false).build(),
+                Instance.builder().instanceId("i-67890").lifecycleState(LifecycleState.PENDING).build(),
+                Instance.builder().instanceId("i-12345").lifecycleState(LifecycleState.IN_SERVICE).protectedFromScaleIn(true).build());
+
+        assertEquals("i-12345", sut.getMigrationHostInstanceId());
+        assertEquals(Arrays.asList("i-12345", "i-00000", "i-67890"), sut.getMigrationHostInstanceIds());
+        verify(mockAutoscaling, never()).setInstanceProtection(any(SetInstanceProtectionRequest.class));
+    }
+
+    @Test
+    void shouldUseInServiceInstanceWithoutProtectingItWhenNoMigrationHostHasBeenProtectedYet() throws InfrastructureDeploymentError {
+        givenMigrationStackGroupHasInstances(
+                Instance.builder().instanceId("i-00000").lifecycleState(LifecycleState.PENDING).build(),
+                Instance.builder().instanceId("i-67890").lifecycleState(LifecycleState.IN_SERVICE).build());
+
+        assertEquals("i-67890", sut.getMigrationHostInstanceId());
+        assertEquals("i-67890", sut.getMigrationHostInstanceId());
+        verify(mockAutoscaling, never()).setInstanceProtection(any(SetInstanceProtectionRequest.class));
+    }
+
+    @Test
+    void shouldNotProtectMigrationHostAgainWhenScalingMigrationStackGroupAgain() throws InfrastructureDeploymentError {
+        givenMigrationStackGroupHasInstances(
+                Instance.builder().instanceId("i-00000").lifecycleState(LifecycleState.IN_SERVICE).build(),
+                Instance.builder().instanceId(MIGRATION_HOST_INSTANCE_ID).lifecycleState(LifecycleState.IN_SERVICE).protectedFromScaleIn(true).build());
+
+        sut.scaleMigrationHosts(1);
+
+        verify(mockAutoscaling, never()).setInstanceProtection(any(SetInstanceProtectionRequest.class));
+        verify(mockAutoscaling).updateAutoScalingGroup(any(UpdateAutoScalingGroupRequest.class));
+    }
+
+    @Test
+    void shouldProtectMigrationHostWhenScalingMigrationStackGroup() throws InfrastructureDeploymentError {
+        givenMigrationStackGroupHasInstances(Instance.builder().instanceId(MIGRATION_HOST_INSTANCE_ID).lifecycleState(LifecycleState.IN_SERVICE).build());
+
+        sut.scaleMigrationHosts(3);
+
+        verify(mockAutoscaling).setInstanceProtection(SetInstanceProtectionRequest.builder()
+                .autoScalingGroupName(MIGRATION_ASG)
+                .instanceIds(MIGRATION_HOST_INSTANCE_ID)
+                .protectedFromScaleIn(true)
+                .build());
+        verify(mockAutoscaling).updateAutoScalingGroup(UpdateAutoScalingGroupRequest.builder()
+                .autoScalingGroupName(MIGRATION_ASG)
+                .minSize(3)
+                .maxSize(3)
+                .desiredCapacity(3)
+                .build());
+    }
+
+    private void givenMigrationStackGroupHasInstances(Instance... instances) {
+        when(mockContext.getMigrationStackAsgIdentifier()).thenReturn(MIGRATION_ASG);
+        when(mockAutoscaling.describeAutoScalingGroups(
+                DescribeAutoScalingGroupsRequest.builder()
+                        .autoScalingGroupNames(MIGRATION_ASG)
+                        .build()
+        )).thenReturn(
+                DescribeAutoScalingGroupsResponse.builder()
+                        .autoScalingGroups(AutoScalingGroup.builder().instances(instances).build())
+                        .build()
+        );
+    }
+
     private void assertGettingStackOutputsThrowsError() {
         ArrayList<Executable> outputGetters = new ArrayList<>();
         outputGetters.add(sut::getMigrationS3BucketName);
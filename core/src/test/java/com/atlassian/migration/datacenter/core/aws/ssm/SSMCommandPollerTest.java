@@ -0,0 +1,114 @@
+/*
+ * Copyright 2020 Atlassian
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.atlassian.migration.datacenter.core.aws.ssm;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import software.amazon.awssdk.services.ssm.model.CommandInvocationStatus;
+import software.amazon.awssdk.services.ssm.model.GetCommandInvocationResponse;
+import software.amazon.awssdk.services.ssm.model.InvocationDoesNotExistException;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.atMost;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class SSMCommandPollerTest {
+
+    private static final String COMMAND_ID = "command";
+    private static final String INSTANCE_ID = "i-0123456789";
+
+    @Mock
+    SSMApi ssmApi;
+
+    SSMCommandPoller sut;
+
+    @BeforeEach
+    void setUp() {
+        sut = new SSMCommandPoller(ssmApi, Duration.ofMillis(1), Duration.ofMillis(20), 2.0);
+    }
+
+    @AfterEach
+    void tearDown() {
+        sut.destroy();
+    }
+
+    @Test
+    void shouldCompleteWithInvocationOnceCommandSucceeds() throws Exception {
+        final GetCommandInvocationResponse success = givenStatus(CommandInvocationStatus.SUCCESS);
+        when(ssmApi.getSSMCommand(COMMAND_ID, INSTANCE_ID))
+                .thenThrow(InvocationDoesNotExistException.builder().build())
+                .thenReturn(givenStatus(CommandInvocationStatus.IN_PROGRESS))
+                .thenReturn(success);
+
+        final GetCommandInvocationResponse response = sut.awaitSuccess(COMMAND_ID, INSTANCE_ID, Duration.ofSeconds(10)).get(5, TimeUnit.SECONDS);
+
+        assertEquals(success, response);
+        verify(ssmApi, times(3)).getSSMCommand(COMMAND_ID, INSTANCE_ID);
+    }
+
+    @Test
+    void shouldFailWhenCommandFails() {
+        when(ssmApi.getSSMCommand(COMMAND_ID, INSTANCE_ID)).thenReturn(givenStatus(CommandInvocationStatus.FAILED));
+
+        final ExecutionException e = assertThrows(ExecutionException.class,
+                () -> sut.awaitSuccess(COMMAND_ID, INSTANCE_ID, Duration.ofSeconds(10)).get(5, TimeUnit.SECONDS));
+
+        assertTrue(e.getCause() instanceof SuccessfulSSMCommandConsumer.UnsuccessfulSSMCommandInvocationException);
+    }
+
+    @Test
+    void shouldFailWhenCommandDoesNotFinishBeforeDeadline() {
+        when(ssmApi.getSSMCommand(COMMAND_ID, INSTANCE_ID)).thenReturn(givenStatus(CommandInvocationStatus.IN_PROGRESS));
+
+        final ExecutionException e = assertThrows(ExecutionException.class,
+                () -> sut.awaitSuccess(COMMAND_ID, INSTANCE_ID, Duration.ofMillis(100)).get(5, TimeUnit.SECONDS));
+
+        assertTrue(e.getCause().getMessage().contains("did not complete before its deadline"));
+    }
+
+    @Test
+    void shouldStopPollingWhenCancelled() throws InterruptedException {
+        lenient().when(ssmApi.getSSMCommand(COMMAND_ID, INSTANCE_ID)).thenReturn(givenStatus(CommandInvocationStatus.IN_PROGRESS));
+        sut.destroy();
+        sut = new SSMCommandPoller(ssmApi, Duration.ofMillis(50), Duration.ofMillis(50), 1.0);
+
+        final CompletableFuture<GetCommandInvocationResponse> future = sut.awaitSuccess(COMMAND_ID, INSTANCE_ID, Duration.ofMinutes(1));
+        future.cancel(true);
+        Thread.sleep(200);
+
+        verify(ssmApi, atMost(1)).getSSMCommand(COMMAND_ID, INSTANCE_ID);
+    }
+
+    private static GetCommandInvocationResponse givenStatus(CommandInvocationStatus status) {
+        return GetCommandInvocationResponse.builder().status(status).build();
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2020 Atlassian
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.atlassian.migration.datacenter.core.aws.ssm;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import software.amazon.awssdk.services.ssm.model.GetCommandInvocationResponse;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class SuccessfulSSMCommandConsumerTest {
+
+    private static final String COMMAND_ID = "command";
+    private static final String INSTANCE_ID = "i-0123456789";
+
+    @Mock
+    SSMCommandPoller commandPoller;
+
+    @Test
+    void shouldProcessOutputOnceCommandSucceeds() throws Exception {
+        final CompletableFuture<GetCommandInvocationResponse> command = new CompletableFuture<>();
+        when(commandPoller.awaitSuccess(COMMAND_ID, INSTANCE_ID, Duration.ofSeconds(10))).thenReturn(command);
+
+        final CompletableFuture<String> output = new OutputConsumer().awaitCommandOutput(Duration.ofSeconds(10));
+        command.complete(GetCommandInvocationResponse.builder().standardOutputContent("output").build());
+
+        assertEquals("output", output.get());
+    }
+
+    @Test
+    void shouldStopWaitingForCommandWhenOutputIsCancelled() {
+        final CompletableFuture<GetCommandInvocationResponse> command = new CompletableFuture<>();
+        when(commandPoller.awaitSuccess(COMMAND_ID, INSTANCE_ID, Duration.ofSeconds(10))).thenReturn(command);
+
+        new OutputConsumer().awaitCommandOutput(Duration.ofSeconds(10)).cancel(true);
+
+        assertTrue(command.isCancelled());
+    }
+
+    private class OutputConsumer extends SuccessfulSSMCommandConsumer<String> {
+        OutputConsumer() {
+            super(commandPoller, COMMAND_ID, INSTANCE_ID);
+        }
+
+        @Override
+        protected String handleSuccessfulCommand(GetCommandInvocationResponse commandInvocation) {
+            return commandInvocation.standardOutputContent();
+        }
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2020 Atlassian
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.atlassian.migration.datacenter.core.fs;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import software.amazon.awssdk.core.async.AsyncRequestBody;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+import software.amazon.awssdk.services.s3.model.UploadPartRequest;
+import software.amazon.awssdk.services.s3.model.UploadPartResponse;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class S3StreamingMultiPartUploaderTest {
+    private static final int PART_SIZE = S3StreamingMultiPartUploader.MIN_PART_SIZE;
+
+    @Mock
+    S3AsyncClient client;
+
+    private S3StreamingMultiPartUploader sut;
+
+    @BeforeEach
+    void setUp() {
+        when(client.createMultipartUpload(any(CreateMultipartUploadRequest.class)))
+                .thenReturn(CompletableFuture.completedFuture(CreateMultipartUploadResponse.builder().uploadId("upload").build()));
+        S3UploadConfig config = new S3UploadConfig("bucket", client, Paths.get("home"));
+        sut = new S3StreamingMultiPartUploader(config, "db.archive", PART_SIZE, 2);
+    }
+
+    @Test
+    void shouldUploadStreamInPartsOfConfiguredSize() throws Exception {
+        when(client.uploadPart(any(UploadPartRequest.class), any(AsyncRequestBody.class)))
+                .thenAnswer(invocation -> {
+                    UploadPartRequest request = invocation.getArgument(0);
+                    return CompletableFuture.completedFuture(UploadPartResponse.builder().eTag("etag-" + request.partNumber()).build());
+                });
+        when(client.completeMultipartUpload(any(CompleteMultipartUploadRequest.class)))
+                .thenReturn(CompletableFuture.completedFuture(CompleteMultipartUploadResponse.builder().build()));
+
+        long uploaded = sut.upload(new ByteArrayInputStream(new byte[2 * PART_SIZE + 3]));
+
+        assertEquals(2 * PART_SIZE + 3, uploaded);
+        ArgumentCaptor<AsyncRequestBody> bodies = ArgumentCaptor.forClass(AsyncRequestBody.class);
+        verify(client, times(3)).uploadPart(any(UploadPartRequest.class), bodies.capture());
+        assertEquals(3L, (long) bodies.getAllValues().get(2).contentLength().get());
+
+        ArgumentCaptor<CompleteMultipartUploadRequest> complete = ArgumentCaptor.forClass(CompleteMultipartUploadRequest.class);
+        verify(client).completeMultipartUpload(complete.capture());
+        List<String> etags = complete.getValue().multipartUpload().parts().stream()
+                .map(CompletedPart::eTag)
+                .collect(Collectors.toList());
+        assertEquals(Arrays.asList("etag-1", "etag-2", "etag-3"), etags);
+    }
+
+    @Test
+    void shouldNotUploadEmptyTrailingPart() throws Exception {
+        when(client.uploadPart(any(UploadPartRequest.class), any(AsyncRequestBody.class)))
+                .thenReturn(CompletableFuture.completedFuture(UploadPartResponse.builder().eTag("etag").build()));
+        when(client.completeMultipartUpload(any(CompleteMultipartUploadRequest.class)))
+                .thenReturn(CompletableFuture.completedFuture(CompleteMultipartUploadResponse.builder().build()));
+
+        sut.upload(new ByteArrayInputStream(new byte[PART_SIZE]));
+
+        verify(client, times(1)).uploadPart(any(UploadPartRequest.class), any(AsyncRequestBody.class));
+    }
+
+    @Test
+    void shouldAbortUploadWhenPartFails() {
+        CompletableFuture<UploadPartResponse> failed = new CompletableFuture<>();
+        failed.completeExceptionally(S3Exception.builder().message("slow down").build());
+        when(client.uploadPart(any(UploadPartRequest.class), any(AsyncRequestBody.class))).thenReturn(failed);
+        when(client.abortMultipartUpload(any(AbortMultipartUploadRequest.class)))
+                .thenReturn(CompletableFuture.completedFuture(AbortMultipartUploadResponse.builder().build()));
+
+        assertThrows(IOException.class, () -> sut.upload(new ByteArrayInputStream(new byte[3 * PART_SIZE])));
+
+        verify(client).abortMultipartUpload(any(AbortMultipartUploadRequest.class));
+        verify(client, never()).completeMultipartUpload(any(CompleteMultipartUploadRequest.class));
+    }
+
+    @Test
+    void shouldAbortUploadWhenStreamFails() {
+        when(client.abortMultipartUpload(any(AbortMultipartUploadRequest.class)))
+                .thenReturn(CompletableFuture.completedFuture(AbortMultipartUploadResponse.builder().build()));
+        InputStream truncated = new InputStream() {
+            @Override
+            public int read() throws IOException {
+                throw new IOException("Database dump process exited with non-zero status: 1");
+            }
+        };
+
+        assertThrows(IOException.class, () -> sut.upload(truncated));
+
+        verify(client).abortMultipartUpload(any(AbortMultipartUploadRequest.class));
+        verify(client, never()).completeMultipartUpload(any(CompleteMultipartUploadRequest.class));
+    }
+}
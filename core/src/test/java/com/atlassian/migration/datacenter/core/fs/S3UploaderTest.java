@@ -42,6 +42,8 @@ import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 @ExtendWith(MockitoExtension.class)
@@ -167,6 +169,56 @@ class S3UploaderTest {
         submit.get();
     }
 
+    @Test
+    void shouldWaitForThePreviousUploadOfAPathBeforeUploadingItAgain() throws Exception {
+        CompletableFuture<PutObjectResponse> first = new CompletableFuture<>();
+        when(sdkHttpResponse.isSuccessful()).thenReturn(true);
+        when(s3AsyncClient.putObject(any(PutObjectRequest.class), any(Path.class)))
+                .thenReturn(first)
+                .thenReturn(CompletableFuture.completedFuture(successfulResponse()));
+
+        Path file = addFileToQueue("file1");
+        queue.put(file);
+        queue.finish();
+
+        final Future<?> submit = Executors.newFixedThreadPool(1).submit(() -> {
+            try {
+                uploader.upload(queue);
+            } catch (FileUploadException e) {
+                throw new RuntimeException(e);
+            }
+        });
+
+        Thread.sleep(500);
+        verify(s3AsyncClient, times(1)).putObject(any(PutObjectRequest.class), any(Path.class));
+
+        first.complete(successfulResponse());
+        submit.get();
+
+        verify(s3AsyncClient, times(2)).putObject(any(PutObjectRequest.class), any(Path.class));
+        assertEquals(2, report.getCountOfUploadedFiles());
+    }
+
+    @Test
+    void shouldNotCountFailuresSupersededByASuccessfulUpload() throws Exception {
+        when(sdkHttpResponse.isSuccessful()).thenReturn(false).thenReturn(true);
+        when(s3AsyncClient.putObject(any(PutObjectRequest.class), any(Path.class)))
+                .thenReturn(CompletableFuture.completedFuture(successfulResponse()));
+
+        Path file = addFileToQueue("file1");
+        queue.put(file);
+        queue.finish();
+
+        uploader.upload(queue);
+
+        assertEquals(1, report.getFailedFiles().size());
+        assertTrue(uploader.getPathsNotUploaded().isEmpty());
+    }
+
+    private PutObjectResponse successfulResponse() {
+        return (PutObjectResponse) PutObjectResponse.builder().sdkHttpResponse(sdkHttpResponse).build();
+    }
+
     Path addFileToQueue(String fileName) throws IOException, InterruptedException {
         final Path file = tempDir.resolve(fileName);
         Files.write(file, "".getBytes());
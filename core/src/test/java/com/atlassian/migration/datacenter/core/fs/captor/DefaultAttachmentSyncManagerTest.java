@@ -32,12 +32,14 @@ import org.mockito.Mock;
 import org.mockito.junit.MockitoJUnit;
 import org.mockito.junit.MockitoRule;
 
-import java.util.Set;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
 
 import static org.hamcrest.MatcherAssert.assertThat;
-import static org.hamcrest.collection.IsIterableContainingInAnyOrder.containsInAnyOrder;
 import static org.hamcrest.collection.IsIterableContainingInOrder.contains;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.mockito.Mockito.when;
 
@@ -69,36 +71,67 @@ public class DefaultAttachmentSyncManagerTest {
     }
 
     @Test
-    public void shouldRetrieveAllCapturedFilePaths() {
-        Migration migration  = givenMigrationExists();
-        FileSyncRecord record = givenFileSyncRecordIsInDB("pathOne", migration);
+    public void shouldOnlyIterateCapturedFilePathsInCurrentMigration() {
+        Migration migration = givenMigrationExists();
+
+        Migration otherMigration = ao.create(Migration.class);
+        otherMigration.save();
 
-        FileSyncRecord anotherRecord = givenFileSyncRecordIsInDB("pathTwo", migration);
+        givenFileSyncRecordIsInDB("happyPath", migration);
+        givenFileSyncRecordIsInDB("sadPath", otherMigration);
 
-        Set<FileSyncRecord> records = sut.getCapturedAttachments();
-        // HashSet does not guarantee iteration order. Evaluate if we really need this or if we require a TreeSet implementation instead?
-        assertThat(records, containsInAnyOrder(record, anotherRecord));
+        List<String> paths = new ArrayList<>();
+        sut.iterateCapturedFilePaths().forEachRemaining(paths::add);
+        assertThat(paths, contains("happyPath"));
     }
 
     @Test
-    public void shouldOnlyRetrieveCapturedFilePathsInCurrentMigration() {
+    public void shouldIterateCapturedFilePathsAcrossPagesInCaptureOrder() {
+        sut = new DefaultAttachmentSyncManager(ao, migrationService, 2);
         Migration migration = givenMigrationExists();
-
         Migration otherMigration = ao.create(Migration.class);
         otherMigration.save();
 
-        FileSyncRecord record = givenFileSyncRecordIsInDB("happyPath", migration);
-        givenFileSyncRecordIsInDB("sadPath", otherMigration);
+        givenFileSyncRecordIsInDB("/one", migration);
+        givenFileSyncRecordIsInDB("/other", otherMigration);
+        givenFileSyncRecordIsInDB("/two", migration);
+        givenFileSyncRecordIsInDB("/three", migration);
+        givenFileSyncRecordIsInDB("/four", migration);
+        givenFileSyncRecordIsInDB("/five", migration);
+
+        List<String> paths = new ArrayList<>();
+        sut.iterateCapturedFilePaths().forEachRemaining(paths::add);
 
-        Set<FileSyncRecord> records = sut.getCapturedAttachments();
-        assertThat(records, contains(record));
+        assertThat(paths, contains("/one", "/two", "/three", "/four", "/five"));
     }
 
     @Test
-    public void shouldReturnEmptySetWhenNoMigrationInProgress() {
+    public void shouldNotIterateCapturedFilePathsWhenNoMigrationInProgress() {
         givenFileSyncRecordIsInDB("test", null);
 
-        assertEquals(0, sut.getCapturedAttachments().size());
+        Iterator<String> paths = sut.iterateCapturedFilePaths();
+
+        assertFalse(paths.hasNext());
+    }
+
+    @Test
+    public void shouldOnlyIterateUnsyncedCapturedFilesWhenRequested() {
+        sut = new DefaultAttachmentSyncManager(ao, migrationService, 1);
+        Migration migration = givenMigrationExists();
+        FileSyncRecord synced = givenFileSyncRecordIsInDB("/synced", migration);
+        FileSyncRecord unsynced = givenFileSyncRecordIsInDB("/unsynced", migration);
+
+        sut.markSynced(synced.getID(), 42L, 1234L);
+
+        List<CapturedFile> all = new ArrayList<>();
+        sut.iterateCapturedFiles(false).forEachRemaining(all::add);
+        List<CapturedFile> onlyUnsynced = new ArrayList<>();
+        sut.iterateCapturedFiles(true).forEachRemaining(onlyUnsynced::add);
+
+        assertThat(all, contains(
+                new CapturedFile(synced.getID(), "/synced", 42L, 1234L),
+                new CapturedFile(unsynced.getID(), "/unsynced", null, null)));
+        assertThat(onlyUnsynced, contains(new CapturedFile(unsynced.getID(), "/unsynced", null, null)));
     }
 
     @Test
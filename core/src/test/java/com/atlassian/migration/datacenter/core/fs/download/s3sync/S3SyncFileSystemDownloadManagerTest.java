@@ -24,6 +24,8 @@ import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 
+import java.util.concurrent.CompletableFuture;
+
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.when;
 
@@ -41,7 +43,8 @@ class S3SyncFileSystemDownloadManagerTest {
 
     @Test
     void shouldSetDownloadedFiles() throws S3SyncFileSystemDownloader.CannotLaunchCommandException, InterruptedException {
-        when(mockDownloader.getFileSystemDownloadStatus()).thenReturn(mockStatus);
+        when(mockDownloader.initiateFileSystemDownload()).thenReturn(CompletableFuture.completedFuture(null));
+        when(mockDownloader.getFileSystemDownloadStatus()).thenReturn(CompletableFuture.completedFuture(mockStatus));
         when(mockStatus.getFilesRemainingToDownload()).thenReturn(100);
 
         FileSystemMigrationProgress progress = new DefaultFilesystemMigrationProgress();
@@ -18,16 +18,34 @@ package com.atlassian.migration.datacenter.core.fs.download.s3sync;
 
 import com.atlassian.migration.datacenter.core.aws.infrastructure.AWSMigrationHelperDeploymentService;
 import com.atlassian.migration.datacenter.core.aws.ssm.SSMApi;
+import com.atlassian.migration.datacenter.core.aws.ssm.SSMCommandPoller;
 import com.atlassian.migration.datacenter.spi.infrastructure.InfrastructureDeploymentError;
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import software.amazon.awssdk.core.ResponseBytes;
 import software.amazon.awssdk.http.SdkHttpResponse;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.DeleteObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Request;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Response;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
+import software.amazon.awssdk.services.s3.model.S3Object;
 import software.amazon.awssdk.services.ssm.model.CommandInvocationStatus;
 import software.amazon.awssdk.services.ssm.model.GetCommandInvocationResponse;
 
+import java.nio.charset.StandardCharsets;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.concurrent.ExecutionException;
+
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.hasItem;
 import static org.junit.jupiter.api.Assertions.assertEquals;
@@ -38,7 +56,9 @@ import static org.junit.jupiter.api.Assertions.fail;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyMap;
 import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -56,6 +76,13 @@ class S3SyncFileSystemDownloaderTest {
     @Mock
     AWSMigrationHelperDeploymentService migrationHelperDeploymentService;
 
+    @Mock
+    S3Client mockS3Client;
+
+    private final Instant now = Instant.parse("2020-06-01T00:00:00Z");
+
+    SSMCommandPoller commandPoller;
+
     S3SyncFileSystemDownloader sut;
 
     @BeforeEach
@@ -63,8 +90,16 @@ class S3SyncFileSystemDownloaderTest {
         lenient().when(migrationHelperDeploymentService.getFsRestoreDocument()).thenReturn("fs-restore-doc");
         lenient().when(migrationHelperDeploymentService.getFsRestoreStatusDocument()).thenReturn("fs-restore-status-do");
         lenient().when(migrationHelperDeploymentService.getMigrationHostInstanceId()).thenReturn("i-0123456789");
+        lenient().when(migrationHelperDeploymentService.getMigrationS3BucketName()).thenReturn("migration-bucket");
+        lenient().when(mockS3Client.getObjectAsBytes(any(GetObjectRequest.class))).thenThrow(NoSuchKeyException.builder().build());
+
+        commandPoller = new SSMCommandPoller(mockSsmApi, Duration.ofMillis(1), Duration.ofMillis(10), 2.0);
+        sut = new S3SyncFileSystemDownloader(mockSsmApi, commandPoller, () -> mockS3Client, migrationHelperDeploymentService, Clock.fixed(now, ZoneOffset.UTC));
+    }
 
-        sut = new S3SyncFileSystemDownloader(mockSsmApi, migrationHelperDeploymentService, 1);
+    @AfterEach
+    void tearDown() {
+        commandPoller.destroy();
     }
 
     @Test
@@ -74,11 +109,26 @@ class S3SyncFileSystemDownloaderTest {
                         .status(CommandInvocationStatus.SUCCESS)
                         .build());
 
-        sut.initiateFileSystemDownload();
+        sut.initiateFileSystemDownload().join();
 
         verify(mockSsmApi).runSSMDocument(anyString(), anyString(), anyMap());
     }
 
+    @Test
+    void shouldDeleteStatusPublishedByPreviousDownloadBeforeIssuingCommand() throws S3SyncFileSystemDownloader.CannotLaunchCommandException {
+        when(mockSsmApi.getSSMCommand(any(), anyString())).thenReturn(
+                GetCommandInvocationResponse.builder()
+                        .status(CommandInvocationStatus.SUCCESS)
+                        .build());
+
+        sut.initiateFileSystemDownload().join();
+
+        verify(mockS3Client).deleteObject(DeleteObjectRequest.builder()
+                .bucket("migration-bucket")
+                .key(S3SyncFileSystemDownloader.PUBLISHED_STATUS_KEY)
+                .build());
+    }
+
     @Test
     void shouldNotThrowWhenCommandIsIssuedAndSucceeds() {
         when(mockSsmApi.getSSMCommand(any(), anyString())).thenReturn(
@@ -87,8 +137,8 @@ class S3SyncFileSystemDownloaderTest {
                         .build());
 
         try {
-            sut.initiateFileSystemDownload();
-        } catch (S3SyncFileSystemDownloader.CannotLaunchCommandException e) {
+            sut.initiateFileSystemDownload().get();
+        } catch (S3SyncFileSystemDownloader.CannotLaunchCommandException | InterruptedException | ExecutionException e) {
             fail();
         }
     }
@@ -101,7 +151,8 @@ class S3SyncFileSystemDownloaderTest {
                         .sdkHttpResponse(SdkHttpResponse.builder().statusText("whoopsie dooopsie").build())
                         .build());
 
-        assertThrows(S3SyncFileSystemDownloader.CannotLaunchCommandException.class, () -> sut.initiateFileSystemDownload());
+        final ExecutionException e = assertThrows(ExecutionException.class, () -> sut.initiateFileSystemDownload().get());
+        assertTrue(e.getCause() instanceof S3SyncFileSystemDownloader.CannotLaunchCommandException);
     }
 
     @Test
@@ -165,6 +216,96 @@ class S3SyncFileSystemDownloaderTest {
         assertThat(status.getErrors(), hasItem("Oh dang it broke\n"));
     }
 
+    @Test
+    void shouldReadPublishedStatusWithoutRunningStatusCommand() throws S3SyncFileSystemDownloader.CannotLaunchCommandException {
+        givenStatusIsPublished(SYNC_STATUS_DETERMINED_PARTIAL_JSON, now.minusSeconds(5));
+
+        S3SyncCommandStatus status = whenStatusCommandIsInvoked();
+
+        assertEquals(528, status.getFilesRemainingToDownload());
+        assertEquals(451411968.0, status.getTotalBytesToDownload());
+        verify(mockSsmApi, never()).runSSMDocument(anyString(), anyString(), anyMap());
+    }
+
+    @Test
+    void shouldFallBackToStatusCommandWhenPublishedStatusIsStale() throws S3SyncFileSystemDownloader.CannotLaunchCommandException {
+        givenStatusIsPublished(SYNC_STATUS_DETERMINED_PARTIAL_JSON, now.minus(Duration.ofMinutes(5)));
+        givenSyncCommandIsRunning();
+        givenStatusCommandCompletesSuccessfullyWithOutput(SYNC_STATUS_SUCCESS_COMPLETE_JSON);
+
+        S3SyncCommandStatus status = whenStatusCommandIsInvoked();
+
+        assertTrue(status.isComplete());
+        verify(mockSsmApi).runSSMDocument(anyString(), anyString(), anyMap());
+    }
+
+    @Test
+    void shouldFallBackToStatusCommandWhenPublishedStatusIsUnreadable() throws S3SyncFileSystemDownloader.CannotLaunchCommandException {
+        givenStatusIsPublished("not json", now);
+        givenSyncCommandIsRunning();
+        givenStatusCommandCompletesSuccessfullyWithOutput(SYNC_STATUS_SUCCESS_COMPLETE_JSON);
+
+        S3SyncCommandStatus status = whenStatusCommandIsInvoked();
+
+        assertTrue(status.isComplete());
+    }
+
+    @Test
+    void shouldAddUpStatusOfEveryRecentlyPublishingProcessor() {
+        givenProcessorStatusIsPublished("i-1", "{\"instanceId\":\"i-1\",\"filesWritten\":10,\"bytesWritten\":1000,\"bytesPerSecond\":100.0,\"inFlightMessages\":2,\"latestMessageAgeMillis\":500}", now.minusSeconds(20));
+        givenProcessorStatusIsPublished("i-2", "{\"instanceId\":\"i-2\",\"filesWritten\":5,\"bytesWritten\":500,\"bytesPerSecond\":50.0,\"inFlightMessages\":1,\"latestMessageAgeMillis\":1500}", now.minusSeconds(10));
+        givenProcessorStatusIsPublished("i-scaled-in", "{\"instanceId\":\"i-scaled-in\",\"filesWritten\":1000}", now.minus(Duration.ofMinutes(30)));
+        when(mockS3Client.listObjectsV2(ListObjectsV2Request.builder()
+                .bucket("migration-bucket")
+                .prefix(S3SyncFileSystemDownloader.PROCESSOR_STATUS_PREFIX)
+                .build()))
+                .thenReturn(ListObjectsV2Response.builder().contents(
+                        processorStatusObject("i-1", now.minusSeconds(20)),
+                        processorStatusObject("i-2", now.minusSeconds(10)),
+                        processorStatusObject("i-scaled-in", now.minus(Duration.ofMinutes(30)))).build());
+
+        FileSystemProcessorStatus status = sut.getProcessorStatus().get();
+
+        assertEquals(2, status.getInstances());
+        assertEquals(15, status.getFilesWritten());
+        assertEquals(1500, status.getBytesWritten());
+        assertEquals(150.0, status.getBytesPerSecond());
+        assertEquals(3, status.getInFlightMessages());
+        assertEquals(1500, status.getLatestMessageAgeMillis());
+    }
+
+    @Test
+    void shouldHaveNoProcessorStatusUntilOneIsPublished() {
+        when(mockS3Client.listObjectsV2(any(ListObjectsV2Request.class))).thenReturn(ListObjectsV2Response.builder().build());
+
+        assertFalse(sut.getProcessorStatus().isPresent());
+    }
+
+    private S3Object processorStatusObject(String instanceId, Instant lastModified) {
+        return S3Object.builder()
+                .key(S3SyncFileSystemDownloader.PROCESSOR_STATUS_PREFIX + instanceId + ".json")
+                .lastModified(lastModified)
+                .build();
+    }
+
+    private void givenProcessorStatusIsPublished(String instanceId, String json, Instant lastModified) {
+        lenient().doReturn(ResponseBytes.fromByteArray(GetObjectResponse.builder().lastModified(lastModified).build(), json.getBytes(StandardCharsets.UTF_8)))
+                .when(mockS3Client).getObjectAsBytes(GetObjectRequest.builder()
+                .bucket("migration-bucket")
+                .key(S3SyncFileSystemDownloader.PROCESSOR_STATUS_PREFIX + instanceId + ".json")
+                .build());
+    }
+
+    private void givenStatusIsPublished(String json, Instant lastModified) {
+        ResponseBytes<GetObjectResponse> statusObject = ResponseBytes.fromByteArray(
+                GetObjectResponse.builder().lastModified(lastModified).build(),
+                json.getBytes(StandardCharsets.UTF_8));
+        doReturn(statusObject).when(mockS3Client).getObjectAsBytes(GetObjectRequest.builder()
+                .bucket("migration-bucket")
+                .key(S3SyncFileSystemDownloader.PUBLISHED_STATUS_KEY)
+                .build());
+    }
+
     private void givenSyncCommandIsRunning() throws S3SyncFileSystemDownloader.CannotLaunchCommandException {
         when(mockSsmApi.runSSMDocument(anyString(), anyString(), anyMap())).thenReturn("status-command-invocation");
     }
@@ -178,6 +319,6 @@ class S3SyncFileSystemDownloaderTest {
     }
 
     private S3SyncCommandStatus whenStatusCommandIsInvoked() throws S3SyncFileSystemDownloader.CannotLaunchCommandException {
-        return sut.getFileSystemDownloadStatus();
+        return sut.getFileSystemDownloadStatus().join();
     }
 }
\ No newline at end of file
@@ -69,7 +69,7 @@ public class DefaultAttachmentCaptorTest {
     public void setup() {
         assertNotNull(entityManager);
         ao = new TestActiveObjects(entityManager);
-        sut = new DefaultAttachmentCaptor(ao, migrationService, attachmentStore);
+        sut = new DefaultAttachmentCaptor(attachmentStore, new FileSyncRecordWriter(ao, migrationService));
         setupEntities();
     }
 
@@ -87,6 +87,7 @@ public class DefaultAttachmentCaptorTest {
         when(this.attachmentStore.getAttachmentFile(oneAttachment)).thenReturn(oneAttachmentFile);
 
         sut.captureAttachment(oneAttachment);
+        sut.flush();
 
         FileSyncRecord record = ao.find(FileSyncRecord.class)[0];
 
@@ -103,6 +104,7 @@ public class DefaultAttachmentCaptorTest {
         when(this.attachmentStore.getThumbnailFile(oneAttachment)).thenReturn(oneThumbnailFile);
 
         sut.captureAttachment(oneAttachment);
+        sut.flush();
 
         FileSyncRecord[] fileSyncRecords = ao.find(FileSyncRecord.class);
         assertEquals(2, fileSyncRecords.length);
@@ -123,6 +125,7 @@ public class DefaultAttachmentCaptorTest {
         tempThumbnailFile.delete();
 
         sut.captureAttachment(oneAttachment);
+        sut.flush();
 
         FileSyncRecord[] fileSyncRecords = ao.find(FileSyncRecord.class);
         assertEquals(1, fileSyncRecords.length);
@@ -142,6 +145,7 @@ public class DefaultAttachmentCaptorTest {
         oneThumbnailFile.deleteOnExit();
 
         sut.captureAttachment(oneAttachment);
+        sut.flush();
 
         FileSyncRecord[] fileSyncRecords = ao.find(FileSyncRecord.class);
         assertEquals(1, fileSyncRecords.length);
@@ -161,6 +165,7 @@ public class DefaultAttachmentCaptorTest {
         oneThumbnailFile.delete();
 
         sut.captureAttachment(oneAttachment);
+        sut.flush();
 
         FileSyncRecord[] fileSyncRecords = ao.find(FileSyncRecord.class);
         assertEquals(0, fileSyncRecords.length);
@@ -174,6 +179,7 @@ public class DefaultAttachmentCaptorTest {
         when(this.attachmentStore.getAttachmentFile(oneAttachment)).thenReturn(oneAttachmentFile);
 
         sut.captureAttachment(oneAttachment);
+        sut.flush();
         FileSyncRecord record = ao.find(FileSyncRecord.class)[0];
         assertEquals(migration, record.getMigration());
     }
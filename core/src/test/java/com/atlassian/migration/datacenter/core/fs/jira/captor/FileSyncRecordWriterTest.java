@@ -0,0 +1,160 @@
+/*
+ * Copyright 2020 Atlassian
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.atlassian.migration.datacenter.core.fs.jira.captor;
+
+import com.atlassian.activeobjects.external.ActiveObjects;
+import com.atlassian.activeobjects.test.TestActiveObjects;
+import com.atlassian.migration.datacenter.dto.FileSyncRecord;
+import com.atlassian.migration.datacenter.dto.Migration;
+import com.atlassian.migration.datacenter.spi.MigrationService;
+import net.java.ao.EntityManager;
+import net.java.ao.test.junit.ActiveObjectsJUnitRunner;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+
+import java.nio.file.Paths;
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.mockito.Mockito.when;
+
+@RunWith(ActiveObjectsJUnitRunner.class)
+public class FileSyncRecordWriterTest {
+
+    private ActiveObjects ao;
+    private EntityManager entityManager;
+
+    @Rule
+    public MockitoRule mockitoRule = MockitoJUnit.rule();
+
+    @Mock
+    MigrationService migrationService;
+
+    private Migration migration;
+
+    @Before
+    public void setup() {
+        assertNotNull(entityManager);
+        ao = new TestActiveObjects(entityManager);
+        ao.migrate(Migration.class);
+        ao.migrate(FileSyncRecord.class);
+
+        migration = ao.create(Migration.class);
+        migration.save();
+        when(migrationService.getCurrentMigration()).thenReturn(migration);
+    }
+
+    @Test
+    public void shouldWriteQueuedPathsInBackground() throws Exception {
+        FileSyncRecordWriter sut = new FileSyncRecordWriter(ao, migrationService, 100, 10, Duration.ofMillis(10));
+
+        for (int i = 0; i < 25; i++) {
+            sut.enqueue(Paths.get("/jira/data/attachments/" + i));
+        }
+        sut.flush();
+
+        assertEquals(25, ao.count(FileSyncRecord.class));
+        assertEquals(migration, ao.find(FileSyncRecord.class)[0].getMigration());
+        sut.destroy();
+    }
+
+    @Test
+    public void shouldWriteSynchronouslyWhenQueueIsFull() throws Exception {
+        FileSyncRecordWriter sut = new FileSyncRecordWriter(ao, migrationService, 1, 1, Duration.ofMillis(50));
+
+        for (int i = 0; i < 5; i++) {
+            sut.enqueue(Paths.get("/jira/data/attachments/" + i));
+        }
+        sut.destroy();
+
+        assertEquals(5, ao.count(FileSyncRecord.class));
+    }
+
+    @Test
+    public void shouldFlushQueueOnShutdown() throws Exception {
+        FileSyncRecordWriter sut = new FileSyncRecordWriter(ao, migrationService, 100, 100, Duration.ofMillis(50));
+
+        sut.enqueue(Paths.get("/jira/data/attachments/1"));
+        sut.destroy();
+
+        assertEquals(1, ao.count(FileSyncRecord.class));
+        assertEquals(0, sut.getQueuedCount());
+    }
+
+    @Test
+    public void shouldWriteSynchronouslyAfterShutdown() throws Exception {
+        FileSyncRecordWriter sut = new FileSyncRecordWriter(ao, migrationService);
+        sut.destroy();
+
+        sut.enqueue(Paths.get("/jira/data/attachments/1"));
+
+        assertEquals(1, ao.count(FileSyncRecord.class));
+    }
+
+    @Test
+    public void shouldOnlyRecordDistinctFilesAcrossRepeatedIssueUpdates() throws Exception {
+        FileSyncRecordWriter sut = new FileSyncRecordWriter(ao, migrationService, 1000, 100, Duration.ofMillis(50));
+
+        // An issue with 50 attachments which is created and then edited 9 times used to produce 500 records
+        for (int event = 0; event < 10; event++) {
+            for (int attachment = 0; attachment < 50; attachment++) {
+                sut.enqueue(Paths.get("/jira/data/attachments/PRJ/10000/PRJ-1/" + attachment));
+            }
+        }
+        sut.flush();
+
+        assertEquals(50, ao.count(FileSyncRecord.class));
+        assertEquals(50, sut.getRecordsWrittenCount());
+        assertEquals(450, sut.getDuplicateCaptureCount());
+        sut.destroy();
+    }
+
+    @Test
+    public void shouldNotRecordPathsAlreadyInDatabaseOnceForgotten() throws Exception {
+        FileSyncRecordWriter sut = new FileSyncRecordWriter(ao, migrationService, 100, 10, Duration.ofMillis(50));
+
+        sut.enqueue(Paths.get("/jira/data/attachments/1"));
+        sut.flush();
+        sut.reset();
+        sut.enqueue(Paths.get("/jira/data/attachments/1"));
+        sut.enqueue(Paths.get("/jira/data/attachments/2"));
+        sut.flush();
+
+        assertEquals(2, ao.count(FileSyncRecord.class));
+        sut.destroy();
+    }
+
+    @Test
+    public void shouldFallBackToDatabaseWhenTooManyPathsToRemember() throws Exception {
+        FileSyncRecordWriter sut = new FileSyncRecordWriter(ao, migrationService, 100, 10, Duration.ofMillis(50), 1);
+
+        for (int event = 0; event < 3; event++) {
+            sut.enqueue(Paths.get("/jira/data/attachments/1"));
+            sut.enqueue(Paths.get("/jira/data/attachments/2"));
+            sut.flush();
+        }
+
+        assertEquals(2, ao.count(FileSyncRecord.class));
+        sut.destroy();
+    }
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright 2020 Atlassian
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.atlassian.migration.datacenter.core.fs.reporting;
+
+import com.atlassian.activeobjects.external.ActiveObjects;
+import com.atlassian.activeobjects.test.TestActiveObjects;
+import com.atlassian.jira.cluster.ClusterManager;
+import com.atlassian.migration.datacenter.core.fs.ReportType;
+import com.atlassian.migration.datacenter.dto.FileSystemReportCheckpoint;
+import com.atlassian.migration.datacenter.dto.Migration;
+import com.atlassian.migration.datacenter.spi.MigrationService;
+import com.atlassian.migration.datacenter.spi.fs.reporting.FailedFileMigration;
+import com.google.common.collect.ImmutableMap;
+import net.java.ao.EntityManager;
+import net.java.ao.test.junit.ActiveObjectsJUnitRunner;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+
+import java.nio.file.Paths;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.List;
+
+import static com.atlassian.migration.datacenter.spi.fs.reporting.FilesystemMigrationStatus.DONE;
+import static com.atlassian.migration.datacenter.spi.fs.reporting.FilesystemMigrationStatus.UPLOADING;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.when;
+
+@RunWith(ActiveObjectsJUnitRunner.class)
+public class ActiveObjectsFileSystemMigrationReportStoreTest {
+
+    private ActiveObjects ao;
+    private EntityManager entityManager;
+
+    private ActiveObjectsFileSystemMigrationReportStore sut;
+
+    @Rule
+    public MockitoRule mockitoRule = MockitoJUnit.rule();
+
+    @Mock
+    MigrationService migrationService;
+
+    @Mock
+    ClusterManager clusterManager;
+
+    @Before
+    public void setup() {
+        assertNotNull(entityManager);
+        ao = new TestActiveObjects(entityManager);
+        ao.migrate(Migration.class);
+        ao.migrate(FileSystemReportCheckpoint.class);
+        sut = new ActiveObjectsFileSystemMigrationReportStore(ao, migrationService, "node-1", 2, Clock.fixed(Instant.ofEpochMilli(1000), ZoneOffset.UTC));
+        givenMigrationExists();
+    }
+
+    @Test
+    public void shouldUpdateSingleLiveCheckpointPerNode() {
+        DefaultFileSystemMigrationReport report = new DefaultFileSystemMigrationReport();
+        report.setStatus(UPLOADING);
+        report.reportFileUploaded();
+        sut.checkpoint(ImmutableMap.of(ReportType.Filesystem, report));
+
+        report.reportFileUploaded();
+        sut.checkpoint(ImmutableMap.of(ReportType.Filesystem, report));
+
+        assertEquals(1, ao.count(FileSystemReportCheckpoint.class));
+        assertEquals(2L, sut.findLatest(ReportType.Filesystem).get().getCountOfUploadedFiles());
+    }
+
+    @Test
+    public void shouldRoundTripReportContents() {
+        DefaultFileSystemMigrationReport report = new DefaultFileSystemMigrationReport();
+        report.setStatus(UPLOADING);
+        report.reportFileFound();
+        report.reportCrawlingFinished();
+        report.reportFileNotMigrated(new FailedFileMigration(Paths.get("/jira/data/file"), "access\tdenied"));
+        sut.checkpoint(ImmutableMap.of(ReportType.Filesystem, report));
+
+        CheckpointedFileSystemMigrationReport checkpointed = sut.findLatest(ReportType.Filesystem).get();
+
+        assertEquals(UPLOADING, checkpointed.getStatus());
+        assertEquals(1L, checkpointed.getNumberOfFilesFound());
+        assertTrue(checkpointed.isCrawlingFinished());
+        assertEquals("node-1", checkpointed.getNodeId());
+        FailedFileMigration failure = checkpointed.getFailedFiles().iterator().next();
+        assertEquals(Paths.get("/jira/data/file"), failure.getFilePath());
+        assertEquals("access denied", failure.getReason());
+    }
+
+    @Test
+    public void shouldMoveArchivedCheckpointsToHistory() {
+        DefaultFileSystemMigrationReport report = new DefaultFileSystemMigrationReport();
+        report.setStatus(UPLOADING);
+        report.setStatus(DONE);
+        sut.checkpoint(ImmutableMap.of(ReportType.Filesystem, report));
+
+        sut.archive(ReportType.Filesystem);
+
+        assertFalse(sut.findLatest(ReportType.Filesystem).isPresent());
+        List<CheckpointedFileSystemMigrationReport> history = sut.findHistory(ReportType.Filesystem);
+        assertEquals(1, history.size());
+        assertEquals(DONE, history.get(0).getStatus());
+    }
+
+    @Test
+    public void shouldBoundHistory() {
+        for (int i = 0; i < 5; i++) {
+            sut.checkpoint(ImmutableMap.of(ReportType.Filesystem, new DefaultFileSystemMigrationReport()));
+            sut.archive(ReportType.Filesystem);
+        }
+
+        assertEquals(2, ao.count(FileSystemReportCheckpoint.class));
+        assertEquals(2, sut.findHistory(ReportType.Filesystem).size());
+    }
+
+    @Test
+    public void shouldNotShowOtherReportTypes() {
+        sut.checkpoint(ImmutableMap.of(ReportType.Database, new DefaultFileSystemMigrationReport()));
+
+        assertFalse(sut.findLatest(ReportType.Filesystem).isPresent());
+        assertTrue(sut.findLatest(ReportType.Database).isPresent());
+    }
+
+    @Test
+    public void shouldSkipCheckpointWhenThereIsNoCurrentMigration() {
+        when(migrationService.getCurrentMigration()).thenReturn(null);
+
+        sut.checkpoint(ImmutableMap.of(ReportType.Filesystem, new DefaultFileSystemMigrationReport()));
+        sut.archive(ReportType.Filesystem);
+
+        assertEquals(0, ao.count(FileSystemReportCheckpoint.class));
+        assertFalse(sut.findLatest(ReportType.Filesystem).isPresent());
+    }
+
+    @Test
+    public void shouldIdentifyNodesByTheirClusterNodeId() {
+        when(clusterManager.getNodeId()).thenReturn("node-2");
+        sut = new ActiveObjectsFileSystemMigrationReportStore(ao, migrationService, clusterManager);
+
+        sut.checkpoint(ImmutableMap.of(ReportType.Filesystem, new DefaultFileSystemMigrationReport()));
+
+        assertEquals("node-2", sut.findLatest(ReportType.Filesystem).get().getNodeId());
+    }
+
+    @Test
+    public void shouldKeepUsingTheSameRowWhenJiraIsNotClustered() {
+        when(clusterManager.getNodeId()).thenReturn(null);
+        new ActiveObjectsFileSystemMigrationReportStore(ao, migrationService, clusterManager)
+                .checkpoint(ImmutableMap.of(ReportType.Filesystem, new DefaultFileSystemMigrationReport()));
+        new ActiveObjectsFileSystemMigrationReportStore(ao, migrationService, clusterManager)
+                .checkpoint(ImmutableMap.of(ReportType.Filesystem, new DefaultFileSystemMigrationReport()));
+
+        assertEquals(1, ao.count(FileSystemReportCheckpoint.class));
+    }
+
+    private void givenMigrationExists() {
+        Migration migration = ao.create(Migration.class);
+        migration.save();
+        when(migrationService.getCurrentMigration()).thenReturn(migration);
+    }
+}
@@ -83,4 +83,15 @@ internal class QuickstartStandaloneMigrationStackInputGatheringStrategyTest {
         Assertions.assertEquals(expectation, params)
     }
 
+    @Test
+    fun shouldGatherDatabaseInstanceClassWhenPresent() {
+        val stackWithInstanceClass = stack.toBuilder()
+                .parameters(params + Parameter.builder().parameterKey("DBInstanceClass").parameterValue("db.r5.2xlarge").build())
+                .build()
+
+        val params = sut.gatherMigrationStackInputsFromApplicationStack(stackWithInstanceClass)
+
+        Assertions.assertEquals("db.r5.2xlarge", params["RDSInstanceClass"])
+    }
+
 }
\ No newline at end of file
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2020 Atlassian
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.atlassian.migration.datacenter.core.db
+
+import io.mockk.every
+import io.mockk.mockk
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.Test
+
+internal class CalibratedDumpCompressionTest {
+
+    private val megabyte = 1024.0 * 1024
+
+    // Roughly what zlib manages on Jira table data
+    private val measurements = listOf(
+            CompressionMeasurement(1, 60 * megabyte, 0.30),
+            CompressionMeasurement(6, 20 * megabyte, 0.24),
+            CompressionMeasurement(9, 5 * megabyte, 0.23))
+
+    @Test
+    fun shouldPreferFastCompressionWhenLinkHasHeadroom() {
+        assertEquals(1, CalibratedDumpCompression.levelFor(measurements, 100 * megabyte, 4))
+    }
+
+    @Test
+    fun shouldPreferSmallerDumpWhenLinkIsSlow() {
+        assertEquals(9, CalibratedDumpCompression.levelFor(measurements, 1 * megabyte, 8))
+    }
+
+    @Test
+    fun shouldTakeParallelJobsIntoAccount() {
+        assertEquals(1, CalibratedDumpCompression.levelFor(measurements, 20 * megabyte, 1))
+        assertEquals(6, CalibratedDumpCompression.levelFor(measurements, 20 * megabyte, 4))
+    }
+
+    @Test
+    fun shouldCompressBetterAtHigherLevels() {
+        val sample = (1..200_000).joinToString("\n") { "$it\tISSUE-$it\tSome summary of issue $it\t${it % 7}" }.toByteArray()
+
+        val fast = CalibratedDumpCompression.measure(sample, 1)
+        val best = CalibratedDumpCompression.measure(sample, 9)
+
+        assertTrue(best.ratio <= fast.ratio)
+        assertTrue(fast.ratio < 1.0)
+    }
+
+    @Test
+    fun shouldFallBackWhenThroughputCannotBeMeasured() {
+        val probe = mockk<UploadThroughputProbe> {
+            every { bytesPerSecond() } returns null
+        }
+
+        val level = CalibratedDumpCompression(probe).compressionLevel(4) { ByteArray(1024) }
+
+        assertEquals(CalibratedDumpCompression.FALLBACK_LEVEL, level)
+    }
+
+    @Test
+    fun shouldFallBackWhenTableDataCannotBeSampled() {
+        val probe = mockk<UploadThroughputProbe> {
+            every { bytesPerSecond() } returns 10 * megabyte
+        }
+
+        val level = CalibratedDumpCompression(probe).compressionLevel(4) { null }
+
+        assertEquals(CalibratedDumpCompression.FALLBACK_LEVEL, level)
+    }
+}
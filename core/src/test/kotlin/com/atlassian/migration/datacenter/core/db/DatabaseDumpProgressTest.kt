@@ -0,0 +1,114 @@
+/*
+ * Copyright 2020 Atlassian
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.atlassian.migration.datacenter.core.db
+
+import io.mockk.every
+import io.mockk.mockk
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertFalse
+import org.junit.jupiter.api.Assertions.assertNull
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.io.TempDir
+import java.nio.file.Files
+import java.nio.file.Path
+import java.time.Clock
+import java.time.Duration
+import java.time.Instant
+
+internal class DatabaseDumpProgressTest {
+
+    private val tables = listOf(
+            TableSize("public.jiraissue", 600),
+            TableSize("public.jiraaction", 300),
+            TableSize("public.label", 100))
+
+    private var now = Instant.parse("2020-06-01T00:00:00Z")
+    private val clock = mockk<Clock> {
+        every { instant() } answers { now }
+    }
+
+    @Test
+    fun shouldCountSerialTablesOnceTheNextOneHasStarted() {
+        val progress = DatabaseDumpProgress(tables, 2000, null, clock)
+
+        progress.onLogLine("pg_dump: dumping contents of table \"public.jiraissue\"")
+        assertEquals(0, progress.snapshot().tablesDumped)
+
+        progress.onLogLine("pg_dump: dumping contents of table \"public.jiraaction\"")
+        val snapshot = progress.snapshot()
+
+        assertEquals(1, snapshot.tablesDumped)
+        assertEquals(3, snapshot.tablesTotal)
+        assertEquals(600, snapshot.dumpedTableBytes)
+        assertEquals(1000, snapshot.totalTableBytes)
+        assertEquals(2000L, snapshot.databaseSizeBytes)
+        assertFalse(snapshot.finished)
+    }
+
+    @Test
+    fun shouldCountParallelTablesOnceTheirWorkerHasFinished() {
+        val progress = DatabaseDumpProgress(tables, null, null, clock)
+
+        progress.onLogLine("pg_dump: dumping contents of table public.jiraissue")
+        progress.onLogLine("pg_dump: dumping contents of table public.jiraaction")
+        progress.onLogLine("pg_dump: dumping contents of table public.label")
+        progress.onLogLine("pg_dump: finished item 3412 TABLE DATA label")
+
+        val snapshot = progress.snapshot()
+
+        assertEquals(1, snapshot.tablesDumped)
+        assertEquals(100, snapshot.dumpedTableBytes)
+    }
+
+    @Test
+    fun shouldEstimateRemainingTimeFromDumpedTableSizes() {
+        val progress = DatabaseDumpProgress(tables, null, null, clock)
+
+        assertNull(progress.snapshot().estimatedSecondsRemaining)
+
+        progress.onLogLine("pg_dump: dumping contents of table \"public.jiraaction\"")
+        progress.onLogLine("pg_dump: dumping contents of table \"public.label\"")
+        now = now.plus(Duration.ofMinutes(1))
+
+        assertEquals(140L, progress.snapshot().estimatedSecondsRemaining)
+    }
+
+    @Test
+    fun shouldCountAllStartedTablesOnceFinished() {
+        val progress = DatabaseDumpProgress(tables, null, null, clock)
+
+        tables.forEach { progress.onLogLine("pg_dump: dumping contents of table \"${it.name}\"") }
+        progress.onDumpFinished()
+        val snapshot = progress.snapshot()
+
+        assertEquals(3, snapshot.tablesDumped)
+        assertTrue(snapshot.finished)
+        assertEquals(0L, snapshot.estimatedSecondsRemaining)
+    }
+
+    @Test
+    fun shouldCountBytesWrittenToOutputDirectoryAndStream(@TempDir dir: Path) {
+        Files.write(dir.resolve("3412.dat.gz"), ByteArray(40))
+        Files.write(dir.resolve("3413.dat.gz"), ByteArray(2))
+        val progress = DatabaseDumpProgress(tables, null, dir, clock)
+
+        progress.onBytesWritten(8)
+
+        assertEquals(50, progress.snapshot().bytesWritten)
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright 2020 Atlassian
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.atlassian.migration.datacenter.core.db
+
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertFalse
+import org.junit.jupiter.api.Assertions.assertThrows
+import org.junit.jupiter.api.Test
+import java.io.IOException
+import java.util.concurrent.TimeUnit
+
+internal class DatabaseDumpStreamTest {
+
+    @Test
+    fun shouldReadOutputOfSuccessfulDump() {
+        val stream = DatabaseDumpStream(shell("printf archive"))
+
+        val content = stream.use { String(it.readBytes()) }
+
+        assertEquals("archive", content)
+    }
+
+    @Test
+    fun shouldFailAtEndOfStreamWhenDumpFails() {
+        val stream = DatabaseDumpStream(shell("printf truncated; exit 3"))
+
+        val e = assertThrows(IOException::class.java) { stream.use { it.readBytes() } }
+
+        assertEquals("Database dump process exited with non-zero status: 3", e.message)
+    }
+
+    @Test
+    fun shouldKillDumpWhenClosedEarly() {
+        val process = shell("while true; do printf x; done")
+
+        DatabaseDumpStream(process).use { it.read() }
+
+        process.waitFor(10, TimeUnit.SECONDS)
+        assertFalse(process.isAlive)
+    }
+
+    private fun shell(script: String) = ProcessBuilder("sh", "-c", script).start()
+}
@@ -30,6 +30,7 @@ import org.testcontainers.junit.jupiter.Container
 import org.testcontainers.junit.jupiter.Testcontainers
 import org.testcontainers.utility.MountableFile
 import kotlin.test.assertEquals
+import kotlin.test.assertTrue
 
 @Testcontainers
 @ExtendWith(MockitoExtension::class)
@@ -68,4 +69,24 @@ internal class PostgresClientToolingIT {
     fun itShouldObtainThePostgresServerVersion() {
         assertEquals(SemVer(9, 6, 18), databaseClientTooling.getDatabaseServerVersion())
     }
-}
\ No newline at end of file
+
+    @Test
+    fun itShouldReadTableSizesLargestFirst() {
+        val sizes = databaseClientTooling.getTableSizes()
+
+        assertTrue(sizes.any { it.name == "public.jiraissue" })
+        assertEquals(sizes.sortedByDescending { it.bytes }, sizes)
+    }
+
+    @Test
+    fun itShouldQuoteTableNamesWhichNeedIt() {
+        databaseClientTooling.connect()!!.use { conn ->
+            conn.createStatement().use { it.execute("CREATE TABLE IF NOT EXISTS \"AO_ABC123_ISSUE_LINK\" (\"ID\" integer)") }
+        }
+
+        val sizes = databaseClientTooling.getTableSizes()
+
+        assertEquals("public.jiraissue", sizes.single { it.name == "public.jiraissue" }.identifier)
+        assertEquals("public.\"AO_ABC123_ISSUE_LINK\"", sizes.single { it.name == "public.AO_ABC123_ISSUE_LINK" }.identifier)
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2020 Atlassian
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.atlassian.migration.datacenter.core.db
+
+import io.mockk.every
+import io.mockk.mockk
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Test
+
+internal class PostgresDumpPlannerTest {
+
+    private val gigabyte = 1024L * 1024 * 1024
+
+    @Test
+    fun shouldUseOneJobPerProcessorForEvenlySizedTables() {
+        val tables = (1..20).map { TableSize("public.table$it", gigabyte) }
+
+        assertEquals(4, PostgresDumpPlanner.jobsFor(tables, 4, 8))
+    }
+
+    @Test
+    fun shouldNotExceedMaximumJobs() {
+        val tables = (1..20).map { TableSize("public.table$it", gigabyte) }
+
+        assertEquals(8, PostgresDumpPlanner.jobsFor(tables, 32, 8))
+    }
+
+    @Test
+    fun shouldNotStartWorkersWhichWouldIdleBehindLargestTable() {
+        val tables = listOf(TableSize("public.jiraaction", 60 * gigabyte)) +
+                (1..40).map { TableSize("public.table$it", gigabyte) }
+
+        assertEquals(2, PostgresDumpPlanner.jobsFor(tables, 16, 16))
+    }
+
+    @Test
+    fun shouldDumpSmallDatabaseWithSingleJob() {
+        val tables = (1..200).map { TableSize("public.table$it", 1024L * 1024) }
+
+        assertEquals(1, PostgresDumpPlanner.jobsFor(tables, 16, 8))
+    }
+
+    @Test
+    fun shouldFallBackToSingleJobWithoutTableSizes() {
+        val tools = mockk<DatabaseClientTools> {
+            every { getTableSizes() } returns emptyList()
+        }
+
+        assertEquals(1, PostgresDumpPlanner(tools, 16, 8).planJobs())
+    }
+}
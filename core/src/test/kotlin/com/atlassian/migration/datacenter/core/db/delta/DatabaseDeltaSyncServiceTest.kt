@@ -0,0 +1,226 @@
+/*
+ * Copyright 2020 Atlassian
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.atlassian.migration.datacenter.core.db.delta
+
+import com.atlassian.migration.datacenter.analytics.events.MigrationTransitionEvent
+import com.atlassian.migration.datacenter.core.aws.db.DatabaseArchivalService
+import com.atlassian.migration.datacenter.core.aws.db.DatabaseArtifactS3UploadService
+import com.atlassian.migration.datacenter.core.aws.db.restore.RemoteServiceState
+import com.atlassian.migration.datacenter.core.aws.db.restore.SsmPsqlDatabaseRestoreService
+import com.atlassian.migration.datacenter.core.aws.infrastructure.AWSMigrationHelperDeploymentService
+import com.atlassian.migration.datacenter.core.aws.infrastructure.RemoteInstanceCommandRunnerService
+import com.atlassian.migration.datacenter.core.aws.ssm.SSMApi
+import com.atlassian.migration.datacenter.core.aws.ssm.SSMCommandPoller
+import com.atlassian.migration.datacenter.events.MigrationResetEvent
+import com.atlassian.migration.datacenter.spi.MigrationStage
+import com.atlassian.migration.datacenter.spi.exceptions.DatabaseMigrationFailure
+import io.mockk.every
+import io.mockk.just
+import io.mockk.mockk
+import io.mockk.runs
+import io.mockk.verify
+import org.junit.jupiter.api.AfterEach
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertFalse
+import org.junit.jupiter.api.Assertions.assertThrows
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.io.TempDir
+import software.amazon.awssdk.core.pagination.sync.SdkIterable
+import software.amazon.awssdk.core.sync.RequestBody
+import software.amazon.awssdk.services.s3.S3Client
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Request
+import software.amazon.awssdk.services.s3.model.PutObjectRequest
+import software.amazon.awssdk.services.s3.model.PutObjectResponse
+import software.amazon.awssdk.services.s3.model.S3Object
+import software.amazon.awssdk.services.ssm.model.GetCommandInvocationResponse
+import java.nio.file.Files
+import java.nio.file.Path
+import java.time.Duration
+import java.util.concurrent.CompletableFuture
+
+internal class DatabaseDeltaSyncServiceTest {
+
+    @TempDir
+    lateinit var tempDir: Path
+
+    private val capture = mockk<TriggerChangeCapture>()
+    private val extractor = mockk<DeltaExtractor>()
+    private val archivalService = mockk<DatabaseArchivalService>()
+    private val uploadService = mockk<DatabaseArtifactS3UploadService>()
+    private val restoreService = mockk<SsmPsqlDatabaseRestoreService>()
+    private val migrationHelper = mockk<AWSMigrationHelperDeploymentService>()
+    private val commandRunner = mockk<RemoteInstanceCommandRunnerService>(relaxed = true)
+    private val ssm = mockk<SSMApi>()
+    private val commandPoller = mockk<SSMCommandPoller>()
+    private val s3 = mockk<S3Client>(relaxed = true)
+    private lateinit var sut: DatabaseDeltaSyncService
+
+    @BeforeEach
+    fun setUp() {
+        System.setProperty(DatabaseDeltaSyncService.DELTA_SYNC_PROPERTY, "true")
+
+        every { capture.install() } returns emptyList()
+        every { capture.isInstalled() } returns true
+        every { capture.uninstall() } just runs
+        every { capture.uncapturedTables() } returns emptyList()
+        every { extractor.extract(any(), false) } returns null
+        every { archivalService.archiveDatabaseAsync(any()) } answers { CompletableFuture.completedFuture(DatabaseArchivalService.archivePath(firstArg())) }
+        every { uploadService.uploadWhileArchiving(any(), any(), any()) } returns mockk(relaxed = true)
+        every { restoreService.restoreDatabaseAsync(false) } returns CompletableFuture.completedFuture(null)
+        every { migrationHelper.migrationS3BucketName } returns "bucket"
+        every { migrationHelper.migrationHostInstanceId } returns "i-migration"
+        every { s3.listObjectsV2Paginator(any<ListObjectsV2Request>()) } returns mockk {
+            every { contents() } returns SdkIterable { mutableListOf<S3Object>().iterator() }
+        }
+        every { s3.putObject(any<PutObjectRequest>(), any<RequestBody>()) } returns PutObjectResponse.builder().build()
+
+        sut = DatabaseDeltaSyncService(mockk(relaxed = true), capture, archivalService, uploadService, restoreService,
+                migrationHelper, commandRunner, ssm, commandPoller, { s3 }, tempDir, Duration.ofHours(1), extractor)
+    }
+
+    @AfterEach
+    fun tearDown() {
+        sut.destroy()
+        System.clearProperty(DatabaseDeltaSyncService.DELTA_SYNC_PROPERTY)
+    }
+
+    @Test
+    fun shouldRestoreSnapshotWithoutStartingTargetWhenFileSystemCopyStarts() {
+        startFileSystemCopy()
+
+        assertTrue(sut.prepareForCutOver())
+        verify { capture.install() }
+        verify { restoreService.restoreDatabaseAsync(false) }
+        verify(exactly = 0) { commandRunner.setJiraRunStateTo(RemoteServiceState.START) }
+    }
+
+    @Test
+    fun shouldStartSyncingOnceSnapshotRestoreCompletes() {
+        val restore = CompletableFuture<Void>()
+        every { restoreService.restoreDatabaseAsync(false) } returns restore
+
+        startFileSystemCopy()
+
+        verify(timeout = 1000) { restoreService.restoreDatabaseAsync(false) }
+        assertEquals(DatabaseDeltaSyncService.State.SNAPSHOTTING, sut.getState())
+
+        restore.complete(null)
+
+        assertTrue(sut.prepareForCutOver())
+        assertEquals(DatabaseDeltaSyncService.State.SYNCING, sut.getState())
+    }
+
+    @Test
+    fun shouldNotTakeSnapshotWhenDisabled() {
+        System.clearProperty(DatabaseDeltaSyncService.DELTA_SYNC_PROPERTY)
+
+        startFileSystemCopy()
+
+        assertFalse(sut.prepareForCutOver())
+        verify(exactly = 0) { capture.install() }
+    }
+
+    @Test
+    fun shouldRemoveCaptureWhenMigrationIsReset() {
+        startFileSystemCopy()
+        sut.prepareForCutOver()
+
+        sut.onMigrationReset(MigrationResetEvent(1))
+
+        verify { capture.uninstall() }
+        assertEquals(DatabaseDeltaSyncService.State.IDLE, sut.getState())
+        assertFalse(sut.prepareForCutOver())
+    }
+
+    @Test
+    fun shouldFallBackToFullMigrationWhenTableIsCreatedAfterSnapshot() {
+        every { capture.uncapturedTables() } returns emptyList<String>() andThen listOf("\"public\".\"late\"")
+        startFileSystemCopy()
+        sut.prepareForCutOver()
+
+        sut.syncDeltas()
+
+        verify { capture.uninstall() }
+        assertEquals(DatabaseDeltaSyncService.State.FAILED, sut.getState())
+        assertFalse(sut.prepareForCutOver())
+    }
+
+    @Test
+    fun shouldFallBackToFullMigrationWhenSnapshotFails() {
+        val failed = CompletableFuture<Void>()
+        failed.completeExceptionally(DatabaseMigrationFailure("restore failed"))
+        every { restoreService.restoreDatabaseAsync(false) } returns failed
+
+        startFileSystemCopy()
+
+        assertFalse(sut.prepareForCutOver())
+        verify { capture.uninstall() }
+        assertEquals(DatabaseDeltaSyncService.State.FAILED, sut.getState())
+    }
+
+    @Test
+    fun shouldApplyFinalDeltaAndStartTargetAtCutOver() {
+        givenFinalBatch()
+        every { commandPoller.awaitSuccess("command", "i-migration", any()) } returns CompletableFuture.completedFuture(GetCommandInvocationResponse.builder().build())
+        startFileSystemCopy()
+        assertTrue(sut.prepareForCutOver())
+
+        sut.exportFinalDeltas()
+        sut.applyFinalDeltas()
+
+        verify { s3.putObject(match<PutObjectRequest> { it.key() == "db.delta/0000000000000000007.sql" }, any<RequestBody>()) }
+        verify {
+            ssm.runSSMDocument("AWS-RunShellScript", "i-migration", match {
+                it["commands"] == listOf("runuser -l jira -c '/opt/atlassian/dc-migration-assistant/apply-db-deltas.sh --final'")
+            })
+        }
+        verify { capture.uninstall() }
+        verify { commandRunner.setJiraRunStateTo(RemoteServiceState.START) }
+        assertEquals(DatabaseDeltaSyncService.State.IDLE, sut.getState())
+    }
+
+    @Test
+    fun shouldFallBackToFullMigrationWhenFinalDeltaFailsToApply() {
+        givenFinalBatch()
+        val failed = CompletableFuture<GetCommandInvocationResponse>()
+        failed.completeExceptionally(RuntimeException("psql failed"))
+        every { commandPoller.awaitSuccess("command", "i-migration", any()) } returns failed
+        startFileSystemCopy()
+        sut.prepareForCutOver()
+        sut.exportFinalDeltas()
+
+        assertThrows(DatabaseMigrationFailure::class.java) { sut.applyFinalDeltas() }
+
+        verify { capture.uninstall() }
+        verify(exactly = 0) { commandRunner.setJiraRunStateTo(RemoteServiceState.START) }
+        assertEquals(DatabaseDeltaSyncService.State.FAILED, sut.getState())
+        assertFalse(sut.prepareForCutOver())
+    }
+
+    private fun givenFinalBatch() {
+        every { extractor.extract(any(), true) } answers {
+            DeltaBatch(7, Files.createFile(firstArg<Path>().resolve("0000000000000000007.sql")), 1, emptyList())
+        }
+        every { ssm.runSSMDocument(any(), any(), any()) } returns "command"
+    }
+
+    private fun startFileSystemCopy() {
+        sut.onMigrationTransition(MigrationTransitionEvent("1.0.0", MigrationStage.PROVISION_MIGRATION_STACK_WAIT, MigrationStage.FS_MIGRATION_COPY))
+    }
+}
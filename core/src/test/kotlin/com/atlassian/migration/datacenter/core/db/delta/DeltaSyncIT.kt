@@ -0,0 +1,245 @@
+/*
+ * Copyright 2020 Atlassian
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.atlassian.migration.datacenter.core.db.delta
+
+import com.atlassian.migration.datacenter.core.application.ApplicationConfiguration
+import com.atlassian.migration.datacenter.core.application.DatabaseConfiguration
+import com.atlassian.migration.datacenter.core.db.PostgresClientTooling
+import io.mockk.every
+import io.mockk.mockk
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.io.TempDir
+import org.testcontainers.containers.PostgreSQLContainer
+import org.testcontainers.junit.jupiter.Container
+import org.testcontainers.junit.jupiter.Testcontainers
+import org.testcontainers.utility.MountableFile
+import java.nio.file.Path
+import java.sql.Connection
+import java.time.Duration
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.TimeUnit
+import kotlin.test.assertEquals
+import kotlin.test.assertFalse
+import kotlin.test.assertNotNull
+import kotlin.test.assertNull
+import kotlin.test.assertTrue
+
+@Testcontainers
+internal class DeltaSyncIT {
+    companion object {
+        private const val TABLES = """
+            DROP SCHEMA IF EXISTS ${TriggerChangeCapture.CAPTURE_SCHEMA} CASCADE;
+            DROP TABLE IF EXISTS delta_keyed, delta_composite, delta_unkeyed, delta_truncated, delta_late;
+            DROP SEQUENCE IF EXISTS delta_seq;
+            CREATE TABLE delta_keyed (id integer PRIMARY KEY, name text UNIQUE, data bytea);
+            CREATE TABLE delta_composite (a integer, b text, value text, PRIMARY KEY (a, b));
+            CREATE TABLE delta_unkeyed (value text);
+            CREATE TABLE delta_truncated (id integer PRIMARY KEY);
+            CREATE SEQUENCE delta_seq;
+            INSERT INTO delta_keyed VALUES (1, 'one', '\x01'), (2, 'two', NULL), (3, 'three', NULL);
+            INSERT INTO delta_composite VALUES (1, 'a', 'first'), (1, 'b', 'second');
+            INSERT INTO delta_unkeyed VALUES ('before');
+            INSERT INTO delta_truncated VALUES (1), (2);
+        """
+
+        @Container
+        val source = PostgreSQLContainer<Nothing>("postgres:9.6.18").apply {
+            withDatabaseName("jira")
+        }
+
+        @Container
+        val target = PostgreSQLContainer<Nothing>("postgres:9.6.18").apply {
+            withDatabaseName("jira")
+        }
+    }
+
+    @TempDir
+    lateinit var tempDir: Path
+
+    private lateinit var capture: TriggerChangeCapture
+    private lateinit var extractor: DeltaExtractor
+
+    @BeforeEach
+    fun setUp() {
+        // Both databases start out identical, as if the snapshot had just been restored on the target
+        execute(source, TABLES)
+        execute(target, TABLES)
+        val tooling = PostgresClientTooling(configurationFor(source))
+        capture = TriggerChangeCapture(tooling::connect)
+        extractor = DeltaExtractor(tooling::connect, capture, 2)
+        capture.install()
+    }
+
+    @Test
+    fun shouldReplayCapturedChangesOnTarget() {
+        execute(source, """
+            INSERT INTO delta_keyed VALUES (4, 'four', '\xdeadbeef');
+            UPDATE delta_keyed SET data = '\x02' WHERE id = 2;
+            DELETE FROM delta_keyed WHERE id = 3;
+            UPDATE delta_keyed SET name = 'three' WHERE id = 1;
+            UPDATE delta_composite SET b = 'c' WHERE a = 1 AND b = 'a';
+            INSERT INTO delta_composite VALUES (2, 'it''s $$ quoted ${'$'}dcma${'$'}', 'tricky');
+            INSERT INTO delta_unkeyed VALUES ('after');
+            TRUNCATE delta_truncated;
+            INSERT INTO delta_truncated VALUES (3);
+            SELECT nextval('delta_seq'), nextval('delta_seq');
+        """)
+
+        val batch = extractor.extract(tempDir, false)
+
+        assertNotNull(batch)
+        apply(batch)
+        assertTargetMatchesSource()
+        assertEquals(listOf("\"public\".\"delta_truncated\"", "\"public\".\"delta_unkeyed\""), batch.copiedTables.sorted())
+    }
+
+    @Test
+    fun shouldReplayBatchesIdempotently() {
+        execute(source, "UPDATE delta_keyed SET name = 'uno' WHERE id = 1; INSERT INTO delta_keyed VALUES (5, 'five', NULL);")
+        val first = extractor.extract(tempDir, false)!!
+        execute(source, "DELETE FROM delta_keyed WHERE id = 5; UPDATE delta_keyed SET name = 'one' WHERE id = 1;")
+        val second = extractor.extract(tempDir, false)!!
+
+        apply(first)
+        apply(second)
+        apply(first)
+        apply(second)
+
+        assertTargetMatchesSource()
+        assertTrue(second.batchId > first.batchId)
+    }
+
+    @Test
+    fun shouldExtractUnprunedChangesAgain() {
+        execute(source, "UPDATE delta_keyed SET name = 'uno' WHERE id = 1;")
+        val lost = extractor.extract(tempDir, false)!!
+        execute(source, "UPDATE delta_keyed SET name = 'dos' WHERE id = 2;")
+
+        val next = extractor.extract(tempDir, false)!!
+        apply(next)
+
+        assertEquals(2, next.changedRows)
+        assertTargetMatchesSource()
+
+        capture.prune(next.batchId)
+        assertNull(extractor.extract(tempDir, false))
+        assertTrue(lost.batchId < next.batchId)
+    }
+
+    @Test
+    fun shouldReportTablesCreatedAfterCaptureWasInstalled() {
+        assertEquals(emptyList<String>(), capture.uncapturedTables())
+
+        execute(source, "CREATE TABLE delta_late (id integer PRIMARY KEY);")
+
+        assertEquals(listOf("\"public\".\"delta_late\""), capture.uncapturedTables())
+    }
+
+    @Test
+    fun shouldRemoveCaptureOnUninstall() {
+        capture.uninstall()
+
+        assertFalse(capture.isInstalled())
+        execute(source, "INSERT INTO delta_keyed VALUES (6, 'six', NULL);")
+        capture.install()
+        assertNull(extractor.extract(tempDir, false))
+    }
+
+    @Test
+    fun shouldKeepAcceptingWritesWhileCaptureIsInstalled() {
+        capture.uninstall()
+        val tooling = PostgresClientTooling(configurationFor(source))
+        capture = TriggerChangeCapture(tooling::connect, Duration.ofMillis(200), 100, Duration.ofMillis(100))
+
+        val installing = connect(source).use { writer ->
+            writer.autoCommit = false
+            // An open transaction which has written to the table holds a lock its triggers can't be created under
+            writer.createStatement().use { it.execute("UPDATE delta_keyed SET name = 'uno' WHERE id = 1") }
+            val installing = CompletableFuture.supplyAsync { capture.install() }
+
+            val started = System.nanoTime()
+            (10 until 15).forEach { id ->
+                execute(source, "INSERT INTO delta_keyed VALUES ($id, 'during install $id', NULL); " +
+                        "INSERT INTO delta_composite VALUES ($id, 'during install', NULL)")
+                Thread.sleep(100)
+            }
+            assertTrue(Duration.ofNanos(System.nanoTime() - started) < Duration.ofSeconds(5))
+            assertFalse(installing.isDone)
+
+            writer.commit()
+            installing
+        }
+
+        assertEquals(4, installing.get(30, TimeUnit.SECONDS).size)
+        assertEquals(emptyList<String>(), capture.uncapturedTables())
+    }
+
+    private fun apply(batch: DeltaBatch) {
+        val script = "/tmp/${batch.script.fileName}"
+        target.copyFileToContainer(MountableFile.forHostPath(batch.script), script)
+        val result = target.execInContainer("psql", "-U", target.username, "-d", target.databaseName, "-q", "-1", "-v", "ON_ERROR_STOP=1", "-f", script)
+        assertEquals(0, result.exitCode, result.stderr)
+    }
+
+    private fun assertTargetMatchesSource() {
+        listOf(
+                "SELECT id, name, encode(data, 'hex') FROM delta_keyed ORDER BY id",
+                "SELECT a, b, value FROM delta_composite ORDER BY a, b",
+                "SELECT value FROM delta_unkeyed ORDER BY value",
+                "SELECT id FROM delta_truncated ORDER BY id",
+                "SELECT last_value, is_called FROM delta_seq"
+        ).forEach { query ->
+            assertEquals(rows(source, query), rows(target, query), query)
+        }
+    }
+
+    private fun rows(container: PostgreSQLContainer<Nothing>, query: String): List<List<String?>> {
+        return connect(container).use { conn ->
+            conn.createStatement().use { statement ->
+                statement.executeQuery(query).use { rs ->
+                    generateSequence {
+                        if (rs.next()) (1..rs.metaData.columnCount).map { rs.getString(it) } else null
+                    }.toList()
+                }
+            }
+        }
+    }
+
+    private fun execute(container: PostgreSQLContainer<Nothing>, sql: String) {
+        connect(container).use { conn ->
+            conn.createStatement().use { statement ->
+                sql.split(";").map { it.trim() }.filter { it.isNotEmpty() }.forEach { statement.execute(it) }
+            }
+        }
+    }
+
+    private fun connect(container: PostgreSQLContainer<Nothing>): Connection {
+        return PostgresClientTooling(configurationFor(container)).connect()!!
+    }
+
+    private fun configurationFor(container: PostgreSQLContainer<Nothing>): ApplicationConfiguration {
+        return mockk {
+            every { databaseConfiguration } returns DatabaseConfiguration(DatabaseConfiguration.DBType.POSTGRESQL,
+                    container.containerIpAddress,
+                    container.getMappedPort(5432),
+                    container.databaseName,
+                    container.username,
+                    container.password)
+        }
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2020 Atlassian
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.atlassian.migration.datacenter.core.fs
+
+import com.atlassian.migration.datacenter.core.fs.reporting.CheckpointedFileSystemMigrationReport
+import com.atlassian.migration.datacenter.core.fs.reporting.FileSystemMigrationReportStore
+import com.atlassian.migration.datacenter.dto.FileSystemReportCheckpoint
+import com.atlassian.migration.datacenter.spi.fs.reporting.FilesystemMigrationStatus
+import io.mockk.every
+import io.mockk.just
+import io.mockk.mockk
+import io.mockk.runs
+import io.mockk.verify
+import org.junit.jupiter.api.AfterEach
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertSame
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import java.time.Clock
+import java.time.Duration
+import java.util.Optional
+
+internal class DefaultFileSystemMigrationReportManagerTest {
+
+    private val store = mockk<FileSystemMigrationReportStore>()
+    private lateinit var sut: DefaultFileSystemMigrationReportManager
+
+    @BeforeEach
+    fun init() {
+        every { store.checkpoint(any()) } just runs
+        every { store.archive(any()) } just runs
+        sut = DefaultFileSystemMigrationReportManager(store, Duration.ofHours(1), Clock.systemUTC())
+    }
+
+    @AfterEach
+    fun tearDown() {
+        sut.destroy()
+    }
+
+    @Test
+    fun shouldArchivePreviousRunWhenReportIsReset() {
+        sut.resetReport(ReportType.Filesystem)
+
+        verify { store.archive(ReportType.Filesystem) }
+    }
+
+    @Test
+    fun shouldOnlyCheckpointReportsWhichChanged() {
+        val report = sut.resetReport(ReportType.Filesystem)
+        report.status = FilesystemMigrationStatus.UPLOADING
+
+        sut.checkpoint()
+        sut.checkpoint()
+        report.reportFileFound()
+        sut.checkpoint()
+
+        verify(exactly = 2) { store.checkpoint(mapOf(ReportType.Filesystem to report)) }
+    }
+
+    @Test
+    fun shouldNotCheckpointReportsStartedOnOtherNodes() {
+        every { store.findLatest(any()) } returns Optional.empty()
+
+        sut.checkpoint()
+
+        verify(exactly = 0) { store.checkpoint(any()) }
+    }
+
+    @Test
+    fun shouldServeCheckpointedReportWhenNotStartedOnThisNode() {
+        val checkpointed = CheckpointedFileSystemMigrationReport(givenCheckpoint())
+        every { store.findLatest(ReportType.Filesystem) } returns Optional.of(checkpointed)
+
+        val report = sut.getCurrentReport(ReportType.Filesystem)
+
+        assertSame(checkpointed, report)
+        assertEquals(42L, report!!.getCountOfUploadedFiles())
+    }
+
+    @Test
+    fun shouldServeLocalReportOnceStartedOnThisNode() {
+        val local = sut.resetReport(ReportType.Filesystem)
+
+        assertSame(local, sut.getCurrentReport(ReportType.Filesystem))
+        verify(exactly = 0) { store.findLatest(any()) }
+    }
+
+    @Test
+    fun shouldReturnHistoryFromStore() {
+        val checkpointed = CheckpointedFileSystemMigrationReport(givenCheckpoint())
+        every { store.findHistory(ReportType.Filesystem) } returns listOf(checkpointed)
+
+        assertEquals(listOf(checkpointed), sut.getReportHistory(ReportType.Filesystem))
+    }
+
+    @Test
+    fun shouldOnlyKeepReportsInMemoryWithoutStore() {
+        val inMemory = DefaultFileSystemMigrationReportManager()
+
+        val report = inMemory.resetReport(ReportType.Final)
+
+        assertSame(report, inMemory.getCurrentReport(ReportType.Final))
+        assertEquals(emptyList<Any>(), inMemory.getReportHistory(ReportType.Final))
+    }
+
+    private fun givenCheckpoint(): FileSystemReportCheckpoint {
+        return mockk(relaxed = true) {
+            every { status } returns FilesystemMigrationStatus.DOWNLOADING.name
+            every { uploadedFiles } returns 42L
+            every { nodeId } returns "other-node"
+            every { getFailedFiles() } returns ""
+        }
+    }
+}
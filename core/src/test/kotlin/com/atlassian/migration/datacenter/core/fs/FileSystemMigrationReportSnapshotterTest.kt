@@ -0,0 +1,139 @@
+/*
+ * Copyright 2020 Atlassian
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.atlassian.migration.datacenter.core.fs
+
+import com.atlassian.migration.datacenter.core.fs.reporting.DefaultFileSystemMigrationReport
+import com.atlassian.migration.datacenter.spi.fs.reporting.FilesystemMigrationStatus
+import io.mockk.every
+import io.mockk.mockk
+import io.mockk.verify
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertFalse
+import org.junit.jupiter.api.Assertions.assertNotEquals
+import org.junit.jupiter.api.Assertions.assertNull
+import org.junit.jupiter.api.Assertions.assertSame
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import java.time.Clock
+import java.time.Duration
+import java.time.Instant
+import java.time.ZoneOffset
+
+internal class FileSystemMigrationReportSnapshotterTest {
+
+    private val reportManager = mockk<FileSystemMigrationReportManager>()
+    private val report = DefaultFileSystemMigrationReport()
+    private var now = Instant.parse("2020-06-01T00:00:00Z")
+    private val clock = object : Clock() {
+        override fun getZone() = ZoneOffset.UTC
+        override fun withZone(zone: java.time.ZoneId?) = this
+        override fun instant() = now
+    }
+
+    private lateinit var sut: FileSystemMigrationReportSnapshotter
+
+    @BeforeEach
+    fun init() {
+        report.setClock(clock)
+        report.status = FilesystemMigrationStatus.UPLOADING
+        every { reportManager.getCurrentReport(ReportType.Filesystem) } returns report
+        sut = FileSystemMigrationReportSnapshotter(reportManager, Duration.ofSeconds(1), clock)
+    }
+
+    @Test
+    fun shouldReturnNullWhenThereIsNoReport() {
+        every { reportManager.getCurrentReport(ReportType.Final) } returns null
+
+        assertNull(sut.getSnapshot(ReportType.Final))
+    }
+
+    @Test
+    fun shouldReuseSnapshotWithinRefreshInterval() {
+        val first = sut.getSnapshot(ReportType.Filesystem)
+        report.reportFileFound()
+        val second = sut.getSnapshot(ReportType.Filesystem)
+
+        assertSame(first, second)
+    }
+
+    @Test
+    fun shouldTakeNewSnapshotAfterRefreshInterval() {
+        val first = sut.getSnapshot(ReportType.Filesystem)!!
+        report.reportFileFound()
+        now = now.plusSeconds(2)
+        val second = sut.getSnapshot(ReportType.Filesystem)!!
+
+        assertNotEquals(first.etag, second.etag)
+        assertTrue(second.json.contains("\"filesFound\":1"))
+    }
+
+    @Test
+    fun shouldKeepEtagWhenOnlyElapsedTimeChanges() {
+        val first = sut.getSnapshot(ReportType.Filesystem)!!
+        now = now.plusSeconds(5)
+        val second = sut.getSnapshot(ReportType.Filesystem)!!
+
+        assertEquals(first.etag, second.etag)
+        assertTrue(second.matches("W/\"${first.etag}\""))
+    }
+
+    @Test
+    fun shouldChangeEtagOnceAMinuteWhileNothingElseChanges() {
+        val first = sut.getSnapshot(ReportType.Filesystem)!!
+        now = now.plusSeconds(61)
+        val second = sut.getSnapshot(ReportType.Filesystem)!!
+
+        assertNotEquals(first.etag, second.etag)
+    }
+
+    @Test
+    fun shouldTakeNewSnapshotWhenReportIsReset() {
+        val first = sut.getSnapshot(ReportType.Filesystem)!!
+        every { reportManager.getCurrentReport(ReportType.Filesystem) } returns DefaultFileSystemMigrationReport()
+        val second = sut.getSnapshot(ReportType.Filesystem)!!
+
+        assertNotEquals(first.etag, second.etag)
+    }
+
+    @Test
+    fun shouldNotSerialiseLiveReportForEveryRequest() {
+        val spied = io.mockk.spyk(report)
+        every { reportManager.getCurrentReport(ReportType.Filesystem) } returns spied
+
+        repeat(10) { sut.getSnapshot(ReportType.Filesystem) }
+
+        verify(exactly = 1) { spied.failedFiles }
+    }
+
+    @Test
+    fun awaitChangeShouldReturnImmediatelyWhenEtagIsStale() {
+        val snapshot = sut.awaitChange(ReportType.Filesystem, "\"stale\"", Duration.ofMinutes(1))!!
+
+        assertFalse(snapshot.matches("\"stale\""))
+    }
+
+    @Test
+    fun awaitChangeShouldNotWaitWhenTooManyPollsAreWaiting() {
+        val busy = FileSystemMigrationReportSnapshotter(reportManager, Duration.ofSeconds(1), clock, 0)
+        val current = busy.getSnapshot(ReportType.Filesystem)!!
+
+        val snapshot = busy.awaitChange(ReportType.Filesystem, "\"${current.etag}\"", Duration.ofMinutes(1))!!
+
+        assertTrue(snapshot.matches("\"${current.etag}\""))
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright 2020 Atlassian
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.atlassian.migration.datacenter.core.fs.captor
+
+import com.atlassian.migration.datacenter.core.aws.infrastructure.AWSMigrationHelperDeploymentService
+import com.atlassian.migration.datacenter.spi.MigrationService
+import com.atlassian.migration.datacenter.spi.MigrationStage
+import io.mockk.every
+import io.mockk.impl.annotations.MockK
+import io.mockk.junit5.MockKExtension
+import io.mockk.just
+import io.mockk.mockk
+import io.mockk.runs
+import io.mockk.slot
+import io.mockk.verify
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.AfterEach
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.extension.ExtendWith
+import org.junit.jupiter.api.io.TempDir
+import org.reactivestreams.Subscriber
+import org.reactivestreams.Subscription
+import software.amazon.awssdk.core.async.AsyncRequestBody
+import software.amazon.awssdk.core.exception.SdkClientException
+import software.amazon.awssdk.services.s3.S3AsyncClient
+import software.amazon.awssdk.services.s3.model.PutObjectRequest
+import software.amazon.awssdk.services.s3.model.PutObjectResponse
+import java.io.ByteArrayOutputStream
+import java.nio.ByteBuffer
+import java.nio.file.Files
+import java.nio.file.Path
+import java.util.concurrent.CompletableFuture
+import java.util.function.Supplier
+
+@ExtendWith(MockKExtension::class)
+internal class AttachmentTrickleSyncRunnerTest {
+
+    @MockK
+    lateinit var attachmentSyncManager: AttachmentSyncManager
+    @MockK
+    lateinit var migrationService: MigrationService
+    @MockK
+    lateinit var s3Client: S3AsyncClient
+    @MockK
+    lateinit var helperDeploymentService: AWSMigrationHelperDeploymentService
+
+    @TempDir
+    lateinit var home: Path
+
+    private val uploadedKeys = mutableListOf<String>()
+    private val uploadedContent = mutableMapOf<String, String>()
+    private val runners = mutableListOf<AttachmentTrickleSyncRunner>()
+
+    @BeforeEach
+    fun init() {
+        every { migrationService.currentStage } returns MigrationStage.OFFLINE_WARNING
+        every { helperDeploymentService.migrationS3BucketName } returns "bucket"
+        every { attachmentSyncManager.markSynced(any(), any(), any()) } just runs
+
+        val request = slot<PutObjectRequest>()
+        val body = slot<AsyncRequestBody>()
+        every { s3Client.putObject(capture(request), capture(body)) } answers {
+            val key = request.captured.key()
+            uploadedKeys.add(key)
+            read(body.captured).thenApply {
+                uploadedContent[key] = String(it)
+                PutObjectResponse.builder().build()
+            }
+        }
+    }
+
+    @AfterEach
+    fun tearDown() {
+        runners.forEach { it.destroy() }
+    }
+
+    @Test
+    fun shouldUploadUnsyncedFilesAndMarkThemAsSynced() {
+        val attachment = givenCapturedFile("data/attachments/1", "hello there")
+        every { attachmentSyncManager.iterateCapturedFiles(true) } returns listOf(CapturedFile(7, attachment.toString(), null, null)).iterator()
+
+        val synced = runner(maxFilesPerRun = 10).syncCapturedFiles()
+
+        assertEquals(1, synced)
+        assertEquals(listOf("data/attachments/1"), uploadedKeys)
+        assertEquals("hello there", uploadedContent["data/attachments/1"])
+        verify { attachmentSyncManager.markSynced(7, 11L, Files.getLastModifiedTime(attachment).toMillis()) }
+    }
+
+    @Test
+    fun shouldNotSyncWhenMigrationIsNotWaitingForDowntime() {
+        every { migrationService.currentStage } returns MigrationStage.FINAL_SYNC_WAIT
+
+        runner(maxFilesPerRun = 10).runJob(mockk())
+
+        verify(exactly = 0) { attachmentSyncManager.iterateCapturedFiles(any()) }
+        assertEquals(emptyList<String>(), uploadedKeys)
+    }
+
+    @Test
+    fun shouldUploadAtMostMaxFilesPerRun() {
+        val files = (1..5).map { CapturedFile(it, givenCapturedFile("data/attachments/$it", "content").toString(), null, null) }
+        every { attachmentSyncManager.iterateCapturedFiles(true) } returns files.iterator()
+
+        val synced = runner(maxFilesPerRun = 2).syncCapturedFiles()
+
+        assertEquals(2, synced)
+        assertEquals(listOf("data/attachments/1", "data/attachments/2"), uploadedKeys)
+    }
+
+    @Test
+    fun shouldNotMarkFilesAsSyncedWhenUploadFails() {
+        val attachment = givenCapturedFile("data/attachments/1", "hello there")
+        every { attachmentSyncManager.iterateCapturedFiles(true) } returns listOf(CapturedFile(7, attachment.toString(), null, null)).iterator()
+        every { s3Client.putObject(any<PutObjectRequest>(), any<AsyncRequestBody>()) } returns CompletableFuture<PutObjectResponse>().also {
+            it.completeExceptionally(SdkClientException.create("boom"))
+        }
+
+        val synced = runner(maxFilesPerRun = 10).syncCapturedFiles()
+
+        assertEquals(0, synced)
+        verify(exactly = 0) { attachmentSyncManager.markSynced(any(), any(), any()) }
+    }
+
+    @Test
+    fun shouldSkipFilesWhichNoLongerExist() {
+        every { attachmentSyncManager.iterateCapturedFiles(true) } returns listOf(CapturedFile(7, home.resolve("missing").toString(), null, null)).iterator()
+
+        val synced = runner(maxFilesPerRun = 10).syncCapturedFiles()
+
+        assertEquals(0, synced)
+        assertEquals(emptyList<String>(), uploadedKeys)
+    }
+
+    private fun runner(maxFilesPerRun: Int): AttachmentTrickleSyncRunner {
+        return AttachmentTrickleSyncRunner(
+                attachmentSyncManager,
+                migrationService,
+                Supplier { s3Client },
+                home,
+                helperDeploymentService,
+                Long.MAX_VALUE,
+                maxFilesPerRun).also { runners.add(it) }
+    }
+
+    private fun read(body: AsyncRequestBody): CompletableFuture<ByteArray> {
+        val content = CompletableFuture<ByteArray>()
+        body.subscribe(object : Subscriber<ByteBuffer> {
+            private val bytes = ByteArrayOutputStream()
+
+            override fun onSubscribe(subscription: Subscription) = subscription.request(Long.MAX_VALUE)
+
+            override fun onNext(buffer: ByteBuffer) {
+                val chunk = ByteArray(buffer.remaining())
+                buffer.get(chunk)
+                bytes.write(chunk)
+            }
+
+            override fun onError(error: Throwable) {
+                content.completeExceptionally(error)
+            }
+
+            override fun onComplete() {
+                content.complete(bytes.toByteArray())
+            }
+        })
+        return content
+    }
+
+    private fun givenCapturedFile(relativePath: String, content: String): Path {
+        val path = home.resolve(relativePath)
+        Files.createDirectories(path.parent)
+        return Files.write(path, content.toByteArray())
+    }
+}
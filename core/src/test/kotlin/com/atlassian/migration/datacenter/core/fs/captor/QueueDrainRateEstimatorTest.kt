@@ -0,0 +1,90 @@
+/*
+ * Copyright 2020 Atlassian
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.atlassian.migration.datacenter.core.fs.captor
+
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertNull
+import org.junit.jupiter.api.Test
+import java.time.Clock
+import java.time.Duration
+import java.time.Instant
+import java.time.ZoneId
+import java.time.ZoneOffset
+
+internal class QueueDrainRateEstimatorTest {
+
+    private var now = Instant.parse("2020-06-01T00:00:00Z")
+    private val clock = object : Clock() {
+        override fun getZone() = ZoneOffset.UTC
+        override fun withZone(zone: ZoneId?) = this
+        override fun instant() = now
+    }
+
+    private val sut = QueueDrainRateEstimator(clock, 0.5, Duration.ofSeconds(1))
+
+    @Test
+    fun shouldBeUnknownBeforeAnySamples() {
+        assertEquals(QueueDrainEstimate.UNKNOWN, sut.estimate())
+    }
+
+    @Test
+    fun shouldNotEstimateRateFromSingleSample() {
+        sut.record(100)
+
+        val estimate = sut.estimate()
+
+        assertEquals(100, estimate.queueLength)
+        assertNull(estimate.drainRatePerSecond)
+        assertNull(estimate.estimatedTimeToDrain)
+    }
+
+    @Test
+    fun shouldSmoothDrainRateAcrossSamples() {
+        sut.record(1000)
+        now = now.plusSeconds(10)
+        sut.record(900)
+        now = now.plusSeconds(10)
+        sut.record(600)
+
+        val estimate = sut.estimate()
+
+        // 10/s, then 30/s smoothed by half
+        assertEquals(20.0, estimate.drainRatePerSecond!!, 0.001)
+        assertEquals(Duration.ofSeconds(30), estimate.estimatedTimeToDrain)
+    }
+
+    @Test
+    fun shouldNotEstimateTimeToDrainWhenQueueIsGrowing() {
+        sut.record(100)
+        now = now.plusSeconds(10)
+        sut.record(200)
+
+        val estimate = sut.estimate()
+
+        assertEquals(-10.0, estimate.drainRatePerSecond!!, 0.001)
+        assertNull(estimate.estimatedTimeToDrain)
+    }
+
+    @Test
+    fun shouldIgnoreSamplesTakenTooCloseTogether() {
+        sut.record(100)
+        now = now.plusMillis(100)
+        sut.record(0)
+
+        assertEquals(100, sut.estimate().queueLength)
+    }
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2020 Atlassian
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.atlassian.migration.datacenter.core.fs.captor
+
+import com.google.common.util.concurrent.RateLimiter
+import io.mockk.every
+import io.mockk.mockk
+import io.mockk.verifyOrder
+import org.junit.jupiter.api.Assertions.assertArrayEquals
+import org.junit.jupiter.api.Test
+import java.io.ByteArrayInputStream
+
+internal class RateLimitedInputStreamTest {
+
+    private val rateLimiter = mockk<RateLimiter>()
+
+    @Test
+    fun shouldAcquireAPermitPerByteAsItIsRead() {
+        every { rateLimiter.acquire(any()) } returns 0.0
+        val content = ByteArray(10) { it.toByte() }
+
+        val read = RateLimitedInputStream(ByteArrayInputStream(content), rateLimiter, 4).readBytes()
+
+        assertArrayEquals(content, read)
+        verifyOrder {
+            rateLimiter.acquire(4)
+            rateLimiter.acquire(4)
+            rateLimiter.acquire(2)
+        }
+    }
+}
@@ -16,20 +16,26 @@
 
 package com.atlassian.migration.datacenter.core.fs.captor
 
+import com.atlassian.migration.datacenter.core.fs.FileUploadException
 import com.atlassian.migration.datacenter.core.fs.Uploader
 import com.atlassian.migration.datacenter.core.util.UploadQueue
-import com.atlassian.migration.datacenter.dto.FileSyncRecord
 import io.mockk.every
 import io.mockk.impl.annotations.MockK
 import io.mockk.junit5.MockKExtension
 import io.mockk.slot
 import org.hamcrest.MatcherAssert.assertThat
 import org.hamcrest.Matchers.containsInAnyOrder
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertThrows
 import org.junit.jupiter.api.BeforeEach
 import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.Timeout
 import org.junit.jupiter.api.extension.ExtendWith
+import org.junit.jupiter.api.io.TempDir
+import java.nio.file.Files
 import java.nio.file.Path
 import java.util.Optional
+import java.util.concurrent.TimeUnit
 
 @ExtendWith(MockKExtension::class)
 internal class S3FinalFileSyncTest {
@@ -40,12 +46,6 @@ internal class S3FinalFileSyncTest {
     @MockK
     lateinit var mockUploader: Uploader
 
-    @MockK
-    lateinit var mockFile: FileSyncRecord
-
-    @MockK
-    lateinit var anotherMockFile: FileSyncRecord
-
     lateinit var sut: S3FinalFileSync
 
     private val uploadedPaths: MutableList<String> = ArrayList()
@@ -68,15 +68,58 @@ internal class S3FinalFileSyncTest {
     @Test
     fun shouldUploadAllFilesReturnedByCaptor() {
         val filePath = "hello/there"
-        every { mockFile.filePath } returns filePath
         val anotherFilePath = "general/kenobi"
-        every { anotherMockFile.filePath } returns anotherFilePath
 
-        every { mockSyncManager.capturedAttachments } returns setOf(mockFile, anotherMockFile)
+        every { mockSyncManager.iterateCapturedFiles(false) } returns capturedFiles(filePath, anotherFilePath)
 
         sut.uploadCapturedFiles()
 
         assertThat(uploadedPaths, containsInAnyOrder(filePath, anotherFilePath))
     }
 
+    @Test
+    @Timeout(value = 10, unit = TimeUnit.SECONDS)
+    fun shouldUploadWhileReadingCapturedFilesThroughBoundedQueue() {
+        val paths = (1..100).map { "attachments/$it" }
+        every { mockSyncManager.iterateCapturedFiles(false) } returns capturedFiles(*paths.toTypedArray())
+        sut = S3FinalFileSync(mockSyncManager, mockUploader, 2)
+
+        sut.uploadCapturedFiles()
+
+        assertEquals(paths, uploadedPaths)
+    }
+
+    @Test
+    @Timeout(value = 10, unit = TimeUnit.SECONDS)
+    fun shouldFailWithoutBlockingWhenUploaderFailsWhileQueueIsFull() {
+        every { mockSyncManager.iterateCapturedFiles(false) } returns capturedFiles(*(1..100).map { "attachments/$it" }.toTypedArray())
+        every { mockUploader.upload(any()) } throws FileUploadException("boom")
+        sut = S3FinalFileSync(mockSyncManager, mockUploader, 2)
+
+        val e = assertThrows(FileUploadException::class.java) { sut.uploadCapturedFiles() }
+
+        assertEquals("boom", e.message)
+    }
+
+    @Test
+    fun shouldSkipFilesWhichWereSyncedAndHaveNotChanged(@TempDir home: Path) {
+        val unchanged = Files.write(home.resolve("unchanged"), "hello".toByteArray())
+        val changed = Files.write(home.resolve("changed"), "hello there".toByteArray())
+        val unsynced = Files.write(home.resolve("unsynced"), "general kenobi".toByteArray())
+
+        every { mockSyncManager.iterateCapturedFiles(false) } returns listOf(
+                CapturedFile(1, unchanged.toString(), Files.size(unchanged), Files.getLastModifiedTime(unchanged).toMillis()),
+                CapturedFile(2, changed.toString(), 5L, Files.getLastModifiedTime(changed).toMillis()),
+                CapturedFile(3, unsynced.toString(), null, null)
+        ).iterator()
+
+        sut.uploadCapturedFiles()
+
+        assertThat(uploadedPaths, containsInAnyOrder(changed.toString(), unsynced.toString()))
+    }
+
+    private fun capturedFiles(vararg paths: String): Iterator<CapturedFile> {
+        return paths.mapIndexed { i, path -> CapturedFile(i + 1, path, null, null) }.iterator()
+    }
+
 }
@@ -0,0 +1,41 @@
+/*
+ * Copyright 2020 Atlassian
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.atlassian.migration.datacenter.core.fs.captor
+
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Test
+
+internal class S3FinalSyncRunnerTest {
+
+    @Test
+    fun shouldUseASingleMigrationHostForFewCapturedFiles() {
+        assertEquals(1, S3FinalSyncRunner.migrationHostsFor(0, 4))
+        assertEquals(1, S3FinalSyncRunner.migrationHostsFor(20_000, 4))
+    }
+
+    @Test
+    fun shouldAddMigrationHostsAsCapturedFilesGrow() {
+        assertEquals(2, S3FinalSyncRunner.migrationHostsFor(20_001, 4))
+        assertEquals(3, S3FinalSyncRunner.migrationHostsFor(55_000, 4))
+    }
+
+    @Test
+    fun shouldNotExceedTheMaximumNumberOfMigrationHosts() {
+        assertEquals(4, S3FinalSyncRunner.migrationHostsFor(1_000_000, 4))
+        assertEquals(1, S3FinalSyncRunner.migrationHostsFor(1_000_000, 0))
+    }
+}
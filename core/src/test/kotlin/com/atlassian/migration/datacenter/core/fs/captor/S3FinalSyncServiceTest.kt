@@ -17,6 +17,8 @@
 package com.atlassian.migration.datacenter.core.fs.captor
 
 import com.atlassian.migration.datacenter.core.aws.SqsApi
+import com.atlassian.migration.datacenter.core.fs.download.s3sync.FileSystemProcessorStatus
+import com.atlassian.migration.datacenter.core.fs.download.s3sync.S3SyncFileSystemDownloader
 import com.atlassian.migration.datacenter.core.util.MigrationRunner
 import com.atlassian.migration.datacenter.dto.MigrationContext
 import com.atlassian.migration.datacenter.spi.MigrationService
@@ -25,11 +27,16 @@ import io.mockk.MockKAnnotations
 import io.mockk.every
 import io.mockk.impl.annotations.InjectMockKs
 import io.mockk.impl.annotations.MockK
+import io.mockk.just
+import io.mockk.mockk
+import io.mockk.runs
 import io.mockk.slot
 import io.mockk.verify
 import org.junit.jupiter.api.Assertions.assertEquals
 import org.junit.jupiter.api.BeforeEach
 import org.junit.jupiter.api.Test
+import java.time.Duration
+import java.util.Optional
 
 const val queueUrl = "https://sqs/account/queues/foo"
 const val dlQueUrl = "https://sqs/account/queus/deadletter"
@@ -49,6 +56,10 @@ internal class S3FinalSyncServiceTest {
     lateinit var sqsApi: SqsApi
     @MockK
     lateinit var attachmentSyncManager: AttachmentSyncManager
+    @MockK
+    lateinit var queueWatcher: QueueWatcher
+    @MockK
+    lateinit var fileSystemDownloader: S3SyncFileSystemDownloader
 
     @InjectMockKs
     lateinit var sut: S3FinalSyncService
@@ -59,6 +70,9 @@ internal class S3FinalSyncServiceTest {
         every { migrationService.currentContext } returns migrationContext
         every { migrationContext.migrationQueueUrl } returns queueUrl
         every { migrationContext.migrationDLQueueUrl } returns dlQueUrl
+        every { queueWatcher.recordQueueLength(any()) } just runs
+        every { queueWatcher.getDrainEstimate() } returns QueueDrainEstimate.UNKNOWN
+        every { fileSystemDownloader.processorStatus } returns Optional.empty()
     }
 
 
@@ -79,6 +93,33 @@ internal class S3FinalSyncServiceTest {
         }
     }
 
+    @Test
+    fun shouldIncludeDrainEstimateInFinalSyncStatus() {
+        givenElementsInMigrationQueueIs(300)
+        givenElementsInDeadLetterQueueIs(0)
+        givenFilesCapturedIs(1000)
+        every { queueWatcher.getDrainEstimate() } returns QueueDrainEstimate(300, 10.0, Duration.ofSeconds(30))
+
+        val finalSyncStatus = sut.getFinalSyncStatus()
+
+        assertEquals(10.0, finalSyncStatus.drainRatePerSecond)
+        assertEquals(30L, finalSyncStatus.estimatedSecondsToDrain)
+        verify { queueWatcher.recordQueueLength(300) }
+    }
+
+    @Test
+    fun shouldIncludeProcessorStatusInFinalSyncStatus() {
+        givenElementsInMigrationQueueIs(0)
+        givenElementsInDeadLetterQueueIs(0)
+        givenFilesCapturedIs(10)
+        val processorStatus = mockk<FileSystemProcessorStatus>()
+        every { fileSystemDownloader.processorStatus } returns Optional.of(processorStatus)
+
+        val finalSyncStatus = sut.getFinalSyncStatus()
+
+        assertEquals(processorStatus, finalSyncStatus.processorStatus)
+    }
+
     @Test
     fun shouldGetErrorsInFinalSync() {
         givenFilesCapturedIs(40)
@@ -27,6 +27,13 @@ import io.mockk.verify
 import org.junit.jupiter.api.Assertions
 import org.junit.jupiter.api.BeforeEach
 import org.junit.jupiter.api.Test
+import java.time.Clock
+import java.time.Duration
+import java.time.Instant
+import java.time.ZoneId
+import java.time.ZoneOffset
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
 
 internal class SqsQueueWatcherTest {
 
@@ -67,4 +74,57 @@ internal class SqsQueueWatcherTest {
             migrationService.transition(MigrationStage.VALIDATE)
         }
     }
-}
\ No newline at end of file
+
+    @Test
+    fun shouldStopWaitingForTheQueueToDrainWhenDestroyed() {
+        every { migrationService.currentStage } returns MigrationStage.FINAL_SYNC
+        val waiting = Executors.newSingleThreadExecutor()
+        try {
+            val isQueueDrained = waiting.submit<Boolean> { queueWatcher.awaitQueueDrain() }
+            verify(timeout = 5000) { migrationService.currentStage }
+
+            queueWatcher.destroy()
+
+            Assertions.assertFalse(isQueueDrained.get(5, TimeUnit.SECONDS))
+        } finally {
+            waiting.shutdownNow()
+        }
+        verify(exactly = 0) { migrationService.transition(any()) }
+    }
+
+    @Test
+    fun shouldPollSmallQueuesFrequentlyAndLargeQueuesSlowly() {
+        val estimator = QueueDrainRateEstimator()
+        val watcher = SqsQueueWatcher(sqsApi, migrationService, Duration.ofSeconds(2), Duration.ofSeconds(30), estimator)
+
+        estimator.record(50)
+        Assertions.assertEquals(Duration.ofSeconds(2), watcher.nextQueuePollDelay())
+
+        estimator.reset()
+        estimator.record(50_000)
+        Assertions.assertEquals(Duration.ofSeconds(30), watcher.nextQueuePollDelay())
+
+        watcher.destroy()
+    }
+
+    @Test
+    fun shouldNotWaitMuchLongerThanTheQueueIsExpectedToTakeToDrain() {
+        var now = Instant.parse("2020-06-01T00:00:00Z")
+        val clock = object : Clock() {
+            override fun getZone() = ZoneOffset.UTC
+            override fun withZone(zone: ZoneId?) = this
+            override fun instant() = now
+        }
+        val estimator = QueueDrainRateEstimator(clock, 1.0, Duration.ofSeconds(1))
+        val watcher = SqsQueueWatcher(sqsApi, migrationService, Duration.ofSeconds(2), Duration.ofSeconds(30), estimator)
+
+        estimator.record(10_000)
+        now = now.plusSeconds(10)
+        estimator.record(5_000)
+
+        // Draining at 500 per second, so the remaining 5000 items should take 10 seconds
+        Assertions.assertEquals(Duration.ofSeconds(5), watcher.nextQueuePollDelay())
+
+        watcher.destroy()
+    }
+}
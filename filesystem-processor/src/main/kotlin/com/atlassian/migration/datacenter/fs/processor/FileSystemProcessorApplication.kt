@@ -24,10 +24,17 @@ import org.springframework.boot.runApplication
 @SpringBootApplication(scanBasePackages = ["com.atlassian.migration.datacenter"])
 open class FileSystemProcessorApplication {
     companion object {
+        /**
+         * Starts consuming the queue as soon as possible: beans are initialised lazily and the stack resources are not
+         * introspected, so the queue URL has to be passed in.
+         */
+        const val FAST_START_PROFILE = "fast-start"
+
         @JvmStatic
         fun main(args: Array<String>) {
             runApplication<FileSystemProcessorApplication>(*args) {
-                this.webApplicationType = WebApplicationType.NONE
+                // Only serves the actuator endpoints, on the loopback interface
+                this.webApplicationType = WebApplicationType.SERVLET
                 this.setBannerMode(Banner.Mode.OFF)
             }
         }
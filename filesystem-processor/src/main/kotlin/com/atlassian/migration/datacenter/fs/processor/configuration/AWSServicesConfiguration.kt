@@ -29,7 +29,6 @@ import com.amazonaws.services.sqs.AmazonSQSAsyncClient
 import com.atlassian.migration.datacenter.fs.processor.configuration.AWSServicesConfiguration.Companion.STACK_NAME
 import org.springframework.beans.factory.annotation.Value
 import org.springframework.cloud.aws.context.annotation.ConditionalOnMissingAmazonClient
-import org.springframework.cloud.aws.context.config.annotation.EnableStackConfiguration
 import org.springframework.cloud.aws.core.config.AmazonWebserviceClientFactoryBean
 import org.springframework.cloud.aws.core.region.RegionProvider
 import org.springframework.cloud.aws.core.region.StaticRegionProvider
@@ -40,7 +39,6 @@ import org.springframework.context.annotation.Profile
 
 @Configuration
 @Profile("production")
-@EnableStackConfiguration
 open class AWSServicesConfiguration : IAWSServicesConfiguration {
 
     @Bean
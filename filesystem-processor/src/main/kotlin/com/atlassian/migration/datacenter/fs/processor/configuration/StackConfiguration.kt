@@ -0,0 +1,31 @@
+/*
+ * Copyright 2020 Atlassian
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.atlassian.migration.datacenter.fs.processor.configuration
+
+import com.atlassian.migration.datacenter.fs.processor.FileSystemProcessorApplication
+import org.springframework.cloud.aws.context.config.annotation.EnableStackConfiguration
+import org.springframework.context.annotation.Configuration
+import org.springframework.context.annotation.Profile
+
+/**
+ * Looks up the resources of the migration stack, so that they can be referred to by their logical names. This takes
+ * several CloudFormation calls on startup, which the fast start profile avoids.
+ */
+@Configuration
+@Profile("!" + FileSystemProcessorApplication.FAST_START_PROFILE)
+@EnableStackConfiguration
+open class StackConfiguration
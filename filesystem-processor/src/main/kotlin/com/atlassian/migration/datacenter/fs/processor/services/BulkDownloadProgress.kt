@@ -0,0 +1,130 @@
+/*
+ * Copyright 2020 Atlassian
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.atlassian.migration.datacenter.fs.processor.services
+
+import java.time.Clock
+import java.time.Duration
+import java.time.Instant
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Thread-safe counters for a bulk download. Files are counted as found when they are listed, so the totals keep
+ * growing until [isListingFinished] is true.
+ */
+class BulkDownloadProgress(private val clock: Clock = Clock.systemUTC()) {
+
+    companion object {
+        // Only the first errors are kept so that the published status stays small
+        private const val MAX_REPORTED_ERRORS = 100
+    }
+
+    private val startedAt: Instant = clock.instant()
+    private val filesFound = AtomicLong()
+    private val bytesFound = AtomicLong()
+    private val filesDownloaded = AtomicLong()
+    private val bytesDownloaded = AtomicLong()
+    private val filesSkipped = AtomicLong()
+    private val bytesSkipped = AtomicLong()
+    private val failures = AtomicLong()
+    private val errorCount = AtomicInteger()
+    private val errors = ConcurrentLinkedQueue<String>()
+
+    @Volatile
+    var isListingFinished = false
+        private set
+
+    @Volatile
+    var finishedAt: Instant? = null
+        private set
+
+    fun reportFileFound(size: Long) {
+        filesFound.incrementAndGet()
+        bytesFound.addAndGet(size)
+    }
+
+    fun reportFileDownloaded(size: Long) {
+        filesDownloaded.incrementAndGet()
+        bytesDownloaded.addAndGet(size)
+    }
+
+    fun reportFileSkipped(size: Long) {
+        filesSkipped.incrementAndGet()
+        bytesSkipped.addAndGet(size)
+    }
+
+    fun reportFailure(location: String, error: Exception) {
+        failures.incrementAndGet()
+        if (errorCount.incrementAndGet() <= MAX_REPORTED_ERRORS) {
+            errors.add("$location: ${error.message}")
+        }
+    }
+
+    fun reportListingFinished() {
+        isListingFinished = true
+    }
+
+    fun reportFinished() {
+        finishedAt = clock.instant()
+    }
+
+    fun hasFailures(): Boolean = failures.get() > 0
+
+    fun snapshot(): BulkDownloadStatus {
+        val end = finishedAt ?: clock.instant()
+        return BulkDownloadStatus(
+                filesFound = filesFound.get(),
+                bytesFound = bytesFound.get(),
+                filesDownloaded = filesDownloaded.get(),
+                bytesDownloaded = bytesDownloaded.get(),
+                filesSkipped = filesSkipped.get(),
+                bytesSkipped = bytesSkipped.get(),
+                failures = failures.get(),
+                errors = errors.toList(),
+                listingFinished = isListingFinished,
+                finished = finishedAt != null,
+                elapsed = Duration.between(startedAt, end)
+        )
+    }
+}
+
+data class BulkDownloadStatus(
+        val filesFound: Long,
+        val bytesFound: Long,
+        val filesDownloaded: Long,
+        val bytesDownloaded: Long,
+        val filesSkipped: Long,
+        val bytesSkipped: Long,
+        val failures: Long,
+        val errors: List<String>,
+        val listingFinished: Boolean,
+        val finished: Boolean,
+        val elapsed: Duration
+) {
+    val filesRemaining: Long
+        get() = maxOf(0, filesFound - filesDownloaded - filesSkipped - failures)
+
+    /**
+     * Average download throughput since the start, not counting files which were already up to date.
+     */
+    val bytesPerSecond: Double
+        get() = if (elapsed.toMillis() == 0L) 0.0 else bytesDownloaded * 1000.0 / elapsed.toMillis()
+
+    val filesPerSecond: Double
+        get() = if (elapsed.toMillis() == 0L) 0.0 else filesDownloaded * 1000.0 / elapsed.toMillis()
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2020 Atlassian
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.atlassian.migration.datacenter.fs.processor.services
+
+import com.amazonaws.services.s3.AmazonS3
+import org.slf4j.LoggerFactory
+import org.springframework.beans.factory.annotation.Value
+import org.springframework.boot.ApplicationArguments
+import org.springframework.boot.ApplicationRunner
+import org.springframework.boot.ExitCodeGenerator
+import org.springframework.boot.SpringApplication
+import org.springframework.context.ConfigurableApplicationContext
+import org.springframework.context.annotation.Profile
+import org.springframework.stereotype.Component
+import java.nio.file.Paths
+import java.time.Duration
+import kotlin.system.exitProcess
+
+/**
+ * Runs a single bulk download of the migration bucket into the Jira home and exits, instead of consuming the
+ * migration queue. Enabled with the `bulk-download` profile.
+ *
+ * The number of concurrent downloads defaults to what suits the configured EFS throughput mode and can be overridden
+ * with `app.bulk-download.concurrency`.
+ */
+@Component
+@Profile(BulkDownloadRunner.PROFILE)
+class BulkDownloadRunner(
+        private val s3Client: AmazonS3,
+        private val objectDownloader: S3ObjectDownloader,
+        private val directoryCache: DirectoryCache,
+        private val context: ConfigurableApplicationContext,
+        @Value("\${app.jira.file.path}") private val jiraHome: String,
+        @Value("\${app.bulk-download.bucket}") private val bucket: String,
+        @Value("\${app.bulk-download.efs-throughput-mode:bursting}") private val throughputMode: String,
+        @Value("\${app.bulk-download.concurrency:0}") private val concurrency: Int,
+        @Value("\${app.bulk-download.listing-concurrency:8}") private val listingConcurrency: Int,
+        @Value("\${app.bulk-download.listing-depth:3}") private val listingDepth: Int,
+        @Value("\${app.bulk-download.status-interval-seconds:5}") private val statusIntervalSeconds: Long,
+        @Value("\${app.bulk-download.status-file:}") private val statusFile: String
+) : ApplicationRunner {
+
+    companion object {
+        const val PROFILE = "bulk-download"
+        private val logger = LoggerFactory.getLogger(BulkDownloadRunner::class.java)
+    }
+
+    override fun run(args: ApplicationArguments) {
+        val downloadConcurrency = if (concurrency > 0) concurrency else EfsThroughputMode.fromName(throughputMode).defaultConcurrency
+        val progress = BulkDownloadProgress()
+        val publisher = BulkDownloadStatusPublisher(
+                s3Client,
+                bucket,
+                progress,
+                Duration.ofSeconds(statusIntervalSeconds),
+                if (statusFile.isBlank()) null else Paths.get(statusFile))
+        val downloader = S3BulkDownloader(
+                s3Client,
+                objectDownloader,
+                directoryCache,
+                bucket,
+                Paths.get(jiraHome).toAbsolutePath().normalize(),
+                downloadConcurrency,
+                listingConcurrency,
+                listingDepth,
+                progress)
+
+        publisher.start()
+        var exitCode = 1
+        try {
+            downloader.download()
+            exitCode = if (progress.hasFailures()) 1 else 0
+        } catch (e: Exception) {
+            logger.error("Bulk download of s3://{} failed", bucket, e)
+        } finally {
+            publisher.stop(exitCode)
+        }
+        exitProcess(SpringApplication.exit(context, ExitCodeGenerator { exitCode }))
+    }
+}
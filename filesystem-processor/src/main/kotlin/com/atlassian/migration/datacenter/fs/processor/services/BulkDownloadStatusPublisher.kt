@@ -0,0 +1,144 @@
+/*
+ * Copyright 2020 Atlassian
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.atlassian.migration.datacenter.fs.processor.services
+
+import com.amazonaws.services.s3.AmazonS3
+import com.amazonaws.services.s3.model.ObjectMetadata
+import com.fasterxml.jackson.databind.ObjectMapper
+import org.slf4j.LoggerFactory
+import java.io.ByteArrayInputStream
+import java.nio.charset.StandardCharsets
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.StandardCopyOption
+import java.time.Duration
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+/**
+ * Periodically publishes the status of a bulk download to the migration bucket, and optionally to a local file, so
+ * that the migration assistant can follow it with a single GET.
+ *
+ * The status keeps the fields of the `aws s3 sync` status the migration assistant already understands (`finished`,
+ * `code`, `status` and `errors`) and adds the file, byte and throughput counters of the bulk download.
+ */
+class BulkDownloadStatusPublisher(
+        private val s3Client: AmazonS3,
+        private val bucket: String,
+        private val progress: BulkDownloadProgress,
+        private val interval: Duration,
+        private val statusFile: Path?
+) {
+    companion object {
+        private val logger = LoggerFactory.getLogger(BulkDownloadStatusPublisher::class.java)
+        const val STATUS_KEY = SQSMessageProcessor.MIGRATION_ASSISTANT_PREFIX + "fs-download-status.json"
+    }
+
+    private val mapper = ObjectMapper()
+    private val executor = Executors.newSingleThreadScheduledExecutor { runnable ->
+        val thread = Thread(runnable, "bulk-download-status")
+        thread.isDaemon = true
+        thread
+    }
+
+    @Volatile
+    private var lastPublished: BulkDownloadStatus? = null
+
+    fun start() {
+        executor.scheduleWithFixedDelay({ publish(null) }, 0, interval.toMillis(), TimeUnit.MILLISECONDS)
+    }
+
+    /**
+     * Stops publishing and publishes the final status, with the given exit code.
+     */
+    fun stop(exitCode: Int) {
+        executor.shutdownNow()
+        executor.awaitTermination(interval.toMillis(), TimeUnit.MILLISECONDS)
+        publish(exitCode)
+    }
+
+    @Synchronized
+    private fun publish(exitCode: Int?) {
+        val status = progress.snapshot()
+        try {
+            val json = mapper.writeValueAsString(toDocument(status, lastPublished, exitCode))
+            if (statusFile != null) {
+                writeStatusFile(statusFile, json)
+            }
+            val bytes = json.toByteArray(StandardCharsets.UTF_8)
+            val metadata = ObjectMetadata()
+            metadata.contentType = "application/json"
+            metadata.contentLength = bytes.size.toLong()
+            s3Client.putObject(bucket, STATUS_KEY, ByteArrayInputStream(bytes), metadata)
+            logger.info("Bulk download status: {}", json)
+        } catch (e: Exception) {
+            logger.warn("Unable to publish bulk download status", e)
+        }
+        lastPublished = status
+    }
+
+    internal fun toDocument(status: BulkDownloadStatus, previous: BulkDownloadStatus?, exitCode: Int?): Map<String, Any> {
+        val document = linkedMapOf<String, Any>()
+        if (exitCode != null) {
+            document["finished"] = true
+            document["code"] = exitCode
+        }
+        document["status"] = mapOf(
+                // Written as doubles and ints, which is how the migration assistant reads the s3 sync status
+                "progress" to (status.bytesDownloaded + status.bytesSkipped).toDouble(),
+                "total" to status.bytesFound.toDouble(),
+                "files_remaining" to status.filesRemaining.toInt(),
+                "isCalculating" to !status.listingFinished
+        )
+        document["errors"] = status.errors
+        document["files"] = mapOf(
+                "found" to status.filesFound,
+                "downloaded" to status.filesDownloaded,
+                "skipped" to status.filesSkipped,
+                "failed" to status.failures
+        )
+        document["bytes"] = mapOf(
+                "found" to status.bytesFound,
+                "downloaded" to status.bytesDownloaded,
+                "skipped" to status.bytesSkipped
+        )
+        document["throughput"] = mapOf(
+                "bytesPerSecond" to currentBytesPerSecond(status, previous),
+                "averageBytesPerSecond" to status.bytesPerSecond,
+                "averageFilesPerSecond" to status.filesPerSecond
+        )
+        document["elapsedSeconds"] = status.elapsed.seconds
+        return document
+    }
+
+    private fun currentBytesPerSecond(status: BulkDownloadStatus, previous: BulkDownloadStatus?): Double {
+        if (previous == null) {
+            return status.bytesPerSecond
+        }
+        val millis = status.elapsed.minus(previous.elapsed).toMillis()
+        if (millis <= 0) {
+            return 0.0
+        }
+        return (status.bytesDownloaded - previous.bytesDownloaded) * 1000.0 / millis
+    }
+
+    private fun writeStatusFile(statusFile: Path, json: String) {
+        val temp = statusFile.resolveSibling(statusFile.fileName.toString() + ".tmp")
+        Files.write(temp, json.toByteArray(StandardCharsets.UTF_8))
+        Files.move(temp, statusFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE)
+    }
+}
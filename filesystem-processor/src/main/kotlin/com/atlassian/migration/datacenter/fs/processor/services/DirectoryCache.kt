@@ -0,0 +1,79 @@
+/*
+ * Copyright 2020 Atlassian
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.atlassian.migration.datacenter.fs.processor.services
+
+import org.slf4j.LoggerFactory
+import org.springframework.beans.factory.annotation.Value
+import org.springframework.stereotype.Component
+import java.io.IOException
+import java.nio.file.Files
+import java.nio.file.Path
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Remembers the directories which are known to exist, so that writing a file into a directory which has already been
+ * written to doesn't need any file system calls to check for or create its parent. On EFS every one of those calls is
+ * a network round trip.
+ *
+ * The cache holds at most [maxEntries] directories, and is emptied when it is full. Directories which are deleted by
+ * something else must be [invalidate]d, which the writers do when writing into a cached directory fails.
+ */
+@Component
+class DirectoryCache(@Value("\${app.directory-cache.max-entries:100000}") private val maxEntries: Int) {
+
+    companion object {
+        private val logger = LoggerFactory.getLogger(DirectoryCache::class.java)
+    }
+
+    private val knownDirectories: MutableSet<Path> = ConcurrentHashMap.newKeySet()
+
+    val size: Int
+        get() = knownDirectories.size
+
+    /**
+     * Creates the directory and any missing parents, unless it is already known to exist.
+     */
+    @Throws(IOException::class)
+    fun ensureExists(directory: Path) {
+        val normalised = directory.toAbsolutePath().normalize()
+        if (knownDirectories.contains(normalised)) {
+            return
+        }
+        Files.createDirectories(normalised)
+        remember(normalised)
+    }
+
+    /**
+     * Forgets the directory and everything below it, so that it is checked again the next time it is written to.
+     */
+    fun invalidate(directory: Path) {
+        val normalised = directory.toAbsolutePath().normalize()
+        knownDirectories.removeIf { it.startsWith(normalised) }
+    }
+
+    private fun remember(directory: Path) {
+        if (knownDirectories.size >= maxEntries) {
+            logger.debug("Directory cache reached {} entries, clearing it", maxEntries)
+            knownDirectories.clear()
+        }
+        // Creating the directory also created or confirmed all of its parents
+        var current: Path? = directory
+        while (current != null && knownDirectories.add(current)) {
+            current = current.parent
+        }
+    }
+}
@@ -0,0 +1,31 @@
+/*
+ * Copyright 2020 Atlassian
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.atlassian.migration.datacenter.fs.processor.services
+
+/**
+ * Default number of concurrent downloads for each EFS throughput mode. In bursting mode throughput scales with the
+ * size of the file system, so a small file system is quickly saturated and more GETs only add contention. With
+ * provisioned throughput the file system can absorb many more concurrent writes.
+ */
+enum class EfsThroughputMode(val defaultConcurrency: Int) {
+    BURSTING(16),
+    PROVISIONED(64);
+
+    companion object {
+        fun fromName(name: String): EfsThroughputMode = valueOf(name.trim().toUpperCase())
+    }
+}
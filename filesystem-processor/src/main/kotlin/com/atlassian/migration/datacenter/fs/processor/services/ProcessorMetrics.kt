@@ -0,0 +1,184 @@
+/*
+ * Copyright 2020 Atlassian
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.atlassian.migration.datacenter.fs.processor.services
+
+import io.micrometer.core.instrument.Counter
+import io.micrometer.core.instrument.FunctionCounter
+import io.micrometer.core.instrument.Gauge
+import io.micrometer.core.instrument.MeterRegistry
+import io.micrometer.core.instrument.Timer
+import org.slf4j.LoggerFactory
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor
+import org.springframework.stereotype.Component
+import java.lang.management.ManagementFactory
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Metrics of the queue consumption, registered with the Micrometer registry so that they are available from the
+ * actuator `metrics` endpoint, and summarised by [snapshot] for the `fsprocessor` endpoint and the published status.
+ *
+ * The lag behind the queue is measured as the age of each message when it is received, i.e. the time since it was
+ * sent to the queue.
+ */
+@Component
+class ProcessorMetrics(
+        registry: MeterRegistry,
+        private val threadPoolTaskExecutor: ThreadPoolTaskExecutor,
+        private val writeCoalescer: WriteCoalescer
+) {
+    companion object {
+        private val logger = LoggerFactory.getLogger(ProcessorMetrics::class.java)
+        private const val PREFIX = "fsprocessor"
+    }
+
+    private val startedAt = System.nanoTime()
+    private val inFlightMessages = AtomicInteger()
+    private val latestMessageAgeMillis = AtomicLong()
+    private val firstMessageAfterMillis = AtomicLong(-1)
+
+    private val receiveToWrite: Timer = Timer.builder("$PREFIX.message.receive-to-write")
+            .description("Time from receiving a message to all of its objects being written")
+            .register(registry)
+    private val messageAge: Timer = Timer.builder("$PREFIX.message.age")
+            .description("Time messages spent in the queue before they were received")
+            .register(registry)
+    private val fileWrite: Timer = Timer.builder("$PREFIX.file.write")
+            .description("Time to download an object and write it to the file system")
+            .register(registry)
+    private val failedMessages: Counter = Counter.builder("$PREFIX.messages.failed").register(registry)
+    private val filesWritten: Counter = Counter.builder("$PREFIX.files.written").register(registry)
+    private val filesSkipped: Counter = Counter.builder("$PREFIX.files.skipped")
+            .description("Objects which were already up to date on the file system")
+            .register(registry)
+    private val bytesWritten: Counter = Counter.builder("$PREFIX.bytes.written").baseUnit("bytes").register(registry)
+
+    init {
+        Gauge.builder("$PREFIX.messages.in-flight", inFlightMessages) { it.get().toDouble() }.register(registry)
+        Gauge.builder("$PREFIX.message.latest-age", latestMessageAgeMillis) { it.get().toDouble() }
+                .baseUnit("milliseconds")
+                .description("Age of the most recently received message, i.e. how far the processor lags behind the queue")
+                .register(registry)
+        Gauge.builder("$PREFIX.writers.active", threadPoolTaskExecutor) { it.activeCount.toDouble() }.register(registry)
+        Gauge.builder("$PREFIX.writers.queued", this) { it.queuedWrites().toDouble() }.register(registry)
+        Gauge.builder("$PREFIX.writes.pending-keys", writeCoalescer) { it.inFlightKeyCount.toDouble() }.register(registry)
+        FunctionCounter.builder("$PREFIX.writes.coalesced", writeCoalescer) { it.coalescedWrites.toDouble() }.register(registry)
+        Gauge.builder("$PREFIX.startup.first-message", firstMessageAfterMillis) { it.get().toDouble() }
+                .baseUnit("milliseconds")
+                .description("Time from the JVM starting to the first message being received, -1 until then")
+                .register(registry)
+    }
+
+    /**
+     * @param sentTimestamp when the message was sent to the queue, in milliseconds since the epoch, if known
+     * @return the time the message was received, to pass to [messageFinished]
+     */
+    fun messageReceived(sentTimestamp: Long?): Long {
+        inFlightMessages.incrementAndGet()
+        if (firstMessageAfterMillis.get() < 0) {
+            val uptime = ManagementFactory.getRuntimeMXBean().uptime
+            if (firstMessageAfterMillis.compareAndSet(-1, uptime)) {
+                logger.info("Received the first message {}ms after the JVM started", uptime)
+            }
+        }
+        if (sentTimestamp != null) {
+            val age = (System.currentTimeMillis() - sentTimestamp).coerceAtLeast(0)
+            latestMessageAgeMillis.set(age)
+            messageAge.record(age, TimeUnit.MILLISECONDS)
+        }
+        return System.nanoTime()
+    }
+
+    fun messageFinished(receivedAt: Long, succeeded: Boolean) {
+        if (succeeded) {
+            receiveToWrite.record(System.nanoTime() - receivedAt, TimeUnit.NANOSECONDS)
+        } else {
+            failedMessages.increment()
+        }
+        inFlightMessages.decrementAndGet()
+    }
+
+    /**
+     * Runs the write of an object of the given size, timing it and counting it as written or skipped depending on
+     * whether it returns true.
+     */
+    fun recordFileWrite(size: Long, write: () -> Boolean) {
+        val start = System.nanoTime()
+        val written = write()
+        fileWrite.record(System.nanoTime() - start, TimeUnit.NANOSECONDS)
+        if (written) {
+            filesWritten.increment()
+            bytesWritten.increment(size.toDouble())
+        } else {
+            filesSkipped.increment()
+        }
+    }
+
+    fun snapshot(): ProcessorStatus {
+        val elapsedSeconds = (System.nanoTime() - startedAt) / 1e9
+        val bytes = bytesWritten.count().toLong()
+        return ProcessorStatus(
+                filesWritten = filesWritten.count().toLong(),
+                filesSkipped = filesSkipped.count().toLong(),
+                bytesWritten = bytes,
+                averageBytesPerSecond = if (elapsedSeconds > 0) bytes / elapsedSeconds else 0.0,
+                failedMessages = failedMessages.count().toLong(),
+                inFlightMessages = inFlightMessages.get(),
+                activeWriters = threadPoolTaskExecutor.activeCount,
+                queuedWrites = queuedWrites(),
+                pendingKeys = writeCoalescer.inFlightKeyCount,
+                coalescedWrites = writeCoalescer.coalescedWrites,
+                latestMessageAgeMillis = latestMessageAgeMillis.get(),
+                firstMessageAfterMillis = firstMessageAfterMillis.get().takeIf { it >= 0 },
+                meanMessageAgeMillis = messageAge.mean(TimeUnit.MILLISECONDS),
+                meanReceiveToWriteMillis = receiveToWrite.mean(TimeUnit.MILLISECONDS),
+                maxReceiveToWriteMillis = receiveToWrite.max(TimeUnit.MILLISECONDS),
+                meanFileWriteMillis = fileWrite.mean(TimeUnit.MILLISECONDS),
+                maxFileWriteMillis = fileWrite.max(TimeUnit.MILLISECONDS)
+        )
+    }
+
+    private fun queuedWrites(): Int {
+        return try {
+            threadPoolTaskExecutor.threadPoolExecutor.queue.size
+        } catch (e: IllegalStateException) {
+            // Not initialised yet
+            0
+        }
+    }
+}
+
+data class ProcessorStatus(
+        val filesWritten: Long,
+        val filesSkipped: Long,
+        val bytesWritten: Long,
+        val averageBytesPerSecond: Double,
+        val failedMessages: Long,
+        val inFlightMessages: Int,
+        val activeWriters: Int,
+        val queuedWrites: Int,
+        val pendingKeys: Int,
+        val coalescedWrites: Long,
+        val latestMessageAgeMillis: Long,
+        val firstMessageAfterMillis: Long?,
+        val meanMessageAgeMillis: Double,
+        val meanReceiveToWriteMillis: Double,
+        val maxReceiveToWriteMillis: Double,
+        val meanFileWriteMillis: Double,
+        val maxFileWriteMillis: Double
+)
@@ -14,21 +14,19 @@
  * limitations under the License.
  */
 
-package com.atlassian.migration.datacenter.fs.processor.filters
+package com.atlassian.migration.datacenter.fs.processor.services
 
-import org.springframework.integration.annotation.Filter
-import org.springframework.integration.annotation.MessageEndpoint
-import org.springframework.messaging.Message
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation
+import org.springframework.stereotype.Component
 
-@MessageEndpoint
-class SQSMessageFilter {
-
-    @Filter(inputChannel = "inboundChannel", outputChannel = "filteredChannel", discardChannel = "loggingChannel")
-    fun filter(message: Message<String>): Boolean {
-        val body = message.payload
-        val testEvent = body.contains("TestEvent", true)
-        return !testEvent
-    }
+/**
+ * Serves the summary of the [ProcessorMetrics] at `/actuator/fsprocessor`.
+ */
+@Component
+@Endpoint(id = "fsprocessor")
+class ProcessorStatusEndpoint(private val metrics: ProcessorMetrics) {
 
+    @ReadOperation
+    fun status(): ProcessorStatus = metrics.snapshot()
 }
-
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2020 Atlassian
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.atlassian.migration.datacenter.fs.processor.services
+
+import com.amazonaws.services.s3.AmazonS3
+import com.amazonaws.services.s3.model.ObjectMetadata
+import com.amazonaws.util.EC2MetadataUtils
+import com.fasterxml.jackson.databind.ObjectMapper
+import org.slf4j.LoggerFactory
+import org.springframework.beans.factory.DisposableBean
+import org.springframework.beans.factory.InitializingBean
+import org.springframework.beans.factory.annotation.Value
+import org.springframework.context.annotation.Lazy
+import org.springframework.context.annotation.Profile
+import org.springframework.stereotype.Component
+import java.io.ByteArrayInputStream
+import java.net.InetAddress
+import java.nio.charset.StandardCharsets
+import java.time.Instant
+import java.util.UUID
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+/**
+ * Periodically publishes the summary of the [ProcessorMetrics] to the migration bucket, so that the migration
+ * assistant can read how the processors are keeping up with the queue without reaching the instances. Every
+ * processor instance publishes to its own key under [STATUS_PREFIX], and the reader adds them up. Nothing is
+ * published unless a bucket is configured.
+ */
+@Component
+@Lazy(false)
+@Profile("!" + BulkDownloadRunner.PROFILE)
+class ProcessorStatusPublisher(
+        private val s3Client: AmazonS3,
+        private val metrics: ProcessorMetrics,
+        @Value("\${app.metrics.status-bucket:}") private val bucket: String,
+        @Value("\${app.metrics.status-interval-seconds:30}") private val intervalSeconds: Long,
+        @Value("\${app.metrics.instance-id:}") configuredInstanceId: String
+) : InitializingBean, DisposableBean {
+
+    companion object {
+        private val logger = LoggerFactory.getLogger(ProcessorStatusPublisher::class.java)
+        const val STATUS_PREFIX = SQSMessageProcessor.MIGRATION_ASSISTANT_PREFIX + "fs-processor-status/"
+
+        fun statusKey(instanceId: String) = "$STATUS_PREFIX$instanceId.json"
+
+        private fun localInstanceId(): String {
+            return try {
+                EC2MetadataUtils.getInstanceId() ?: InetAddress.getLocalHost().hostName
+            } catch (e: Exception) {
+                logger.warn("Unable to identify this processor instance, publishing its status under a random id", e)
+                UUID.randomUUID().toString()
+            }
+        }
+    }
+
+    internal val instanceId: String = configuredInstanceId.ifEmpty { localInstanceId() }
+
+    private val mapper = ObjectMapper()
+    private val executor = Executors.newSingleThreadScheduledExecutor { runnable ->
+        val thread = Thread(runnable, "fs-processor-status")
+        thread.isDaemon = true
+        thread
+    }
+
+    private var lastPublished: Published? = null
+
+    override fun afterPropertiesSet() {
+        if (bucket.isEmpty()) {
+            logger.info("No status bucket configured, the processor status will only be available locally")
+            return
+        }
+        executor.scheduleWithFixedDelay({ publish() }, intervalSeconds, intervalSeconds, TimeUnit.SECONDS)
+    }
+
+    @Synchronized
+    internal fun publish() {
+        val status = metrics.snapshot()
+        val now = Instant.now()
+        try {
+            val json = mapper.writeValueAsString(toDocument(status, now, lastPublished))
+            val bytes = json.toByteArray(StandardCharsets.UTF_8)
+            val metadata = ObjectMetadata()
+            metadata.contentType = "application/json"
+            metadata.contentLength = bytes.size.toLong()
+            s3Client.putObject(bucket, statusKey(instanceId), ByteArrayInputStream(bytes), metadata)
+            logger.debug("Filesystem processor status: {}", json)
+        } catch (e: Exception) {
+            logger.warn("Unable to publish filesystem processor status", e)
+        }
+        lastPublished = Published(status, now)
+    }
+
+    internal fun toDocument(status: ProcessorStatus, now: Instant, previous: Published?): Map<String, Any> {
+        @Suppress("UNCHECKED_CAST")
+        val document = mapper.convertValue(status, LinkedHashMap::class.java) as MutableMap<String, Any>
+        document["instanceId"] = instanceId
+        document["bytesPerSecond"] = currentBytesPerSecond(status, now, previous)
+        document["timestamp"] = now.toString()
+        return document
+    }
+
+    private fun currentBytesPerSecond(status: ProcessorStatus, now: Instant, previous: Published?): Double {
+        if (previous == null) {
+            return status.averageBytesPerSecond
+        }
+        val millis = now.toEpochMilli() - previous.at.toEpochMilli()
+        if (millis <= 0) {
+            return 0.0
+        }
+        return (status.bytesWritten - previous.status.bytesWritten) * 1000.0 / millis
+    }
+
+    override fun destroy() {
+        executor.shutdownNow()
+    }
+
+    internal class Published(val status: ProcessorStatus, val at: Instant)
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright 2020 Atlassian
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.atlassian.migration.datacenter.fs.processor.services
+
+import com.amazonaws.services.s3.AmazonS3
+import com.amazonaws.services.s3.model.ListObjectsV2Request
+import com.amazonaws.services.s3.model.S3ObjectSummary
+import org.slf4j.LoggerFactory
+import java.io.IOException
+import java.nio.file.Path
+import java.util.concurrent.ArrayBlockingQueue
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executor
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.ThreadFactory
+import java.util.concurrent.ThreadPoolExecutor
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Copies the whole bucket into [targetDirectory], as a replacement for `aws s3 sync`.
+ *
+ * The bucket is listed in parallel: the first [listingDepth] levels are listed with a delimiter so that every prefix
+ * at that depth can be listed on its own by the listing pool. Listed objects are handed to a pool of
+ * [downloadConcurrency] concurrent downloads, and large objects are further split into ranges by the
+ * [objectDownloader]. The download queue is bounded and overflowing downloads run on the listing thread, so listing
+ * never gets too far ahead of the downloads.
+ *
+ * The directories of every listed page are created on the listing threads before its objects are queued, so the
+ * directory tree is created in parallel with the listing and the downloads only ever hit the [directoryCache].
+ *
+ * Like `aws s3 sync`, objects are skipped when a local file with the same size that is not older than the object
+ * already exists, so an interrupted download can be run again.
+ */
+class S3BulkDownloader(
+        private val s3Client: AmazonS3,
+        private val objectDownloader: S3ObjectDownloader,
+        private val directoryCache: DirectoryCache,
+        private val bucket: String,
+        private val targetDirectory: Path,
+        private val downloadConcurrency: Int,
+        private val listingConcurrency: Int,
+        private val listingDepth: Int,
+        private val progress: BulkDownloadProgress
+) {
+    companion object {
+        private val logger = LoggerFactory.getLogger(S3BulkDownloader::class.java)
+        private const val DELIMITER = "/"
+        private const val QUEUED_DOWNLOADS_PER_THREAD = 4
+    }
+
+    private val pendingTasks = AtomicLong()
+    private val allTasksDone = CountDownLatch(1)
+
+    fun download() {
+        logger.info("Downloading s3://{} to {} with {} concurrent downloads and {} concurrent listings",
+                bucket, targetDirectory, downloadConcurrency, listingConcurrency)
+
+        val listingExecutor = Executors.newFixedThreadPool(listingConcurrency, namedThreadFactory("bulk-download-list"))
+        val downloadExecutor = ThreadPoolExecutor(
+                downloadConcurrency, downloadConcurrency,
+                0L, TimeUnit.MILLISECONDS,
+                ArrayBlockingQueue(downloadConcurrency * QUEUED_DOWNLOADS_PER_THREAD),
+                namedThreadFactory("bulk-download-get"),
+                ThreadPoolExecutor.CallerRunsPolicy())
+        try {
+            submit(listingExecutor, "s3://$bucket") { listPrefix("", 0, listingExecutor, downloadExecutor) }
+            allTasksDone.await()
+        } finally {
+            progress.reportListingFinished()
+            shutdown(listingExecutor)
+            shutdown(downloadExecutor)
+            progress.reportFinished()
+        }
+        logger.info("Finished downloading s3://{}: {}", bucket, progress.snapshot())
+    }
+
+    private fun listPrefix(prefix: String, depth: Int, listingExecutor: Executor, downloadExecutor: Executor) {
+        val delimited = depth < listingDepth
+        val request = ListObjectsV2Request().withBucketName(bucket)
+        if (prefix.isNotEmpty()) {
+            request.prefix = prefix
+        }
+        if (delimited) {
+            request.delimiter = DELIMITER
+        }
+
+        do {
+            val result = s3Client.listObjectsV2(request)
+            val summaries = result.objectSummaries.filter { !isMigrationAssistantKey(it.key) }
+            createDirectories(summaries)
+            summaries.forEach { summary ->
+                progress.reportFileFound(summary.size)
+                submit(downloadExecutor, summary.key) { downloadObject(summary) }
+            }
+            if (delimited) {
+                result.commonPrefixes
+                        .filter { !isMigrationAssistantKey(it) }
+                        .forEach { commonPrefix ->
+                            submit(listingExecutor, commonPrefix) { listPrefix(commonPrefix, depth + 1, listingExecutor, downloadExecutor) }
+                        }
+            }
+            request.continuationToken = result.nextContinuationToken
+        } while (result.isTruncated)
+    }
+
+    /**
+     * Creates the distinct directories the objects will be written to. Failures are left for the downloads to report
+     * against the objects concerned.
+     */
+    private fun createDirectories(summaries: List<S3ObjectSummary>) {
+        summaries
+                .mapNotNull { summary -> resolveTarget(summary.key)?.let { if (summary.key.endsWith(DELIMITER)) it else it.parent } }
+                .distinct()
+                .forEach { directory ->
+                    try {
+                        directoryCache.ensureExists(directory)
+                    } catch (e: IOException) {
+                        logger.debug("Unable to create {} ahead of its downloads", directory, e)
+                    }
+                }
+    }
+
+    private fun downloadObject(summary: S3ObjectSummary) {
+        val key = summary.key
+        val target = resolveTarget(key) ?: throw IllegalArgumentException("Refusing to write outside of $targetDirectory")
+
+        if (key.endsWith(DELIMITER)) {
+            directoryCache.ensureExists(target)
+            progress.reportFileDownloaded(0)
+            return
+        }
+        if (objectDownloader.isUpToDate(target, summary.size, summary.lastModified)) {
+            progress.reportFileSkipped(summary.size)
+            return
+        }
+
+        directoryCache.ensureExists(target.parent)
+        try {
+            objectDownloader.download(bucket, key, summary.size, summary.eTag, summary.lastModified, target)
+        } catch (e: IOException) {
+            directoryCache.invalidate(target.parent)
+            throw e
+        }
+        progress.reportFileDownloaded(summary.size)
+    }
+
+    private fun resolveTarget(key: String): Path? {
+        val target = targetDirectory.resolve(key).normalize()
+        return if (target.startsWith(targetDirectory)) target else null
+    }
+
+    /**
+     * Runs the task on the executor, keeping count of the outstanding tasks. Tasks are only submitted by the initial
+     * listing or by other tasks, so once the count drops to zero everything has been listed and downloaded.
+     */
+    private fun submit(executor: Executor, location: String, task: () -> Unit) {
+        pendingTasks.incrementAndGet()
+        executor.execute {
+            try {
+                task()
+            } catch (e: Exception) {
+                logger.error("Failed to download {}", location, e)
+                progress.reportFailure(location, e)
+            } finally {
+                if (pendingTasks.decrementAndGet() == 0L) {
+                    allTasksDone.countDown()
+                }
+            }
+        }
+    }
+
+    private fun isMigrationAssistantKey(key: String): Boolean = key.startsWith(SQSMessageProcessor.MIGRATION_ASSISTANT_PREFIX)
+
+    private fun shutdown(executor: ExecutorService) {
+        executor.shutdownNow()
+        executor.awaitTermination(1, TimeUnit.MINUTES)
+    }
+
+    private fun namedThreadFactory(name: String): ThreadFactory {
+        val count = AtomicInteger()
+        return ThreadFactory { runnable ->
+            val thread = Thread(runnable, "$name-${count.incrementAndGet()}")
+            thread.isDaemon = true
+            thread
+        }
+    }
+}
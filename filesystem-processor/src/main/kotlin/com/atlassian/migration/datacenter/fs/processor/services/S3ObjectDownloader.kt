@@ -0,0 +1,290 @@
+/*
+ * Copyright 2020 Atlassian
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.atlassian.migration.datacenter.fs.processor.services
+
+import com.amazonaws.services.s3.AmazonS3
+import com.amazonaws.services.s3.model.GetObjectRequest
+import org.slf4j.LoggerFactory
+import org.springframework.beans.factory.DisposableBean
+import org.springframework.beans.factory.annotation.Value
+import org.springframework.stereotype.Component
+import java.io.IOException
+import java.io.InputStream
+import java.io.RandomAccessFile
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
+import java.nio.file.FileAlreadyExistsException
+import java.nio.file.Files
+import java.nio.file.NoSuchFileException
+import java.nio.file.Path
+import java.nio.file.StandardCopyOption
+import java.nio.file.StandardOpenOption
+import java.nio.file.attribute.FileTime
+import java.util.Date
+import java.util.UUID
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.Future
+import java.util.concurrent.ThreadFactory
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Downloads single objects to local files. Objects of at least [rangeThreshold] bytes are split into [rangeCount]
+ * byte ranges which are fetched concurrently and written into a preallocated file with positional writes, so large
+ * attachments and dumps are not limited to the throughput of a single stream.
+ *
+ * Ranges run on a pool of [rangeThreads] threads owned by the downloader. Callers block until their object is
+ * complete, but range tasks never wait on anything, so callers can share the pool without deadlocking.
+ *
+ * Objects are written to a temporary sibling of the target which is renamed over the target once complete, so the
+ * target is never left truncated. The modification time of the file is set to that of the object, which is how
+ * [isUpToDate] tells that a file doesn't need to be downloaded again.
+ *
+ * Several processors may write to the same file system, so a writer first claims the key with a marker file next to
+ * the target, which is created exclusively and holds a token naming the writer's own temporary file. A key whose
+ * marker already exists is being written by someone else, unless neither the marker nor its writer's temporary file
+ * has been written to for [claimTimeoutSeconds], in which case its writer is assumed to have died and the claim is
+ * taken over. A writer which stalls for that long finds the marker naming someone else when it resumes, and gives up
+ * without touching the target or the new writer's temporary file.
+ */
+@Component
+class S3ObjectDownloader(
+        private val s3Client: AmazonS3,
+        @Value("\${app.download.range-threshold-bytes:67108864}") private val rangeThreshold: Long,
+        @Value("\${app.download.range-count:8}") private val rangeCount: Int,
+        @Value("\${app.download.range-threads:16}") rangeThreads: Int,
+        @Value("\${app.download.claim-timeout-seconds:120}") private val claimTimeoutSeconds: Long
+) : DisposableBean {
+
+    companion object {
+        private val logger = LoggerFactory.getLogger(S3ObjectDownloader::class.java)
+        private const val BUFFER_SIZE = 64 * 1024
+    }
+
+    private val rangeExecutor: ExecutorService = Executors.newFixedThreadPool(rangeThreads, object : ThreadFactory {
+        private val count = AtomicInteger()
+        override fun newThread(runnable: Runnable): Thread {
+            val thread = Thread(runnable, "s3-range-get-${count.incrementAndGet()}")
+            thread.isDaemon = true
+            return thread
+        }
+    })
+
+    /**
+     * Downloads the object unless [target] is already up to date with it. Only the metadata of the object is fetched
+     * when the file is up to date, so duplicate and redelivered notifications don't transfer any bytes.
+     *
+     * @return true if the object was downloaded, false if the file was already up to date
+     */
+    @Throws(IOException::class)
+    fun downloadIfChanged(bucket: String, key: String, target: Path): Boolean {
+        val metadata = s3Client.getObjectMetadata(bucket, key)
+        if (isUpToDate(target, metadata.contentLength, metadata.lastModified)) {
+            return false
+        }
+        download(bucket, key, metadata.contentLength, metadata.eTag, metadata.lastModified, target)
+        return true
+    }
+
+    /**
+     * Like `aws s3 sync`, a file is up to date when it has the size of the object and is not older than the object.
+     */
+    fun isUpToDate(target: Path, size: Long, lastModified: Date?): Boolean {
+        return lastModified != null &&
+                Files.isRegularFile(target) &&
+                Files.size(target) == size &&
+                Files.getLastModifiedTime(target).toMillis() >= lastModified.time
+    }
+
+    /**
+     * Atomically replaces [target] with the object.
+     *
+     * @param size the size of the object, as reported by the listing, event notification or object metadata
+     * @param eTag the ETag of the object, if known. Ranged downloads fail instead of mixing versions when the object
+     * changes while it is being downloaded.
+     * @param lastModified the modification time of the object, which the file is given once downloaded
+     */
+    @Throws(IOException::class)
+    fun download(bucket: String, key: String, size: Long, eTag: String?, lastModified: Date?, target: Path) {
+        val claim = target.resolveSibling(".${target.fileName}.claim")
+        val token = UUID.randomUUID().toString()
+        val temp = tempFile(target, token)
+        claim(key, target, claim, token)
+        try {
+            Files.createFile(temp)
+            if (rangeCount <= 1 || size < rangeThreshold) {
+                downloadWhole(bucket, key, temp)
+            } else {
+                downloadRanges(bucket, key, size, eTag, temp)
+            }
+            if (ownerOf(claim) != token) {
+                logger.warn("Discarding {}, which was taken over by another processor while it was being written", key)
+                throw KeyClaimedException(key)
+            }
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE)
+            // Only set once renamed, as the modification time of the temporary file is what keeps the claim alive
+            if (lastModified != null) {
+                Files.setLastModifiedTime(target, FileTime.fromMillis(lastModified.time))
+            }
+        } finally {
+            Files.deleteIfExists(temp)
+            release(claim, token)
+        }
+    }
+
+    private fun tempFile(target: Path, token: String): Path = target.resolveSibling(".${target.fileName}.$token.download")
+
+    private fun claim(key: String, target: Path, claim: Path, token: String) {
+        try {
+            Files.write(claim, token.toByteArray(), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)
+            return
+        } catch (e: FileAlreadyExistsException) {
+            // Fall through to check whether the current writer is still alive
+        }
+        val owner = ownerOf(claim)
+        val idle = System.currentTimeMillis() - lastWritten(target, claim, owner)
+        if (idle < TimeUnit.SECONDS.toMillis(claimTimeoutSeconds)) {
+            throw KeyClaimedException(key)
+        }
+        logger.warn("Taking over {}, which has not been written to for {}ms", key, idle)
+        // Replace the marker in one step, so that of several processors taking over at once only the last one to
+        // rename keeps the claim, and the others find out before renaming their temporary file over the target
+        val replacement = claim.resolveSibling("${claim.fileName}.$token")
+        Files.write(replacement, token.toByteArray())
+        try {
+            Files.move(replacement, claim, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING)
+        } finally {
+            Files.deleteIfExists(replacement)
+        }
+        // Clean up after the dead writer. Should it only have stalled, it keeps writing to the unlinked file, which
+        // it discards once it finds that it no longer owns the claim.
+        if (owner != null) {
+            Files.deleteIfExists(tempFile(target, owner))
+        }
+    }
+
+    private fun lastWritten(target: Path, claim: Path, owner: String?): Long {
+        val times = listOfNotNull(claim, owner?.let { tempFile(target, it) }).map {
+            try {
+                Files.getLastModifiedTime(it).toMillis()
+            } catch (gone: NoSuchFileException) {
+                0L
+            }
+        }
+        return times.max() ?: 0L
+    }
+
+    private fun ownerOf(claim: Path): String? {
+        return try {
+            String(Files.readAllBytes(claim)).takeIf { it.isNotEmpty() }
+        } catch (gone: NoSuchFileException) {
+            null
+        }
+    }
+
+    private fun release(claim: Path, token: String) {
+        if (ownerOf(claim) == token) {
+            Files.deleteIfExists(claim)
+        }
+    }
+
+    private fun downloadWhole(bucket: String, key: String, target: Path) {
+        s3Client.getObject(GetObjectRequest(bucket, key)).use { s3Object ->
+            s3Object.objectContent.use { inputStream ->
+                // Write into the file rather than replacing it, as its modification time keeps the claim alive
+                Files.newOutputStream(target, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING).use { outputStream ->
+                    inputStream.copyTo(outputStream, BUFFER_SIZE)
+                }
+            }
+        }
+    }
+
+    private fun downloadRanges(bucket: String, key: String, size: Long, eTag: String?, target: Path) {
+        logger.debug("Downloading {} ({} bytes) in {} ranges", key, size, rangeCount)
+        RandomAccessFile(target.toFile(), "rw").use { file ->
+            file.setLength(size)
+            val channel = file.channel
+            val rangeSize = (size + rangeCount - 1) / rangeCount
+            val ranges = (0 until rangeCount)
+                    .map { it * rangeSize }
+                    .filter { it < size }
+                    .map { start -> start to minOf(start + rangeSize, size) - 1 }
+            val futures = ranges.map { (start, end) ->
+                rangeExecutor.submit<Unit> { downloadRange(bucket, key, eTag, start, end, channel) }
+            }
+            awaitRanges(futures, key)
+        }
+    }
+
+    private fun downloadRange(bucket: String, key: String, eTag: String?, start: Long, end: Long, channel: FileChannel) {
+        val request = GetObjectRequest(bucket, key).withRange(start, end)
+        if (eTag != null) {
+            request.withMatchingETagConstraint(eTag)
+        }
+        val s3Object = s3Client.getObject(request)
+                ?: throw IOException("$key changed while it was being downloaded")
+        s3Object.use {
+            s3Object.objectContent.use { inputStream ->
+                val written = writeAt(inputStream, channel, start)
+                if (written != end - start + 1) {
+                    throw IOException("Expected ${end - start + 1} bytes of $key from $start but got $written")
+                }
+            }
+        }
+    }
+
+    private fun writeAt(inputStream: InputStream, channel: FileChannel, start: Long): Long {
+        val bytes = ByteArray(BUFFER_SIZE)
+        val buffer = ByteBuffer.wrap(bytes)
+        var position = start
+        while (true) {
+            val read = inputStream.read(bytes)
+            if (read < 0) {
+                return position - start
+            }
+            buffer.clear().limit(read)
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position)
+            }
+        }
+    }
+
+    private fun awaitRanges(futures: List<Future<Unit>>, key: String) {
+        try {
+            futures.forEach { it.get() }
+        } catch (e: ExecutionException) {
+            futures.forEach { it.cancel(true) }
+            throw IOException("Failed to download a range of $key", e.cause)
+        } catch (e: InterruptedException) {
+            futures.forEach { it.cancel(true) }
+            Thread.currentThread().interrupt()
+            throw IOException("Interrupted while downloading $key", e)
+        }
+    }
+
+    override fun destroy() {
+        rangeExecutor.shutdownNow()
+    }
+}
+
+/**
+ * Thrown when a key is already being written by another processor. The write should be retried later, by which time
+ * the file will most likely be up to date.
+ */
+class KeyClaimedException(key: String) : IOException("$key is being written by another processor")
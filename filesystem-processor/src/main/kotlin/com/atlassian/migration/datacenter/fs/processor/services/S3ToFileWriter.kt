@@ -16,49 +16,53 @@
 
 package com.atlassian.migration.datacenter.fs.processor.services
 
-import com.amazonaws.services.s3.AmazonS3
 import com.amazonaws.services.s3.event.S3EventNotification
-import org.apache.commons.io.IOUtils
 import org.slf4j.LoggerFactory
 import java.io.File
-import java.io.FileOutputStream
 import java.io.IOException
 import java.net.URLDecoder
 import java.nio.charset.Charset
 
-class S3ToFileWriter(private val s3Client: AmazonS3, private val entity: S3EventNotification.S3Entity, private val jiraHome: String) : Runnable {
+class S3ToFileWriter(private val objectDownloader: S3ObjectDownloader, private val directoryCache: DirectoryCache, private val entity: S3EventNotification.S3Entity, private val jiraHome: String) {
 
     private val log = LoggerFactory.getLogger(S3ToFileWriter::class.java)
 
-    override fun run() {
+    /**
+     * Writes the object to its path under the Jira home, creating any missing parent directories.
+     * Throws when the object couldn't be written so that the caller can retry it.
+     *
+     * @return false if the file was already up to date and so wasn't written
+     */
+    @Throws(IOException::class)
+    fun write(): Boolean {
         val key = URLDecoder.decode(entity.getObject().key, Charset.defaultCharset().toString())
-        try {
-            s3Client.getObject(entity.bucket.name, key).use { s3object ->
-                val absolutePathString = "$jiraHome/$key"
-                val localPath = File(absolutePathString)
-                if (key.endsWith("/")) {
-                    log.info("Got request to create directory: $absolutePathString")
-                    localPath.mkdirs()
+        val absolutePathString = "$jiraHome/$key"
+        val localPath = File(absolutePathString)
+        if (key.endsWith("/")) {
+            log.debug("Got request to create directory: $absolutePathString")
+            directoryCache.ensureExists(localPath.toPath())
+            return true
+        } else {
+            log.debug("Got request to write file: $absolutePathString")
+            val parent = localPath.parentFile.toPath()
+            directoryCache.ensureExists(parent)
+            try {
+                val written = objectDownloader.downloadIfChanged(entity.bucket.name, key, localPath.toPath())
+                if (written) {
+                    log.debug("Successfully wrote: $absolutePathString")
                 } else {
-                    s3object.objectContent.use { inputStream ->
-                        log.info("Got request to write file: $absolutePathString")
-                        if (!localPath.parentFile.exists()) {
-                            if (localPath.parentFile.mkdirs()) {
-                                log.info("Made the missing parent directory {}", localPath.path)
-                            }
-                        }
-                        try {
-                            IOUtils.copy(inputStream, FileOutputStream(localPath))
-                            log.info("Successfully wrote: $absolutePathString")
-                        } catch (e: IOException) {
-                            log.error("Failed to write file $absolutePathString", e)
-                        }
-                    }
+                    log.debug("Skipped $absolutePathString as it is already up to date")
                 }
+                return written
+            } catch (e: KeyClaimedException) {
+                log.info("Not writing $absolutePathString as it is being written by another processor")
+                throw e
+            } catch (e: IOException) {
+                log.error("Failed to write file $absolutePathString", e)
+                // The parent may have been removed since it was cached, so check it again when the write is retried
+                directoryCache.invalidate(parent)
+                throw e
             }
-        } catch (ex: Exception) {
-            log.error("Failed to process " + ex.localizedMessage)
-            log.error(ex.cause?.localizedMessage)
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,275 @@
+/*
+ * Copyright 2020 Atlassian
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.atlassian.migration.datacenter.fs.processor.services
+
+import com.amazonaws.services.sqs.AmazonSQSAsync
+import com.amazonaws.services.sqs.model.ChangeMessageVisibilityBatchRequest
+import com.amazonaws.services.sqs.model.ChangeMessageVisibilityBatchRequestEntry
+import com.amazonaws.services.sqs.model.DeleteMessageBatchRequest
+import com.amazonaws.services.sqs.model.DeleteMessageBatchRequestEntry
+import com.amazonaws.services.sqs.model.Message
+import com.amazonaws.services.sqs.model.ReceiveMessageRequest
+import org.slf4j.LoggerFactory
+import org.springframework.beans.factory.annotation.Value
+import org.springframework.cloud.aws.messaging.support.destination.DynamicQueueUrlDestinationResolver
+import org.springframework.context.SmartLifecycle
+import org.springframework.context.annotation.Profile
+import org.springframework.stereotype.Component
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.Executors
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.Semaphore
+import java.util.concurrent.TimeUnit
+
+/**
+ * Consumes the migration queue in batches of up to [MAX_BATCH_SIZE] messages.
+ *
+ * At most [maxInFlightMessages] messages are processed at the same time. Once that many are in flight, receiving
+ * pauses until the writers catch up, instead of queueing work in memory while the messages time out of visibility.
+ * Messages are received with a [visibilityTimeoutSeconds] visibility timeout, which is extended for as long as their
+ * objects are being written. Messages are only deleted, in batches, once all their objects have been written, so
+ * messages which failed are received again.
+ *
+ * Messages which failed only because another processor is writing one of their objects are made visible again after
+ * a short backoff of [claimedBackoffSeconds], doubled on every receive, rather than after the full visibility timeout.
+ * By the time they are received again the other writer has usually finished and the object is skipped as up to date.
+ * The backoff grows so that the message doesn't run out of receives, and end up in the dead letter queue, before a
+ * claim whose writer died can be taken over.
+ *
+ * The queue is looked up by its logical name in the migration stack, unless its URL is configured.
+ */
+@Component
+@Profile("!" + BulkDownloadRunner.PROFILE)
+class SQSBatchConsumer(
+        private val amazonSqs: AmazonSQSAsync,
+        private val destinationResolver: DynamicQueueUrlDestinationResolver,
+        private val messageProcessor: SQSMessageProcessor,
+        private val metrics: ProcessorMetrics,
+        @Value("\${app.sqs.max-in-flight-messages:20}") private val maxInFlightMessages: Int,
+        @Value("\${app.sqs.visibility-timeout-seconds:300}") private val visibilityTimeoutSeconds: Int,
+        @Value("\${app.sqs.wait-time-seconds:20}") private val waitTimeSeconds: Int,
+        @Value("\${app.sqs.queue-url:}") private val configuredQueueUrl: String,
+        @Value("\${app.sqs.auto-startup:true}") private val autoStartup: Boolean,
+        @Value("\${app.sqs.claimed-backoff-seconds:15}") private val claimedBackoffSeconds: Int
+) : SmartLifecycle {
+
+    companion object {
+        private val logger = LoggerFactory.getLogger(SQSBatchConsumer::class.java)
+        private const val QUEUE_LOGICAL_NAME = "MigrationQueue"
+        private const val SENT_TIMESTAMP = "SentTimestamp"
+        private const val RECEIVE_COUNT = "ApproximateReceiveCount"
+        private const val MAX_BATCH_SIZE = 10
+        private const val DELETE_INTERVAL_MILLIS = 1000L
+        private const val RECEIVE_ERROR_BACKOFF_MILLIS = 5000L
+        private const val SHUTDOWN_TIMEOUT_SECONDS = 60L
+    }
+
+    private val inFlight = Semaphore(maxInFlightMessages)
+    // Receipt handles of the messages being processed, by message ID
+    private val inFlightMessages = ConcurrentHashMap<String, String>()
+    private val pendingDeletes = LinkedBlockingQueue<DeleteMessageBatchRequestEntry>()
+    private val pendingBackoffs = LinkedBlockingQueue<ChangeMessageVisibilityBatchRequestEntry>()
+
+    @Volatile
+    private var running = false
+    private var queueUrl: String? = null
+    private var receiver: Thread? = null
+    private var scheduler: ScheduledExecutorService? = null
+
+    @Synchronized
+    override fun start() {
+        if (running) {
+            return
+        }
+        val url = destinationResolver.resolveDestination(configuredQueueUrl.ifEmpty { QUEUE_LOGICAL_NAME })
+        queueUrl = url
+        running = true
+
+        val extensionInterval = visibilityTimeoutSeconds * 1000L / 2
+        scheduler = Executors.newSingleThreadScheduledExecutor { runnable ->
+            val thread = Thread(runnable, "sqs-batch-maintenance")
+            thread.isDaemon = true
+            thread
+        }.also {
+            it.scheduleWithFixedDelay({ flushDeletes(url); flushBackoffs(url) }, DELETE_INTERVAL_MILLIS, DELETE_INTERVAL_MILLIS, TimeUnit.MILLISECONDS)
+            it.scheduleWithFixedDelay({ extendVisibility(url) }, extensionInterval, extensionInterval, TimeUnit.MILLISECONDS)
+        }
+        receiver = Thread({ receiveLoop(url) }, "sqs-batch-receiver").also { it.start() }
+        logger.info("Consuming {} with up to {} messages in flight", url, maxInFlightMessages)
+    }
+
+    @Synchronized
+    override fun stop() {
+        if (!running) {
+            return
+        }
+        running = false
+        receiver?.interrupt()
+        receiver?.join(TimeUnit.SECONDS.toMillis(SHUTDOWN_TIMEOUT_SECONDS))
+        // Let the messages in flight finish so that they can be deleted rather than received again
+        if (inFlight.tryAcquire(maxInFlightMessages, SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+            inFlight.release(maxInFlightMessages)
+        }
+        scheduler?.shutdownNow()
+        queueUrl?.let {
+            flushDeletes(it)
+            flushBackoffs(it)
+        }
+    }
+
+    override fun isRunning(): Boolean = running
+
+    override fun isAutoStartup(): Boolean = autoStartup
+
+    private fun receiveLoop(queueUrl: String) {
+        while (running) {
+            try {
+                val batchSize = acquireBatch()
+                val messages = try {
+                    receive(queueUrl, batchSize)
+                } catch (e: Exception) {
+                    inFlight.release(batchSize)
+                    throw e
+                }
+                inFlight.release(batchSize - messages.size)
+                messages.forEach(::process)
+            } catch (e: InterruptedException) {
+                Thread.currentThread().interrupt()
+                return
+            } catch (e: Exception) {
+                if (!running) {
+                    return
+                }
+                logger.error("Failed to receive messages from {}, retrying in {}ms", queueUrl, RECEIVE_ERROR_BACKOFF_MILLIS, e)
+                try {
+                    Thread.sleep(RECEIVE_ERROR_BACKOFF_MILLIS)
+                } catch (interrupted: InterruptedException) {
+                    return
+                }
+            }
+        }
+    }
+
+    /**
+     * Blocks until at least one message can be processed, and reserves room for as many messages as possible up to
+     * a full batch.
+     */
+    private fun acquireBatch(): Int {
+        if (!inFlight.tryAcquire()) {
+            logger.debug("{} messages are in flight, pausing until some have been written", maxInFlightMessages)
+            inFlight.acquire()
+        }
+        var batchSize = 1
+        while (batchSize < MAX_BATCH_SIZE && inFlight.tryAcquire()) {
+            batchSize++
+        }
+        return batchSize
+    }
+
+    private fun receive(queueUrl: String, batchSize: Int): List<Message> {
+        val request = ReceiveMessageRequest(queueUrl)
+                .withMaxNumberOfMessages(batchSize)
+                .withWaitTimeSeconds(waitTimeSeconds)
+                .withVisibilityTimeout(visibilityTimeoutSeconds)
+                .withAttributeNames(SENT_TIMESTAMP, RECEIVE_COUNT)
+        return amazonSqs.receiveMessage(request).messages
+    }
+
+    private fun process(message: Message) {
+        inFlightMessages[message.messageId] = message.receiptHandle
+        val receivedAt = metrics.messageReceived(message.attributes?.get(SENT_TIMESTAMP)?.toLongOrNull())
+        val written = try {
+            messageProcessor.process(message.body)
+        } catch (e: Exception) {
+            val failed = CompletableFuture<Void>()
+            failed.completeExceptionally(e)
+            failed
+        }
+        written.whenComplete { _, error ->
+            inFlightMessages.remove(message.messageId)
+            metrics.messageFinished(receivedAt, error == null)
+            if (error == null) {
+                pendingDeletes.add(DeleteMessageBatchRequestEntry(message.messageId, message.receiptHandle))
+            } else if (isClaimed(error)) {
+                val backoff = claimedBackoffSeconds(message)
+                logger.info("Message {} is being written by another processor, it will be received again in {}s", message.messageId, backoff)
+                pendingBackoffs.add(ChangeMessageVisibilityBatchRequestEntry(message.messageId, message.receiptHandle).withVisibilityTimeout(backoff))
+            } else {
+                logger.error("Failed to process message {}, it will be received again once it becomes visible", message.messageId, error)
+            }
+            inFlight.release()
+        }
+    }
+
+    private fun flushDeletes(queueUrl: String) {
+        try {
+            while (pendingDeletes.isNotEmpty()) {
+                val batch = ArrayList<DeleteMessageBatchRequestEntry>(MAX_BATCH_SIZE)
+                pendingDeletes.drainTo(batch, MAX_BATCH_SIZE)
+                if (batch.isEmpty()) {
+                    return
+                }
+                val result = amazonSqs.deleteMessageBatch(DeleteMessageBatchRequest(queueUrl, batch))
+                result.failed.forEach { logger.warn("Failed to delete message {}: {}", it.id, it.message) }
+            }
+        } catch (e: Exception) {
+            logger.warn("Failed to delete processed messages, they will be received again", e)
+        }
+    }
+
+    private fun isClaimed(error: Throwable): Boolean {
+        return generateSequence(error) { it.cause }.take(10).any { it is KeyClaimedException }
+    }
+
+    private fun claimedBackoffSeconds(message: Message): Int {
+        val receiveCount = message.attributes?.get(RECEIVE_COUNT)?.toIntOrNull() ?: 1
+        val backoff = claimedBackoffSeconds.toLong() shl (receiveCount - 1).coerceIn(0, 16)
+        return backoff.coerceAtMost(visibilityTimeoutSeconds.toLong()).toInt()
+    }
+
+    private fun flushBackoffs(queueUrl: String) {
+        try {
+            while (pendingBackoffs.isNotEmpty()) {
+                val batch = ArrayList<ChangeMessageVisibilityBatchRequestEntry>(MAX_BATCH_SIZE)
+                pendingBackoffs.drainTo(batch, MAX_BATCH_SIZE)
+                if (batch.isEmpty()) {
+                    return
+                }
+                val result = amazonSqs.changeMessageVisibilityBatch(ChangeMessageVisibilityBatchRequest(queueUrl, batch))
+                result.failed.forEach { logger.warn("Failed to back off message {}: {}", it.id, it.message) }
+            }
+        } catch (e: Exception) {
+            logger.warn("Failed to back off claimed messages, they will be received again once they become visible", e)
+        }
+    }
+
+    private fun extendVisibility(queueUrl: String) {
+        try {
+            inFlightMessages.entries
+                    .map { (messageId, receiptHandle) -> ChangeMessageVisibilityBatchRequestEntry(messageId, receiptHandle).withVisibilityTimeout(visibilityTimeoutSeconds) }
+                    .chunked(MAX_BATCH_SIZE)
+                    .forEach { batch ->
+                        val result = amazonSqs.changeMessageVisibilityBatch(ChangeMessageVisibilityBatchRequest(queueUrl, batch))
+                        result.failed.forEach { logger.warn("Failed to extend the visibility of message {}: {}", it.id, it.message) }
+                    }
+        } catch (e: Exception) {
+            logger.warn("Failed to extend the visibility of the messages in flight", e)
+        }
+    }
+}
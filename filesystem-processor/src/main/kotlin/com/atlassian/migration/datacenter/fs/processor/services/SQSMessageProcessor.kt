@@ -16,53 +16,56 @@
 
 package com.atlassian.migration.datacenter.fs.processor.services
 
-import com.amazonaws.services.s3.AmazonS3
 import com.amazonaws.services.s3.event.S3EventNotification
 import org.slf4j.LoggerFactory
 import org.springframework.beans.factory.annotation.Value
-import org.springframework.messaging.Message
-import org.springframework.messaging.MessageHandler
-import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor
 import org.springframework.stereotype.Component
-import java.io.File
-import java.util.function.Consumer
+import java.util.concurrent.CompletableFuture
 
+/**
+ * Writes the objects of the S3 event notifications received from the migration queue to the Jira home.
+ */
 @Component
-class SQSMessageProcessor(private val s3Client: AmazonS3, private val threadPoolTaskExecutor: ThreadPoolTaskExecutor, @Value("\${app.jira.file.path}") private val jiraHome: String) : MessageHandler {
+class SQSMessageProcessor(private val objectDownloader: S3ObjectDownloader, private val writeCoalescer: WriteCoalescer, private val directoryCache: DirectoryCache, private val metrics: ProcessorMetrics, @Value("\${app.jira.file.path}") private val jiraHome: String) {
 
     private val log = LoggerFactory.getLogger(SQSMessageProcessor::class.java)
 
-    override fun handleMessage(message: Message<*>) {
-        val payload = message.payload as? String
-                ?: throw IllegalArgumentException("SQS message is not a string, we can't handle that")
+    companion object {
+        const val MIGRATION_ASSISTANT_PREFIX = ".dc-migration-assistant/"
+    }
+
+    /**
+     * Writes the object of every record in the notification on the writer pool. Records for a key which is already
+     * waiting to be written share that write.
+     *
+     * @return a future which completes once every object has been written, or completes exceptionally if any of them
+     * couldn't be, in which case the message should be received again.
+     */
+    fun process(payload: String): CompletableFuture<Void> {
+        if (payload.contains("TestEvent", true)) {
+            log.debug("Discarding S3 test event {}", payload)
+            return CompletableFuture.completedFuture(null)
+        }
 
         val s3EventNotificationRecord = S3EventNotification.parseJson(payload)
         if (log.isDebugEnabled) {
             log.debug("Received SQS message {}", s3EventNotificationRecord.toJson())
         }
-        val s3EventNotificationRecords = s3EventNotificationRecord.records
+        val s3EventNotificationRecords = s3EventNotificationRecord.records ?: emptyList()
         if (log.isDebugEnabled) {
             log.debug("Received " + s3EventNotificationRecords.size.toString() + " records from S3.")
         }
-        val jiraHomePath = File(this.jiraHome)
-        if (!jiraHomePath.exists()) {
-            if (jiraHomePath.mkdir()) {
-                if (log.isDebugEnabled) {
-                    log.debug("Created Jira Home path " + jiraHomePath.absolutePath)
-                }
-            }
-        }
-        if (s3EventNotificationRecords.size == 1) {
-            submitTask(s3Client, s3EventNotificationRecords[0].s3, jiraHome)
-        } else if (s3EventNotificationRecords.size > 1) {
-            s3EventNotificationRecords.forEach(Consumer { record: S3EventNotification.S3EventNotificationRecord -> submitTask(s3Client, record.s3, jiraHome) })
-        }
+        val writes = s3EventNotificationRecords.map { record -> submitTask(record.s3, jiraHome) }
+        return CompletableFuture.allOf(*writes.toTypedArray())
     }
 
-    private fun submitTask(s3Client: AmazonS3, item: S3EventNotification.S3Entity, jiraHome: String) {
-        val fileWriter = S3ToFileWriter(s3Client, item, jiraHome)
-        threadPoolTaskExecutor.submit(fileWriter)
+    private fun submitTask(item: S3EventNotification.S3Entity, jiraHome: String): CompletableFuture<Void> {
+        if (item.getObject().key.startsWith(MIGRATION_ASSISTANT_PREFIX)) {
+            // Objects under this prefix are written by the migration tooling itself, e.g. download status, and are not part of the home
+            log.debug("Ignoring migration assistant object {}", item.getObject().key)
+            return CompletableFuture.completedFuture(null)
+        }
+        val fileWriter = S3ToFileWriter(objectDownloader, directoryCache, item, jiraHome)
+        return writeCoalescer.submit(item.getObject().key) { metrics.recordFileWrite(item.getObject().sizeAsLong ?: 0) { fileWriter.write() } }
     }
-
-
-}
\ No newline at end of file
+}
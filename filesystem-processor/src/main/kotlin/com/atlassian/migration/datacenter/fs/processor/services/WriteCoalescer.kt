@@ -0,0 +1,141 @@
+/*
+ * Copyright 2020 Atlassian
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.atlassian.migration.datacenter.fs.processor.services
+
+import org.slf4j.LoggerFactory
+import org.springframework.beans.factory.DisposableBean
+import org.springframework.beans.factory.annotation.Value
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor
+import org.springframework.stereotype.Component
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.Executors
+import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Collapses writes of the same key into a single write of its latest version.
+ *
+ * A write only starts [windowMillis] after it was first requested, and any further requests for the key in the
+ * meantime share it. Requests which arrive while the key is being written cause a single further write once the
+ * current one completes, so the latest version always ends up on disk. The keys being written are tracked in a
+ * concurrent map, and every request which didn't need a transfer of its own is counted in [coalescedWrites].
+ */
+@Component
+class WriteCoalescer(
+        private val threadPoolTaskExecutor: ThreadPoolTaskExecutor,
+        @Value("\${app.sqs.coalescing-window-millis:500}") private val windowMillis: Long
+) : DisposableBean {
+
+    companion object {
+        private val logger = LoggerFactory.getLogger(WriteCoalescer::class.java)
+    }
+
+    private val inFlightKeys = ConcurrentHashMap<String, PendingWrite>()
+    private val coalesced = AtomicLong()
+    private val scheduler: ScheduledExecutorService = Executors.newSingleThreadScheduledExecutor { runnable ->
+        val thread = Thread(runnable, "write-coalescer")
+        thread.isDaemon = true
+        thread
+    }
+
+    val coalescedWrites: Long
+        get() = coalesced.get()
+
+    val inFlightKeyCount: Int
+        get() = inFlightKeys.size
+
+    /**
+     * @return a future which completes once the latest version of the key requested so far has been written
+     */
+    fun submit(key: String, write: () -> Unit): CompletableFuture<Void> {
+        var created: PendingWrite? = null
+        val pending = inFlightKeys.compute(key) { _, existing ->
+            if (existing == null) {
+                created = PendingWrite(key, write)
+                created
+            } else {
+                existing.request(write)
+                existing
+            }
+        }!!
+        created?.let { write -> scheduler.schedule(Runnable { threadPoolTaskExecutor.execute { run(write) } }, windowMillis, TimeUnit.MILLISECONDS) }
+        return pending.future
+    }
+
+    private fun run(pending: PendingWrite) {
+        while (true) {
+            val error = try {
+                pending.start()()
+                null
+            } catch (e: Exception) {
+                e
+            }
+            var again = false
+            inFlightKeys.compute(pending.key) { _, _ ->
+                again = pending.finish()
+                if (again) pending else null
+            }
+            if (!again) {
+                if (error == null) {
+                    pending.future.complete(null)
+                } else {
+                    pending.future.completeExceptionally(error)
+                }
+                return
+            }
+        }
+    }
+
+    override fun destroy() {
+        scheduler.shutdownNow()
+    }
+
+    private inner class PendingWrite(val key: String, private var write: () -> Unit) {
+        val future = CompletableFuture<Void>()
+        private var running = false
+        private var rerun = false
+
+        @Synchronized
+        fun request(latest: () -> Unit) {
+            write = latest
+            if (running && !rerun) {
+                rerun = true
+            } else {
+                val count = coalesced.incrementAndGet()
+                logger.debug("Coalesced a write of {}, {} redundant writes avoided so far", key, count)
+            }
+        }
+
+        @Synchronized
+        fun start(): () -> Unit {
+            running = true
+            rerun = false
+            return write
+        }
+
+        /**
+         * @return true if the key was requested again while it was being written, and so needs to be written again
+         */
+        @Synchronized
+        fun finish(): Boolean {
+            running = false
+            return rerun
+        }
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright 2020 Atlassian
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.atlassian.migration.datacenter.fs.processor.services
+
+import com.amazonaws.services.s3.AbstractAmazonS3
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertFalse
+import org.junit.jupiter.api.Test
+import java.time.Duration
+
+internal class BulkDownloadStatusPublisherTest {
+
+    private val sut = BulkDownloadStatusPublisher(object : AbstractAmazonS3() {}, "bucket", BulkDownloadProgress(), Duration.ofSeconds(5), null)
+
+    @Test
+    fun shouldKeepTheFieldsOfTheSyncStatus() {
+        val status = BulkDownloadStatus(
+                filesFound = 10, bytesFound = 1000,
+                filesDownloaded = 6, bytesDownloaded = 600,
+                filesSkipped = 2, bytesSkipped = 200,
+                failures = 1, errors = listOf("data/avatars/10100: no such key"),
+                listingFinished = false, finished = true,
+                elapsed = Duration.ofSeconds(10))
+
+        val document = sut.toDocument(status, null, 1)
+
+        assertEquals(true, document["finished"])
+        assertEquals(1, document["code"])
+        assertEquals(mapOf("progress" to 800.0, "total" to 1000.0, "files_remaining" to 1, "isCalculating" to true), document["status"])
+        assertEquals(listOf("data/avatars/10100: no such key"), document["errors"])
+        assertEquals(60.0, (document["throughput"] as Map<*, *>)["averageBytesPerSecond"])
+    }
+
+    @Test
+    fun shouldOnlyMarkStatusAsFinishedWithAnExitCode() {
+        val document = sut.toDocument(BulkDownloadProgress().snapshot(), null, null)
+
+        assertFalse(document.containsKey("finished"))
+        assertFalse(document.containsKey("code"))
+    }
+}
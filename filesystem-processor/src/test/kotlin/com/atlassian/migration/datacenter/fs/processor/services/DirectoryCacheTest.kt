@@ -0,0 +1,73 @@
+/*
+ * Copyright 2020 Atlassian
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.atlassian.migration.datacenter.fs.processor.services
+
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.io.TempDir
+import java.nio.file.Files
+import java.nio.file.Path
+
+internal class DirectoryCacheTest {
+
+    @TempDir
+    lateinit var home: Path
+
+    @Test
+    fun shouldCreateMissingDirectories() {
+        val sut = DirectoryCache(100)
+
+        sut.ensureExists(home.resolve("data/attachments/TEST"))
+
+        assertTrue(Files.isDirectory(home.resolve("data/attachments/TEST")))
+    }
+
+    @Test
+    fun shouldNotTouchTheFileSystemForKnownDirectories() {
+        val sut = DirectoryCache(100)
+        sut.ensureExists(home.resolve("data/attachments/TEST"))
+        home.resolve("data/attachments/TEST").toFile().deleteRecursively()
+
+        sut.ensureExists(home.resolve("data/attachments/TEST"))
+        sut.ensureExists(home.resolve("data/attachments"))
+
+        assertTrue(Files.notExists(home.resolve("data/attachments/TEST")))
+    }
+
+    @Test
+    fun shouldCheckInvalidatedDirectoriesAgain() {
+        val sut = DirectoryCache(100)
+        sut.ensureExists(home.resolve("data/attachments/TEST"))
+        home.resolve("data").toFile().deleteRecursively()
+
+        sut.invalidate(home.resolve("data"))
+        sut.ensureExists(home.resolve("data/attachments/TEST"))
+
+        assertTrue(Files.isDirectory(home.resolve("data/attachments/TEST")))
+    }
+
+    @Test
+    fun shouldStayWithinItsBound() {
+        val sut = DirectoryCache(home.nameCount + 4)
+
+        (1..10).forEach { sut.ensureExists(home.resolve("data/$it")) }
+
+        assertTrue(sut.size <= home.nameCount + 5)
+        assertEquals(10, Files.list(home.resolve("data")).count())
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2020 Atlassian
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.atlassian.migration.datacenter.fs.processor.services
+
+import com.amazonaws.services.s3.AbstractAmazonS3
+import com.amazonaws.services.s3.Headers
+import com.amazonaws.services.s3.model.GetObjectRequest
+import com.amazonaws.services.s3.model.ListObjectsV2Request
+import com.amazonaws.services.s3.model.ListObjectsV2Result
+import com.amazonaws.services.s3.model.ObjectMetadata
+import com.amazonaws.services.s3.model.S3Object
+import com.amazonaws.services.s3.model.S3ObjectSummary
+import java.io.ByteArrayInputStream
+import java.util.Date
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.CountDownLatch
+
+/**
+ * Just enough of S3 for the downloaders: listing with prefixes and delimiters, object metadata and (ranged) GETs.
+ */
+internal class InMemoryS3(objects: Map<String, ByteArray>, private val failingKey: String? = null) : AbstractAmazonS3() {
+    val objects: MutableMap<String, ByteArray> = ConcurrentHashMap(objects)
+    val lastModified = Date(1590969600000)
+    val gets = ConcurrentLinkedQueue<GetObjectRequest>()
+    val heads = ConcurrentLinkedQueue<String>()
+    // When set, GETs block until it is counted down
+    @Volatile
+    var gate: CountDownLatch? = null
+
+    fun eTagOf(key: String): String = objects.getValue(key).contentHashCode().toString()
+
+    override fun listObjectsV2(request: ListObjectsV2Request): ListObjectsV2Result {
+        val prefix = request.prefix ?: ""
+        val result = ListObjectsV2Result()
+        val commonPrefixes = sortedSetOf<String>()
+        objects.keys.sorted().filter { it.startsWith(prefix) }.forEach { key ->
+            val rest = key.substring(prefix.length)
+            val delimiterIndex = if (request.delimiter == null) -1 else rest.indexOf(request.delimiter)
+            if (delimiterIndex >= 0) {
+                commonPrefixes.add(prefix + rest.substring(0, delimiterIndex + 1))
+            } else {
+                val summary = S3ObjectSummary()
+                summary.bucketName = request.bucketName
+                summary.key = key
+                summary.size = objects.getValue(key).size.toLong()
+                summary.eTag = eTagOf(key)
+                summary.lastModified = lastModified
+                result.objectSummaries.add(summary)
+            }
+        }
+        result.commonPrefixes = commonPrefixes.toList()
+        return result
+    }
+
+    override fun getObjectMetadata(bucketName: String, key: String): ObjectMetadata {
+        heads.add(key)
+        val metadata = ObjectMetadata()
+        metadata.contentLength = objects.getValue(key).size.toLong()
+        metadata.lastModified = lastModified
+        metadata.setHeader(Headers.ETAG, eTagOf(key))
+        return metadata
+    }
+
+    override fun getObject(request: GetObjectRequest): S3Object? {
+        if (request.key == failingKey) {
+            throw IllegalStateException("no such key")
+        }
+        gets.add(request)
+        gate?.await()
+        if (request.matchingETagConstraints.isNotEmpty() && !request.matchingETagConstraints.contains(eTagOf(request.key))) {
+            return null
+        }
+        val content = objects.getValue(request.key)
+        val range = request.range
+        val bytes = if (range == null) content else content.copyOfRange(range[0].toInt(), minOf(range[1].toInt() + 1, content.size))
+        val s3Object = S3Object()
+        s3Object.bucketName = request.bucketName
+        s3Object.key = request.key
+        s3Object.setObjectContent(ByteArrayInputStream(bytes))
+        return s3Object
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2020 Atlassian
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.atlassian.migration.datacenter.fs.processor.services
+
+import com.amazonaws.services.s3.AbstractAmazonS3
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry
+import org.junit.jupiter.api.AfterEach
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Test
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor
+import java.time.Instant
+
+internal class ProcessorStatusPublisherTest {
+
+    private val writers = ThreadPoolTaskExecutor()
+    private val writeCoalescer = WriteCoalescer(writers, 0)
+    private val metrics = ProcessorMetrics(SimpleMeterRegistry(), writers, writeCoalescer)
+    private val sut = ProcessorStatusPublisher(object : AbstractAmazonS3() {}, metrics, "", 30, "i-0123456789")
+
+    @AfterEach
+    fun tearDown() {
+        sut.destroy()
+        writeCoalescer.destroy()
+    }
+
+    @Test
+    fun shouldSummariseTheMetrics() {
+        metrics.recordFileWrite(1000) { true }
+        metrics.recordFileWrite(500) { false }
+        val receivedAt = metrics.messageReceived(System.currentTimeMillis() - 60000)
+        metrics.messageFinished(receivedAt, false)
+
+        val document = sut.toDocument(metrics.snapshot(), Instant.now(), null)
+
+        // Counters are written as JSON numbers, which read back as ints while they are small
+        assertEquals(1, document["filesWritten"])
+        assertEquals(1, document["filesSkipped"])
+        assertEquals(1000, document["bytesWritten"])
+        assertEquals(1, document["failedMessages"])
+        assertEquals(0, document["inFlightMessages"])
+        assertEquals("i-0123456789", document["instanceId"])
+    }
+
+    @Test
+    fun shouldPublishUnderAKeyOfItsOwnInstance() {
+        assertEquals(".dc-migration-assistant/fs-processor-status/i-0123456789.json", ProcessorStatusPublisher.statusKey(sut.instanceId))
+    }
+
+    @Test
+    fun shouldReportTheThroughputSinceTheLastPublishedStatus() {
+        val start = Instant.parse("2020-06-01T00:00:00Z")
+        val previous = ProcessorStatusPublisher.Published(metrics.snapshot(), start)
+        metrics.recordFileWrite(10000) { true }
+
+        val document = sut.toDocument(metrics.snapshot(), start.plusSeconds(10), previous)
+
+        assertEquals(1000.0, document["bytesPerSecond"])
+        assertEquals("2020-06-01T00:00:10Z", document["timestamp"])
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright 2020 Atlassian
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.atlassian.migration.datacenter.fs.processor.services
+
+import org.junit.jupiter.api.Assertions.assertArrayEquals
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertFalse
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.AfterEach
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.io.TempDir
+import java.nio.file.Files
+import java.nio.file.Path
+
+internal class S3BulkDownloaderTest {
+
+    @TempDir
+    lateinit var home: Path
+
+    private val objects = mapOf(
+            "dbconfig.xml" to "<config/>".toByteArray(),
+            "data/" to ByteArray(0),
+            "data/attachments/TEST/10000/TEST-1/10001" to "first attachment".toByteArray(),
+            "data/attachments/TEST/10000/TEST-2/10002" to "second attachment".toByteArray(),
+            "data/avatars/10100" to "avatar".toByteArray(),
+            ".dc-migration-assistant/fs-download-status.json" to "{}".toByteArray()
+    )
+
+    private var objectDownloader: S3ObjectDownloader? = null
+
+    @AfterEach
+    fun tearDown() {
+        objectDownloader?.destroy()
+    }
+
+    private fun downloader(s3: InMemoryS3, listingDepth: Int, progress: BulkDownloadProgress): S3BulkDownloader {
+        objectDownloader?.destroy()
+        objectDownloader = S3ObjectDownloader(s3, 1024, 4, 2, 120)
+        return S3BulkDownloader(s3, objectDownloader!!, DirectoryCache(100), "bucket", home, 4, 2, listingDepth, progress)
+    }
+
+    @Test
+    fun shouldDownloadEveryObjectBelowTheListingDepth() {
+        val s3 = InMemoryS3(objects)
+        val progress = BulkDownloadProgress()
+
+        downloader(s3, 2, progress).download()
+
+        assertArrayEquals("first attachment".toByteArray(), Files.readAllBytes(home.resolve("data/attachments/TEST/10000/TEST-1/10001")))
+        assertArrayEquals("second attachment".toByteArray(), Files.readAllBytes(home.resolve("data/attachments/TEST/10000/TEST-2/10002")))
+        assertArrayEquals("avatar".toByteArray(), Files.readAllBytes(home.resolve("data/avatars/10100")))
+        assertArrayEquals("<config/>".toByteArray(), Files.readAllBytes(home.resolve("dbconfig.xml")))
+        assertFalse(Files.exists(home.resolve(".dc-migration-assistant")))
+
+        val status = progress.snapshot()
+        assertEquals(5, status.filesFound)
+        assertEquals(5, status.filesDownloaded)
+        assertEquals(0, status.filesRemaining)
+        assertTrue(status.listingFinished)
+        assertTrue(status.finished)
+    }
+
+    @Test
+    fun shouldSkipFilesWhichAreAlreadyUpToDate() {
+        val s3 = InMemoryS3(objects)
+        downloader(s3, 2, BulkDownloadProgress()).download()
+        s3.gets.clear()
+
+        val progress = BulkDownloadProgress()
+        downloader(s3, 2, progress).download()
+
+        assertTrue(s3.gets.isEmpty())
+        assertEquals(4, progress.snapshot().filesSkipped)
+        assertEquals(0, progress.snapshot().bytesDownloaded)
+    }
+
+    @Test
+    fun shouldReportFailedDownloadsAndCarryOn() {
+        val s3 = InMemoryS3(objects, failingKey = "data/avatars/10100")
+        val progress = BulkDownloadProgress()
+
+        downloader(s3, 0, progress).download()
+
+        val status = progress.snapshot()
+        assertTrue(progress.hasFailures())
+        assertEquals(1, status.failures)
+        assertEquals(1, status.errors.size)
+        assertTrue(status.errors[0].startsWith("data/avatars/10100"))
+        assertEquals(4, status.filesDownloaded)
+        assertTrue(Files.exists(home.resolve("data/attachments/TEST/10000/TEST-2/10002")))
+    }
+}
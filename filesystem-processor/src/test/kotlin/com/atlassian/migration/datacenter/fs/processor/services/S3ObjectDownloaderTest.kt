@@ -0,0 +1,204 @@
+/*
+ * Copyright 2020 Atlassian
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.atlassian.migration.datacenter.fs.processor.services
+
+import org.junit.jupiter.api.AfterEach
+import org.junit.jupiter.api.Assertions.assertArrayEquals
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertFalse
+import org.junit.jupiter.api.Assertions.assertNull
+import org.junit.jupiter.api.Assertions.assertThrows
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.io.TempDir
+import java.io.IOException
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.attribute.FileTime
+import java.util.Date
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.stream.Collectors
+import kotlin.random.Random
+
+internal class S3ObjectDownloaderTest {
+
+    @TempDir
+    lateinit var home: Path
+
+    private val small = Random(1).nextBytes(1000)
+    private val large = Random(2).nextBytes(10001)
+    private val s3 = InMemoryS3(mapOf("small" to small, "large" to large))
+    private val sut = S3ObjectDownloader(s3, 1024, 4, 2, 120)
+
+    @AfterEach
+    fun tearDown() {
+        sut.destroy()
+    }
+
+    @Test
+    fun shouldDownloadSmallObjectsWithASingleGet() {
+        val target = home.resolve("small")
+
+        sut.download("bucket", "small", small.size.toLong(), s3.eTagOf("small"), s3.lastModified, target)
+
+        assertArrayEquals(small, Files.readAllBytes(target))
+        assertEquals(1, s3.gets.size)
+        assertNull(s3.gets.single().range)
+    }
+
+    @Test
+    fun shouldDownloadLargeObjectsInConcurrentRanges() {
+        val target = home.resolve("large")
+
+        sut.download("bucket", "large", large.size.toLong(), s3.eTagOf("large"), s3.lastModified, target)
+
+        assertArrayEquals(large, Files.readAllBytes(target))
+        assertEquals(
+                listOf(listOf(0L, 2500L), listOf(2501L, 5001L), listOf(5002L, 7502L), listOf(7503L, 10000L)),
+                s3.gets.map { it.range.toList() }.sortedBy { it[0] })
+        assertEquals(listOf(s3.eTagOf("large")), s3.gets.first().matchingETagConstraints)
+    }
+
+    @Test
+    fun shouldReplaceExistingFile() {
+        val target = home.resolve("large")
+        Files.write(target, ByteArray(20000))
+
+        sut.download("bucket", "large", large.size.toLong(), null, null, target)
+
+        assertArrayEquals(large, Files.readAllBytes(target))
+    }
+
+    @Test
+    fun shouldKeepTheExistingFileWhenTheObjectChangesDuringTheDownload() {
+        val target = home.resolve("large")
+        Files.write(target, "previous version".toByteArray())
+
+        assertThrows(IOException::class.java) {
+            sut.download("bucket", "large", large.size.toLong(), "stale-etag", s3.lastModified, target)
+        }
+
+        assertArrayEquals("previous version".toByteArray(), Files.readAllBytes(target))
+        assertEquals(listOf(target), Files.list(home).use { it.collect(Collectors.toList()) })
+    }
+
+    @Test
+    fun shouldGiveTheFileTheModificationTimeOfTheObject() {
+        val target = home.resolve("small")
+
+        sut.download("bucket", "small", small.size.toLong(), null, s3.lastModified, target)
+
+        assertEquals(s3.lastModified.time, Files.getLastModifiedTime(target).toMillis())
+        assertTrue(sut.isUpToDate(target, small.size.toLong(), s3.lastModified))
+        assertFalse(sut.isUpToDate(target, small.size.toLong(), Date(s3.lastModified.time + 1000)))
+        assertFalse(sut.isUpToDate(target, small.size.toLong() + 1, s3.lastModified))
+    }
+
+    @Test
+    fun shouldOnlyFetchMetadataWhenTheFileIsUpToDate() {
+        val target = home.resolve("small")
+
+        assertTrue(sut.downloadIfChanged("bucket", "small", target))
+        assertFalse(sut.downloadIfChanged("bucket", "small", target))
+
+        assertEquals(2, s3.heads.size)
+        assertEquals(1, s3.gets.size)
+        assertArrayEquals(small, Files.readAllBytes(target))
+    }
+
+    @Test
+    fun shouldNotWriteKeysClaimedByAnotherProcessor() {
+        val target = home.resolve("small")
+        val claim = home.resolve(".small.claim")
+        Files.write(claim, "other".toByteArray())
+
+        assertThrows(KeyClaimedException::class.java) {
+            sut.download("bucket", "small", small.size.toLong(), null, s3.lastModified, target)
+        }
+
+        assertFalse(Files.exists(target))
+        assertTrue(s3.gets.isEmpty())
+        assertEquals("other", String(Files.readAllBytes(claim)))
+    }
+
+    @Test
+    fun shouldTakeOverClaimsWhichAreNoLongerWritten() {
+        val target = home.resolve("small")
+        val claim = home.resolve(".small.claim")
+        val abandoned = home.resolve(".small.other.download")
+        Files.write(claim, "other".toByteArray())
+        Files.write(abandoned, "partial".toByteArray())
+        val longAgo = FileTime.fromMillis(System.currentTimeMillis() - 121_000)
+        Files.setLastModifiedTime(claim, longAgo)
+        Files.setLastModifiedTime(abandoned, longAgo)
+
+        sut.download("bucket", "small", small.size.toLong(), null, s3.lastModified, target)
+
+        assertArrayEquals(small, Files.readAllBytes(target))
+        assertEquals(listOf(target), Files.list(home).use { it.collect(Collectors.toList()) })
+    }
+
+    @Test
+    fun shouldNotTakeOverClaimsWhoseWriterIsStillWriting() {
+        val target = home.resolve("small")
+        val claim = home.resolve(".small.claim")
+        Files.write(claim, "other".toByteArray())
+        Files.setLastModifiedTime(claim, FileTime.fromMillis(System.currentTimeMillis() - 121_000))
+        Files.write(home.resolve(".small.other.download"), "partial".toByteArray())
+
+        assertThrows(KeyClaimedException::class.java) {
+            sut.download("bucket", "small", small.size.toLong(), null, s3.lastModified, target)
+        }
+
+        assertTrue(Files.exists(home.resolve(".small.other.download")))
+    }
+
+    @Test
+    fun shouldDiscardTheDownloadWhenTheClaimWasTakenOverWhileStalled() {
+        val target = home.resolve("small")
+        val claim = home.resolve(".small.claim")
+        val otherTemp = home.resolve(".small.other.download")
+        val gate = CountDownLatch(1)
+        s3.gate = gate
+        val stalled = Executors.newSingleThreadExecutor()
+        try {
+            val download = stalled.submit<Unit> {
+                sut.download("bucket", "small", small.size.toLong(), null, s3.lastModified, target)
+            }
+            while (s3.gets.isEmpty()) {
+                Thread.sleep(10)
+            }
+            // Another processor takes over while this one is stalled
+            Files.write(claim, "other".toByteArray())
+            Files.write(otherTemp, "partial".toByteArray())
+            gate.countDown()
+
+            val thrown = assertThrows(ExecutionException::class.java) { download.get(10, TimeUnit.SECONDS) }
+
+            assertTrue(thrown.cause is KeyClaimedException)
+        } finally {
+            stalled.shutdownNow()
+        }
+        assertFalse(Files.exists(target))
+        assertEquals("other", String(Files.readAllBytes(claim)))
+        assertArrayEquals("partial".toByteArray(), Files.readAllBytes(otherTemp))
+        assertEquals(setOf(claim, otherTemp), Files.list(home).use { it.collect(Collectors.toSet()) })
+    }
+}
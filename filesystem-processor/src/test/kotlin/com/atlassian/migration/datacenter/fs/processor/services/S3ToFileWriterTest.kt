@@ -0,0 +1,95 @@
+/*
+ * Copyright 2020 Atlassian
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.atlassian.migration.datacenter.fs.processor.services
+
+import com.amazonaws.services.s3.event.S3EventNotification
+import org.junit.jupiter.api.AfterEach
+import org.junit.jupiter.api.Assertions.assertArrayEquals
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertFalse
+import org.junit.jupiter.api.Assertions.assertThrows
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.io.TempDir
+import java.io.IOException
+import java.nio.file.Files
+import java.nio.file.Path
+
+internal class S3ToFileWriterTest {
+
+    @TempDir
+    lateinit var home: Path
+
+    private val s3 = InMemoryS3(mapOf(
+            "data/attachments/TEST/10000/TEST-1/10001" to "attachment".toByteArray(),
+            "data/attachments/TEST/10000/TEST-1/" to ByteArray(0)))
+    private val objectDownloader = S3ObjectDownloader(s3, 1024, 4, 2, 120)
+    private val directoryCache = DirectoryCache(100)
+
+    @AfterEach
+    fun tearDown() {
+        objectDownloader.destroy()
+    }
+
+    @Test
+    fun shouldDropRedeliveredNotificationsWithoutDownloadingAgain() {
+        val writer = writerFor("data/attachments/TEST/10000/TEST-1/10001")
+
+        assertTrue(writer.write())
+        assertFalse(writer.write())
+
+        assertArrayEquals("attachment".toByteArray(), Files.readAllBytes(home.resolve("data/attachments/TEST/10000/TEST-1/10001")))
+        assertEquals(1, s3.gets.size)
+    }
+
+    @Test
+    fun shouldDownloadAgainWhenTheObjectChanged() {
+        writerFor("data/attachments/TEST/10000/TEST-1/10001").write()
+        s3.objects["data/attachments/TEST/10000/TEST-1/10001"] = "updated attachment".toByteArray()
+
+        writerFor("data/attachments/TEST/10000/TEST-1/10001").write()
+
+        assertArrayEquals("updated attachment".toByteArray(), Files.readAllBytes(home.resolve("data/attachments/TEST/10000/TEST-1/10001")))
+        assertEquals(2, s3.gets.size)
+    }
+
+    @Test
+    fun shouldCreateDirectoriesWithoutFetchingTheObject() {
+        writerFor("data/attachments/TEST/10000/TEST-1/").write()
+
+        assertTrue(Files.isDirectory(home.resolve("data/attachments/TEST/10000/TEST-1")))
+        assertTrue(s3.heads.isEmpty())
+        assertTrue(s3.gets.isEmpty())
+    }
+
+    @Test
+    fun shouldRecreateTheParentWhenItWasRemovedAfterBeingCached() {
+        writerFor("data/attachments/TEST/10000/TEST-1/10001").write()
+        home.resolve("data/attachments/TEST/10000/TEST-1").toFile().deleteRecursively()
+
+        assertThrows(IOException::class.java) { writerFor("data/attachments/TEST/10000/TEST-1/10001").write() }
+        writerFor("data/attachments/TEST/10000/TEST-1/10001").write()
+
+        assertArrayEquals("attachment".toByteArray(), Files.readAllBytes(home.resolve("data/attachments/TEST/10000/TEST-1/10001")))
+    }
+
+    private fun writerFor(key: String): S3ToFileWriter {
+        val objectEntity = S3EventNotification.S3ObjectEntity(key, s3.objects.getValue(key).size.toLong(), null, null)
+        val bucketEntity = S3EventNotification.S3BucketEntity("bucket", null, null)
+        return S3ToFileWriter(objectDownloader, directoryCache, S3EventNotification.S3Entity(null, bucketEntity, objectEntity, null), home.toString())
+    }
+}
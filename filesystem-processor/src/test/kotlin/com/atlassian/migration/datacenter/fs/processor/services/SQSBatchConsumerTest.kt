@@ -0,0 +1,218 @@
+/*
+ * Copyright 2020 Atlassian
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.atlassian.migration.datacenter.fs.processor.services
+
+import com.amazonaws.services.s3.event.S3EventNotification
+import com.amazonaws.services.sqs.AbstractAmazonSQSAsync
+import com.amazonaws.services.sqs.model.ChangeMessageVisibilityBatchRequest
+import com.amazonaws.services.sqs.model.ChangeMessageVisibilityBatchResult
+import com.amazonaws.services.sqs.model.DeleteMessageBatchRequest
+import com.amazonaws.services.sqs.model.DeleteMessageBatchResult
+import com.amazonaws.services.sqs.model.GetQueueUrlRequest
+import com.amazonaws.services.sqs.model.GetQueueUrlResult
+import com.amazonaws.services.sqs.model.Message
+import com.amazonaws.services.sqs.model.ReceiveMessageRequest
+import com.amazonaws.services.sqs.model.ReceiveMessageResult
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry
+import org.junit.jupiter.api.AfterEach
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertFalse
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.io.TempDir
+import org.springframework.cloud.aws.messaging.support.destination.DynamicQueueUrlDestinationResolver
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor
+import java.nio.file.Files
+import java.nio.file.Path
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.atomic.AtomicInteger
+
+internal class SQSBatchConsumerTest {
+
+    @TempDir
+    lateinit var home: Path
+
+    private val s3 = InMemoryS3((1..12).map { "data/attachments/$it" to "attachment $it".toByteArray() }.toMap(), failingKey = "data/attachments/12")
+    private val sqs = FakeSqs()
+    private val objectDownloader = S3ObjectDownloader(s3, 1024, 4, 2, 120)
+    private val writers = ThreadPoolTaskExecutor()
+    private val writeCoalescer = WriteCoalescer(writers, 0)
+    private val metrics = ProcessorMetrics(SimpleMeterRegistry(), writers, writeCoalescer)
+    private var sut: SQSBatchConsumer? = null
+
+    @AfterEach
+    fun tearDown() {
+        s3.gate?.countDown()
+        sut?.stop()
+        writeCoalescer.destroy()
+        writers.shutdown()
+        objectDownloader.destroy()
+    }
+
+    @Test
+    fun shouldDeleteMessagesInBatchesOnceTheirObjectsAreWritten() {
+        (1..11).forEach { sqs.send("data/attachments/$it") }
+
+        start(maxInFlightMessages = 20, visibilityTimeoutSeconds = 300)
+
+        awaitUntil { sqs.deleted.size == 11 }
+        (1..11).forEach { assertTrue(Files.exists(home.resolve("data/attachments/$it"))) }
+        assertTrue(sqs.receivedBatchSizes.all { it <= 10 })
+        assertTrue(sqs.deleteBatchSizes.all { it <= 10 })
+        assertTrue(sqs.deleteBatchSizes.size < 11)
+    }
+
+    @Test
+    fun shouldNotDeleteMessagesWhichFailed() {
+        sqs.send("data/attachments/12")
+        sqs.send("data/attachments/1")
+
+        start(maxInFlightMessages = 20, visibilityTimeoutSeconds = 300)
+
+        awaitUntil { sqs.deleted.size == 1 }
+        Thread.sleep(1500)
+        assertEquals(listOf("receipt-data/attachments/1"), sqs.deleted.toList())
+    }
+
+    @Test
+    fun shouldPauseReceivingWhileTheWritersAreSaturated() {
+        s3.gate = CountDownLatch(1)
+        (1..5).forEach { sqs.send("data/attachments/$it") }
+
+        start(maxInFlightMessages = 2, visibilityTimeoutSeconds = 300)
+
+        awaitUntil { s3.gets.size == 2 }
+        Thread.sleep(500)
+        assertEquals(2, sqs.delivered.get())
+
+        s3.gate!!.countDown()
+
+        awaitUntil { sqs.deleted.size == 5 }
+    }
+
+    @Test
+    fun shouldExtendTheVisibilityOfMessagesInFlight() {
+        s3.gate = CountDownLatch(1)
+        sqs.send("data/attachments/1")
+
+        start(maxInFlightMessages = 20, visibilityTimeoutSeconds = 1)
+
+        awaitUntil { sqs.extended.contains("receipt-data/attachments/1") }
+        assertFalse(sqs.deleted.contains("receipt-data/attachments/1"))
+    }
+
+    @Test
+    fun shouldRecordHowFarBehindTheQueueTheWritesAre() {
+        sqs.send("data/attachments/1", sentMillisAgo = 60000)
+        sqs.send("data/attachments/12", sentMillisAgo = 60000)
+
+        start(maxInFlightMessages = 20, visibilityTimeoutSeconds = 300)
+
+        awaitUntil { metrics.snapshot().let { it.filesWritten == 1L && it.failedMessages == 1L && it.inFlightMessages == 0 } }
+        val status = metrics.snapshot()
+        assertTrue(status.latestMessageAgeMillis >= 60000)
+        assertTrue(status.meanMessageAgeMillis >= 60000)
+        assertTrue(status.meanReceiveToWriteMillis > 0)
+    }
+
+    @Test
+    fun shouldBackOffMessagesWhoseObjectsAreClaimedByAnotherProcessor() {
+        Files.createDirectories(home.resolve("data/attachments"))
+        Files.write(home.resolve("data/attachments/.1.claim"), "other".toByteArray())
+        sqs.send("data/attachments/1", receiveCount = 2)
+        sqs.send("data/attachments/2")
+
+        start(maxInFlightMessages = 20, visibilityTimeoutSeconds = 300)
+
+        awaitUntil { sqs.deleted.size == 1 && sqs.visibilityTimeouts.containsKey("receipt-data/attachments/1") }
+        assertEquals(30, sqs.visibilityTimeouts["receipt-data/attachments/1"])
+        assertEquals(listOf("receipt-data/attachments/2"), sqs.deleted.toList())
+        assertFalse(Files.exists(home.resolve("data/attachments/1")))
+    }
+
+    private fun start(maxInFlightMessages: Int, visibilityTimeoutSeconds: Int) {
+        writers.corePoolSize = 4
+        writers.initialize()
+        val processor = SQSMessageProcessor(objectDownloader, writeCoalescer, DirectoryCache(100), metrics, home.toString())
+        sut = SQSBatchConsumer(sqs, DynamicQueueUrlDestinationResolver(sqs), processor, metrics, maxInFlightMessages, visibilityTimeoutSeconds, 1, "", true, 15)
+        sut!!.start()
+    }
+
+    private fun awaitUntil(condition: () -> Boolean) {
+        val deadline = System.currentTimeMillis() + 10000
+        while (!condition()) {
+            assertTrue(System.currentTimeMillis() < deadline, "Timed out waiting for condition")
+            Thread.sleep(10)
+        }
+    }
+
+    private class FakeSqs : AbstractAmazonSQSAsync() {
+        private val queue = LinkedBlockingQueue<Message>()
+        val delivered = AtomicInteger()
+        val receivedBatchSizes = ConcurrentLinkedQueue<Int>()
+        val deleted = ConcurrentLinkedQueue<String>()
+        val deleteBatchSizes = ConcurrentLinkedQueue<Int>()
+        val extended = ConcurrentLinkedQueue<String>()
+        val visibilityTimeouts = ConcurrentHashMap<String, Int>()
+
+        fun send(key: String, sentMillisAgo: Long = 0, receiveCount: Int = 1) {
+            val objectEntity = S3EventNotification.S3ObjectEntity(key, 1L, null, null)
+            val bucketEntity = S3EventNotification.S3BucketEntity("bucket", null, null)
+            val entity = S3EventNotification.S3Entity(null, bucketEntity, objectEntity, null)
+            val record = S3EventNotification.S3EventNotificationRecord("us-east-1", "ObjectCreated:Put", null,
+                    "1970-01-01T00:00:00.000Z", null, null, null, entity, null)
+            queue.add(Message()
+                    .withMessageId("message-${key.replace("/", "-")}")
+                    .withReceiptHandle("receipt-$key")
+                    .addAttributesEntry("SentTimestamp", (System.currentTimeMillis() - sentMillisAgo).toString())
+                    .addAttributesEntry("ApproximateReceiveCount", receiveCount.toString())
+                    .withBody(S3EventNotification(listOf(record)).toJson()))
+        }
+
+        override fun getQueueUrl(request: GetQueueUrlRequest): GetQueueUrlResult {
+            return GetQueueUrlResult().withQueueUrl("https://sqs.us-east-1.amazonaws.com/123456789012/${request.queueName}")
+        }
+
+        override fun receiveMessage(request: ReceiveMessageRequest): ReceiveMessageResult {
+            receivedBatchSizes.add(request.maxNumberOfMessages)
+            val messages = ArrayList<Message>()
+            queue.drainTo(messages, request.maxNumberOfMessages)
+            if (messages.isEmpty()) {
+                Thread.sleep(50)
+            }
+            delivered.addAndGet(messages.size)
+            return ReceiveMessageResult().withMessages(messages)
+        }
+
+        override fun deleteMessageBatch(request: DeleteMessageBatchRequest): DeleteMessageBatchResult {
+            deleteBatchSizes.add(request.entries.size)
+            request.entries.forEach { deleted.add(it.receiptHandle) }
+            return DeleteMessageBatchResult()
+        }
+
+        override fun changeMessageVisibilityBatch(request: ChangeMessageVisibilityBatchRequest): ChangeMessageVisibilityBatchResult {
+            request.entries.forEach {
+                extended.add(it.receiptHandle)
+                visibilityTimeouts[it.receiptHandle] = it.visibilityTimeout
+            }
+            return ChangeMessageVisibilityBatchResult()
+        }
+    }
+}
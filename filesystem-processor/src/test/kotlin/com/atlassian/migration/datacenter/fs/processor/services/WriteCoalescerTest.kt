@@ -0,0 +1,107 @@
+/*
+ * Copyright 2020 Atlassian
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.atlassian.migration.datacenter.fs.processor.services
+
+import org.junit.jupiter.api.AfterEach
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertSame
+import org.junit.jupiter.api.Assertions.assertThrows
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.TimeUnit
+
+internal class WriteCoalescerTest {
+
+    private val executor = ThreadPoolTaskExecutor()
+    private val writes = ConcurrentLinkedQueue<String>()
+    private lateinit var sut: WriteCoalescer
+
+    @BeforeEach
+    fun init() {
+        executor.corePoolSize = 4
+        executor.initialize()
+        sut = WriteCoalescer(executor, 200)
+    }
+
+    @AfterEach
+    fun tearDown() {
+        sut.destroy()
+        executor.shutdown()
+    }
+
+    @Test
+    fun shouldWriteBackToBackRequestsForAKeyOnce() {
+        val first = sut.submit("data/attachments/1") { writes.add("v1") }
+        val second = sut.submit("data/attachments/1") { writes.add("v2") }
+        val third = sut.submit("data/attachments/1") { writes.add("v3") }
+
+        third.get(5, TimeUnit.SECONDS)
+
+        assertSame(first, second)
+        assertSame(first, third)
+        assertEquals(listOf("v3"), writes.toList())
+        assertEquals(2, sut.coalescedWrites)
+        assertEquals(0, sut.inFlightKeyCount)
+    }
+
+    @Test
+    fun shouldWriteOnceMoreWhenRequestedDuringAWrite() {
+        val started = CountDownLatch(1)
+        val release = CountDownLatch(1)
+        val first = sut.submit("data/attachments/1") {
+            started.countDown()
+            release.await()
+            writes.add("v1")
+        }
+        started.await(5, TimeUnit.SECONDS)
+
+        sut.submit("data/attachments/1") { writes.add("v2") }
+        sut.submit("data/attachments/1") { writes.add("v3") }
+        release.countDown()
+        first.get(5, TimeUnit.SECONDS)
+
+        assertEquals(listOf("v1", "v3"), writes.toList())
+        assertEquals(1, sut.coalescedWrites)
+    }
+
+    @Test
+    fun shouldNotCoalesceDifferentKeys() {
+        val first = sut.submit("data/attachments/1") { writes.add("1") }
+        val second = sut.submit("data/attachments/2") { writes.add("2") }
+
+        first.get(5, TimeUnit.SECONDS)
+        second.get(5, TimeUnit.SECONDS)
+
+        assertEquals(setOf("1", "2"), writes.toSet())
+        assertEquals(0, sut.coalescedWrites)
+    }
+
+    @Test
+    fun shouldFailTheRequestsWhenTheWriteFails() {
+        val write = sut.submit("data/attachments/1") { throw IllegalStateException("disk full") }
+
+        val thrown = assertThrows(ExecutionException::class.java) { write.get(5, TimeUnit.SECONDS) }
+
+        assertTrue(thrown.cause is IllegalStateException)
+        assertEquals(0, sut.inFlightKeyCount)
+    }
+}
@@ -93,12 +93,36 @@ export type FinalFileSyncStatus = {
     downloaded: number;
     failed: number;
     hasProgressedToNextStage: boolean;
+    drainRatePerSecond?: number;
+    estimatedSecondsToDrain?: number;
 };
 
 // See DatabaseMigrationProgress.kt
+export type DatabaseDumpProgress = {
+    tablesDumped: number;
+    tablesTotal: number;
+    dumpedTableBytes: number;
+    totalTableBytes: number;
+    bytesWritten: number;
+    databaseSizeBytes?: number;
+    finished: boolean;
+    estimatedSecondsRemaining?: number;
+};
+
+export type DatabaseRestoreProgress = {
+    phase: string;
+    jobs: number;
+    tablesRestored: number;
+    // -1 while the total is not known yet
+    tablesTotal: number;
+    finished: boolean;
+};
+
 export type DatabaseMigrationStatusResult = {
     status: DBMigrationStatus;
     elapsedTime: MigrationDuration;
+    export?: DatabaseDumpProgress;
+    restore?: DatabaseRestoreProgress;
 };
 
 export type CommandDetails = {
@@ -18,7 +18,7 @@ import { callAppRest } from '../utils/api';
 import { MigrationDuration } from './common';
 
 enum RestApiPathConstants {
-    fsStatusRestPath = `migration/fs/report`,
+    fsStatusPollRestPath = `migration/fs/report/poll`,
     fsStartRestPath = `migration/fs/start`,
     fsFinalSyncPath = `migration/fs/final-sync`,
     fsRetryPath = `migration/fs/retry`,
@@ -50,10 +50,40 @@ type FileSystemMigrationStartResponse = {
     migrationScheduled?: boolean;
 };
 
+const STATUS_POLL_TIMEOUT_SECONDS = 25;
+
+// The last report received from the long-poll endpoint and its ETag, so the next poll only returns once the report changes
+let lastStatus: FileSystemMigrationStatusResponse | undefined;
+let lastStatusEtag: string | undefined;
+
 export const fs = {
+    /**
+     * Long-polls the file system migration report. The request is held by the server until the report
+     * differs from the last one received (or the poll times out), so callers can re-request as soon as
+     * this resolves instead of polling on an interval.
+     */
     getFsMigrationStatus: async (): Promise<FileSystemMigrationStatusResponse> => {
-        const result = await callAppRest('GET', RestApiPathConstants.fsStatusRestPath);
-        return result.json();
+        const headers: Record<string, string> =
+            lastStatus && lastStatusEtag ? { 'If-None-Match': lastStatusEtag } : {};
+        const result = await callAppRest(
+            'GET',
+            RestApiPathConstants.fsStatusPollRestPath,
+            undefined,
+            headers,
+            `timeoutSeconds=${STATUS_POLL_TIMEOUT_SECONDS}`
+        );
+        if (result.status === 304 && lastStatus) {
+            return lastStatus;
+        }
+        if (!result.ok) {
+            lastStatus = undefined;
+            lastStatusEtag = undefined;
+            return result.json();
+        }
+        const status = (await result.json()) as FileSystemMigrationStatusResponse;
+        lastStatus = status;
+        lastStatusEtag = result.headers.get('ETag') || undefined;
+        return status;
     },
 
     startFsMigration: async (): Promise<void> => {
@@ -138,6 +138,7 @@ const fsMigrationTranferPageProps: MigrationTransferProps = {
     processes: [
         {
             getProgress: getFsMigrationProgress,
+            longPolls: true,
             retryProps: {
                 retryText: I18n.getText('atlassian.migration.datacenter.fs.retry'),
                 onRetry: (): Promise<void> => fs.retryFsMigration(),
@@ -27,5 +27,10 @@ export type RetryProperties = {
 
 export interface MigrationProcess {
     getProgress: ProgressCallback;
+    /**
+     * True when getProgress long-polls, i.e. only resolves once the progress has changed or the server-side
+     * poll timed out. Such processes are re-requested as soon as the previous request resolves
+     */
+    longPolls?: boolean;
     retryProps: RetryProperties;
 }
@@ -30,6 +30,8 @@ import { RetryMenu } from './RetryMigrationProcessMenu';
 import { callAppRest } from '../../utils/api';
 
 const POLL_INTERVAL_MILLIS = 8000;
+// Minimum gap between long-poll requests so a poll that fails fast does not turn into a busy loop
+const LONG_POLL_RETRY_MILLIS = 1000;
 
 export type MigrationTransferProps = {
     /**
@@ -149,7 +151,7 @@ export const MigrationTransferPage: FunctionComponent<MigrationTransferProps> =
     const [commandResult, setCommandResult] = useState<CommandResult>();
 
     const updateProgress = async (): Promise<void> => {
-        Promise.all(
+        return Promise.all(
             processes.map(process =>
                 process.getProgress().then(result => {
                     return {
@@ -191,7 +193,6 @@ export const MigrationTransferPage: FunctionComponent<MigrationTransferProps> =
             .then(stage => {
                 if (inProgressStages.includes(stage)) {
                     setStarted(true);
-                    updateProgress();
                 }
                 setContentLoading(false);
             })
@@ -216,14 +217,28 @@ export const MigrationTransferPage: FunctionComponent<MigrationTransferProps> =
 
     useEffect(() => {
         if (started) {
-            const id = setInterval(async () => {
-                await updateProgress();
-            }, POLL_INTERVAL_MILLIS);
+            const delayMillis = processes.every(process => process.longPolls)
+                ? LONG_POLL_RETRY_MILLIS
+                : POLL_INTERVAL_MILLIS;
+            let cancelled = false;
+            let timeoutId: number;
+
+            // Only request progress again once the previous request has resolved so long polls never overlap
+            const pollProgress = (): void => {
+                updateProgress().finally(() => {
+                    if (!cancelled) {
+                        timeoutId = window.setTimeout(pollProgress, delayMillis);
+                    }
+                });
+            };
 
             setProgressLoading(true);
-            updateProgress();
+            pollProgress();
 
-            return (): void => clearInterval(id);
+            return (): void => {
+                cancelled = true;
+                window.clearTimeout(timeoutId);
+            };
         }
         return (): void => undefined;
     }, [started]);
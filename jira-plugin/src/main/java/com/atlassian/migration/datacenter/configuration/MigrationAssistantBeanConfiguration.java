@@ -18,6 +18,7 @@ package com.atlassian.migration.datacenter.configuration;
 
 import com.atlassian.activeobjects.external.ActiveObjects;
 import com.atlassian.event.api.EventPublisher;
+import com.atlassian.jira.cluster.ClusterManager;
 import com.atlassian.jira.config.util.JiraHome;
 import com.atlassian.jira.issue.attachment.AttachmentStore;
 import com.atlassian.jira.util.BuildUtilsInfo;
@@ -42,6 +43,7 @@ import com.atlassian.migration.datacenter.core.aws.db.DatabaseArchiveStageTransi
 import com.atlassian.migration.datacenter.core.aws.db.DatabaseArtifactS3UploadService;
 import com.atlassian.migration.datacenter.core.aws.db.DatabaseMigrationService;
 import com.atlassian.migration.datacenter.core.aws.db.DatabaseUploadStageTransitionCallback;
+import com.atlassian.migration.datacenter.core.aws.db.S3UploadThroughputProbe;
 import com.atlassian.migration.datacenter.core.aws.db.restore.DatabaseRestoreStageTransitionCallback;
 import com.atlassian.migration.datacenter.core.aws.db.restore.SsmPsqlDatabaseRestoreService;
 import com.atlassian.migration.datacenter.core.aws.db.restore.TargetDbCredentialsStorageService;
@@ -61,18 +63,27 @@ import com.atlassian.migration.datacenter.core.aws.region.AvailabilityZoneManage
 import com.atlassian.migration.datacenter.core.aws.region.PluginSettingsRegionManager;
 import com.atlassian.migration.datacenter.core.aws.region.RegionService;
 import com.atlassian.migration.datacenter.core.aws.ssm.SSMApi;
+import com.atlassian.migration.datacenter.core.aws.ssm.SSMCommandPoller;
+import com.atlassian.migration.datacenter.core.db.CalibratedDumpCompression;
 import com.atlassian.migration.datacenter.core.db.DatabaseClientTools;
 import com.atlassian.migration.datacenter.core.db.DatabaseExtractorFactory;
 import com.atlassian.migration.datacenter.core.db.DefaultDatabaseExtractorFactory;
+import com.atlassian.migration.datacenter.core.db.DumpCompressionStrategy;
+import com.atlassian.migration.datacenter.core.db.FixedDumpCompression;
 import com.atlassian.migration.datacenter.core.db.PostgresClientTooling;
+import com.atlassian.migration.datacenter.core.db.delta.DatabaseDeltaSyncService;
+import com.atlassian.migration.datacenter.core.db.delta.OnlineSnapshotStageCallback;
 import com.atlassian.migration.datacenter.core.fs.DefaultFileSystemMigrationReportManager;
 import com.atlassian.migration.datacenter.core.fs.DefaultFilesystemUploaderFactory;
 import com.atlassian.migration.datacenter.core.fs.FileSystemMigrationReportManager;
+import com.atlassian.migration.datacenter.core.fs.FileSystemMigrationReportSnapshotter;
 import com.atlassian.migration.datacenter.core.fs.FilesystemUploaderFactory;
 import com.atlassian.migration.datacenter.core.fs.S3FilesystemMigrationService;
 import com.atlassian.migration.datacenter.core.fs.S3UploaderFactory;
 import com.atlassian.migration.datacenter.core.fs.UploaderFactory;
 import com.atlassian.migration.datacenter.core.fs.captor.AttachmentSyncManager;
+import com.atlassian.migration.datacenter.core.fs.captor.AttachmentTrickleSyncRunner;
+import com.atlassian.migration.datacenter.core.fs.captor.AttachmentTrickleSyncService;
 import com.atlassian.migration.datacenter.core.fs.captor.DefaultAttachmentSyncManager;
 import com.atlassian.migration.datacenter.core.fs.captor.QueueWatcher;
 import com.atlassian.migration.datacenter.core.fs.captor.S3FinalSyncRunner;
@@ -83,7 +94,10 @@ import com.atlassian.migration.datacenter.core.fs.download.s3sync.S3SyncFileSyst
 import com.atlassian.migration.datacenter.core.fs.download.s3sync.S3SyncFileSystemDownloader;
 import com.atlassian.migration.datacenter.core.fs.jira.captor.AttachmentCaptor;
 import com.atlassian.migration.datacenter.core.fs.jira.captor.DefaultAttachmentCaptor;
+import com.atlassian.migration.datacenter.core.fs.jira.captor.FileSyncRecordWriter;
 import com.atlassian.migration.datacenter.core.fs.jira.listener.JiraIssueAttachmentListener;
+import com.atlassian.migration.datacenter.core.fs.reporting.ActiveObjectsFileSystemMigrationReportStore;
+import com.atlassian.migration.datacenter.core.fs.reporting.FileSystemMigrationReportStore;
 import com.atlassian.migration.datacenter.core.util.EncryptionManager;
 import com.atlassian.migration.datacenter.core.util.MigrationRunner;
 import com.atlassian.migration.datacenter.spi.MigrationService;
@@ -108,6 +122,7 @@ import software.amazon.awssdk.services.sqs.SqsAsyncClient;
 import software.amazon.awssdk.services.ssm.SsmClient;
 
 import java.nio.file.Paths;
+import java.time.Duration;
 import java.util.function.Supplier;
 
 @Configuration
@@ -229,8 +244,18 @@ public class MigrationAssistantBeanConfiguration {
     }
 
     @Bean
-    public FileSystemMigrationReportManager fileSystemMigrationReportManager() {
-        return new DefaultFileSystemMigrationReportManager();
+    public FileSystemMigrationReportManager fileSystemMigrationReportManager(FileSystemMigrationReportStore reportStore) {
+        return new DefaultFileSystemMigrationReportManager(reportStore);
+    }
+
+    @Bean
+    public FileSystemMigrationReportStore fileSystemMigrationReportStore(ActiveObjects activeObjects, MigrationService migrationService, ClusterManager clusterManager) {
+        return new ActiveObjectsFileSystemMigrationReportStore(activeObjects, migrationService, clusterManager);
+    }
+
+    @Bean
+    public FileSystemMigrationReportSnapshotter fileSystemMigrationReportSnapshotter(FileSystemMigrationReportManager reportManager) {
+        return new FileSystemMigrationReportSnapshotter(reportManager);
     }
 
     @Bean
@@ -239,8 +264,8 @@ public class MigrationAssistantBeanConfiguration {
     }
 
     @Bean
-    public SsmPsqlDatabaseRestoreService ssmPsqlDatabaseRestoreService(SSMApi ssm, AWSMigrationHelperDeploymentService migrationHelperDeploymentService, DatabaseRestoreStageTransitionCallback restoreStageTransitionCallback, RemoteInstanceCommandRunnerService remoteInstanceCommandRunnerService) {
-        return new SsmPsqlDatabaseRestoreService(ssm, migrationHelperDeploymentService, restoreStageTransitionCallback, remoteInstanceCommandRunnerService);
+    public SsmPsqlDatabaseRestoreService ssmPsqlDatabaseRestoreService(SSMApi ssm, SSMCommandPoller ssmCommandPoller, AWSMigrationHelperDeploymentService migrationHelperDeploymentService, DatabaseRestoreStageTransitionCallback restoreStageTransitionCallback, RemoteInstanceCommandRunnerService remoteInstanceCommandRunnerService, Supplier<S3Client> s3ClientSupplier) {
+        return new SsmPsqlDatabaseRestoreService(ssm, ssmCommandPoller, migrationHelperDeploymentService, restoreStageTransitionCallback, remoteInstanceCommandRunnerService, s3ClientSupplier);
     }
     
     @Bean
@@ -253,7 +278,8 @@ public class MigrationAssistantBeanConfiguration {
                                                              MigrationRunner migrationRunner,
                                                              DatabaseArchivalService databaseArchivalService,
                                                              DatabaseArtifactS3UploadService s3UploadService,
-                                                             SsmPsqlDatabaseRestoreService restoreService, AWSMigrationHelperDeploymentService migrationHelperDeploymentService) {
+                                                             SsmPsqlDatabaseRestoreService restoreService, AWSMigrationHelperDeploymentService migrationHelperDeploymentService,
+                                                             DatabaseDeltaSyncService databaseDeltaSyncService) {
         String tempDirectoryPath = System.getProperty("java.io.tmpdir");
         return new DatabaseMigrationService(
                 Paths.get(tempDirectoryPath),
@@ -262,7 +288,41 @@ public class MigrationAssistantBeanConfiguration {
                 databaseArchivalService,
                 s3UploadService,
                 restoreService,
-                migrationHelperDeploymentService);
+                migrationHelperDeploymentService,
+                databaseDeltaSyncService);
+    }
+
+    @Bean
+    public OnlineSnapshotStageCallback onlineSnapshotStageCallback(MigrationService migrationService) {
+        return new OnlineSnapshotStageCallback(migrationService);
+    }
+
+    @Bean
+    public DatabaseDeltaSyncService databaseDeltaSyncService(EventPublisher eventPublisher,
+                                                             DatabaseClientTools databaseClientTools,
+                                                             DatabaseExtractorFactory databaseExtractorFactory,
+                                                             OnlineSnapshotStageCallback onlineSnapshotStageCallback,
+                                                             Supplier<S3AsyncClient> s3AsyncClientSupplier,
+                                                             SSMApi ssm,
+                                                             SSMCommandPoller ssmCommandPoller,
+                                                             AWSMigrationHelperDeploymentService migrationHelperDeploymentService,
+                                                             RemoteInstanceCommandRunnerService remoteInstanceCommandRunnerService,
+                                                             Supplier<S3Client> s3ClientSupplier) {
+        String tempDirectoryPath = System.getProperty("java.io.tmpdir");
+        return new DatabaseDeltaSyncService(
+                eventPublisher,
+                databaseClientTools,
+                new DatabaseArchivalService(databaseExtractorFactory, onlineSnapshotStageCallback),
+                // The snapshot is uploaded in the background, so it keeps its own report rather than replacing the migration's
+                new DatabaseArtifactS3UploadService(s3AsyncClientSupplier, onlineSnapshotStageCallback, new DefaultFileSystemMigrationReportManager()),
+                new SsmPsqlDatabaseRestoreService(ssm, ssmCommandPoller, migrationHelperDeploymentService, onlineSnapshotStageCallback, remoteInstanceCommandRunnerService, s3ClientSupplier),
+                migrationHelperDeploymentService,
+                remoteInstanceCommandRunnerService,
+                ssm,
+                ssmCommandPoller,
+                s3ClientSupplier,
+                Paths.get(tempDirectoryPath),
+                Duration.ofMinutes(5));
     }
 
     @Bean
@@ -276,13 +336,27 @@ public class MigrationAssistantBeanConfiguration {
     }
 
     @Bean
-    public S3SyncFileSystemDownloader s3SyncFileSystemDownloader(SSMApi ssmApi, AWSMigrationHelperDeploymentService migrationHelperDeploymentService) {
-        return new S3SyncFileSystemDownloader(ssmApi, migrationHelperDeploymentService);
+    public SSMCommandPoller ssmCommandPoller(SSMApi ssmApi) {
+        return new SSMCommandPoller(ssmApi);
     }
 
     @Bean
-    public DatabaseExtractorFactory databaseExtractorFactory(ApplicationConfiguration applicationConfiguration, DatabaseClientTools databaseClientTools) {
-        return new DefaultDatabaseExtractorFactory(applicationConfiguration, databaseClientTools);
+    public S3SyncFileSystemDownloader s3SyncFileSystemDownloader(SSMApi ssmApi, SSMCommandPoller ssmCommandPoller, Supplier<S3Client> s3ClientSupplier, AWSMigrationHelperDeploymentService migrationHelperDeploymentService) {
+        return new S3SyncFileSystemDownloader(ssmApi, ssmCommandPoller, s3ClientSupplier, migrationHelperDeploymentService);
+    }
+
+    @Bean
+    public DumpCompressionStrategy dumpCompressionStrategy(Supplier<S3AsyncClient> s3AsyncClientSupplier, AWSMigrationHelperDeploymentService migrationHelperDeploymentService) {
+        Integer compressionLevel = Integer.getInteger("com.atlassian.migration.db.compressionLevel");
+        if (compressionLevel != null) {
+            return new FixedDumpCompression(compressionLevel);
+        }
+        return new CalibratedDumpCompression(new S3UploadThroughputProbe(s3AsyncClientSupplier, migrationHelperDeploymentService));
+    }
+
+    @Bean
+    public DatabaseExtractorFactory databaseExtractorFactory(ApplicationConfiguration applicationConfiguration, DatabaseClientTools databaseClientTools, DumpCompressionStrategy dumpCompressionStrategy) {
+        return new DefaultDatabaseExtractorFactory(applicationConfiguration, databaseClientTools, dumpCompressionStrategy);
     }
 
     @Bean
@@ -368,8 +442,13 @@ public class MigrationAssistantBeanConfiguration {
     }
 
     @Bean
-    public AttachmentCaptor attachmentCaptor(ActiveObjects activeObjects, MigrationService migrationService, AttachmentStore attachmentStore) {
-        return new DefaultAttachmentCaptor(activeObjects, migrationService, attachmentStore);
+    public AttachmentCaptor attachmentCaptor(AttachmentStore attachmentStore, FileSyncRecordWriter fileSyncRecordWriter) {
+        return new DefaultAttachmentCaptor(attachmentStore, fileSyncRecordWriter);
+    }
+
+    @Bean
+    public FileSyncRecordWriter fileSyncRecordWriter(ActiveObjects activeObjects, MigrationService migrationService) {
+        return new FileSyncRecordWriter(activeObjects, migrationService);
     }
 
     @Bean
@@ -394,14 +473,28 @@ public class MigrationAssistantBeanConfiguration {
         return new S3FinalSyncRunner(attachmentSyncManager, s3ClientSupplier, jiraHome.getHome().toPath(), helperDeploymentService, queueWatcher, attachmentListener, reportManager, sqsApi);
     }
 
+    @Bean
+    public AttachmentTrickleSyncRunner attachmentTrickleSyncRunner(AttachmentSyncManager attachmentSyncManager,
+                                                                   MigrationService migrationService,
+                                                                   Supplier<S3AsyncClient> s3ClientSupplier,
+                                                                   JiraHome jiraHome,
+                                                                   AWSMigrationHelperDeploymentService helperDeploymentService) {
+        return new AttachmentTrickleSyncRunner(attachmentSyncManager, migrationService, s3ClientSupplier, jiraHome.getHome().toPath(), helperDeploymentService);
+    }
+
+    @Bean
+    public AttachmentTrickleSyncService attachmentTrickleSyncService(MigrationRunner migrationRunner, AttachmentTrickleSyncRunner trickleSyncRunner) {
+        return new AttachmentTrickleSyncService(migrationRunner, trickleSyncRunner);
+    }
+
     @Bean
     public SqsApi sqsApi(Supplier<SqsAsyncClient> sqsClientSupplier) {
         return new SqsApiImpl(sqsClientSupplier);
     }
 
     @Bean
-    public S3FinalSyncService s3FinalSyncService(MigrationRunner migrationRunner, S3FinalSyncRunner finalSyncRunner, MigrationService migrationService, SqsApi sqsApi, AttachmentSyncManager attachmentSyncManager) {
-        return new S3FinalSyncService(migrationRunner, finalSyncRunner, migrationService, sqsApi, attachmentSyncManager);
+    public S3FinalSyncService s3FinalSyncService(MigrationRunner migrationRunner, S3FinalSyncRunner finalSyncRunner, MigrationService migrationService, SqsApi sqsApi, AttachmentSyncManager attachmentSyncManager, QueueWatcher queueWatcher, S3SyncFileSystemDownloader fileSystemDownloader) {
+        return new S3FinalSyncService(migrationRunner, finalSyncRunner, migrationService, sqsApi, attachmentSyncManager, queueWatcher, fileSystemDownloader);
     }
 
     @Bean
@@ -18,6 +18,7 @@ package com.atlassian.migration.datacenter.configuration;
 
 import com.atlassian.activeobjects.external.ActiveObjects;
 import com.atlassian.event.api.EventPublisher;
+import com.atlassian.jira.cluster.ClusterManager;
 import com.atlassian.jira.config.util.JiraHome;
 import com.atlassian.jira.issue.attachment.AttachmentStore;
 import com.atlassian.jira.util.BuildUtilsInfo;
@@ -108,4 +109,9 @@ public class MigrationAssistantOsgiImportConfiguration {
     public AttachmentStore attachmentStore() {
         return importOsgiService(AttachmentStore.class);
     }
+
+    @Bean
+    public ClusterManager clusterManager() {
+        return importOsgiService(ClusterManager.class);
+    }
 }
@@ -16,11 +16,30 @@
 package com.atlassian.migration.datacenter.dto
 
 import net.java.ao.Entity
+import net.java.ao.schema.Index
+import net.java.ao.schema.Indexes
 
+/**
+ * A file captured for the final sync. Active Objects cannot declare composite unique constraints, so uniqueness of
+ * (migration, path) is enforced by the writer, which uses this index to look up already captured paths.
+ */
+@Indexes(Index(name = "migrationFilePath", methodNames = ["getMigration", "getFilePath"]))
 interface FileSyncRecord : Entity {
     /**
      * @return the migration that this file was captured in
      */
     var migration: Migration
     var filePath: String
+
+    /**
+     * @return the size in bytes the file had when it was uploaded ahead of the final sync, or null if it has not
+     * been uploaded yet
+     */
+    var syncedFileSize: Long?
+
+    /**
+     * @return the last modified time, in epoch milliseconds, the file had when it was uploaded ahead of the final
+     * sync, or null if it has not been uploaded yet
+     */
+    var syncedModifiedTime: Long?
 }
\ No newline at end of file
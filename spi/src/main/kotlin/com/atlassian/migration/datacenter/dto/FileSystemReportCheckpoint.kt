@@ -0,0 +1,55 @@
+/*
+ * Copyright 2020 Atlassian
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.atlassian.migration.datacenter.dto
+
+import net.java.ao.Entity
+import net.java.ao.schema.StringLength
+import net.java.ao.schema.Table
+
+/**
+ * A periodically written copy of a file system migration report, so that progress survives node restarts and can
+ * be served by any node in the cluster.
+ *
+ * The migration is referenced by ID rather than by relationship so that archived checkpoints outlive the migration
+ * they were taken from and can be compared between rehearsals.
+ */
+@Table("FsReportCheckpoint")
+interface FileSystemReportCheckpoint : Entity {
+    var migrationId: Int
+    var reportType: String
+    var nodeId: String
+    var status: String
+
+    var filesFound: Long
+    var crawlingFinished: Boolean
+    var filesInFlight: Long
+    var uploadedFiles: Long
+    var downloadedFiles: Long
+
+    var startEpochMillis: Long
+    var elapsedMillis: Long
+    var checkpointEpochMillis: Long
+
+    /**
+     * True once the report has been superseded by a newer run of the same report type.
+     */
+    var archived: Boolean
+
+    // We use methods for these properties because the annotation cannot target a var
+    @StringLength(value = StringLength.UNLIMITED)
+    fun setFailedFiles(failedFiles: String)
+    fun getFailedFiles(): String
+}